@@ -21,10 +21,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import ciir.umass.edu.features.FeatureManager;
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.features.LinearNormalizer;
 import ciir.umass.edu.features.Normalizer;
 import ciir.umass.edu.features.SumNormalizor;
 import ciir.umass.edu.features.ZScoreNormalizor;
+import ciir.umass.edu.learning.Checkpointer;
 import ciir.umass.edu.learning.CoorAscent;
 import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.LinearRegRank;
@@ -35,6 +37,7 @@ import ciir.umass.edu.learning.RankerTrainer;
 import ciir.umass.edu.learning.RankerType;
 import ciir.umass.edu.learning.boosting.AdaRank;
 import ciir.umass.edu.learning.boosting.RankBoost;
+import ciir.umass.edu.learning.neuralnet.DenseRankNet;
 import ciir.umass.edu.learning.neuralnet.ListNet;
 import ciir.umass.edu.learning.neuralnet.Neuron;
 import ciir.umass.edu.learning.neuralnet.RankNet;
@@ -67,12 +70,13 @@ public class Evaluator {
     public static void main(final String[] args) {
 
         final String[] rType = new String[] { "MART", "RankNet", "RankBoost", "AdaRank", "Coordinate Ascent", "LambdaRank", "LambdaMART",
-                "ListNet", "Random Forests", "Linear Regression" };
+                "ListNet", "Random Forests", "Linear Regression", "RankNet (dense)", "LambdaRank (dense)", "ListNet (dense)" };
         final RankerType[] rType2 = new RankerType[] { RankerType.MART, RankerType.RANKNET, RankerType.RANKBOOST, RankerType.ADARANK,
                 RankerType.COOR_ASCENT, RankerType.LAMBDARANK, RankerType.LAMBDAMART, RankerType.LISTNET, RankerType.RANDOM_FOREST,
-                RankerType.LINEAR_REGRESSION };
+                RankerType.LINEAR_REGRESSION, RankerType.RANKNET_DENSE, RankerType.LAMBDARANK_DENSE, RankerType.LISTNET_DENSE };
 
         String trainFile = "";
+        boolean streamTrain = false;
         String featureDescriptionFile = "";
         float ttSplit = 0;//train-test split
         float tvSplit = 0;//train-validation split
@@ -111,6 +115,7 @@ public class Evaluator {
             logger.info(() -> "\t\t\t\t7: ListNet");
             logger.info(() -> "\t\t\t\t8: Random Forests");
             logger.info(() -> "\t\t\t\t9: Linear regression (L2 regularization)");
+            logger.info(() -> "\t\t\t\t10, 11, 12: RankNet, LambdaRank, ListNet on dense weight matrices (faster, same models)");
             logger.info(
                     () -> "\t[ -feature <file> ]\tFeature description file: list features to be considered by the learner, each on a separate line");
             logger.info(() -> "\t\t\t\tIf not specified, all features will be used.");
@@ -129,6 +134,10 @@ public class Evaluator {
                     () -> "\t[ -tvs <x \\in [0..1]> ]\tIf you don't have separate validation data, use this to set train-validation split to be (x)(1.0-x)");
 
             logger.info(() -> "\t[ -save <model> ]\tSave the model learned (default=not-save)");
+            logger.info(() -> "\t[ -checkpoint <file> ]\tPeriodically save the model being trained (and the training state) to this file");
+            logger.info(() -> "\t\t\t\t(MART, LambdaMART, Random Forests, RankNet and LambdaRank only; default=no-checkpoint)");
+            logger.info(() -> "\t[ -checkpointEvery <n> ]\tRounds (trees, bags or epochs) between two checkpoints (default=" + Checkpointer.interval + ")");
+            logger.info(() -> "\t[ -resume ]\t\tContinue training from the -checkpoint file if it exists (from scratch otherwise)");
 
             logger.info(() -> "\t[ -test <file> ]\tSpecify if you want to evaluate the trained model on this data (default=unspecified)");
             logger.info(() -> "\t[ -tts <x \\in [0..1]> ]\tSet train-test split to be (x)(1.0-x). -tts will override -tvs");
@@ -139,6 +148,9 @@ public class Evaluator {
             logger.info(() -> "\t\t\t\tsum: normalize each feature by the sum of all its values");
             logger.info(() -> "\t\t\t\tzscore: normalize each feature by its mean/standard deviation");
             logger.info(() -> "\t\t\t\tlinear: normalize each feature by its min/max values");
+            logger.info(() -> "\t[ -gnorm <method>]\tNormalize all feature vectors with statistics computed over the whole training data");
+            logger.info(() -> "\t\t\t\t(sum/zscore/linear, see -norm). The statistics are saved with the model and folded into it");
+            logger.info(() -> "\t\t\t\twhen it is loaded, so test data must *NOT* be normalized. Not available with -kcv, and only sum with -sparse.");
 
             logger.info(
                     () -> "\t[ -kcv <k> ]\t\tSpecify if you want to perform k-fold cross validation using the specified training data (default=NoCV)");
@@ -154,11 +166,18 @@ public class Evaluator {
             logger.info(() -> "\t[ -node <node> ]\tThe number of hidden nodes per layer (default=" + RankNet.nHiddenNodePerLayer + ")");
             logger.info(() -> "\t[ -lr <rate> ]\t\tLearning rate (default="
                     + (new DecimalFormat("###.########")).format(RankNet.learningRate) + ")");
+            logger.info(() -> "\t[ -batch <n> ]\t\tMini-batch training (dense nets, i.e. rankers 10-12, including dense ListNet): the n rank lists");
+            logger.info(() -> "\t\t\t\tof each batch are learned in parallel from the same weights, and their weight changes are");
+            logger.info(() -> "\t\t\t\tapplied together (default=" + DenseRankNet.batchSize + ", i.e. online updates after each document)");
+            logger.info(() -> "\t[ -hogwild ]\t\tWith -batch: apply weight changes right away, lock-free, instead of once per batch");
+            logger.info(() -> "\t[ -factorize ]\t\tDense RankNet/LambdaRank (rankers 10-11): sum the lambdas of each document's pairs and");
+            logger.info(() -> "\t\t\t\tback-propagate once per document, updating the weights once per rank list (default=no)");
 
             logger.info(() -> "    [-] RankBoost-specific parameters");
             logger.info(() -> "\t[ -round <T> ]\t\tThe number of rounds to train (default=" + RankBoost.nIteration + ")");
             logger.info(() -> "\t[ -tc <k> ]\t\tNumber of threshold candidates to search. -1 to use all feature values (default="
                     + RankBoost.nThreshold + ")");
+            logger.info(() -> "\t[ -tquantile ]\t\tEqual-frequency threshold candidates (quantile sketch) instead of equal-width ones");
 
             logger.info(() -> "    [-] AdaRank-specific parameters");
             logger.info(() -> "\t[ -round <T> ]\t\tThe number of rounds to train (default=" + AdaRank.nIteration + ")");
@@ -174,6 +193,10 @@ public class Evaluator {
                     + CoorAscent.nMaxIteration + ")");
             logger.info(() -> "\t[ -tolerance <t> ]\tPerformance tolerance between two solutions (default=" + CoorAscent.tolerance + ")");
             logger.info(() -> "\t[ -reg <slack> ]\tRegularization parameter (default=no-regularization)");
+            logger.info(() -> "\t[ -rparallel ]\t\tRun the random restarts at the same time, one thread each (default: one after the other,");
+            logger.info(() -> "\t\t\t\twith the queries of each evaluation split among the threads)");
+            logger.info(() -> "\t[ -linesearch ]\t\tFind the best weight of each feature with an exact line search (one sweep over the points");
+            logger.info(() -> "\t\t\t\twhere documents swap places) instead of trying -i steps in each direction");
 
             logger.info(() -> "    [-] {MART, LambdaMART}-specific parameters");
             logger.info(() -> "\t[ -tree <t> ]\t\tNumber of trees (default=" + LambdaMART.nTrees + ")");
@@ -181,11 +204,26 @@ public class Evaluator {
             logger.info(() -> "\t[ -shrinkage <factor> ]\tShrinkage, or learning rate (default=" + LambdaMART.learningRate + ")");
             logger.info(() -> "\t[ -tc <k> ]\t\tNumber of threshold candidates for tree spliting. -1 to use all feature values (default="
                     + LambdaMART.nThreshold + ")");
+            logger.info(() -> "\t[ -tquantile ]\t\tEqual-frequency threshold candidates for features with more than k distinct values");
             logger.info(() -> "\t[ -mls <n> ]\t\tMin leaf support -- minimum % of docs each leaf has to contain (default="
                     + LambdaMART.minLeafSupport + ")");
             logger.info(
                     () -> "\t[ -estop <e> ]\t\tStop early when no improvement is observed on validaton data in e consecutive rounds (default="
                             + LambdaMART.nRoundToStopEarly + ")");
+            logger.info(() -> "\t[ -pipeline ]\t\tOverlap consecutive boosting rounds (faster with multiple threads; trees may differ in the last bits)");
+            logger.info(() -> "\t[ -ooc <dir> ]\t\tOut-of-core training: keep the binned training data in memory-mapped files in <dir>");
+            logger.info(() -> "\t\t\t\t(the -train file is read into them, not loaded; no -norm, -gnorm, -kcv, -tts, -tvs, -hr or -workers)");
+            logger.info(() -> "\t[ -warm <model> ]\tContinue training from a saved LambdaMART/MART model: -tree more trees are added to it");
+            logger.info(() -> "\t[ -bundle ]\t\tBundle mutually exclusive (e.g. one-hot) features into shared histogram columns");
+            logger.info(() -> "\t[ -categorical <f1,f2,...> ]\tSplit these features by category (sets of values) rather than by threshold,");
+            logger.info(() -> "\t\t\t\tinstead of one-hot expanding them (no -norm, -gnorm or -workers)");
+            logger.info(() -> "\t[ -learnMissing ]\tLearn the side of each split that missing values (unknown, or absent from sparse data)");
+            logger.info(() -> "\t\t\t\tgo to, instead of reading them as 0 (no -norm, -gnorm or -workers)");
+            logger.info(() -> "\t[ -qrate <r> ]\t\tFit each tree on a random r of the training queries (default=" + LambdaMART.querySamplingRate + ")");
+            logger.info(() -> "\t[ -goss <a> <b> ]\tGradient-based sampling: fit each tree on the a of the documents with the largest lambdas plus");
+            logger.info(() -> "\t\t\t\ta random b of all documents taken from the others (default=no sampling)");
+            logger.info(() -> "\t[ -workers <h:p,...> ]\tDistributed training over DistributedWorker processes, each holding a shard of the");
+            logger.info(() -> "\t\t\t\ttraining data (no -train needed; see ciir.umass.edu.learning.tree.DistributedWorker)");
 
             logger.info(() -> "    [-] ListNet-specific parameters");
             logger.info(() -> "\t[ -epoch <T> ]\t\tThe number of epochs to train (default=" + ListNet.nIteration + ")");
@@ -203,11 +241,14 @@ public class Evaluator {
             logger.info(() -> "\t[ -shrinkage <factor> ]\tShrinkage, or learning rate (default=" + RFRanker.learningRate + ")");
             logger.info(() -> "\t[ -tc <k> ]\t\tNumber of threshold candidates for tree spliting. -1 to use all feature values (default="
                     + RFRanker.nThreshold + ")");
+            logger.info(() -> "\t[ -tquantile ]\t\tEqual-frequency threshold candidates for features with more than k distinct values");
             logger.info(() -> "\t[ -mls <n> ]\t\tMin leaf support -- minimum % of docs each leaf has to contain (default="
                     + RFRanker.minLeafSupport + ")");
 
             logger.info(() -> "    [-] Linear Regression-specific parameters");
             logger.info(() -> "\t[ -L2 <reg> ]\t\tL2 regularization parameter (default=" + LinearRegRank.lambda + ")");
+            logger.info(() -> "\t[ -stream ]\t\tRead the training data one block at a time instead of loading it (no -norm, -gnorm,");
+            logger.info(() -> "\t\t\t\t-kcv, -tts, -tvs or -hr; the training score is not reported)");
 
             logger.info(() -> "  [+] Testing previously saved models");
             logger.info(() -> "\t-load <model>\t\tThe model to load");
@@ -265,10 +306,19 @@ public class Evaluator {
                 } else {
                     throw RankLibError.create("Unknown normalizor: " + n);
                 }
+            } else if (args[i].equalsIgnoreCase("-gnorm")) {
+                Evaluator.normalize = true;
+                Evaluator.nml = new GlobalNormalizer(args[++i]);
             } else if (args[i].equalsIgnoreCase("-sparse")) {
                 useSparseRepresentation = true;
             } else if (args[i].equalsIgnoreCase("-save")) {
                 Evaluator.modelFile = args[++i];
+            } else if (args[i].equalsIgnoreCase("-checkpoint")) {
+                Checkpointer.checkpointFile = args[++i];
+            } else if (args[i].equalsIgnoreCase("-checkpointEvery")) {
+                Checkpointer.interval = Integer.parseInt(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-resume")) {
+                Checkpointer.resume = true;
             } else if (args[i].equalsIgnoreCase("-kcvmd")) {
                 kcvModelDir = args[++i];
             } else if (args[i].equalsIgnoreCase("-kcvmn")) {
@@ -294,6 +344,12 @@ public class Evaluator {
             } else if (args[i].equalsIgnoreCase("-lr")) {
                 RankNet.learningRate = Double.parseDouble(args[++i]);
                 ListNet.learningRate = Neuron.learningRate;
+            } else if (args[i].equalsIgnoreCase("-batch")) {
+                DenseRankNet.batchSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-hogwild")) {
+                DenseRankNet.hogwild = true;
+            } else if (args[i].equalsIgnoreCase("-factorize")) {
+                DenseRankNet.factorized = true;
             }
 
             //RankBoost
@@ -301,6 +357,10 @@ public class Evaluator {
                 RankBoost.nThreshold = Integer.parseInt(args[++i]);
                 LambdaMART.nThreshold = Integer.parseInt(args[i]);
             }
+            else if (args[i].equalsIgnoreCase("-tquantile")) {
+                RankBoost.quantileThresholds = true;
+                LambdaMART.quantileThresholds = true;
+            }
 
             //AdaRank
             else if (args[i].equalsIgnoreCase("-noeq")) {
@@ -309,6 +369,10 @@ public class Evaluator {
                 AdaRank.maxSelCount = Integer.parseInt(args[++i]);
             } else if (args[i].equalsIgnoreCase("-r")) {
                 CoorAscent.nRestart = Integer.parseInt(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-rparallel")) {
+                CoorAscent.parallelRestarts = true;
+            } else if (args[i].equalsIgnoreCase("-linesearch")) {
+                CoorAscent.exactLineSearch = true;
             } else if (args[i].equalsIgnoreCase("-i")) {
                 CoorAscent.nMaxIteration = Integer.parseInt(args[++i]);
             } else if (args[i].equalsIgnoreCase("-round")) {
@@ -337,6 +401,29 @@ public class Evaluator {
                 RFRanker.minLeafSupport = LambdaMART.minLeafSupport;
             } else if (args[i].equalsIgnoreCase("-estop")) {
                 LambdaMART.nRoundToStopEarly = Integer.parseInt(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-pipeline")) {
+                LambdaMART.pipelined = true;
+            } else if (args[i].equalsIgnoreCase("-ooc")) {
+                LambdaMART.binDir = args[++i];
+            } else if (args[i].equalsIgnoreCase("-workers")) {
+                LambdaMART.workers = args[++i];
+            } else if (args[i].equalsIgnoreCase("-warm")) {
+                LambdaMART.warmStartModel = args[++i];
+            } else if (args[i].equalsIgnoreCase("-bundle")) {
+                LambdaMART.bundle = true;
+            } else if (args[i].equalsIgnoreCase("-learnMissing")) {
+                LambdaMART.learnMissing = true;
+            } else if (args[i].equalsIgnoreCase("-categorical")) {
+                final String[] fids = args[++i].split(",");
+                LambdaMART.categoricalFeatures = new int[fids.length];
+                for (int j = 0; j < fids.length; j++) {
+                    LambdaMART.categoricalFeatures[j] = Integer.parseInt(fids[j].trim());
+                }
+            } else if (args[i].equalsIgnoreCase("-qrate")) {
+                LambdaMART.querySamplingRate = Float.parseFloat(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-goss")) {
+                LambdaMART.gossTopRate = Float.parseFloat(args[++i]);
+                LambdaMART.gossOtherRate = Float.parseFloat(args[++i]);
             } else if (args[i].equalsIgnoreCase("-bag")) {
                 RFRanker.nBag = Integer.parseInt(args[++i]);
             } else if (args[i].equalsIgnoreCase("-srate")) {
@@ -354,6 +441,8 @@ public class Evaluator {
 
             else if (args[i].equalsIgnoreCase("-L2")) {
                 LinearRegRank.lambda = Double.parseDouble(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-stream")) {
+                streamTrain = true;
             } else if (args[i].equalsIgnoreCase("-thread")) {
                 nThread = Integer.parseInt(args[++i]);
             } else if (args[i].equalsIgnoreCase("-nf")) {
@@ -371,6 +460,112 @@ public class Evaluator {
             }
         }
 
+        if (Evaluator.normalize && Evaluator.nml instanceof GlobalNormalizer) {
+            if (trainFile.isEmpty()) {
+                throw RankLibError.create("-gnorm only applies to training: models trained with it already take raw feature values.");
+            }
+            if (foldCV != -1) {
+                throw RankLibError.create("-gnorm cannot be used with -kcv.");
+            }
+            if (!new RankerFactory().createRanker(rType2[rankerType]).canFoldNormalization()) {
+                throw RankLibError.create("-gnorm is not supported by " + rType[rankerType] + ".");
+            }
+            if (useSparseRepresentation && !((GlobalNormalizer) Evaluator.nml).preservesZero()) {
+                throw RankLibError.create("Only -gnorm sum can be used with -sparse: with the other methods, absent features would not be"
+                        + " normalized like explicit zeros.");
+            }
+        }
+
+        if (LambdaMART.workers != null) {
+            if (rankerType != 0 && rankerType != 6) {
+                throw RankLibError.create("-workers is only supported by MART and LambdaMART.");
+            }
+            if (Evaluator.normalize || foldCV != -1 || ttSplit > 0 || tvSplit > 0) {
+                throw RankLibError.create("-workers cannot be used with -norm, -gnorm, -kcv, -tts or -tvs.");
+            }
+            if (LambdaMART.querySamplingRate < 1 || LambdaMART.gossTopRate < 1) {
+                throw RankLibError.create("-qrate and -goss are not supported with -workers.");
+            }
+        }
+        if (streamTrain) {
+            if (rankerType != 9) {
+                throw RankLibError.create("-stream is only supported by Linear Regression.");
+            }
+            if (trainFile.isEmpty()) {
+                throw RankLibError.create("-stream needs a -train file.");
+            }
+            if (Evaluator.normalize || foldCV != -1 || ttSplit > 0 || tvSplit > 0 || mustHaveRelDoc) {
+                throw RankLibError.create("-stream cannot be used with -norm, -gnorm, -kcv, -tts, -tvs or -hr.");
+            }
+            LinearRegRank.streamFile = trainFile;
+        }
+        if (LambdaMART.binDir != null) {
+            if (rankerType != 0 && rankerType != 6) {
+                throw RankLibError.create("-ooc is only supported by MART and LambdaMART.");
+            }
+            if (trainFile.isEmpty()) {
+                throw RankLibError.create("-ooc needs a -train file.");
+            }
+            if (Evaluator.normalize || foldCV != -1 || ttSplit > 0 || tvSplit > 0 || mustHaveRelDoc || LambdaMART.workers != null) {
+                throw RankLibError.create("-ooc cannot be used with -norm, -gnorm, -kcv, -tts, -tvs, -hr or -workers.");
+            }
+            LambdaMART.streamFile = trainFile;
+            LambdaMART.streamSparse = useSparseRepresentation;
+        }
+        if (LambdaMART.categoricalFeatures != null) {
+            if (rankerType != 0 && rankerType != 6 && rankerType != 8) {
+                throw RankLibError.create("-categorical is only supported by MART, LambdaMART and Random Forests.");
+            }
+            if (Evaluator.normalize || LambdaMART.workers != null) {
+                throw RankLibError.create("-categorical cannot be used with -norm, -gnorm or -workers.");
+            }
+        }
+        if (LambdaMART.learnMissing) {
+            if (rankerType != 0 && rankerType != 6 && rankerType != 8) {
+                throw RankLibError.create("-learnMissing is only supported by MART, LambdaMART and Random Forests.");
+            }
+            if (Evaluator.normalize || LambdaMART.workers != null) {
+                throw RankLibError.create("-learnMissing cannot be used with -norm, -gnorm or -workers.");
+            }
+        }
+        if (LambdaMART.warmStartModel != null) {
+            if (rankerType != 0 && rankerType != 6) {
+                throw RankLibError.create("-warm is only supported by MART and LambdaMART.");
+            }
+            if (LambdaMART.workers != null || (Evaluator.normalize && Evaluator.nml instanceof GlobalNormalizer)) {
+                throw RankLibError.create("-warm cannot be used with -workers or -gnorm.");
+            }
+        }
+        if (DenseRankNet.batchSize > 0 || DenseRankNet.hogwild) {
+            if (rankerType < 10) {
+                throw RankLibError.create("-batch and -hogwild are only supported by the dense neural nets (rankers 10-12).");
+            }
+            if (DenseRankNet.batchSize <= 0) {
+                throw RankLibError.create("-hogwild needs a -batch size.");
+            }
+        }
+        if (DenseRankNet.factorized && rankerType != 10 && rankerType != 11) {
+            throw RankLibError.create("-factorize is only supported by the dense RankNet and LambdaRank (rankers 10-11).");
+        }
+        if (Checkpointer.resume && Checkpointer.checkpointFile == null) {
+            throw RankLibError.create("-resume needs a -checkpoint file.");
+        }
+        if (Checkpointer.checkpointFile != null) {
+            if (rankerType != 0 && rankerType != 1 && rankerType != 5 && rankerType != 6 && rankerType != 8) {
+                throw RankLibError.create("-checkpoint is not supported by " + rType[rankerType] + ".");
+            }
+            if (foldCV != -1 || LambdaMART.workers != null) {
+                throw RankLibError.create("-checkpoint cannot be used with -kcv or -workers.");
+            }
+            if (Checkpointer.interval <= 0) {
+                throw RankLibError.create("-checkpointEvery must be positive.");
+            }
+        }
+        if (LambdaMART.gossTopRate < 1 && (LambdaMART.gossTopRate < 0 || LambdaMART.gossOtherRate <= 0
+                || LambdaMART.gossTopRate + LambdaMART.gossOtherRate > 1)) {
+            throw RankLibError.create("-goss <a> <b> requires 0 <= a, 0 < b and a + b <= 1.");
+        }
+
         if (nThread == -1) {
             nThread = Runtime.getRuntime().availableProcessors();
         }
@@ -383,7 +578,31 @@ public class Evaluator {
         logger.info(() -> (keepOrigFeatures) ? "Keep orig. features" : "Discard orig. features");
         final Evaluator e = new Evaluator(rType2[rankerType], trainMetric, testMetric);
 
-        if (!trainFile.isEmpty()) {
+        if (LambdaMART.workers != null || LinearRegRank.streamFile != null || LambdaMART.streamFile != null) {
+            if (LinearRegRank.streamFile != null || LambdaMART.streamFile != null) {
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.info("Training data (streamed): " + trainFile);
+                }
+            }
+            if (!testFile.isEmpty()) {
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.info("Test data: " + testFile);
+                }
+            }
+            if (!validationFile.isEmpty()) {
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.info("Validation data: " + validationFile);
+                }
+            }
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info("Ranking method: " + rType[rankerType]);
+                logger.info("Train metric: " + trainMetric);
+                logger.info("Test metric: " + testMetric);
+                logger.info("[+] " + rType[rankerType] + "'s Parameters:");
+            }
+            new RankerFactory().createRanker(rType2[rankerType]).printParameters();
+            e.evaluateDistributed(validationFile, testFile, featureDescriptionFile);
+        } else if (!trainFile.isEmpty()) {
             if (logger.isLoggable(Level.INFO)) {
                 logger.info("Training data: " + trainFile);
             }
@@ -627,14 +846,31 @@ public class Evaluator {
     }
 
     public void normalize(final List<RankList> samples) {
-        for (final RankList sample : samples) {
-            nml.normalize(sample);
-        }
+        nml.normalize(samples);
     }
 
     public void normalize(final List<RankList> samples, final int[] fids) {
-        for (final RankList sample : samples) {
-            nml.normalize(sample, fids);
+        nml.normalize(samples, fids);
+    }
+
+    /**
+     * Compute the statistics of a dataset-level normalizer (if one is used) from the training data.
+     * @param samples
+     * @param fids
+     */
+    public void fitNormalizer(final List<RankList> samples, final int[] fids) {
+        if (nml instanceof GlobalNormalizer) {
+            ((GlobalNormalizer) nml).fit(samples, fids);
+        }
+    }
+
+    /**
+     * Attach the dataset-level normalizer (if one is used) to a trained @ranker so that it is saved with the model.
+     * @param ranker
+     */
+    public void setNormalizer(final Ranker ranker) {
+        if (normalize && nml instanceof GlobalNormalizer) {
+            ranker.setNormalizer((GlobalNormalizer) nml);
         }
     }
 
@@ -685,6 +921,7 @@ public class Evaluator {
         }
 
         if (normalize) {
+            fitNormalizer(train, features);
             normalize(train, features);
             if (validation != null) {
                 normalize(validation, features);
@@ -696,6 +933,40 @@ public class Evaluator {
 
         final RankerTrainer trainer = new RankerTrainer();
         final Ranker ranker = trainer.train(type, train, validation, features, trainScorer);
+        setNormalizer(ranker);
+
+        if (test != null) {
+            final double rankScore = evaluate(ranker, test);
+            logger.info(() -> testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
+        }
+        if (!modelFile.isEmpty()) {
+            ranker.save(modelFile);
+            logger.info(() -> "Model saved to: " + modelFile);
+        }
+    }
+
+    /**
+     * Same as {@link #evaluate(String, String, String, String)}, with the training data held by the workers of
+     * {@link LambdaMART#workers} or streamed from {@link LinearRegRank#streamFile} (or {@link LambdaMART#streamFile}).
+     * @param validationFile
+     * @param testFile
+     * @param featureDefFile Empty string for "all the features of the workers' data"
+     */
+    public void evaluateDistributed(final String validationFile, final String testFile, final String featureDefFile) {
+        List<RankList> validation = null;
+        if (!validationFile.isEmpty()) {
+            validation = readInput(validationFile);
+        }
+
+        List<RankList> test = null;
+        if (!testFile.isEmpty()) {
+            test = readInput(testFile);
+        }
+
+        final int[] features = readFeature(featureDefFile);//null: the workers (or the streamed file) tell
+
+        final RankerTrainer trainer = new RankerTrainer();
+        final Ranker ranker = trainer.train(type, new ArrayList<>(), validation, features, trainScorer);
 
         if (test != null) {
             final double rankScore = evaluate(ranker, test);
@@ -729,6 +1000,7 @@ public class Evaluator {
 
         final RankerTrainer trainer = new RankerTrainer();
         final Ranker ranker = trainer.train(type, trainingData, validation, features, trainScorer);
+        setNormalizer(ranker);
 
         final double rankScore = evaluate(ranker, testData);
 
@@ -762,6 +1034,7 @@ public class Evaluator {
 
         final RankerTrainer trainer = new RankerTrainer();
         final Ranker ranker = trainer.train(type, train, validation, features, trainScorer);
+        setNormalizer(ranker);
 
         if (test != null) {
             final double rankScore = evaluate(ranker, test);
@@ -1326,11 +1599,13 @@ public class Evaluator {
             features = FeatureManager.getFeatureFromSampleVector(data);
         }
 
+        FeatureManager.prepareSplit(data, percentTrain, trainingData, testData);
+
         if (normalize) {
-            normalize(data, features);
+            fitNormalizer(trainingData, features);
+            normalize(trainingData, features);
+            normalize(testData, features);
         }
-
-        FeatureManager.prepareSplit(data, percentTrain, trainingData, testData);
         return features;
     }
 
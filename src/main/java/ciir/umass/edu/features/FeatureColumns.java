@@ -0,0 +1,225 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.features;
+
+import java.util.Arrays;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.SparseDataPoint;
+
+/**
+ * Column-oriented (feature-major) copy of a set of features over a single ranked list. Values are read out of the
+ * data points once, transformed in bulk over primitive arrays by a {@link Normalizer} and then written back.
+ *
+ * Per-column statistics (mean, variance, sum of absolute values, min and max) are computed in a single pass over each
+ * column, using Welford's update for the mean and variance.
+ */
+public class FeatureColumns {
+    protected final RankList rl;
+    protected final int[] fids;
+    protected final float[][] values;//values[j][i]: value of feature fids[j] in the i-th data point of @rl
+    protected final boolean[] modified;
+
+    //statistics for each column
+    protected final double[] mean;
+    protected final double[] m2;//sum of squared deviations from the mean
+    protected final double[] sumAbs;
+    protected final float[] min;
+    protected final float[] max;
+
+    public FeatureColumns(final RankList rl, final int[] fids) {
+        this.rl = rl;
+        this.fids = fids;
+        final int n = rl.size();
+        values = new float[fids.length][n];
+        modified = new boolean[fids.length];
+
+        int maxFid = 0;
+        for (final int fid : fids) {
+            maxFid = Math.max(maxFid, fid);
+        }
+        //fid -> column
+        final int[] column = new int[maxFid + 1];
+        Arrays.fill(column, -1);
+        for (int j = 0; j < fids.length; j++) {
+            column[fids[j]] = j;
+        }
+
+        for (int i = 0; i < n; i++) {
+            final DataPoint dp = rl.get(i);
+            if (dp instanceof SparseDataPoint) {
+                //only visit the stored entries. Absent features are read as 0, same as SparseDataPoint::getFeatureValue()
+                final SparseDataPoint sdp = (SparseDataPoint) dp;
+                for (int pos = 0; pos < sdp.size(); pos++) {
+                    final int fid = sdp.getFeatureIdAt(pos);
+                    if (fid <= maxFid && column[fid] != -1) {
+                        values[column[fid]][i] = sdp.getFeatureValueAt(pos);
+                    }
+                }
+            } else if (dp instanceof DenseDataPoint) {
+                final float[] fv = dp.getFeatureVector();
+                for (int j = 0; j < fids.length; j++) {
+                    final int fid = fids[j];
+                    if (fid > 0 && fid < fv.length) {
+                        values[j][i] = Float.isNaN(fv[fid]) ? 0 : fv[fid];
+                    } else {
+                        values[j][i] = dp.getFeatureValue(fid);//out of range: either 0 (missingZero) or an error
+                    }
+                }
+            } else {
+                for (int j = 0; j < fids.length; j++) {
+                    values[j][i] = dp.getFeatureValue(fids[j]);
+                }
+            }
+        }
+
+        mean = new double[fids.length];
+        m2 = new double[fids.length];
+        sumAbs = new double[fids.length];
+        min = new float[fids.length];
+        max = new float[fids.length];
+        for (int j = 0; j < fids.length; j++) {
+            final float[] x = values[j];
+            double mu = 0;
+            double s2 = 0;
+            double abs = 0;
+            float lo = Float.MAX_VALUE;
+            float hi = -Float.MAX_VALUE;
+            for (int i = 0; i < x.length; i++) {
+                final double delta = x[i] - mu;
+                mu += delta / (i + 1);
+                s2 += delta * (x[i] - mu);
+                abs += Math.abs(x[i]);
+                if (x[i] < lo) {
+                    lo = x[i];
+                }
+                if (x[i] > hi) {
+                    hi = x[i];
+                }
+            }
+            mean[j] = mu;
+            m2[j] = s2;
+            sumAbs[j] = abs;
+            min[j] = lo;
+            max[j] = hi;
+        }
+    }
+
+    public int size() {
+        return fids.length;
+    }
+
+    /**
+     * Values of the j-th column. Changes made to the returned array are written back by {@link #writeBack()} only if the column
+     * has been marked with {@link #setModified(int)}.
+     * @param j
+     * @return
+     */
+    public float[] get(final int j) {
+        return values[j];
+    }
+
+    public void setModified(final int j) {
+        modified[j] = true;
+    }
+
+    public double mean(final int j) {
+        return mean[j];
+    }
+
+    /**
+     * @param j
+     * @return The sample standard deviation of the j-th column (NaN for a single-element list).
+     */
+    public double std(final int j) {
+        return Math.sqrt(m2[j] / (values[j].length - 1));
+    }
+
+    /**
+     * @param j
+     * @return The sum of squared deviations from the mean of the j-th column.
+     */
+    public double m2(final int j) {
+        return m2[j];
+    }
+
+    public double sumAbs(final int j) {
+        return sumAbs[j];
+    }
+
+    public float min(final int j) {
+        return min[j];
+    }
+
+    public float max(final int j) {
+        return max[j];
+    }
+
+    /**
+     * Copy the modified columns back into the data points. Entries absent from a sparse data point cannot be stored: they are read
+     * back as 0, so they are left absent if their new value is 0 (e.g. sum normalization) and an error is thrown otherwise, same as
+     * {@link SparseDataPoint#setFeatureValue(int, float)}. Writing them would make an explicit f:0 and an absent f normalize to two
+     * different values.
+     */
+    public void writeBack() {
+        int maxFid = 0;
+        for (int j = 0; j < fids.length; j++) {
+            if (modified[j]) {
+                maxFid = Math.max(maxFid, fids[j]);
+            }
+        }
+        final int[] column = new int[maxFid + 1];
+        Arrays.fill(column, -1);
+        for (int j = 0; j < fids.length; j++) {
+            if (modified[j]) {
+                column[fids[j]] = j;
+            }
+        }
+
+        final int[] written = new int[fids.length];//written[j] == i + 1: column j has been stored in the i-th data point
+        for (int i = 0; i < rl.size(); i++) {
+            final DataPoint dp = rl.get(i);
+            if (dp instanceof SparseDataPoint) {
+                final SparseDataPoint sdp = (SparseDataPoint) dp;
+                for (int pos = 0; pos < sdp.size(); pos++) {
+                    final int fid = sdp.getFeatureIdAt(pos);
+                    if (fid <= maxFid && column[fid] != -1) {
+                        sdp.setFeatureValueAt(pos, values[column[fid]][i]);
+                        written[column[fid]] = i + 1;
+                    }
+                }
+                for (int j = 0; j < fids.length; j++) {
+                    if (modified[j] && written[j] != i + 1 && values[j][i] != 0) {
+                        sdp.setFeatureValue(fids[j], values[j][i]);//absent: throws
+                    }
+                }
+            } else if (dp instanceof DenseDataPoint) {
+                final float[] fv = dp.getFeatureVector();//this is the backing array of a dense data point
+                for (int j = 0; j < fids.length; j++) {
+                    if (modified[j]) {
+                        if (fids[j] > 0 && fids[j] < fv.length) {
+                            fv[fids[j]] = values[j][i];
+                        } else {
+                            dp.setFeatureValue(fids[j], values[j][i]);
+                        }
+                    }
+                }
+            } else {
+                for (int j = 0; j < fids.length; j++) {
+                    if (modified[j]) {
+                        dp.setFeatureValue(fids[j], values[j][i]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.features;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.RankLibError;
+
+/**
+ * Dataset-level feature normalization. Unlike the other normalizers, the statistics of each feature are computed once over all
+ * ranked lists of the training data (see {@link #fit(List, int[])}) and then applied as the same affine transformation
+ * x' = (x - shift) / scale to every ranked list.
+ *
+ * Since the transformation doesn't depend on the list being ranked, it can be saved with the model ({@link #toModelHeader()}) and
+ * folded into the model when the model is loaded (see {@link ciir.umass.edu.learning.Ranker#foldNormalization(GlobalNormalizer)}),
+ * so documents can be scored on their raw feature values, one at a time.
+ *
+ * Entries absent from sparse data points cannot be written back: they are read as 0 both in training and once the model is folded,
+ * which is consistent only if 0 is mapped to 0. Sparse data can therefore only be normalized with the "sum" method (see
+ * {@link #preservesZero()}).
+ */
+public class GlobalNormalizer extends Normalizer {
+    protected static final String METHOD_KEY = "## Normalization = ";
+    protected static final String PARAMS_KEY = "## Normalization parameters = ";
+
+    protected final String method;
+    protected int[] fids = null;//fitted features (ascending)
+    protected double[] shift = null;
+    protected double[] scale = null;
+
+    public GlobalNormalizer(final String method) {
+        if (!method.equalsIgnoreCase("sum") && !method.equalsIgnoreCase("zscore") && !method.equalsIgnoreCase("linear")) {
+            throw RankLibError.create("Unknown normalizor: " + method);
+        }
+        this.method = method.toLowerCase();
+    }
+
+    /**
+     * Compute the normalization parameters of features @fids over all ranked lists in @samples.
+     * @param samples
+     * @param fids
+     */
+    public void fit(final List<RankList> samples, final int[] fids) {
+        final int[] f = removeDuplicateFeatures(fids);
+        Arrays.sort(f);
+        final int nf = f.length;
+
+        //merge per-list statistics (Chan et al.'s pairwise update for the mean and the sum of squared deviations)
+        long n = 0;
+        final double[] mean = new double[nf];
+        final double[] m2 = new double[nf];
+        final double[] sumAbs = new double[nf];
+        final float[] min = new float[nf];
+        final float[] max = new float[nf];
+        Arrays.fill(min, Float.MAX_VALUE);
+        Arrays.fill(max, -Float.MAX_VALUE);
+        for (final RankList rl : samples) {
+            if (rl.size() == 0) {
+                continue;
+            }
+            final FeatureColumns columns = new FeatureColumns(rl, f);
+            final long nb = rl.size();
+            final long nab = n + nb;
+            for (int j = 0; j < nf; j++) {
+                final double delta = columns.mean(j) - mean[j];
+                mean[j] += delta * nb / nab;
+                m2[j] += columns.m2(j) + delta * delta * n * nb / nab;
+                sumAbs[j] += columns.sumAbs(j);
+                min[j] = Math.min(min[j], columns.min(j));
+                max[j] = Math.max(max[j], columns.max(j));
+            }
+            n = nab;
+        }
+        if (n == 0) {
+            throw RankLibError.create("Error in GlobalNormalizer::fit(): The input data is empty");
+        }
+
+        this.fids = f;
+        shift = new double[nf];
+        scale = new double[nf];
+        for (int j = 0; j < nf; j++) {
+            double a = 0.0;
+            double b = 0.0;
+            if (method.equals("sum")) {
+                b = sumAbs[j];
+            } else if (method.equals("zscore")) {
+                a = mean[j];
+                b = n > 1 ? Math.sqrt(m2[j] / (n - 1)) : 0.0;
+            } else {
+                a = min[j];
+                b = (double) max[j] - min[j];
+            }
+            //constant (or all-zero) features are left untouched, same as the per-list normalizers
+            if (b > 0.0 && !Double.isInfinite(b)) {
+                shift[j] = a;
+                scale[j] = b;
+            } else {
+                shift[j] = 0.0;
+                scale[j] = 1.0;
+            }
+        }
+    }
+
+    public boolean isFitted() {
+        return fids != null;
+    }
+
+    @Override
+    public void normalize(final RankList rl) {
+        checkFitted();
+        normalize(rl, fids);
+    }
+
+    @Override
+    public void normalize(final RankList rl, final int[] fids) {
+        checkFitted();
+        if (rl.size() == 0) {
+            throw RankLibError.create("Error in GlobalNormalizer::normalize(): The input ranked list is empty");
+        }
+
+        //only features seen by fit() can be normalized
+        final int[] f = removeDuplicateFeatures(fids);
+        final int[] col = new int[f.length];
+        int count = 0;
+        for (final int fid : f) {
+            final int j = Arrays.binarySearch(this.fids, fid);
+            if (j >= 0) {
+                f[count] = fid;
+                col[count++] = j;
+            }
+        }
+
+        final FeatureColumns columns = new FeatureColumns(rl, Arrays.copyOf(f, count));
+        for (int k = 0; k < count; k++) {
+            final int j = col[k];
+            if (shift[j] == 0.0 && scale[j] == 1.0) {
+                continue;
+            }
+            final float[] x = columns.get(k);
+            for (int i = 0; i < x.length; i++) {
+                x[i] = normalize(j, x[i]);
+            }
+            columns.setModified(k);
+        }
+        columns.writeBack();
+    }
+
+    private float normalize(final int j, final float value) {
+        return (j >= 0) ? (float) ((value - shift[j]) / scale[j]) : value;
+    }
+
+    /**
+     * @return Whether 0 is always mapped to 0, so that entries absent from sparse data points are normalized the same way as
+     * explicit zeros.
+     */
+    public boolean preservesZero() {
+        return method.equals("sum");
+    }
+
+    public double getShift(final int fid) {
+        final int j = isFitted() ? Arrays.binarySearch(fids, fid) : -1;
+        return j >= 0 ? shift[j] : 0.0;
+    }
+
+    public double getScale(final int fid) {
+        final int j = isFitted() ? Arrays.binarySearch(fids, fid) : -1;
+        return j >= 0 ? scale[j] : 1.0;
+    }
+
+    /**
+     * Map a value of feature @fid from the normalized space back to the raw feature space (e.g. a split threshold).
+     * @param fid
+     * @param value
+     * @return value * scale + shift
+     */
+    public double denormalize(final int fid, final double value) {
+        return value * getScale(fid) + getShift(fid);
+    }
+
+    /**
+     * Map a split threshold on feature @fid back to the raw feature space, so that x &lt;= result holds exactly when the normalized
+     * value of x is &lt;= @threshold. Normalized values are rounded to float, so {@link #denormalize(int, double)} alone may put a
+     * raw value that was right at the threshold on the other side: this returns the largest float whose normalized value doesn't
+     * exceed @threshold instead (the normalization is monotonic, so it is found by binary search over the ordered floats).
+     * @param fid
+     * @param threshold
+     * @return
+     */
+    public float denormalizeThreshold(final int fid, final double threshold) {
+        if (Double.isNaN(threshold) || Double.isInfinite(threshold)) {
+            return (float) threshold;
+        }
+        final int j = isFitted() ? Arrays.binarySearch(fids, fid) : -1;
+        //invariant: normalize(lo) <= threshold < normalize(hi), on the ordered int keys of floats
+        long lo = orderedKey(Float.NEGATIVE_INFINITY);
+        long hi = orderedKey(Float.POSITIVE_INFINITY);
+        if (normalize(j, Float.POSITIVE_INFINITY) <= threshold) {
+            return Float.POSITIVE_INFINITY;
+        }
+        while (hi - lo > 1) {
+            final long mid = (lo + hi) >> 1;
+            if (normalize(j, fromOrderedKey((int) mid)) <= threshold) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return fromOrderedKey((int) lo);
+    }
+
+    /**
+     * @return An int that compares like @value (-0 comes right before 0).
+     */
+    private static int orderedKey(final float value) {
+        final int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    private static float fromOrderedKey(final int key) {
+        return Float.intBitsToFloat(key ^ ((key >> 31) & 0x7fffffff));
+    }
+
+    /**
+     * @return The normalization parameters as model comment lines, to be inserted right after the first line of a model.
+     */
+    public String toModelHeader() {
+        checkFitted();
+        final StringBuilder buf = new StringBuilder();
+        buf.append(METHOD_KEY).append(method).append("\n");
+        buf.append(PARAMS_KEY);
+        for (int j = 0; j < fids.length; j++) {
+            buf.append(fids[j]).append(':').append(shift[j]).append(':').append(scale[j]);
+            buf.append((j == fids.length - 1) ? "" : " ");
+        }
+        buf.append("\n");
+        return buf.toString();
+    }
+
+    /**
+     * Read the normalization parameters saved in the header of a model (see {@link #toModelHeader()}).
+     * @param fullText The whole model.
+     * @return The normalizer, or null if the model was not trained on globally normalized features.
+     */
+    public static GlobalNormalizer fromModel(final String fullText) {
+        try (BufferedReader in = new BufferedReader(new StringReader(fullText))) {
+            String method = null;
+            String params = null;
+            String content = null;
+            while ((content = in.readLine()) != null) {
+                content = content.trim();
+                if (content.isEmpty()) {
+                    continue;
+                }
+                if (!content.startsWith("##")) {
+                    break;//end of the model header
+                }
+                if (content.startsWith(METHOD_KEY)) {
+                    method = content.substring(METHOD_KEY.length()).trim();
+                } else if (content.startsWith(PARAMS_KEY)) {
+                    params = content.substring(PARAMS_KEY.length()).trim();
+                }
+            }
+            if (method == null) {
+                return null;
+            }
+            if (params == null) {
+                throw RankLibError.create("Normalization parameters are missing from the model.");
+            }
+
+            final GlobalNormalizer n = new GlobalNormalizer(method);
+            final List<String[]> entries = new ArrayList<>();
+            for (final String s : params.split(" ")) {
+                if (!s.isEmpty()) {
+                    entries.add(s.split(":"));
+                }
+            }
+            n.fids = new int[entries.size()];
+            n.shift = new double[entries.size()];
+            n.scale = new double[entries.size()];
+            for (int j = 0; j < entries.size(); j++) {
+                final String[] e = entries.get(j);
+                n.fids[j] = Integer.parseInt(e[0]);
+                n.shift[j] = Double.parseDouble(e[1]);
+                n.scale[j] = Double.parseDouble(e[2]);
+            }
+            return n;
+        } catch (final Exception ex) {
+            throw RankLibError.create("Error in GlobalNormalizer::fromModel(): ", ex);
+        }
+    }
+
+    private void checkFitted() {
+        if (!isFitted()) {
+            throw RankLibError.create("GlobalNormalizer has not been fitted to any data.");
+        }
+    }
+
+    @Override
+    public String name() {
+        return method + " (global)";
+    }
+}
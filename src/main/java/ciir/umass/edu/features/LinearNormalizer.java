@@ -9,9 +9,6 @@
 
 package ciir.umass.edu.features;
 
-import java.util.Arrays;
-
-import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.utilities.RankLibError;
 
@@ -24,12 +21,7 @@ public class LinearNormalizer extends Normalizer {
         if (rl.size() == 0) {
             throw RankLibError.create("Error in LinearNormalizor::normalize(): The input ranked list is empty");
         }
-        final int nFeature = rl.getFeatureCount();
-        final int[] fids = new int[nFeature];
-        for (int i = 1; i <= nFeature; i++) {
-            fids[i - 1] = i;
-        }
-        normalize(rl, fids);
+        normalize(rl, getAllFeatures(rl));
     }
 
     @Override
@@ -41,29 +33,22 @@ public class LinearNormalizer extends Normalizer {
         //remove duplicate features from the input @fids ==> avoid normalizing the same features multiple times
         fids = removeDuplicateFeatures(fids);
 
-        final float[] min = new float[fids.length];
-        final float[] max = new float[fids.length];
-        Arrays.fill(min, Float.MAX_VALUE);
-        Arrays.fill(max, Float.MIN_VALUE);
-
-        for (int i = 0; i < rl.size(); i++) {
-            final DataPoint dp = rl.get(i);
-            for (int j = 0; j < fids.length; j++) {
-                min[j] = Math.min(min[j], dp.getFeatureValue(fids[j]));
-                max[j] = Math.max(max[j], dp.getFeatureValue(fids[j]));
-            }
-        }
-        for (int i = 0; i < rl.size(); i++) {
-            final DataPoint dp = rl.get(i);
-            for (int j = 0; j < fids.length; j++) {
-                if (max[j] > min[j]) {
-                    final float value = (dp.getFeatureValue(fids[j]) - min[j]) / (max[j] - min[j]);
-                    dp.setFeatureValue(fids[j], value);
+        final FeatureColumns columns = new FeatureColumns(rl, fids);
+        for (int j = 0; j < columns.size(); j++) {
+            final float min = columns.min(j);
+            //the max has always been searched starting from Float.MIN_VALUE (the smallest *positive* float); keep it that way
+            final float max = Math.max(Float.MIN_VALUE, columns.max(j));
+            final float[] x = columns.get(j);
+            for (int i = 0; i < x.length; i++) {
+                if (max > min) {
+                    x[i] = (x[i] - min) / (max - min);
                 } else {
-                    dp.setFeatureValue(fids[j], 0);
+                    x[i] = 0;
                 }
             }
+            columns.setModified(j);
         }
+        columns.writeBack();
     }
 
     @Override
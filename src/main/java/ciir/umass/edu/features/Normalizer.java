@@ -14,29 +14,60 @@ import java.util.List;
 import java.util.Set;
 
 import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.WorkerThread;
 
 /**
  * @author vdang
  *
- * Abstract class for feature normalization
+ * Abstract class for feature normalization. Normalizing a list of ranked lists is done in parallel across ranked lists.
  */
 public abstract class Normalizer {
     public abstract void normalize(final RankList rl);
 
     public void normalize(final List<RankList> samples) {
-        for (int i = 0; i < samples.size(); i++) {
-            normalize(samples.get(i));
-        }
+        normalize(samples, null);
     }
 
     public abstract void normalize(final RankList rl, final int[] fids);
 
+    /**
+     * Normalize each ranked list in @samples.
+     * @param samples
+     * @param fids Features to normalize. null to normalize all features of each ranked list.
+     */
     public void normalize(final List<RankList> samples, final int[] fids) {
-        for (int i = 0; i < samples.size(); i++) {
-            normalize(samples.get(i), fids);
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1 || samples.size() < 2) {
+            normalize(samples, fids, 0, samples.size() - 1);
+        } else {
+            p.execute(new Worker(this, samples, fids), samples.size());
+        }
+    }
+
+    protected void normalize(final List<RankList> samples, final int[] fids, final int start, final int end) {
+        for (int i = start; i <= end; i++) {
+            if (fids == null) {
+                normalize(samples.get(i));
+            } else {
+                normalize(samples.get(i), fids);
+            }
         }
     }
 
+    /**
+     * @param rl
+     * @return All feature ids of @rl, i.e. [1..rl.getFeatureCount()].
+     */
+    protected int[] getAllFeatures(final RankList rl) {
+        final int nFeature = rl.getFeatureCount();
+        final int[] fids = new int[nFeature];
+        for (int i = 1; i <= nFeature; i++) {
+            fids[i - 1] = i;
+        }
+        return fids;
+    }
+
     public int[] removeDuplicateFeatures(int[] fids) {
         final Set<Integer> uniqueSet = new HashSet<>();
         for (int i = 0; i < fids.length; i++) {
@@ -53,4 +84,26 @@ public abstract class Normalizer {
     }
 
     public abstract String name();
+
+    class Worker extends WorkerThread {
+        Normalizer n = null;
+        List<RankList> samples = null;
+        int[] fids = null;
+
+        Worker(final Normalizer n, final List<RankList> samples, final int[] fids) {
+            this.n = n;
+            this.samples = samples;
+            this.fids = fids;
+        }
+
+        @Override
+        public void run() {
+            n.normalize(samples, fids, start, end);
+        }
+
+        @Override
+        public WorkerThread clone() {
+            return new Worker(n, samples, fids);
+        }
+    }
 }
@@ -9,9 +9,6 @@
 
 package ciir.umass.edu.features;
 
-import java.util.Arrays;
-
-import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.utilities.RankLibError;
 
@@ -24,23 +21,7 @@ public class SumNormalizor extends Normalizer {
         if (rl.size() == 0) {
             throw RankLibError.create("Error in SumNormalizor::normalize(): The input ranked list is empty");
         }
-        final int nFeature = rl.getFeatureCount();
-        final double[] norm = new double[nFeature];
-        Arrays.fill(norm, 0);
-        for (int i = 0; i < rl.size(); i++) {
-            final DataPoint dp = rl.get(i);
-            for (int j = 1; j <= nFeature; j++) {
-                norm[j - 1] += Math.abs(dp.getFeatureValue(j));
-            }
-        }
-        for (int i = 0; i < rl.size(); i++) {
-            final DataPoint dp = rl.get(i);
-            for (int j = 1; j <= nFeature; j++) {
-                if (norm[j - 1] > 0) {
-                    dp.setFeatureValue(j, (float) (dp.getFeatureValue(j) / norm[j - 1]));
-                }
-            }
-        }
+        normalize(rl, getAllFeatures(rl));
     }
 
     @Override
@@ -52,22 +33,18 @@ public class SumNormalizor extends Normalizer {
         //remove duplicate features from the input @fids ==> avoid normalizing the same features multiple times
         fids = removeDuplicateFeatures(fids);
 
-        final double[] norm = new double[fids.length];
-        Arrays.fill(norm, 0);
-        for (int i = 0; i < rl.size(); i++) {
-            final DataPoint dp = rl.get(i);
-            for (int j = 0; j < fids.length; j++) {
-                norm[j] += Math.abs(dp.getFeatureValue(fids[j]));
-            }
-        }
-        for (int i = 0; i < rl.size(); i++) {
-            final DataPoint dp = rl.get(i);
-            for (int j = 0; j < fids.length; j++) {
-                if (norm[j] > 0) {
-                    dp.setFeatureValue(fids[j], (float) (dp.getFeatureValue(fids[j]) / norm[j]));
+        final FeatureColumns columns = new FeatureColumns(rl, fids);
+        for (int j = 0; j < columns.size(); j++) {
+            final double norm = columns.sumAbs(j);
+            if (norm > 0) {
+                final float[] x = columns.get(j);
+                for (int i = 0; i < x.length; i++) {
+                    x[i] = (float) (x[i] / norm);
                 }
+                columns.setModified(j);
             }
         }
+        columns.writeBack();
     }
 
     @Override
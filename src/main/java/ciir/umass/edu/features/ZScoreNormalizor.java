@@ -9,9 +9,6 @@
 
 package ciir.umass.edu.features;
 
-import java.util.Arrays;
-
-import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.utilities.RankLibError;
 
@@ -24,34 +21,7 @@ public class ZScoreNormalizor extends Normalizer {
         if (rl.size() == 0) {
             throw RankLibError.create("Error in ZScoreNormalizor::normalize(): The input ranked list is empty");
         }
-        final int nFeature = rl.getFeatureCount();
-        final double[] means = new double[nFeature];
-        Arrays.fill(means, 0);
-        for (int i = 0; i < rl.size(); i++) {
-            final DataPoint dp = rl.get(i);
-            for (int j = 1; j <= nFeature; j++) {
-                means[j - 1] += dp.getFeatureValue(j);
-            }
-        }
-
-        for (int j = 1; j <= nFeature; j++) {
-            means[j - 1] = means[j - 1] / rl.size();
-            double std = 0;
-            for (int i = 0; i < rl.size(); i++) {
-                final DataPoint p = rl.get(i);
-                final double x = p.getFeatureValue(j) - means[j - 1];
-                std += x * x;
-            }
-            std = Math.sqrt(std / (rl.size() - 1));
-            //normalize
-            if (std > 0) {
-                for (int i = 0; i < rl.size(); i++) {
-                    final DataPoint p = rl.get(i);
-                    final double x = (p.getFeatureValue(j) - means[j - 1]) / std;//x ~ standard normal (0, 1)
-                    p.setFeatureValue(j, (float) x);
-                }
-            }
-        }
+        normalize(rl, getAllFeatures(rl));
     }
 
     @Override
@@ -63,33 +33,20 @@ public class ZScoreNormalizor extends Normalizer {
         //remove duplicate features from the input @fids ==> avoid normalizing the same features multiple times
         fids = removeDuplicateFeatures(fids);
 
-        final double[] means = new double[fids.length];
-        Arrays.fill(means, 0);
-        for (int i = 0; i < rl.size(); i++) {
-            final DataPoint dp = rl.get(i);
-            for (int j = 0; j < fids.length; j++) {
-                means[j] += dp.getFeatureValue(fids[j]);
-            }
-        }
-
-        for (int j = 0; j < fids.length; j++) {
-            means[j] = means[j] / rl.size();
-            double std = 0;
-            for (int i = 0; i < rl.size(); i++) {
-                final DataPoint p = rl.get(i);
-                final double x = p.getFeatureValue(fids[j]) - means[j];
-                std += x * x;
-            }
-            std = Math.sqrt(std / (rl.size() - 1));
+        final FeatureColumns columns = new FeatureColumns(rl, fids);
+        for (int j = 0; j < columns.size(); j++) {
+            final double mean = columns.mean(j);
+            final double std = columns.std(j);
             //normalize
             if (std > 0.0) {
-                for (int i = 0; i < rl.size(); i++) {
-                    final DataPoint p = rl.get(i);
-                    final double x = (p.getFeatureValue(fids[j]) - means[j]) / std;//x ~ standard normal (0, 1)
-                    p.setFeatureValue(fids[j], (float) x);
+                final float[] x = columns.get(j);
+                for (int i = 0; i < x.length; i++) {
+                    x[i] = (float) ((x[i] - mean) / std);//x ~ standard normal (0, 1)
                 }
+                columns.setModified(j);
             }
         }
+        columns.writeBack();
     }
 
     @Override
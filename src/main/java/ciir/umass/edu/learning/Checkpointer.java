@@ -0,0 +1,219 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ciir.umass.edu.utilities.FileUtils;
+import ciir.umass.edu.utilities.RankLibError;
+
+/**
+ * Periodic snapshots of a model being trained, so that a long training run can be picked up where it stopped (-resume) if the JVM dies.
+ * A checkpoint is a regular model file (it can be loaded with -load as it is), with the state needed to continue training in extra
+ * "## Checkpoint" lines right below the name of the ranker.
+ *
+ * Snapshots are taken by the training thread but written by a background thread, so training doesn't wait for the disk. If training
+ * gets ahead of the writer, only the latest snapshot is written. Each one goes to a temporary file that then replaces the checkpoint,
+ * so a crash while writing leaves the previous checkpoint intact.
+ */
+public class Checkpointer {
+    private static final Logger logger = Logger.getLogger(Checkpointer.class.getName());
+    private static final String PREFIX = "## Checkpoint ";
+
+    //Parameters
+    public static String checkpointFile = null;//no checkpoints if null
+    public static int interval = 100;//number of rounds (trees, bags or epochs) between two checkpoints
+    public static boolean resume = false;//continue from @checkpointFile if it exists
+
+    private final String file;
+    private final AtomicReference<String> pending = new AtomicReference<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        final Thread t = new Thread(r, "checkpoint-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public Checkpointer(final String file) {
+        this.file = file;
+    }
+
+    /**
+     * @param round Number of rounds done so far.
+     * @return Whether a checkpoint is due after @round rounds.
+     */
+    public boolean isDue(final int round) {
+        return round > 0 && round % interval == 0;
+    }
+
+    /**
+     * @return The content of the checkpoint to resume from, or null if training starts from scratch.
+     */
+    public String load() {
+        if (!resume || Files.notExists(Paths.get(file))) {
+            if (resume) {
+                logger.info(() -> "No checkpoint to resume from at " + file + ": training starts from scratch.");
+            }
+            return null;
+        }
+        logger.info(() -> "Resuming from checkpoint " + file);
+        return FileUtils.read(file, "ASCII");
+    }
+
+    /**
+     * Queue a checkpoint for writing.
+     * @param model The model as it would be saved.
+     * @param state Training state that goes with it.
+     */
+    public void save(final String model, final Map<String, String> state) {
+        final int eol = model.indexOf('\n') + 1;
+        final StringBuilder buf = new StringBuilder(model.length() + 1000);
+        buf.append(model, 0, eol);
+        for (final Map.Entry<String, String> e : state.entrySet()) {
+            buf.append(PREFIX).append(e.getKey()).append(" = ").append(e.getValue()).append('\n');
+        }
+        buf.append(model, eol, model.length());
+        //no need for a new write if the previous snapshot hasn't been picked up yet: the writer will take this one instead
+        if (pending.getAndSet(buf.toString()) == null) {
+            writer.execute(this::write);
+        }
+    }
+
+    private void write() {
+        final String text = pending.getAndSet(null);
+        if (text == null) {
+            return;
+        }
+        final Path target = Paths.get(file).toAbsolutePath();
+        final Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            Files.write(tmp, text.getBytes(StandardCharsets.US_ASCII));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException ex) {
+            //training goes on: the next checkpoint may well succeed
+            logger.log(Level.WARNING, ex, () -> "Error writing checkpoint " + file);
+        }
+    }
+
+    /**
+     * Wait for the pending checkpoint (if any) to be written.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw RankLibError.create(ex);
+        }
+    }
+
+    /**
+     * @param checkpoint Content of a checkpoint.
+     * @return The training state saved in it.
+     */
+    public static Map<String, String> state(final String checkpoint) {
+        final Map<String, String> state = new LinkedHashMap<>();
+        for (final String line : checkpoint.split("\n")) {
+            if (line.startsWith(PREFIX)) {
+                final int eq = line.indexOf(" = ");
+                state.put(line.substring(PREFIX.length(), eq), line.substring(eq + 3).trim());
+            }
+        }
+        return state;
+    }
+
+    public static String toString(final double[] values) {
+        final StringBuilder buf = new StringBuilder(values.length * 20);
+        for (int i = 0; i < values.length; i++) {
+            buf.append((i == 0) ? "" : " ").append(values[i]);
+        }
+        return buf.toString();
+    }
+
+    public static double[] toDoubles(final String s) {
+        if (s.isEmpty()) {
+            return new double[0];
+        }
+        final String[] tokens = s.split(" ");
+        final double[] values = new double[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Double.parseDouble(tokens[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @param random
+     * @return The state of @random, from which {@link #toRandom(String)} creates a generator that continues the same sequence.
+     */
+    public static String toString(final Random random) {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(); ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(random);
+            out.flush();
+            return Base64.getEncoder().encodeToString(bytes.toByteArray());
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error saving the state of the random generator: ", ex);
+        }
+    }
+
+    public static Random toRandom(final String s) {
+        try (ObjectInputStream in = new RandomInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(s)))) {
+            return (Random) in.readObject();
+        } catch (final IOException | ClassNotFoundException ex) {
+            throw RankLibError.create("Error restoring the random generator from the checkpoint: ", ex);
+        }
+    }
+
+    /**
+     * Reads nothing but a {@link Random}, whose serialized fields are all primitive: a checkpoint is a text file anyone may have edited,
+     * and deserializing whatever class it names could run code of any class on the classpath.
+     */
+    private static class RandomInputStream extends ObjectInputStream {
+        RandomInputStream(final InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!desc.getName().equals(Random.class.getName())) {
+                throw new InvalidClassException(desc.getName(), "not a random generator");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(final String[] interfaces) throws IOException {
+            throw new InvalidClassException(String.join(", ", interfaces), "not a random generator");
+        }
+    }
+}
@@ -15,12 +15,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.logging.Level;
+import java.util.Random;
 import java.util.logging.Logger;
 
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.utilities.KeyValuePair;
-import ciir.umass.edu.utilities.MergeSorter;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.PrimitiveSorter;
 import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
 
@@ -42,11 +44,18 @@ public class CoorAscent extends Ranker {
     public static boolean regularized = false;
     public static double slack = 0.001;//regularized parameter
 
+    //Run the random restarts at the same time, one thread each (by default, they run one after the other and the queries of each
+    //evaluation are split among the threads)
+    public static boolean parallelRestarts = false;
+    //Find the best weight of each feature with an exact line search over the same range instead of trying @nMaxIteration steps in
+    //each direction
+    public static boolean exactLineSearch = false;
+
     //Local variables
     public double[] weight = null;
 
-    protected int current_feature = -1;//used only during learning
-    protected double weight_change = -1.0;//used only during learning
+    protected double[] regVector = null;//used only during learning
+    protected int[] queryStart = null;//index of the first sample of each training query in the score caches (used only during learning)
 
     public CoorAscent() {
 
@@ -65,21 +74,82 @@ public class CoorAscent extends Ranker {
 
     @Override
     public void learn() {
-        final double[] regVector = new double[weight.length];
+        regVector = new double[weight.length];
         copy(weight, regVector);//uniform weight distribution
+        queryStart = new int[samples.size() + 1];
+        for (int i = 0; i < samples.size(); i++) {
+            queryStart[i + 1] = queryStart[i] + samples.get(i).size();
+        }
+
+        logger.info(() -> "Training starts...");
+
+        //each restart gets a search of its own. They either run one after the other, with the queries of each evaluation split among
+        //the threads, or at the same time with one thread each.
+        final MyThreadPool p = MyThreadPool.getInstance();
+        final boolean concurrent = parallelRestarts && p.size() > 1 && nRestart > 1;
+        final Search[] searches = new Search[nRestart];
+        for (int r = 0; r < nRestart; r++) {
+            searches[r] = new Search(r, !concurrent && p.size() > 1, !concurrent);
+            if (concurrent) {
+                p.execute(searches[r]);
+            } else {
+                searches[r].run();
+            }
+        }
+        if (concurrent) {
+            p.await();
+        }
 
         //this holds the final best model/score
         double[] bestModel = null;
         double bestModelScore = 0.0;
+        for (final Search search : searches) {
+            //update the (global) best model with the best model found in this round
+            if (bestModel == null || search.bestScore > bestModelScore) {
+                bestModelScore = search.bestScore;
+                bestModel = search.bestWeight;
+            }
+        }
 
-        // look in both directions and with feature removed.
-        final int[] sign = new int[] { 1, -1, 0 };
+        copy(bestModel, weight);
+        scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+        logger.info(() -> "Finished sucessfully.");
+        logger.info(() -> scorer.name() + " on training data: " + scoreOnTrainingData);
 
-        logger.info(() -> "Training starts...");
+        if (validationSamples != null) {
+            bestScoreOnValidationData = scorer.score(rank(validationSamples));
+            logger.info(() -> scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
+        }
+    }
 
-        for (int r = 0; r < nRestart; r++) {
-            if (logger.isLoggable(Level.INFO)) {
-                logger.info("[+] Random restart #" + (r + 1) + "/" + nRestart + "...");
+    /**
+     * One random restart of the search. The scores of the training samples under the current weights are kept in a dense array (query
+     * after query, see @queryStart) and updated incrementally as the weight of a single feature changes, so restarts share no state and
+     * can run at the same time.
+     */
+    protected class Search implements Runnable {
+        protected final int r;
+        protected final boolean sharded;//whether to split the queries of each evaluation among the threads of the pool
+        protected final boolean verbose;//whether to log each improvement (only if this is the only search running)
+        protected final double[] weight = new double[features.length];
+        protected final double[] cache;//score of each training sample under @weight
+        protected final double[] queryScores;//metric score of each training query, filled in by evaluate()
+        protected final Random random = new Random();
+        protected double[] bestWeight = null;
+        protected double bestScore = 0;//on the validation data if there is any, on the training data otherwise
+
+        protected Search(final int r, final boolean sharded, final boolean verbose) {
+            this.r = r;
+            this.sharded = sharded;
+            this.verbose = verbose;
+            cache = new double[queryStart[samples.size()]];
+            queryScores = new double[samples.size()];
+        }
+
+        @Override
+        public void run() {
+            if (verbose) {
+                logger.info(() -> "[+] Random restart #" + (r + 1) + "/" + nRestart + "...");
             }
             int consecutive_fails = 0;
 
@@ -87,31 +157,54 @@ public class CoorAscent extends Ranker {
             for (int i = 0; i < weight.length; i++) {
                 weight[i] = 1.0f / features.length;
             }
-
-            current_feature = -1;
-            final double startScore = scorer.score(rank(samples));//compute all the scores (in whatever metric specified) and store them as cache
+            final double startScore = evaluate(-1, 0);//compute all the scores (in whatever metric specified) and store them as cache
 
             //local best (within the current restart cycle)
-            double bestScore = startScore;
-            final double[] bestWeight = new double[weight.length];
+            bestScore = startScore;
+            bestWeight = new double[weight.length];
             copy(weight, bestWeight);
 
+            // look in both directions and with feature removed.
+            final int[] sign = new int[] { 1, -1, 0 };
+
             //There must be at least one feature increasing whose weight helps
             while ((weight.length > 1 && consecutive_fails < weight.length - 1) || (weight.length == 1 && consecutive_fails == 0)) {
-                logger.info(() -> "Shuffling features' order...");
-                logger.info(() -> "Optimizing weight vector... ");
-                printLogLn(new int[] { 7, 8, 7 }, new String[] { "Feature", "weight", scorer.name() });
+                if (verbose) {
+                    logger.info(() -> "Shuffling features' order...");
+                    logger.info(() -> "Optimizing weight vector... ");
+                    printLogLn(new int[] { 7, 8, 7 }, new String[] { "Feature", "weight", scorer.name() });
+                }
 
-                final int[] fids = getShuffledFeatures();//contain index of elements in the variable @features
+                final int[] fids = getShuffledFeatures(random);//contain index of elements in the variable @features
                 //Try maximizing each feature individually
                 for (int i = 0; i < fids.length; i++) {
-                    current_feature = fids[i];//this will trigger the "else" branch in the procedure rank()
-
-                    final double origWeight = weight[fids[i]];
+                    final int f = fids[i];
+                    final double origWeight = weight[f];
                     double totalStep = 0;
                     double bestTotalStep = 0;
                     boolean succeeds = false;//whether or not we succeed in finding a better weight value for the current feature
-                    for (int s = 0; s < sign.length; s++)//search by both increasing and decreasing
+                    if (exactLineSearch) {
+                        final double t = lineSearch(f, origWeight);
+                        if (!Double.isNaN(t)) {
+                            totalStep = t;
+                            weight[f] = origWeight + t;
+                            double score = evaluate(f, t);
+                            if (regularized) {
+                                score -= slack * getDistance(weight, regVector);
+                            }
+                            if (score > bestScore) {
+                                bestScore = score;
+                                bestTotalStep = t;
+                                succeeds = true;
+                                if (verbose) {
+                                    final String bw = ((weight[f] > 0) ? "+" : "") + SimpleMath.round(weight[f], 4);
+                                    printLogLn(new int[] { 7, 8, 7 },
+                                            new String[] { features[f] + "", bw + "", SimpleMath.round(bestScore, 4) + "" });
+                                }
+                            }
+                        }
+                    }
+                    for (int s = 0; s < sign.length && !exactLineSearch; s++)//search by both increasing and decreasing
                     {
                         final int dir = sign[s];
                         double step = 0.001 * dir;
@@ -126,9 +219,8 @@ public class CoorAscent extends Ranker {
                         }
                         for (int j = 0; j < numIter; j++) {
                             final double w = origWeight + totalStep;
-                            weight_change = step;//weight_change is used in the "else" branch in the procedure rank()
-                            weight[fids[i]] = w;
-                            double score = scorer.score(rank(samples));
+                            weight[f] = w;
+                            double score = evaluate(f, step);
                             if (regularized) {
                                 final double penalty = slack * getDistance(weight, regVector);
                                 score -= penalty;
@@ -138,9 +230,11 @@ public class CoorAscent extends Ranker {
                                 bestScore = score;
                                 bestTotalStep = totalStep;
                                 succeeds = true;
-                                final String bw = ((weight[fids[i]] > 0) ? "+" : "") + SimpleMath.round(weight[fids[i]], 4);
-                                printLogLn(new int[] { 7, 8, 7 },
-                                        new String[] { features[fids[i]] + "", bw + "", SimpleMath.round(bestScore, 4) + "" });
+                                if (verbose) {
+                                    final String bw = ((weight[f] > 0) ? "+" : "") + SimpleMath.round(weight[f], 4);
+                                    printLogLn(new int[] { 7, 8, 7 },
+                                            new String[] { features[f] + "", bw + "", SimpleMath.round(bestScore, 4) + "" });
+                                }
                             }
                             if (j < nMaxIteration - 1) {
                                 step *= stepScale;
@@ -150,26 +244,27 @@ public class CoorAscent extends Ranker {
                         if (succeeds) {
                             break;//no need to search the other direction (e.g. sign = '-')
                         } else if (s < sign.length - 1) {
-                            weight_change = -totalStep;
-                            updateCached();//restore the cached to reflect the orig. weight for the current feature
-                            //so that we can start searching in the other direction (since the optimization in the first direction failed)
-                            weight[fids[i]] = origWeight;//restore the weight to its initial value
+                            //restore the cache to reflect the orig. weight for the current feature so that we can start searching in the
+                            //other direction (since the optimization in the first direction failed)
+                            updateCache(f, -totalStep);
+                            weight[f] = origWeight;//restore the weight to its initial value
                         }
                     }
                     if (succeeds) {
-                        weight_change = bestTotalStep - totalStep;
-                        updateCached();//restore the cached to reflect the best weight for the current feature
-                        weight[fids[i]] = origWeight + bestTotalStep;
+                        updateCache(f, bestTotalStep - totalStep);//restore the cache to reflect the best weight for the current feature
+                        weight[f] = origWeight + bestTotalStep;
                         consecutive_fails = 0;//since we found a better weight value
                         final double sum = normalize(weight);
-                        scaleCached(sum);
+                        for (int k = 0; k < cache.length; k++) {
+                            cache[k] /= sum;
+                        }
                         copy(weight, bestWeight);
                     } else {
                         consecutive_fails++;
-                        weight_change = -totalStep;
-                        updateCached();//restore the cached to reflect the orig. weight for the current feature since the optimization failed
+                        //restore the cache to reflect the orig. weight for the current feature since the optimization failed
+                        updateCache(f, -totalStep);
                         //Restore the orig. weight value
-                        weight[fids[i]] = origWeight;
+                        weight[f] = origWeight;
                     }
                 }
 
@@ -178,51 +273,269 @@ public class CoorAscent extends Ranker {
                     break;
                 }
             }
-            //update the (global) best model with the best model found in this round
             if (validationSamples != null) {
-                current_feature = -1;
-                bestScore = scorer.score(rank(validationSamples));
+                bestScore = scorer.score(rank(validationSamples, bestWeight));
             }
-            if (bestModel == null || bestScore > bestModelScore) {
-                bestModelScore = bestScore;
-                bestModel = bestWeight;
+            if (!verbose) {
+                final double score = bestScore;
+                logger.info(() -> "[+] Random restart #" + (r + 1) + "/" + nRestart + ": " + SimpleMath.round(score, 4));
             }
         }
 
-        copy(bestModel, weight);
-        current_feature = -1;//turn off the cache mode
-        scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
-        logger.info(() -> "Finished sucessfully.");
-        logger.info(() -> scorer.name() + " on training data: " + scoreOnTrainingData);
+        /**
+         * Update the score of each sample for a change of @change in the weight of feature @f (@f = -1: compute the scores from @weight
+         * from scratch) and evaluate the model on the training data.
+         * @param f
+         * @param change
+         * @return The average metric score over the training queries.
+         */
+        protected double evaluate(final int f, final double change) {
+            final MyThreadPool p = MyThreadPool.getInstance();
+            if (!sharded) {
+                evaluate(f, change, 0, samples.size() - 1);
+            } else {
+                final int[] partition = p.partition(samples.size());
+                for (int i = 0; i < partition.length - 1; i++) {
+                    final int start = partition[i];
+                    final int end = partition[i + 1] - 1;
+                    p.execute(() -> evaluate(f, change, start, end));
+                }
+                p.await();
+            }
+            //added up in query order, like MetricScorer.score(List<RankList>)
+            double score = 0.0;
+            for (final double s : queryScores) {
+                score += s;
+            }
+            return score / queryScores.length;
+        }
 
-        if (validationSamples != null) {
-            bestScoreOnValidationData = scorer.score(rank(validationSamples));
-            logger.info(() -> scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
+        protected void evaluate(final int f, final double change, final int start, final int end) {
+            for (int q = start; q <= end; q++) {
+                final RankList rl = samples.get(q);
+                final double[] score = new double[rl.size()];
+                for (int i = 0; i < rl.size(); i++) {
+                    final int k = queryStart[q] + i;
+                    if (f == -1) {
+                        for (int j = 0; j < features.length; j++) {
+                            score[i] += weight[j] * rl.get(i).getFeatureValue(features[j]);
+                        }
+                    } else {
+                        //cached score = a_1*x_1 + a_2*x_2 + ... + a_n*x_n
+                        //a_2 ==> a'_2
+                        //new score = cached score + (a'_2 - a_2)*x_2  ====> NO NEED TO RE-COMPUTE THE WHOLE THING
+                        score[i] = cache[k] + change * rl.get(i).getFeatureValue(features[f]);
+                    }
+                    cache[k] = score[i];
+                }
+                queryScores[q] = scorer.score(new RankList(rl, PrimitiveSorter.sort(score, false)));
+            }
+        }
+
+        /**
+         * Exact line search along feature @f. The score of each sample is linear in the change t of the feature's weight, so the
+         * ranking of a query only changes where two of its documents swap places, at t = (c_j - c_i) / (x_i - x_j), and the metric is
+         * constant in between. Each query's swaps are swept once in order of t, keeping its ranking up to date, and the resulting changes
+         * of the metric are merged over all queries.
+         * @param f
+         * @param origWeight
+         * @return The middle of the interval of t (within the range the step-by-step search covers) with the best average metric over
+         * the training queries, or NaN if that's the current weight's interval.
+         */
+        protected double lineSearch(final int f, final double origWeight) {
+            //same range as the step-by-step search: @nMaxIteration geometrically growing steps, or removing the feature
+            double step = 0.001;
+            if (origWeight != 0.0 && step > 0.5 * Math.abs(origWeight)) {
+                step = stepBase * Math.abs(origWeight);
+            }
+            double totalStep = 0;
+            for (int j = 0; j < nMaxIteration; j++) {
+                totalStep += step;
+                step *= stepScale;
+            }
+            final double range = Math.max(Math.abs(origWeight), totalStep) * 1.000001;
+
+            final double[][] changes = new double[samples.size()][];//(t, change of the metric) of each query, at the left end of the range
+            final MyThreadPool p = MyThreadPool.getInstance();
+            if (!sharded) {
+                sweep(f, range, changes, 0, samples.size() - 1);
+            } else {
+                final int[] partition = p.partition(samples.size());
+                for (int i = 0; i < partition.length - 1; i++) {
+                    final int start = partition[i];
+                    final int end = partition[i + 1] - 1;
+                    p.execute(() -> sweep(f, range, changes, start, end));
+                }
+                p.await();
+            }
+
+            //merge the changes of all queries
+            double total = 0;
+            int n = 0;
+            for (int q = 0; q < changes.length; q++) {
+                total += queryScores[q];
+                n += changes[q].length / 2;
+            }
+            final double[] ts = new double[n];
+            final double[] deltas = new double[n];
+            n = 0;
+            for (final double[] c : changes) {
+                for (int i = 0; i < c.length; i += 2) {
+                    ts[n] = c[i];
+                    deltas[n++] = c[i + 1];
+                }
+            }
+            final int[] idx = PrimitiveSorter.sort(ts, true);
+            double best = total;
+            double bestLow = -range;
+            double bestHigh = (n > 0) ? ts[idx[0]] : range;
+            for (int i = 0; i < n;) {
+                final double t = ts[idx[i]];
+                while (i < n && sameStep(t, ts[idx[i]])) {
+                    total += deltas[idx[i++]];
+                }
+                final double next = (i < n) ? ts[idx[i]] : range;
+                if (total > best + 1e-12 * samples.size()) {
+                    best = total;
+                    bestLow = t;
+                    bestHigh = next;
+                }
+            }
+            if (bestLow <= 0 && bestHigh >= 0) {
+                return Double.NaN;//staying put is as good as it gets
+            }
+            return (bestLow + bestHigh) / 2;
+        }
+
+        /**
+         * For each query in [start, end]: its metric score at t = -@range goes to @queryScores and the changes of the score at each swap
+         * as t grows to @changes, as (t, change) pairs.
+         */
+        protected void sweep(final int f, final double range, final double[][] changes, final int start, final int end) {
+            for (int q = start; q <= end; q++) {
+                final RankList rl = samples.get(q);
+                final int size = rl.size();
+                final double[] c = new double[size];
+                final double[] x = new double[size];
+                final double[] s = new double[size];
+                for (int i = 0; i < size; i++) {
+                    c[i] = cache[queryStart[q] + i];
+                    x[i] = rl.get(i).getFeatureValue(features[f]);
+                    s[i] = c[i] - range * x[i];
+                }
+                int[] order = PrimitiveSorter.sort(s, false);
+                final int[] pos = new int[size];
+                for (int i = 0; i < size; i++) {
+                    pos[order[i]] = i;
+                }
+                double value = scorer.score(new RankList(rl, order));
+                queryScores[q] = value;
+
+                //all pairs of documents that swap places within the range, by t
+                int nPairs = 0;
+                for (int i = 0; i < size; i++) {
+                    for (int j = i + 1; j < size; j++) {
+                        if (x[i] != x[j] && Math.abs(c[j] - c[i]) < range * Math.abs(x[i] - x[j])) {
+                            nPairs++;
+                        }
+                    }
+                }
+                final double[] ts = new double[nPairs];
+                final int[] first = new int[nPairs];
+                final int[] second = new int[nPairs];
+                nPairs = 0;
+                for (int i = 0; i < size; i++) {
+                    for (int j = i + 1; j < size; j++) {
+                        if (x[i] != x[j] && Math.abs(c[j] - c[i]) < range * Math.abs(x[i] - x[j])) {
+                            //the one with the smaller x comes first before they swap
+                            first[nPairs] = (x[i] < x[j]) ? i : j;
+                            second[nPairs] = (x[i] < x[j]) ? j : i;
+                            ts[nPairs++] = (c[j] - c[i]) / (x[i] - x[j]);
+                        }
+                    }
+                }
+                final int[] idx = PrimitiveSorter.sort(ts, true);
+
+                final int depth = scorer.depth(size);
+                double[] qc = new double[16];
+                int nc = 0;
+                for (int e = 0; e < nPairs;) {
+                    final double t = ts[idx[e]];
+                    int groupEnd = e + 1;
+                    while (groupEnd < nPairs && sameStep(t, ts[idx[groupEnd]])) {
+                        groupEnd++;
+                    }
+                    boolean changed = false;
+                    final int a = first[idx[e]];
+                    final int b = second[idx[e]];
+                    if (groupEnd == e + 1 && pos[b] == pos[a] + 1) {
+                        //the usual case: two neighbours swap places
+                        order[pos[a]] = b;
+                        order[pos[b]] = a;
+                        pos[a]++;
+                        pos[b]--;
+                        changed = rl.get(a).getLabel() != rl.get(b).getLabel() && pos[b] < depth;
+                    } else {
+                        //several swaps at once (or rounding got in the way): rank again halfway to the next swap
+                        final double next = (groupEnd < nPairs) ? ts[idx[groupEnd]] : range;
+                        final double mid = (t + next) / 2;
+                        for (int i = 0; i < size; i++) {
+                            s[i] = c[i] + mid * x[i];
+                        }
+                        order = PrimitiveSorter.sort(s, false);
+                        for (int i = 0; i < size; i++) {
+                            pos[order[i]] = i;
+                        }
+                        changed = true;
+                    }
+                    e = groupEnd;
+                    final double v = changed ? scorer.score(new RankList(rl, order)) : value;
+                    //steps that leave the metric as it is count too: the step chosen must not fall on a swap, where documents tie
+                    if (nc == qc.length) {
+                        qc = Arrays.copyOf(qc, nc * 2);
+                    }
+                    qc[nc++] = t;
+                    qc[nc++] = v - value;
+                    value = v;
+                }
+                changes[q] = Arrays.copyOf(qc, nc);
+            }
+        }
+
+        /**
+         * @return Whether swaps at @t and @u are one and the same step, only apart because of rounding (e.g. three documents swapping at
+         * once, with each pair's t computed on its own).
+         */
+        protected boolean sameStep(final double t, final double u) {
+            return Math.abs(u - t) <= 1e-9 * Math.max(1, Math.abs(t));
+        }
+
+        protected void updateCache(final int f, final double change) {
+            for (int q = 0; q < samples.size(); q++) {
+                final RankList rl = samples.get(q);
+                for (int i = 0; i < rl.size(); i++) {
+                    final int k = queryStart[q] + i;
+                    cache[k] = cache[k] + change * rl.get(i).getFeatureValue(features[f]);
+                }
+            }
         }
     }
 
-    @Override
-    public RankList rank(final RankList rl) {
-        final double[] score = new double[rl.size()];
-        if (current_feature == -1) {
+    /**
+     * @return The rankings of @l by the linear model with weights @w.
+     */
+    private List<RankList> rank(final List<RankList> l, final double[] w) {
+        final List<RankList> ll = new ArrayList<>(l.size());
+        for (final RankList rl : l) {
+            final double[] score = new double[rl.size()];
             for (int i = 0; i < rl.size(); i++) {
                 for (int j = 0; j < features.length; j++) {
-                    score[i] += weight[j] * rl.get(i).getFeatureValue(features[j]);
+                    score[i] += w[j] * rl.get(i).getFeatureValue(features[j]);
                 }
-                rl.get(i).setCached(score[i]);//use cache of a data point to store its score given the model at this state
-            }
-        } else//This branch is only active during the training process. Here we trade the "clean" codes for efficiency
-        {
-            for (int i = 0; i < rl.size(); i++) {
-                //cached score = a_1*x_1 + a_2*x_2 + ... + a_n*x_n
-                //a_2 ==> a'_2
-                //new score = cached score + (a'_2 - a_2)*x_2  ====> NO NEED TO RE-COMPUTE THE WHOLE THING
-                score[i] = rl.get(i).getCached() + weight_change * rl.get(i).getFeatureValue(features[current_feature]);
-                rl.get(i).setCached(score[i]);
             }
+            ll.add(new RankList(rl, PrimitiveSorter.sort(score, false)));
         }
-        final int[] idx = MergeSorter.sort(score, false);
-        return new RankList(rl, idx);
+        return ll;
     }
 
     @Override
@@ -239,6 +552,19 @@ public class CoorAscent extends Ranker {
         return new CoorAscent();
     }
 
+    @Override
+    public boolean canFoldNormalization() {
+        return true;
+    }
+
+    @Override
+    public void foldNormalization(final GlobalNormalizer n) {
+        //w * (x - shift) / scale = (w / scale) * x - constant. The constant doesn't change the ranking.
+        for (int i = 0; i < features.length; i++) {
+            weight[i] /= n.getScale(features[i]);
+        }
+    }
+
     @Override
     public String toString() {
         final StringBuilder output = new StringBuilder();
@@ -312,35 +638,13 @@ public class CoorAscent extends Ranker {
         return "Coordinate Ascent";
     }
 
-    private void updateCached() {
-        for (int j = 0; j < samples.size(); j++) {
-            final RankList rl = samples.get(j);
-            for (int i = 0; i < rl.size(); i++) {
-                //cached score = a_1*x_1 + a_2*x_2 + ... + a_n*x_n
-                //a_2 ==> a'_2
-                //new score = cached score + (a'_2 - a_2)*x_2  ====> NO NEED TO RE-COMPUTE THE WHOLE THING
-                final double score = rl.get(i).getCached() + weight_change * rl.get(i).getFeatureValue(features[current_feature]);
-                rl.get(i).setCached(score);
-            }
-        }
-    }
-
-    private void scaleCached(final double sum) {
-        for (int j = 0; j < samples.size(); j++) {
-            final RankList rl = samples.get(j);
-            for (int i = 0; i < rl.size(); i++) {
-                rl.get(i).setCached(rl.get(i).getCached() / sum);
-            }
-        }
-    }
-
-    private int[] getShuffledFeatures() {
+    private int[] getShuffledFeatures(final Random random) {
         final int[] fids = new int[features.length];
         final List<Integer> l = new ArrayList<>();
         for (int i = 0; i < features.length; i++) {
             l.add(i);
         }
-        Collections.shuffle(l);
+        Collections.shuffle(l, random);
         for (int i = 0; i < l.size(); i++) {
             fids[i] = l.get(i);
         }
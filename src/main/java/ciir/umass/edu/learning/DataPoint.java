@@ -116,6 +116,14 @@ public abstract class DataPoint {
     */
     public abstract float getFeatureValue(int fid);
 
+    /**
+    * Whether the feature with the given feature ID has no value for this data point (it is unknown, or absent altogether), in which
+    * case {@link #getFeatureValue(int)} reads it as 0.
+    * @param fid
+    * @return
+    */
+    public abstract boolean isMissing(int fid);
+
     /**
     * Set the value of the feature with the given feature ID
     * @param fid
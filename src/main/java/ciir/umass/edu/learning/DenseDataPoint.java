@@ -31,6 +31,11 @@ public class DenseDataPoint extends DataPoint {
         return fVals[fid];
     }
 
+    @Override
+    public boolean isMissing(final int fid) {
+        return fid <= 0 || fid >= fVals.length || isUnknown(fVals[fid]);
+    }
+
     @Override
     public void setFeatureValue(final int fid, final float fval) {
         if (fid <= 0 || fid >= fVals.length) {
@@ -10,13 +10,19 @@
 package ciir.umass.edu.learning;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.StringReader;
 import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import ciir.umass.edu.features.FeatureManager;
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.utilities.FileUtils;
 import ciir.umass.edu.utilities.KeyValuePair;
+import ciir.umass.edu.utilities.MyThreadPool;
 import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
 
@@ -24,6 +30,9 @@ public class LinearRegRank extends Ranker {
     private static final Logger logger = Logger.getLogger(LinearRegRank.class.getName());
 
     public static double lambda = 1E-10;//L2-norm regularization parameter
+    public static String streamFile = null;//if set, train on this file one block at a time instead of loading it
+
+    private static final int BLOCK_SIZE = 100000;//lines read at a time when streaming
 
     //Local variables
     protected double[] weight = null;
@@ -45,53 +54,47 @@ public class LinearRegRank extends Ranker {
         logger.info(() -> "Training starts...");
         logger.info(() -> "Learning the least square model... ");
 
-        //closed form solution: beta = ((xTx - lambda*I)^(-1)) * (xTy)
-        //where x is an n-by-f matrix (n=#data-points, f=#features), y is an n-element vector of relevance labels
-        int nVar = 0;
-        for (final RankList rl : samples) {
-            final int c = rl.getFeatureCount();
-            if (c > nVar) {
-                nVar = c;
-            }
-        }
-
-        final double[][] xTx = new double[nVar][];
-        for (int i = 0; i < nVar; i++) {
-            xTx[i] = new double[nVar];
-            Arrays.fill(xTx[i], 0.0);
-        }
-        final double[] xTy = new double[nVar];
-        Arrays.fill(xTy, 0.0);
-
-        for (int s = 0; s < samples.size(); s++) {
-            final RankList rl = samples.get(s);
-            for (int i = 0; i < rl.size(); i++) {
-                final DataPoint point = rl.get(i);
-                xTy[nVar - 1] += point.getLabel();
-                for (int j = 0; j < nVar - 1; j++) {
-                    xTy[j] += point.getFeatureValue(j + 1) * point.getLabel();
-                    for (int k = 0; k < nVar; k++) {
-                        final double t = (k < nVar - 1) ? point.getFeatureValue(k + 1) : 1f;
-                        xTx[j][k] += point.getFeatureValue(j + 1) * t;
-                    }
-                }
-                for (int k = 0; k < nVar - 1; k++) {
-                    xTx[nVar - 1][k] += point.getFeatureValue(k + 1);
-                }
-                xTx[nVar - 1][nVar - 1] += 1f;
+        //closed form solution: beta = ((xTx + lambda*I)^(-1)) * (xTy)
+        //where x is an n-by-(f+1) matrix (n=#data-points, f=#features, plus a constant column), y is an n-element vector of relevance labels.
+        //Both are sums over the data points: each thread accumulates its share of them, then the partial sums are added up.
+        final NormalEquations eq;
+        if (streamFile != null) {
+            eq = accumulate(streamFile);
+        } else {
+            if (features == null) {
+                features = FeatureManager.getFeatureFromSampleVector(samples);
             }
+            eq = accumulate(samples);
         }
-        if (lambda != 0.0)//regularized
+        if (features == null)//streamed without a feature selection: all features seen in the file
         {
-            for (int i = 0; i < xTx.length; i++) {
-                xTx[i][i] += lambda;
+            features = new int[eq.dim - 1];
+            for (int i = 0; i < features.length; i++) {
+                features[i] = i + 1;
             }
         }
-        weight = solve(xTx, xTy);
+        final int nVar = features.length + 1;
+        eq.grow(nVar);
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("Data points: " + eq.count + ", variables: " + nVar);
+        }
+
+        final double[][] xTx = eq.matrix(lambda);
+        double[] beta = solveCholesky(xTx, eq.xTy);
+        if (beta == null) {
+            logger.info(() -> "xTx is not positive definite (try a larger -L2): falling back to gaussian elimination.");
+            beta = solve(xTx, eq.xTy);
+        }
+        //the constant term comes first in @beta and last in @weight
+        weight = new double[nVar];
+        System.arraycopy(beta, 1, weight, 0, nVar - 1);
+        weight[nVar - 1] = beta[0];
 
-        scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
         logger.info(() -> "Finished sucessfully.");
-        logger.info(() -> scorer.name() + " on training data: " + scoreOnTrainingData);
+        if (!samples.isEmpty()) {
+            scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+            logger.info(() -> scorer.name() + " on training data: " + scoreOnTrainingData);
+        }
 
         if (validationSamples != null) {
             bestScoreOnValidationData = scorer.score(rank(validationSamples));
@@ -99,6 +102,144 @@ public class LinearRegRank extends Ranker {
         }
     }
 
+    /**
+     * Accumulate the normal equations over @rankLists, one block of ranked lists per thread.
+     * @param rankLists
+     * @return
+     */
+    protected NormalEquations accumulate(final List<RankList> rankLists) {
+        final MyThreadPool p = MyThreadPool.getInstance();
+        final int[] partition = p.partition(rankLists.size());
+        final NormalEquations[] partials = new NormalEquations[partition.length - 1];
+        for (int w = 0; w < partials.length; w++) {
+            final NormalEquations eq = new NormalEquations(features.length + 1);
+            final int start = partition[w];
+            final int end = partition[w + 1];
+            final Runnable task = () -> {
+                final double[] x = new double[features.length + 1];
+                for (int s = start; s < end; s++) {
+                    final RankList rl = rankLists.get(s);
+                    for (int i = 0; i < rl.size(); i++) {
+                        eq.add(toVector(rl.get(i), x), x.length, rl.get(i).getLabel());
+                    }
+                }
+            };
+            partials[w] = eq;
+            if (p.size() == 1) {
+                task.run();
+            } else {
+                p.execute(task);
+            }
+        }
+        if (p.size() > 1) {
+            p.await();
+        }
+        return merge(partials, features.length + 1);
+    }
+
+    /**
+     * Accumulate the normal equations over the data points of @file without loading it: the file is read one block of lines at a
+     * time, and the lines of a block are parsed and accumulated by the threads while the next block is being read.
+     * @param file
+     * @return
+     */
+    protected NormalEquations accumulate(final String file) {
+        final MyThreadPool p = MyThreadPool.getInstance();
+        final int dim = (features == null) ? 1 : features.length + 1;
+        final NormalEquations[] partials = new NormalEquations[p.size()];
+        final double[][] buffers = new double[p.size()][];
+        final int[] shortest = new int[p.size()];//length of the shortest feature vector (without a selection of features)
+        for (int w = 0; w < partials.length; w++) {
+            partials[w] = new NormalEquations(dim);
+            buffers[w] = new double[dim];
+            shortest[w] = Integer.MAX_VALUE;
+        }
+
+        try (final BufferedReader in = FileUtils.smartReader(file)) {
+            long nRead = 0;
+            String[] block = FileUtils.readDataLines(in, BLOCK_SIZE);
+            while (block.length > 0) {
+                final String[] lines = block;
+                final int[] partition = p.partition(lines.length);
+                for (int w = 0; w < partition.length - 1; w++) {
+                    final NormalEquations eq = partials[w];
+                    final int wid = w;
+                    final int start = partition[w];
+                    final int end = partition[w + 1];
+                    final Runnable task = () -> {
+                        for (int i = start; i < end; i++) {
+                            final DataPoint dp = new DenseDataPoint(lines[i]);
+                            final int n = (features == null) ? dp.getFeatureVector().length : dim;
+                            if (buffers[wid].length < n) {
+                                buffers[wid] = new double[n];
+                            }
+                            shortest[wid] = Math.min(shortest[wid], n);
+                            eq.add(toVector(dp, buffers[wid]), n, dp.getLabel());
+                        }
+                    };
+                    if (p.size() == 1) {
+                        task.run();
+                    } else {
+                        p.execute(task);
+                    }
+                }
+                nRead += lines.length;
+                final long n = nRead;
+                logger.info(() -> "Reading feature file [" + file + "]: " + n + " entries... ");
+                block = FileUtils.readDataLines(in, BLOCK_SIZE);
+                if (p.size() > 1) {
+                    p.await();
+                }
+            }
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error in LinearRegRank::accumulate(): ", ex);
+        }
+
+        int maxDim = dim;
+        for (final NormalEquations eq : partials) {
+            maxDim = Math.max(maxDim, eq.dim);
+        }
+        //as when the data is loaded (see DenseDataPoint.getFeatureValue), a data point without the last features is an error, unless
+        //-missingZero is set. The features are only known once the whole file has been read.
+        if (features == null && !DataPoint.missingZero) {
+            for (final int n : shortest) {
+                if (n < maxDim) {
+                    throw RankLibError.create("Error in LinearRegRank::accumulate(): requesting unspecified feature, fid=" + n);
+                }
+            }
+        }
+        return merge(partials, maxDim);
+    }
+
+    /**
+     * @param p
+     * @param x Buffer for the result, long enough for all the features.
+     * @return @x, with 1 (the constant term) at position 0 followed by the values of the selected features (or of features 1, 2, ...
+     * if there's no selection).
+     */
+    private double[] toVector(final DataPoint p, final double[] x) {
+        x[0] = 1;
+        if (features != null) {
+            for (int i = 0; i < features.length; i++) {
+                x[i + 1] = p.getFeatureValue(features[i]);
+            }
+        } else {
+            final float[] fv = p.getFeatureVector();
+            for (int f = 1; f < fv.length; f++) {
+                x[f] = Float.isNaN(fv[f]) ? 0 : fv[f];
+            }
+        }
+        return x;
+    }
+
+    private static NormalEquations merge(final NormalEquations[] partials, final int dim) {
+        final NormalEquations eq = new NormalEquations(dim);
+        for (final NormalEquations partial : partials) {
+            eq.add(partial);
+        }
+        return eq;
+    }
+
     @Override
     public double eval(final DataPoint p) {
         double score = weight[weight.length - 1];
@@ -113,9 +254,24 @@ public class LinearRegRank extends Ranker {
         return new LinearRegRank();
     }
 
+    @Override
+    public boolean canFoldNormalization() {
+        return true;
+    }
+
+    @Override
+    public void foldNormalization(final GlobalNormalizer n) {
+        //w * (x - shift) / scale = (w / scale) * x - w * shift / scale
+        for (int i = 0; i < features.length; i++) {
+            final double scale = n.getScale(features[i]);
+            weight[weight.length - 1] -= weight[i] * n.getShift(features[i]) / scale;
+            weight[i] /= scale;
+        }
+    }
+
     @Override
     public String toString() {
-        String output = "0:" + weight[0] + " ";
+        String output = "0:" + weight[weight.length - 1] + " ";
         for (int i = 0; i < features.length; i++) {
             output += features[i] + ":" + weight[i] + ((i == weight.length - 1) ? "" : " ");
         }
@@ -237,4 +393,133 @@ public class LinearRegRank extends Ranker {
 
         return x;
     }
+
+    /**
+     * Solve a system of linear equations Ax=B with the Cholesky decomposition A = LL^T, in which A has to be symmetric and positive
+     * definite (which xTx + lambda*I is, unless lambda is too small for the rounding errors of collinear features).
+     * @param A
+     * @param B
+     * @return x, or null if A is not positive definite.
+     */
+    protected double[] solveCholesky(final double[][] A, final double[] B) {
+        final int n = B.length;
+        final double[][] l = new double[n][];//lower triangle of L
+        for (int i = 0; i < n; i++) {
+            l[i] = new double[i + 1];
+            for (int j = 0; j <= i; j++) {
+                double s = A[i][j];
+                for (int k = 0; k < j; k++) {
+                    s -= l[i][k] * l[j][k];
+                }
+                if (i == j) {
+                    if (!(s > 0)) {
+                        return null;
+                    }
+                    l[i][i] = Math.sqrt(s);
+                } else {
+                    l[i][j] = s / l[j][j];
+                }
+            }
+        }
+        //Ly=B, then L^Tx=y
+        final double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            double s = B[i];
+            for (int k = 0; k < i; k++) {
+                s -= l[i][k] * y[k];
+            }
+            y[i] = s / l[i][i];
+        }
+        final double[] x = new double[n];
+        for (int i = n - 1; i >= 0; i--) {
+            double s = y[i];
+            for (int k = i + 1; k < n; k++) {
+                s -= l[k][i] * x[k];
+            }
+            x[i] = s / l[i][i];
+        }
+        return x;
+    }
+
+    /**
+     * Running sums xTx and xTy over a set of data points, where x has the constant term at position 0. Only the upper triangle of
+     * xTx is accumulated, and the number of variables grows with the data points added.
+     */
+    protected static class NormalEquations {
+        protected int dim;
+        protected long count = 0;
+        protected double[][] xTx;
+        protected double[] xTy;
+
+        public NormalEquations(final int dim) {
+            this.dim = 0;
+            xTx = new double[0][];
+            xTy = new double[0];
+            grow(dim);
+        }
+
+        public void grow(final int n) {
+            if (n <= dim) {
+                return;
+            }
+            final double[][] a = new double[n][];
+            for (int j = 0; j < n; j++) {
+                a[j] = new double[n];
+                if (j < dim) {
+                    System.arraycopy(xTx[j], 0, a[j], 0, dim);
+                }
+            }
+            xTx = a;
+            xTy = Arrays.copyOf(xTy, n);
+            dim = n;
+        }
+
+        /**
+         * @param x The first @n values are the data point's variables.
+         * @param n
+         * @param y Label of the data point.
+         */
+        public void add(final double[] x, final int n, final double y) {
+            grow(n);
+            for (int j = 0; j < n; j++) {
+                final double xj = x[j];
+                if (xj == 0) {
+                    continue;
+                }
+                xTy[j] += xj * y;
+                final double[] row = xTx[j];
+                for (int k = j; k < n; k++) {
+                    row[k] += xj * x[k];
+                }
+            }
+            count++;
+        }
+
+        public void add(final NormalEquations other) {
+            grow(other.dim);
+            for (int j = 0; j < other.dim; j++) {
+                xTy[j] += other.xTy[j];
+                for (int k = j; k < other.dim; k++) {
+                    xTx[j][k] += other.xTx[j][k];
+                }
+            }
+            count += other.count;
+        }
+
+        /**
+         * @param lambda
+         * @return The full (symmetric) xTx + lambda*I.
+         */
+        public double[][] matrix(final double lambda) {
+            final double[][] a = new double[dim][dim];
+            for (int j = 0; j < dim; j++) {
+                for (int k = j; k < dim; k++) {
+                    a[j][k] = xTx[j][k];
+                    a[k][j] = xTx[j][k];
+                }
+                a[j][j] += lambda;
+            }
+            return a;
+        }
+    }
 }
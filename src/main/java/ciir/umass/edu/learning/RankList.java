@@ -11,7 +11,7 @@ package ciir.umass.edu.learning;
 
 import java.util.List;
 
-import ciir.umass.edu.utilities.Sorter;
+import ciir.umass.edu.utilities.PrimitiveSorter;
 
 /**
  * @author vdang
@@ -82,20 +82,20 @@ public class RankList {
     }
 
     public RankList getCorrectRanking() {
-        final double[] score = new double[rl.length];
+        final float[] score = new float[rl.length];
         for (int i = 0; i < rl.length; i++) {
             score[i] = rl[i].getLabel();
         }
-        final int[] idx = Sorter.sort(score, false);
+        final int[] idx = PrimitiveSorter.sort(score, false);
         return new RankList(this, idx);
     }
 
     public RankList getRanking(final short fid) {
-        final double[] score = new double[rl.length];
+        final float[] score = new float[rl.length];
         for (int i = 0; i < rl.length; i++) {
             score[i] = rl[i].getFeatureValue(fid);
         }
-        final int[] idx = Sorter.sort(score, false);
+        final int[] idx = PrimitiveSorter.sort(score, false);
         return new RankList(this, idx);
     }
 
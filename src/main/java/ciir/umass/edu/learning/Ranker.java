@@ -23,9 +23,10 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.utilities.FileUtils;
-import ciir.umass.edu.utilities.MergeSorter;
+import ciir.umass.edu.utilities.PrimitiveSorter;
 import ciir.umass.edu.utilities.RankLibError;
 
 /**
@@ -43,6 +44,7 @@ public abstract class Ranker {
     protected double bestScoreOnValidationData = 0.0;
 
     protected List<RankList> validationSamples = null;
+    protected GlobalNormalizer normalizer = null;//dataset-level normalization of the training data (saved with the model)
     protected StringBuilder logBuf = new StringBuilder(1000);
 
     protected Ranker() {
@@ -85,12 +87,36 @@ public abstract class Ranker {
         return features;
     }
 
+    /**
+     * Record the dataset-level normalization the training data has gone through, so that it is saved along with the model.
+     * @param normalizer
+     */
+    public void setNormalizer(final GlobalNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * @return true if {@link #foldNormalization(GlobalNormalizer)} is supported by this type of model.
+     */
+    public boolean canFoldNormalization() {
+        return false;
+    }
+
+    /**
+     * Rewrite a model trained on globally normalized features so that it scores raw feature values instead (e.g. by mapping split
+     * thresholds or feature weights back to the raw feature space). Scores may change by a constant, which doesn't affect rankings.
+     * @param n
+     */
+    public void foldNormalization(final GlobalNormalizer n) {
+        throw RankLibError.create(name() + " models cannot absorb feature normalization.");
+    }
+
     public RankList rank(final RankList rl) {
         final double[] scores = new double[rl.size()];
         for (int i = 0; i < rl.size(); i++) {
             scores[i] = eval(rl.get(i));
         }
-        final int[] idx = MergeSorter.sort(scores, false);
+        final int[] idx = PrimitiveSorter.sort(scores, false);
         return new RankList(rl, idx);
     }
 
@@ -118,7 +144,13 @@ public abstract class Ranker {
             }
         }
 
-        FileUtils.write(modelFile, "ASCII", model());
+        String model = model();
+        if (normalizer != null) {
+            //normalization parameters go right below the name of the ranker (first line)
+            final int eol = model.indexOf('\n') + 1;
+            model = model.substring(0, eol) + normalizer.toModelHeader() + model.substring(eol);
+        }
+        FileUtils.write(modelFile, "ASCII", model);
     }
 
     protected void printLog(final int[] len, final String[] msgs) {
@@ -16,8 +16,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.learning.boosting.AdaRank;
 import ciir.umass.edu.learning.boosting.RankBoost;
+import ciir.umass.edu.learning.neuralnet.DenseLambdaRank;
+import ciir.umass.edu.learning.neuralnet.DenseListNet;
+import ciir.umass.edu.learning.neuralnet.DenseRankNet;
 import ciir.umass.edu.learning.neuralnet.LambdaRank;
 import ciir.umass.edu.learning.neuralnet.ListNet;
 import ciir.umass.edu.learning.neuralnet.RankNet;
@@ -37,7 +41,8 @@ public class RankerFactory {
     private static final Logger logger = Logger.getLogger(RankerFactory.class.getName());
 
     protected Ranker[] rFactory = new Ranker[] { new MART(), new RankBoost(), new RankNet(), new AdaRank(), new CoorAscent(),
-            new LambdaRank(), new LambdaMART(), new ListNet(), new RFRanker(), new LinearRegRank() };
+            new LambdaRank(), new LambdaMART(), new ListNet(), new RFRanker(), new LinearRegRank(), new DenseRankNet(), new DenseLambdaRank(),
+            new DenseListNet() };
     protected Map<String, String> map = new HashMap<>();
 
     public RankerFactory() {
@@ -51,6 +56,7 @@ public class RankerFactory {
         map.put(createRanker(RankerType.LISTNET).name().toUpperCase(), RankerType.LISTNET.name());
         map.put(createRanker(RankerType.RANDOM_FOREST).name().toUpperCase(), RankerType.RANDOM_FOREST.name());
         map.put(createRanker(RankerType.LINEAR_REGRESSION).name().toUpperCase(), RankerType.LINEAR_REGRESSION.name());
+        //the dense neural networks write RankNet/LambdaRank/ListNet models, which are loaded as such
     }
 
     public void register(final String name, final String className) {
@@ -111,6 +117,11 @@ public class RankerFactory {
             logger.info(() -> "Model: " + content);
             final Ranker r = createRanker(map.get(content.toUpperCase()));
             r.loadFromString(fullText);
+            //models trained on globally normalized features take raw feature values once loaded
+            final GlobalNormalizer n = GlobalNormalizer.fromModel(fullText);
+            if (n != null) {
+                r.foldNormalization(n);
+            }
             return r;
         } catch (final Exception ex) {
             throw RankLibError.create(ex);
@@ -10,5 +10,6 @@
 package ciir.umass.edu.learning;
 
 public enum RankerType {
-    MART, RANKBOOST, RANKNET, ADARANK, COOR_ASCENT, LAMBDARANK, LAMBDAMART, LISTNET, RANDOM_FOREST, LINEAR_REGRESSION
+    MART, RANKBOOST, RANKNET, ADARANK, COOR_ASCENT, LAMBDARANK, LAMBDAMART, LISTNET, RANDOM_FOREST, LINEAR_REGRESSION,
+    RANKNET_DENSE, LAMBDARANK_DENSE, LISTNET_DENSE
 }
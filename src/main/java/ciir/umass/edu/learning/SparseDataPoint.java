@@ -78,6 +78,31 @@ public class SparseDataPoint extends DataPoint {
         return locate(fid) != -1;
     }
 
+    /**
+     * @return The number of features explicitly stored in this data point.
+     */
+    public int size() {
+        return fIds.length;
+    }
+
+    /**
+     * Positional access to the stored features (in ascending order of feature id). These avoid the per-access search
+     * done by {@link #getFeatureValue(int)} when a caller scans all stored entries.
+     * @param pos
+     * @return
+     */
+    public int getFeatureIdAt(final int pos) {
+        return fIds[pos];
+    }
+
+    public float getFeatureValueAt(final int pos) {
+        return fVals[pos];
+    }
+
+    public void setFeatureValueAt(final int pos, final float fval) {
+        fVals[pos] = fval;
+    }
+
     @Override
     public float getFeatureValue(final int fid) {
         if (fid <= 0 || fid > getFeatureCount()) {
@@ -94,6 +119,15 @@ public class SparseDataPoint extends DataPoint {
         return 0; // Should ideally be returning unknown?
     }
 
+    @Override
+    public boolean isMissing(final int fid) {
+        if (fid <= 0 || fid > getFeatureCount()) {
+            return true;
+        }
+        final int pos = locate(fid);
+        return pos < 0 || isUnknown(fVals[pos]);
+    }
+
     @Override
     public void setFeatureValue(final int fid, final float fval) {
         if (fid <= 0 || fid > getFeatureCount()) {
@@ -16,11 +16,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Logger;
 
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.learning.Ranker;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.utilities.KeyValuePair;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.PrimitiveSorter;
 import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
 
@@ -56,6 +59,11 @@ public class AdaRank extends Ranker {
     protected double backupTrainScore = 0.0;
     protected double lastTrainedScore = -1.0;
 
+    //A weak ranker only ever ranks a query one way, so its score on each query is computed once and for all
+    protected HashMap<Integer, double[]> weakRankerScores = new HashMap<>();//fid -> score of WeakRanker(fid) on each query
+    //Scores of the current model on the training data, updated as weak rankers are added (they are the same as eval())
+    protected double[][] modelScores = null;
+    protected double[][] backupModelScores = null;
     public AdaRank() {
 
     }
@@ -79,16 +87,16 @@ public class AdaRank extends Ranker {
                 continue;
             }
 
-            final WeakRanker wr = new WeakRanker(i);
+            final double[] scores = weakRankerScores.get(i);
             double s = 0.0;
             for (int j = 0; j < samples.size(); j++) {
-                final double t = scorer.score(wr.rank(samples.get(j))) * sweight[j];
+                final double t = scores[j] * sweight[j];
                 s += t;
             }
 
             if (bestScore < s) {
                 bestScore = s;
-                bestWR = wr;
+                bestWR = new WeakRanker(i);
             }
         }
         return bestWR;
@@ -113,6 +121,7 @@ public class AdaRank extends Ranker {
                     rankers.remove(rankers.size() - 1);
                     rweight.remove(rweight.size() - 1);
                     copy(backupSampleWeight, sweight);
+                    modelScores = backupModelScores;
                     bestScoreOnValidationData = 0.0;//no best model just yet
                     lastTrainedScore = backupTrainScore;
                     printLogLn(new int[] { 8, 9, 9, 9 }, new String[] { Integer.toString(bestWR.getFID()), "", "", "ROLLBACK" });
@@ -121,14 +130,16 @@ public class AdaRank extends Ranker {
                     lastFeature = bestWR.getFID();
                     //save the distribution of samples' weight in case we need to rollback
                     copy(sweight, backupSampleWeight);
+                    backupModelScores = modelScores;
                     backupTrainScore = lastTrainedScore;
                 }
             }
 
             double num = 0.0;
             double denom = 0.0;
+            final double[] wrScores = weakRankerScores.get(bestWR.getFID());
             for (int i = 0; i < samples.size(); i++) {
-                final double tmp = scorer.score(bestWR.rank(samples.get(i)));
+                final double tmp = wrScores[i];
                 num += sweight[i] * (1.0 + tmp);
                 denom += sweight[i] * (1.0 - tmp);
             }
@@ -140,8 +151,11 @@ public class AdaRank extends Ranker {
             double trainedScore = 0.0;
             //update the distribution of sample weight
             double total = 0.0;
-            for (final RankList sample : samples) {
-                final double tmp = scorer.score(rank(sample));
+            final double[][] scores = addToModelScores(bestWR.getFID(), alpha_t);
+            final double[] sampleScores = new double[samples.size()];
+            for (int i = 0; i < samples.size(); i++) {
+                final double tmp = scorer.score(new RankList(samples.get(i), PrimitiveSorter.sort(scores[i], false)));
+                sampleScores[i] = tmp;
                 total += Math.exp(-alpha_t * tmp);
                 trainedScore += tmp;
             }
@@ -194,13 +208,65 @@ public class AdaRank extends Ranker {
             }
 
             lastTrainedScore = trainedScore;
+            modelScores = scores;
             for (int i = 0; i < sweight.length; i++) {
-                sweight[i] *= Math.exp(-alpha_t * scorer.score(rank(samples.get(i)))) / total;
+                sweight[i] *= Math.exp(-alpha_t * sampleScores[i]) / total;
             }
         }
         return t;
     }
 
+    /**
+     * @param fid
+     * @param alpha
+     * @return The scores of the current model plus @alpha times feature @fid on the training data (the current ones are unchanged).
+     */
+    private double[][] addToModelScores(final int fid, final double alpha) {
+        final double[][] scores = new double[samples.size()][];
+        for (int i = 0; i < samples.size(); i++) {
+            final RankList rl = samples.get(i);
+            scores[i] = new double[rl.size()];
+            for (int j = 0; j < rl.size(); j++) {
+                scores[i][j] = modelScores[i][j] + alpha * rl.get(j).getFeatureValue(fid);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Compute the score of every weak ranker on every training query. Features are spread over the thread pool.
+     */
+    private void scoreWeakRankers() {
+        final double[][] scores = new double[features.length][];
+        final MyThreadPool p = MyThreadPool.getInstance();
+        final int[] partition = p.partition(features.length);
+        for (int i = 0; i < partition.length - 1; i++) {
+            final int start = partition[i];
+            final int end = partition[i + 1];
+            final Runnable task = () -> {
+                for (int f = start; f < end; f++) {
+                    final WeakRanker wr = new WeakRanker(features[f]);
+                    scores[f] = new double[samples.size()];
+                    for (int j = 0; j < samples.size(); j++) {
+                        scores[f][j] = scorer.score(wr.rank(samples.get(j)));
+                    }
+                }
+            };
+            if (p.size() == 1) {
+                task.run();
+            } else {
+                p.execute(task);
+            }
+        }
+        if (p.size() > 1) {
+            p.await();
+        }
+        weakRankerScores.clear();
+        for (int f = 0; f < features.length; f++) {
+            weakRankerScores.put(features[f], scores[f]);
+        }
+    }
+
     @Override
     public void init() {
         logger.info(() -> "Initializing... ");
@@ -224,6 +290,12 @@ public class AdaRank extends Ranker {
         bestModelRankers = new ArrayList<>();
         bestModelWeights = new ArrayList<>();
 
+        scoreWeakRankers();
+        modelScores = new double[samples.size()][];
+        for (int i = 0; i < samples.size(); i++) {
+            modelScores[i] = new double[samples.get(i).size()];
+        }
+        backupModelScores = modelScores;
     }
 
     @Override
@@ -275,6 +347,19 @@ public class AdaRank extends Ranker {
         return new AdaRank();
     }
 
+    @Override
+    public boolean canFoldNormalization() {
+        return true;
+    }
+
+    @Override
+    public void foldNormalization(final GlobalNormalizer n) {
+        //the final model is linear in the features: only the scale matters, the shift adds a constant to every score
+        for (int j = 0; j < rankers.size(); j++) {
+            rweight.set(j, rweight.get(j) / n.getScale(rankers.get(j).getFID()));
+        }
+    }
+
     @Override
     public String toString() {
         final StringBuilder output = new StringBuilder();
@@ -15,11 +15,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.learning.Ranker;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.utilities.MergeSorter;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.QuantileSketch;
 import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
 
@@ -35,8 +38,12 @@ public class RankBoost extends Ranker {
 
     public static int nIteration = 300;//number of rounds
     public static int nThreshold = 10;
+    public static boolean quantileThresholds = false;//equal-frequency instead of equal-width threshold candidates
 
-    protected double[][][] sweight = null;//sample weight D(x_0, x_1) -- the weight of x_1 ranked above x_2
+    //The sample weight D(x_0, x_1) of each crucial pair (x_0 ranked above x_1) is exp(F(x_1) - F(x_0)) / @pairMass, F being the current
+    //model (Freund et al., section 3.2). So it is never stored: D and the potentials it gives are computed from F in O(n) per query.
+    protected double[][] modelScores = null;//F(x)
+    protected double pairMass = 0.0;//sum of exp(F(x_1) - F(x_0)) over all crucial pairs
     protected double[][] potential = null;//pi(x)
     protected List<List<int[]>> sortedSamples = new ArrayList<>();
     protected double[][] thresholds = null;//candidate values for weak rankers' threshold, selected from feature values
@@ -74,18 +81,87 @@ public class RankBoost extends Ranker {
      */
     private void updatePotential() {
         for (int i = 0; i < samples.size(); i++) {
-            final RankList rl = samples.get(i);
-            for (int j = 0; j < rl.size(); j++) {
-                double p = 0.0;
-                for (int k = j + 1; k < rl.size(); k++) {
-                    p += sweight[i][j][k];
-                }
-                for (int k = 0; k < j; k++) {
-                    p -= sweight[i][k][j];
+            pairSums(samples.get(i), modelScores[i], potential[i]);
+            for (int j = 0; j < potential[i].length; j++) {
+                potential[i][j] /= pairMass;
+            }
+        }
+    }
+
+    /**
+     * @return The sum of exp(F(x_1) - F(x_0)) over all crucial pairs.
+     */
+    private double pairMass() {
+        double mass = 0.0;
+        for (int i = 0; i < samples.size(); i++) {
+            mass += pairSums(samples.get(i), modelScores[i], null);
+        }
+        return mass;
+    }
+
+    /**
+     * With u(x) = exp(F(x)) and v(x) = exp(-F(x)), the weight of a crucial pair <x_0, x_1> is v(x_0) u(x_1) (up to normalization): the
+     * pairs a sample is part of add up to v(x) * [sum of u over samples with a lower label] for those where it is ranked above, and to
+     * u(x) * [sum of v over samples with a higher label] for the others. Samples are sorted by label (see {@link #init()}), so both sums
+     * take one pass over the query.
+     * @param rl Query, sorted by label
+     * @param f F(x) of each sample of the query
+     * @param potential If not null, receives the (unnormalized) potential of each sample of the query.
+     * @return The (unnormalized) total weight of the query's crucial pairs.
+     */
+    static double pairSums(final RankList rl, final double[] f, final double[] potential) {
+        final int n = rl.size();
+        //F is only defined up to a constant within a query: center it to keep exp() in range
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < n; j++) {
+            min = Math.min(min, f[j]);
+            max = Math.max(max, f[j]);
+        }
+        final double shift = (n == 0) ? 0 : (min + max) / 2;
+        final double[] u = new double[n];
+        final double[] v = new double[n];
+        for (int j = 0; j < n; j++) {
+            u[j] = Math.exp(f[j] - shift);
+            v[j] = Math.exp(shift - f[j]);
+        }
+
+        //sum of u over samples with a lower label than j's
+        final double[] lower = new double[n];
+        double sum = 0.0;
+        for (int j = n - 1; j >= 0;) {
+            int start = j;
+            while (start > 0 && rl.get(start - 1).getLabel() == rl.get(j).getLabel()) {
+                start--;
+            }
+            double group = 0.0;
+            for (int k = start; k <= j; k++) {
+                lower[k] = sum;
+                group += u[k];
+            }
+            sum += group;
+            j = start - 1;
+        }
+
+        double mass = 0.0;
+        sum = 0.0;//sum of v over samples with a higher label than j's
+        for (int j = 0; j < n;) {
+            int end = j;
+            while (end < n - 1 && rl.get(end + 1).getLabel() == rl.get(j).getLabel()) {
+                end++;
+            }
+            double group = 0.0;
+            for (int k = j; k <= end; k++) {
+                mass += v[k] * lower[k];
+                if (potential != null) {
+                    potential[k] = v[k] * lower[k] - u[k] * sum;
                 }
-                potential[i][j] = p;
+                group += v[k];
             }
+            sum += group;
+            j = end + 1;
         }
+        return mass;
     }
 
     /**
@@ -94,41 +170,37 @@ public class RankBoost extends Ranker {
      * @return The learned weak ranker. The value of <i>current_r</i> is also updated to be the best r observed.
      */
     private RBWeakRanker learnWeakRanker() {
+        //each feature's best threshold, with features spread over the thread pool
+        final double[] featureR = new double[features.length];
+        final double[] featureThreshold = new double[features.length];
+        final MyThreadPool p = MyThreadPool.getInstance();
+        final int[] partition = p.partition(features.length);
+        for (int i = 0; i < partition.length - 1; i++) {
+            final int start = partition[i];
+            final int end = partition[i + 1];
+            final Runnable task = () -> {
+                for (int f = start; f < end; f++) {
+                    learnThreshold(f, featureR, featureThreshold);
+                }
+            };
+            if (p.size() == 1) {
+                task.run();
+            } else {
+                p.execute(task);
+            }
+        }
+        if (p.size() > 1) {
+            p.await();
+        }
+
         int bestFid = -1;
         double maxR = -10;
         double bestThreshold = -1.0;
         for (int i = 0; i < features.length; i++) {
-            final List<int[]> sSortedIndex = sortedSamples.get(i);//samples sorted (descending) by the current feature
-            final int[] idx = tSortedIdx[i];//candidate thresholds for the current features
-            final int[] last = new int[samples.size()];//the last "touched" (and taken) position in each sample rank list
-            for (int j = 0; j < samples.size(); j++) {
-                last[j] = -1;
-            }
-
-            double r = 0.0;
-            for (final int element : idx) {
-                final double t = thresholds[i][element];
-                //we want something t < threshold <= tp
-                for (int k = 0; k < samples.size(); k++) {
-                    final RankList rl = samples.get(k);
-                    final int[] sk = sSortedIndex.get(k);
-                    for (int l = last[k] + 1; l < rl.size(); l++) {
-                        final DataPoint p = rl.get(sk[l]);
-                        if (p.getFeatureValue(features[i]) > t)//take it
-                        {
-                            r += potential[k][sk[l]];
-                            last[k] = l;
-                        } else {
-                            break;
-                        }
-                    }
-                }
-                //finish computing r
-                if (r > maxR) {
-                    maxR = r;
-                    bestThreshold = t;
-                    bestFid = features[i];
-                }
+            if (featureR[i] > maxR) {
+                maxR = featureR[i];
+                bestThreshold = featureThreshold[i];
+                bestFid = features[i];
             }
         }
         if (bestFid == -1) {
@@ -140,6 +212,50 @@ public class RankBoost extends Ranker {
         return new RBWeakRanker(bestFid, bestThreshold);
     }
 
+    /**
+     * Find the threshold that maximizes r for the i-th feature.
+     * @param i
+     * @param featureR Receives the best r in [i] (-10 if none).
+     * @param featureThreshold Receives the corresponding threshold in [i].
+     */
+    private void learnThreshold(final int i, final double[] featureR, final double[] featureThreshold) {
+        double maxR = -10;
+        double bestThreshold = -1.0;
+        final List<int[]> sSortedIndex = sortedSamples.get(i);//samples sorted (descending) by the current feature
+        final int[] idx = tSortedIdx[i];//candidate thresholds for the current features
+        final int[] last = new int[samples.size()];//the last "touched" (and taken) position in each sample rank list
+        for (int j = 0; j < samples.size(); j++) {
+            last[j] = -1;
+        }
+
+        double r = 0.0;
+        for (final int element : idx) {
+            final double t = thresholds[i][element];
+            //we want something t < threshold <= tp
+            for (int k = 0; k < samples.size(); k++) {
+                final RankList rl = samples.get(k);
+                final int[] sk = sSortedIndex.get(k);
+                for (int l = last[k] + 1; l < rl.size(); l++) {
+                    final DataPoint p = rl.get(sk[l]);
+                    if (p.getFeatureValue(features[i]) > t)//take it
+                    {
+                        r += potential[k][sk[l]];
+                        last[k] = l;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            //finish computing r
+            if (r > maxR) {
+                maxR = r;
+                bestThreshold = t;
+            }
+        }
+        featureR[i] = maxR;
+        featureThreshold[i] = bestThreshold;
+    }
+
     @Override
     public void init() {
         logger.info(() -> "Initializing... ");
@@ -162,23 +278,13 @@ public class RankBoost extends Ranker {
             }
         }
 
-        //compute weight for all correctly ranked pairs
-        sweight = new double[samples.size()][][];
+        //all correctly ranked pairs start with the same weight (F = 0)
+        modelScores = new double[samples.size()][];
         for (int i = 0; i < samples.size(); i++) {
-            final RankList rl = samples.get(i);
-            sweight[i] = new double[rl.size()][];
-            for (int j = 0; j < rl.size() - 1; j++) {
-                sweight[i][j] = new double[rl.size()];
-                for (int k = j + 1; k < rl.size(); k++) {
-                    if (rl.get(j).getLabel() > rl.get(k).getLabel()) {
-                        sweight[i][j][k] = 1.0 / totalCorrectPairs;
-                    } else {
-                        sweight[i][j][k] = 0.0;//not crucial pairs
-                    }
-                }
-            }
+            modelScores[i] = new double[samples.get(i).size()];
         }
-
+        pairMass = totalCorrectPairs;
+        Z_t = 1.0;
         //init potential matrix
         potential = new double[samples.size()][];
         for (int i = 0; i < samples.size(); i++) {
@@ -207,6 +313,32 @@ public class RankBoost extends Ranker {
                     c++;
                 }
             }
+        } else if (quantileThresholds) {
+            //one pass over the data, one sketch per feature
+            final QuantileSketch[] sketches = new QuantileSketch[features.length];
+            for (int i = 0; i < features.length; i++) {
+                sketches[i] = new QuantileSketch(Math.max(200, 4 * nThreshold));
+            }
+            for (int i = 0; i < samples.size(); i++) {
+                final RankList rl = samples.get(i);
+                for (int j = 0; j < rl.size(); j++) {
+                    final DataPoint dp = rl.get(j);
+                    for (int k = 0; k < features.length; k++) {
+                        sketches[k].update(dp.getFeatureValue(features[k]));
+                    }
+                }
+            }
+
+            //same layout as the equal-width candidates: from the max down, then "below min"
+            thresholds = new double[features.length][];
+            for (int i = 0; i < features.length; i++) {
+                final float[] points = sketches[i].splitPoints(nThreshold);
+                thresholds[i] = new double[points.length + 1];
+                for (int j = 0; j < points.length; j++) {
+                    thresholds[i][j] = points[points.length - 1 - j];
+                }
+                thresholds[i][points.length] = sketches[i].min() - 1.0E8;
+            }
         } else {
             final double[] fmax = new double[features.length];
             final double[] fmin = new double[features.length];
@@ -278,23 +410,17 @@ public class RankBoost extends Ranker {
             wRankers.add(wr);
             rWeight.add(alpha_t);
 
-            //update sample pairs' weight distribution
-            Z_t = 0.0;//normalization factor
+            //update sample pairs' weight distribution: D_t+1(x_j, x_k) = D_t(x_j, x_k) * exp(alpha_t * (h_t(x_k) - h_t(x_j))) / Z_t
+            //i.e. if our h_t ranks x_j higher than x_k, decrease the weight of this pair, otherwise, increase it
             for (int i = 0; i < samples.size(); i++) {
                 final RankList rl = samples.get(i);
-                final double[][] D_t = new double[rl.size()][];
-                for (int j = 0; j < rl.size() - 1; j++) {
-                    D_t[j] = new double[rl.size()];
-                    for (int k = j + 1; k < rl.size(); k++) {
-                        //we should rank x_j higher than x_k
-                        //so if our h_t does so, decrease the weight of this pair
-                        //otherwise, increase its weight
-                        D_t[j][k] = sweight[i][j][k] * Math.exp(alpha_t * (wr.score(rl.get(k)) - wr.score(rl.get(j))));
-                        Z_t += D_t[j][k];
-                    }
+                for (int j = 0; j < rl.size(); j++) {
+                    modelScores[i][j] += alpha_t * wr.score(rl.get(j));
                 }
-                sweight[i] = D_t;
             }
+            final double mass = pairMass();
+            Z_t = mass / pairMass;//normalization factor
+            pairMass = mass;
 
             printLog(new int[] { 7, 8, 9, 9 }, new String[] { Integer.toString(t), Integer.toString(wr.getFid()),
                     Double.toString(SimpleMath.round(wr.getThreshold(), 4)), Double.toString(SimpleMath.round(R_t, 4)) });
@@ -315,16 +441,6 @@ public class RankBoost extends Ranker {
             flushLog();
 
             //logger.info(()->"Z_t = " + Z + "\tr = " + current_r + "\t" + Math.sqrt(1.0 - current_r*current_r));
-            //normalize sweight to make sure it is a valid distribution
-            for (int i = 0; i < samples.size(); i++) {
-                final RankList rl = samples.get(i);
-                for (int j = 0; j < rl.size() - 1; j++) {
-                    for (int k = j + 1; k < rl.size(); k++) {
-                        sweight[i][j][k] /= Z_t;
-                    }
-                }
-            }
-
         }
 
         //if validation data is specified ==> best model on this data has been saved
@@ -359,6 +475,19 @@ public class RankBoost extends Ranker {
         return new RankBoost();
     }
 
+    @Override
+    public boolean canFoldNormalization() {
+        return true;
+    }
+
+    @Override
+    public void foldNormalization(final GlobalNormalizer n) {
+        for (int j = 0; j < wRankers.size(); j++) {
+            final RBWeakRanker wr = wRankers.get(j);
+            wRankers.set(j, new RBWeakRanker(wr.getFid(), n.denormalizeThreshold(wr.getFid(), wr.getThreshold())));
+        }
+    }
+
     @Override
     public String toString() {
         final StringBuilder output = new StringBuilder();
@@ -430,6 +559,9 @@ public class RankBoost extends Ranker {
     public void printParameters() {
         logger.info(() -> "No. of rounds: " + nIteration);
         logger.info(() -> "No. of threshold candidates: " + nThreshold);
+        if (quantileThresholds) {
+            logger.info(() -> "Threshold candidates: equal-frequency (quantile sketch)");
+        }
     }
 
     @Override
@@ -0,0 +1,119 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.neuralnet;
+
+import java.util.List;
+
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.metric.MetricScorer;
+
+/**
+ * {@link LambdaRank} on the dense network of {@link DenseRankNet}. Its models are loaded by {@link LambdaRank}.
+ */
+public class DenseLambdaRank extends DenseRankNet {
+    //Parameters
+    //Inherits *ALL* parameters from RankNet
+
+    public DenseLambdaRank() {
+
+    }
+
+    public DenseLambdaRank(final List<RankList> samples, final int[] features, final MetricScorer scorer) {
+        super(samples, features, scorer);
+    }
+
+    @Override
+    protected PropParameter computePairs(final RankList rl) {
+        final int[][] pairs = new int[rl.size()][];
+        final float[][] targetValue = new float[rl.size()][];
+        for (int i = 0; i < rl.size(); i++) {
+            int count = 0;
+            for (int j = 0; j < rl.size(); j++) {
+                if (rl.get(i).getLabel() != rl.get(j).getLabel()) {
+                    count++;
+                }
+            }
+
+            pairs[i] = new int[count];
+            targetValue[i] = new float[count];
+            int k = 0;
+            for (int j = 0; j < rl.size(); j++) {
+                if (rl.get(i).getLabel() != rl.get(j).getLabel()) {
+                    pairs[i][k] = j;
+                    targetValue[i][k] = (rl.get(i).getLabel() > rl.get(j).getLabel()) ? 1 : 0;
+                    k++;
+                }
+            }
+        }
+        return new PropParameter(-1, pairs, computePairWeight(pairs, rl), targetValue);
+    }
+
+    @Override
+    protected RankList internalReorder(final RankList rl) {
+        return rank(rl);
+    }
+
+    protected float[][] computePairWeight(final int[][] pairMap, final RankList rl) {
+        final double[][] changes = scorer.swapChange(rl);
+        final float[][] weight = new float[pairMap.length][];
+        for (int i = 0; i < weight.length; i++) {
+            weight[i] = new float[pairMap[i].length];
+            for (int j = 0; j < pairMap[i].length; j++) {
+                final int sign = (rl.get(i).getLabel() > rl.get(pairMap[i][j]).getLabel()) ? 1 : -1;
+                weight[i][j] = (float) Math.abs(changes[i][pairMap[i][j]]) * sign;
+            }
+        }
+        return weight;
+    }
+
+    @Override
+    protected double lambda(final PropParameter param, final int i, final int k, final double oi, final double oj) {
+        return param.pairWeight[i][k] * (param.targetValue[i][k] - 1.0 / (1.0 + Math.exp(-(oi - oj))));
+    }
+
+    @Override
+    protected float pairWeight(final PropParameter param, final int i, final int k) {
+        return param.pairWeight[i][k];
+    }
+
+    @Override
+    protected void estimateLoss() {
+        misorderedPairs = 0;
+        for (int j = 0; j < samples.size(); j++) {
+            final RankList rl = samples.get(j);
+            final double[] o = scores(rl);
+            for (int k = 0; k < rl.size() - 1; k++) {
+                for (int l = k + 1; l < rl.size(); l++) {
+                    if (rl.get(k).getLabel() > rl.get(l).getLabel() && o[k] < o[l]) {
+                        misorderedPairs++;
+                    }
+                }
+            }
+        }
+        error = 1.0 - scoreOnTrainingData;
+        if (error > lastError) {
+            straightLoss++;
+        } else {
+            straightLoss = 0;
+        }
+        lastError = error;
+    }
+
+    @Override
+    public Ranker createNew() {
+        return new DenseLambdaRank();
+    }
+
+    @Override
+    public String name() {
+        return "LambdaRank";
+    }
+}
@@ -0,0 +1,160 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.neuralnet;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.utilities.SimpleMath;
+
+/**
+ * {@link ListNet} on the dense network of {@link DenseRankNet}. Its models are loaded by {@link ListNet}.
+ */
+public class DenseListNet extends DenseRankNet {
+    private static final Logger logger = Logger.getLogger(DenseListNet.class.getName());
+
+    //Parameters: those of ListNet
+
+    public DenseListNet() {
+    }
+
+    public DenseListNet(final List<RankList> samples, final int[] features, final MetricScorer scorer) {
+        super(samples, features, scorer);
+    }
+
+    /**
+     * Move the weights of the (single) output layer along the gradient of the cross entropy between the top-one probabilities of the
+     * labels and those of the outputs of the network on @rl.
+     * @param rl
+     * @param out Outputs of the network on @rl.
+     * @param target Where the weight changes go (see {@link DenseRankNet#learn(RankList, double[][])}).
+     */
+    protected void backPropagate(final RankList rl, final double[][] out, final double[][] target) {
+        final int m = rl.size();
+        final int o = size.length - 1;
+        final double[] in = out[o - 1];
+        final int nIn = size[o - 1];
+        final double[] d = new double[m];//d1[l] - d2[l]
+        for (int j = 0; j < size[o]; j++) {
+            double sumLabelExp = 0;
+            double sumScoreExp = 0;
+            for (int i = 0; i < m; i++) {
+                sumLabelExp += Math.exp(rl.get(i).getLabel());
+                sumScoreExp += Math.exp(out[o][i * size[o] + j]);
+            }
+            for (int i = 0; i < m; i++) {
+                d[i] = Math.exp(rl.get(i).getLabel()) / sumLabelExp - Math.exp(out[o][i * size[o] + j]) / sumScoreExp;
+            }
+
+            final double[] w = target[o];
+            final int row = j * (nIn + 1);
+            for (int c = 0; c <= nIn; c++) {
+                double dw = 0;
+                for (int i = 0; i < m; i++) {
+                    dw += d[i] * ((c == nIn) ? 1.0 : in[i * nIn + c]);
+                }
+                w[row + c] += dw * learningRate;
+            }
+        }
+    }
+
+    @Override
+    protected void learn(final RankList rl, final double[][] target) {
+        backPropagate(rl, feedForward(rl), target);
+    }
+
+    @Override
+    public void init() {
+        logger.info(() -> "Initializing... ");
+
+        //Set up the network
+        setUp(new int[0]);
+
+        if (validationSamples != null) {
+            bestModelOnValidation = newBuffer();
+        }
+        learningRate = ListNet.learningRate;
+    }
+
+    @Override
+    public void learn() {
+        logger.info(() -> "Training starts...");
+        printLogLn(new int[] { 7, 14, 9, 9 }, new String[] { "#epoch", "C.E. Loss", scorer.name() + "-T", scorer.name() + "-V" });
+
+        for (int i = 1; i <= ListNet.nIteration; i++) {
+            learnEpoch();
+            printLog(new int[] { 7, 14 }, new String[] { Integer.toString(i), Double.toString(SimpleMath.round(error, 6)) });
+            scoreOnTrainingData = scorer.score(rank(samples));
+            printLog(new int[] { 9 }, new String[] { Double.toString(SimpleMath.round(scoreOnTrainingData, 4)) });
+            if (validationSamples != null) {
+                final double score = scorer.score(rank(validationSamples));
+                if (score > bestScoreOnValidationData) {
+                    bestScoreOnValidationData = score;
+                    saveBestModelOnValidation();
+                }
+                printLog(new int[] { 9 }, new String[] { Double.toString(SimpleMath.round(score, 4)) });
+            }
+            flushLog();
+        }
+
+        //if validation data is specified ==> best model on this data has been saved
+        //we now restore the current model to that best model
+        if (validationSamples != null) {
+            restoreBestModelOnValidation();
+        }
+
+        scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+        logger.info(() -> "Finished sucessfully.");
+        logger.info(() -> scorer.name() + " on training data: " + scoreOnTrainingData);
+        if (validationSamples != null) {
+            bestScoreOnValidationData = scorer.score(rank(validationSamples));
+            logger.info(() -> scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
+        }
+    }
+
+    @Override
+    public Ranker createNew() {
+        return new DenseListNet();
+    }
+
+    @Override
+    public String model() {
+        final StringBuilder output = new StringBuilder();
+        output.append("## " + name() + "\n");
+        output.append("## Epochs = " + ListNet.nIteration + "\n");
+        output.append("## No. of features = " + features.length + "\n");
+
+        //print used features
+        for (int i = 0; i < features.length; i++) {
+            output.append(features[i] + ((i == features.length - 1) ? "" : " "));
+        }
+        output.append("\n");
+        //print network information
+        output.append("0\n");//[# hidden layers, *ALWAYS* 0 since we're using linear net]
+        //print learned weights
+        output.append(toString());
+        return output.toString();
+    }
+
+    @Override
+    public void printParameters() {
+        logger.info(() -> "No. of epochs: " + ListNet.nIteration);
+        logger.info(() -> "Learning rate: " + ListNet.learningRate);
+        printBatchParameters();
+    }
+
+    @Override
+    public String name() {
+        return "ListNet";
+    }
+}
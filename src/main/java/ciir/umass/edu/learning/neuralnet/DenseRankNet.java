@@ -0,0 +1,751 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.neuralnet;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.PrimitiveSorter;
+import ciir.umass.edu.utilities.RankLibError;
+import ciir.umass.edu.utilities.SimpleMath;
+
+/**
+ * RankNet on a dense network: the weights of each layer are one row-major matrix and a whole {@link RankList} goes through a layer as
+ * one matrix product, instead of {@link Layer}s of {@link Neuron}s linked by {@link Synapse}s that keep a boxed output per document.
+ *
+ * It trains exactly like {@link RankNet} (same initial weights, same updates in the same order, so the same model given the same
+ * random sequence) and writes the same model files, which {@link RankNet} loads.
+ */
+public class DenseRankNet extends Ranker {
+    private static final Logger logger = Logger.getLogger(DenseRankNet.class.getName());
+
+    //Parameters: those of RankNet, plus
+    public static int batchSize = 0;//rank lists per mini-batch (0: online updates after each document, as in RankNet)
+    public static boolean hogwild = false;//mini-batch workers update the weights directly (lock-free) instead of through buffers
+    public static boolean factorized = false;//one back-propagation per document with the sum of its pairs' lambdas
+
+    //Variables
+    protected final TransferFunction tfunc = new LogiFunction();
+    protected int[] size = null;//size[l]: number of neurons of layer l (not counting the bias in the input layer)
+    protected double[][] weight = null;//weight[l] (l >= 1): size[l] x (size[l-1]+1) incoming weights of layer l, the bias last
+    protected double[][] bestModelOnValidation = null;
+    protected double learningRate = RankNet.learningRate;
+
+    protected int totalPairs = 0;
+    protected int misorderedPairs = 0;
+    protected double error = 0.0;
+    protected double lastError = Double.MAX_VALUE;
+    protected int straightLoss = 0;
+
+    public DenseRankNet() {
+    }
+
+    public DenseRankNet(final List<RankList> samples, final int[] features, final MetricScorer scorer) {
+        super(samples, features, scorer);
+    }
+
+    /**
+     * Set up a network with @hidden[i] neurons in the i-th hidden layer and random weights.
+     * @param hidden
+     */
+    protected void setUp(final int[] hidden) {
+        size = new int[hidden.length + 2];
+        size[0] = features.length;
+        System.arraycopy(hidden, 0, size, 1, hidden.length);
+        size[size.length - 1] = 1;
+        weight = new double[size.length][];
+        for (int l = 1; l < size.length; l++) {
+            weight[l] = new double[size[l] * (size[l - 1] + 1)];
+        }
+
+        //draw the weights in the order RankNet::wire() creates its synapses
+        for (int i = 0; i < size[0]; i++) {
+            for (int j = 0; j < size[1]; j++) {
+                weight[1][j * (size[0] + 1) + i] = randomWeight();
+            }
+        }
+        for (int l = 1; l < size.length - 1; l++) {
+            for (int j = 0; j < size[l]; j++) {
+                for (int k = 0; k < size[l + 1]; k++) {
+                    weight[l + 1][k * (size[l] + 1) + j] = randomWeight();
+                }
+            }
+        }
+        for (int l = 1; l < size.length; l++) {
+            for (int j = 0; j < size[l]; j++) {
+                weight[l][j * (size[l - 1] + 1) + size[l - 1]] = randomWeight();
+            }
+        }
+    }
+
+    private static double randomWeight() {
+        return (Synapse.random.nextInt(2) == 0 ? 1 : -1) * Synapse.random.nextFloat() / 10;
+    }
+
+    /**
+     * Feed all documents of @rl through the network.
+     * @param rl
+     * @return out[l][d * size[l] + j]: output of neuron j of layer l on document d (the feature values for the input layer).
+     */
+    protected double[][] feedForward(final RankList rl) {
+        final int m = rl.size();
+        final double[] input = new double[m * size[0]];
+        for (int d = 0; d < m; d++) {
+            final DataPoint p = rl.get(d);
+            for (int k = 0; k < size[0]; k++) {
+                input[d * size[0] + k] = p.getFeatureValue(features[k]);
+            }
+        }
+        return feedForward(input, m);
+    }
+
+    protected double[][] feedForward(final double[] input, final int m) {
+        final double[][] out = new double[size.length][];
+        out[0] = input;
+        for (int l = 1; l < size.length; l++) {
+            final double[] in = out[l - 1];
+            final double[] w = weight[l];
+            final int nIn = size[l - 1];
+            final int n = size[l];
+            final double[] o = new double[m * n];
+            for (int d = 0; d < m; d++) {
+                final int x = d * nIn;
+                for (int j = 0; j < n; j++) {
+                    final int row = j * (nIn + 1);
+                    double wsum = 0.0;
+                    for (int k = 0; k < nIn; k++) {
+                        wsum += in[x + k] * w[row + k];
+                    }
+                    wsum += w[row + nIn];//the bias, whose output is always 1
+                    o[d * n + j] = tfunc.compute(wsum);
+                }
+            }
+            out[l] = o;
+        }
+        return out;
+    }
+
+    /**
+     * @param out Outputs of the network on a rank list.
+     * @return Derivative of the transfer function at each output, as {@link Neuron} takes it (i.e. at the output, not at the input).
+     */
+    protected double[][] derivatives(final double[][] out) {
+        final double[][] deriv = new double[out.length][];
+        for (int l = 1; l < out.length; l++) {
+            deriv[l] = new double[out[l].length];
+            for (int k = 0; k < deriv[l].length; k++) {
+                deriv[l][k] = tfunc.computeDerivative(out[l][k]);
+            }
+        }
+        return deriv;
+    }
+
+    /**
+     * @param rl
+     * @return The pairs of documents of @rl to learn from (and their weights, if any).
+     */
+    protected PropParameter computePairs(final RankList rl) {
+        final int[][] pairs = new int[rl.size()][];
+        for (int i = 0; i < rl.size(); i++) {
+            int count = 0;
+            for (int j = 0; j < rl.size(); j++) {
+                if (rl.get(i).getLabel() > rl.get(j).getLabel()) {
+                    count++;
+                }
+            }
+            pairs[i] = new int[count];
+            int k = 0;
+            for (int j = 0; j < rl.size(); j++) {
+                if (rl.get(i).getLabel() > rl.get(j).getLabel()) {
+                    pairs[i][k++] = j;
+                }
+            }
+        }
+        return new PropParameter(-1, pairs);
+    }
+
+    protected RankList internalReorder(final RankList rl) {
+        return rl;
+    }
+
+    /**
+     * @param param Pairs of the rank list.
+     * @param i
+     * @param k
+     * @param oi Output of the network on document i.
+     * @param oj Output on the document of i's k-th pair.
+     * @return (Weighted) "target - pij" of the k-th pair of document i.
+     */
+    protected double lambda(final PropParameter param, final int i, final int k, final double oi, final double oj) {
+        return 1.0 / (1.0 + Math.exp(oi - oj));
+    }
+
+    protected float pairWeight(final PropParameter param, final int i, final int k) {
+        return 1.0F;
+    }
+
+    /**
+     * Learn from one rank list.
+     * @param rl
+     * @param target Where the weight changes go: {@link #weight} itself, or a buffer that is added to it later.
+     */
+    protected void learn(final RankList rl, final double[][] target) {
+        final RankList ordered = internalReorder(rl);
+        if (factorized) {
+            backPropagateFactorized(feedForward(ordered), computePairs(ordered), target);
+        } else {
+            backPropagate(feedForward(ordered), computePairs(ordered), target);
+        }
+    }
+
+    /**
+     * Back-propagate all pairs of a rank list at once, with the speed-up of Burges (From RankNet to LambdaRank to LambdaMART: An
+     * overview. MSR-TR-2010-82, 2010): the gradient of the pairs' cost is the sum over documents of lambda_d times the gradient of the
+     * output on d, where lambda_d is the sum of the lambdas of the pairs d is part of (+ when it comes first, - otherwise). So each
+     * document goes back through the network once, with a single scalar, instead of once per document with all its pairs, and the
+     * weights are updated once for the whole list.
+     *
+     * Unlike {@link #backPropagate(double[][], PropParameter, double[][])}, the weights stay the same while the list is learned, and
+     * hidden layers don't weight the pairs a second time (pair weights only come in through the lambdas). Each pair counts once.
+     * @param out Outputs of the network on the rank list (see {@link #feedForward(RankList)}).
+     * @param param Pairs of the rank list.
+     * @param target Where the weight changes go.
+     */
+    protected void backPropagateFactorized(final double[][] out, final PropParameter param, final double[][] target) {
+        final int[][] pairMap = param.pairMap;
+        final int m = pairMap.length;
+        final int o = size.length - 1;//a single output neuron
+        final double[][] deriv = derivatives(out);
+
+        final double[] lambdas = new double[m];
+        for (int i = 0; i < m; i++) {
+            for (int k = 0; k < pairMap[i].length; k++) {
+                if (param.targetValue != null && param.targetValue[i][k] == 0) {
+                    //LambdaRank also lists each pair from its less relevant document: once summed, the two would cancel out
+                    continue;
+                }
+                final int j = pairMap[i][k];
+                final double lambda = lambda(param, i, k, out[o][i], out[o][j]);
+                lambdas[i] += lambda;
+                lambdas[j] -= lambda;
+            }
+        }
+
+        //delta[l][d * size[l] + h]: delta of neuron h of layer l on document d
+        final double[][] delta = new double[size.length][];
+        delta[o] = new double[m];
+        for (int d = 0; d < m; d++) {
+            delta[o][d] = lambdas[d] * deriv[o][d];
+        }
+        for (int l = o - 1; l >= 1; l--) {
+            final int n = size[l];
+            final int nNext = size[l + 1];
+            final double[] w = weight[l + 1];
+            delta[l] = new double[m * n];
+            for (int d = 0; d < m; d++) {
+                for (int h = 0; h < n; h++) {
+                    double errorSum = 0.0;
+                    for (int t = 0; t < nNext; t++) {
+                        errorSum += delta[l + 1][d * nNext + t] * w[t * (n + 1) + h];
+                    }
+                    delta[l][d * n + h] = errorSum * deriv[l][d * n + h];
+                }
+            }
+        }
+
+        for (int l = o; l >= 1; l--) {
+            final double[] in = out[l - 1];
+            final int n = size[l];
+            final int nIn = size[l - 1];
+            final double[] w = target[l];
+            final double[] g = new double[nIn + 1];
+            for (int j = 0; j < n; j++) {
+                Arrays.fill(g, 0.0);
+                for (int d = 0; d < m; d++) {
+                    final double dd = delta[l][d * n + j];
+                    if (dd == 0) {
+                        continue;
+                    }
+                    final int x = d * nIn;
+                    for (int c = 0; c < nIn; c++) {
+                        g[c] += dd * in[x + c];
+                    }
+                    g[nIn] += dd;
+                }
+                final int row = j * (nIn + 1);
+                for (int c = 0; c <= nIn; c++) {
+                    w[row + c] += learningRate * g[c];
+                }
+            }
+        }
+    }
+
+    /**
+     * One pass over the training data. Unless @batchSize is set, this is RankNet's online learning: one rank list after the other,
+     * updating the weights after each document. With mini-batches, the rank lists of a batch are spread over the thread pool and all
+     * learned from the weights as they were at the start of the batch: each worker collects its weight changes in a buffer of its own,
+     * and the buffers are added to the weights once the batch is done. With @hogwild, workers apply their changes to the weights right
+     * away and without any locking instead, so they may see (or overwrite) each other's changes midway.
+     */
+    protected void learnEpoch() {
+        if (batchSize <= 0) {
+            for (int j = 0; j < samples.size(); j++) {
+                learn(samples.get(j), weight);
+            }
+            return;
+        }
+
+        final MyThreadPool p = MyThreadPool.getInstance();
+        final double[][][] buffers = new double[p.partition(Math.min(batchSize, samples.size())).length - 1][][];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = hogwild ? weight : newBuffer();
+        }
+        for (int start = 0; start < samples.size(); start += batchSize) {
+            final int end = Math.min(start + batchSize, samples.size());
+            final int[] partition = p.partition(end - start);
+            for (int i = 0; i < partition.length - 1; i++) {
+                final double[][] target = buffers[i];
+                final int from = start + partition[i];
+                final int to = start + partition[i + 1];
+                final Runnable task = () -> {
+                    for (int j = from; j < to; j++) {
+                        learn(samples.get(j), target);
+                    }
+                };
+                if (p.size() == 1) {
+                    task.run();
+                } else {
+                    p.execute(task);
+                }
+            }
+            if (p.size() > 1) {
+                p.await();
+            }
+            if (!hogwild) {
+                for (int i = 0; i < partition.length - 1; i++) {
+                    for (int l = 1; l < weight.length; l++) {
+                        final double[] w = weight[l];
+                        final double[] b = buffers[i][l];
+                        for (int k = 0; k < w.length; k++) {
+                            w[k] += b[k];
+                        }
+                        Arrays.fill(b, 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Zeroed weight changes, shaped like {@link #weight}.
+     */
+    protected double[][] newBuffer() {
+        final double[][] buffer = new double[weight.length][];
+        for (int l = 1; l < weight.length; l++) {
+            buffer[l] = new double[weight[l].length];
+        }
+        return buffer;
+    }
+
+    /**
+     * Back-propagate the pairs of each document of a rank list in turn, applying the weight changes of each document to @target before
+     * moving on to the next. Deltas are always computed with {@link #weight}.
+     * @param out Outputs of the network on the rank list (see {@link #feedForward(RankList)}).
+     * @param param Pairs of the rank list.
+     * @param target
+     */
+    protected void backPropagate(final double[][] out, final PropParameter param, final double[][] target) {
+        final int[][] pairMap = param.pairMap;
+        final int nLayer = size.length;
+        final int o = nLayer - 1;
+        final double[][] deriv = derivatives(out);
+        final double[][] delta = new double[nLayer][];//delta[l][j]: delta_i of neuron j of layer l
+        final double[][] deltas = new double[nLayer][];//deltas[l][j * p + k]: deltas_j of neuron j for the k-th pair
+        for (int i = 0; i < pairMap.length; i++) {
+            final int[] pairs = pairMap[i];
+            final int p = pairs.length;
+
+            //output layer
+            delta[o] = new double[size[o]];
+            deltas[o] = new double[size[o] * p];
+            for (int j = 0; j < size[o]; j++) {
+                double d = 0.0;
+                for (int k = 0; k < p; k++) {
+                    final double lambda = lambda(param, i, k, out[o][i * size[o] + j], out[o][pairs[k] * size[o] + j]);
+                    d += lambda;
+                    deltas[o][j * p + k] = lambda * deriv[o][pairs[k] * size[o] + j];
+                }
+                delta[o][j] = d * deriv[o][i * size[o] + j];
+            }
+
+            //hidden layers, from the top
+            for (int l = o - 1; l >= 1; l--) {
+                final int n = size[l];
+                final int nNext = size[l + 1];
+                final double[] w = weight[l + 1];
+                delta[l] = new double[n];
+                deltas[l] = new double[n * p];
+                for (int h = 0; h < n; h++) {
+                    double d = 0.0;
+                    for (int k = 0; k < p; k++) {
+                        final float pw = pairWeight(param, i, k);
+                        double errorSum = 0.0;
+                        for (int t = 0; t < nNext; t++) {
+                            final double wt = w[t * (n + 1) + h];
+                            errorSum += deltas[l + 1][t * p + k] * wt;
+                            if (k == 0) {
+                                d += delta[l + 1][t] * wt;
+                            }
+                        }
+                        if (k == 0) {
+                            d *= pw * deriv[l][i * n + h];
+                        }
+                        deltas[l][h * p + k] = errorSum * pw * deriv[l][pairs[k] * n + h];
+                    }
+                    delta[l][h] = d;
+                }
+            }
+
+            //weight update: (delta_i * input_i) - (sum_{delta_j} * input_j)
+            for (int l = o; l >= 1; l--) {
+                final double[] in = out[l - 1];
+                final int nIn = size[l - 1];
+                final double[] w = target[l];
+                final double[] sumJ = new double[nIn + 1];
+                for (int j = 0; j < size[l]; j++) {
+                    Arrays.fill(sumJ, 0.0);
+                    for (int k = 0; k < p; k++) {
+                        final double dk = deltas[l][j * p + k];
+                        final int x = pairs[k] * nIn;
+                        for (int c = 0; c < nIn; c++) {
+                            sumJ[c] += dk * in[x + c];
+                        }
+                        sumJ[nIn] += dk;
+                    }
+                    final double d = delta[l][j];
+                    final int row = j * (nIn + 1);
+                    final int x = i * nIn;
+                    for (int c = 0; c < nIn; c++) {
+                        w[row + c] += learningRate * (d * in[x + c] - sumJ[c]);
+                    }
+                    w[row + nIn] += learningRate * (d - sumJ[nIn]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Model validation
+     */
+    protected void saveBestModelOnValidation() {
+        for (int l = 1; l < weight.length; l++) {
+            copy(weight[l], bestModelOnValidation[l]);
+        }
+    }
+
+    protected void restoreBestModelOnValidation() {
+        for (int l = 1; l < weight.length; l++) {
+            copy(bestModelOnValidation[l], weight[l]);
+        }
+    }
+
+    protected double crossEntropy(final double o1, final double o2, final double targetValue) {
+        final double oij = o1 - o2;
+        return -targetValue * oij + SimpleMath.logBase2(1 + Math.exp(oij));
+    }
+
+    protected void estimateLoss() {
+        misorderedPairs = 0;
+        error = 0.0;
+        for (int j = 0; j < samples.size(); j++) {
+            final RankList rl = samples.get(j);
+            final double[] o = scores(rl);
+            for (int k = 0; k < rl.size() - 1; k++) {
+                for (int l = k + 1; l < rl.size(); l++) {
+                    if (rl.get(k).getLabel() > rl.get(l).getLabel()) {
+                        error += crossEntropy(o[k], o[l], 1.0f);
+                        if (o[k] < o[l]) {
+                            misorderedPairs++;
+                        }
+                    }
+                }
+            }
+        }
+        error = SimpleMath.round(error / totalPairs, 4);
+        lastError = error;
+    }
+
+    /**
+     * Main public functions
+     */
+    @Override
+    public void init() {
+        logger.info(() -> "Initializing... ");
+
+        //Set up the network
+        final int[] hidden = new int[RankNet.nHiddenLayer];
+        Arrays.fill(hidden, RankNet.nHiddenNodePerLayer);
+        setUp(hidden);
+
+        totalPairs = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            final RankList rl = samples.get(i).getCorrectRanking();
+            for (int j = 0; j < rl.size() - 1; j++) {
+                for (int k = j + 1; k < rl.size(); k++) {
+                    if (rl.get(j).getLabel() > rl.get(k).getLabel()) {
+                        totalPairs++;
+                    }
+                }
+            }
+        }
+
+        if (validationSamples != null) {
+            bestModelOnValidation = newBuffer();
+        }
+        learningRate = RankNet.learningRate;
+    }
+
+    @Override
+    public void learn() {
+        logger.info(() -> "Training starts...");
+        printLogLn(new int[] { 7, 14, 9, 9 }, new String[] { "#epoch", "% mis-ordered", scorer.name() + "-T", scorer.name() + "-V" });
+        printLogLn(new int[] { 7, 14, 9, 9 }, new String[] { " ", "  pairs", " ", " " });
+
+        for (int i = 1; i <= RankNet.nIteration; i++) {
+            learnEpoch();
+            scoreOnTrainingData = scorer.score(rank(samples));
+            estimateLoss();
+            printLog(new int[] { 7, 14 }, new String[] { Integer.toString(i), Double.toString(SimpleMath.round(((double) misorderedPairs) / totalPairs, 4)) });
+            printLog(new int[] { 9 }, new String[] { Double.toString(SimpleMath.round(scoreOnTrainingData, 4)) });
+            if (validationSamples != null) {
+                final double score = scorer.score(rank(validationSamples));
+                if (score > bestScoreOnValidationData) {
+                    bestScoreOnValidationData = score;
+                    saveBestModelOnValidation();
+                }
+                printLog(new int[] { 9 }, new String[] { Double.toString(SimpleMath.round(score, 4)) });
+            }
+            flushLog();
+        }
+
+        //if validation data is specified ==> best model on this data has been saved
+        //we now restore the current model to that best model
+        if (validationSamples != null) {
+            restoreBestModelOnValidation();
+        }
+
+        scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+        logger.info(() -> "Finished sucessfully.");
+        logger.info(() -> scorer.name() + " on training data: " + scoreOnTrainingData);
+        if (validationSamples != null) {
+            bestScoreOnValidationData = scorer.score(rank(validationSamples));
+            logger.info(() -> scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
+        }
+    }
+
+    /**
+     * @param rl
+     * @return The output of the network on each document of @rl.
+     */
+    protected double[] scores(final RankList rl) {
+        final double[][] out = feedForward(rl);
+        return out[out.length - 1];
+    }
+
+    @Override
+    public double eval(final DataPoint p) {
+        final double[] input = new double[size[0]];
+        for (int k = 0; k < size[0]; k++) {
+            input[k] = p.getFeatureValue(features[k]);
+        }
+        final double[][] out = feedForward(input, 1);
+        return out[out.length - 1][0];
+    }
+
+    @Override
+    public RankList rank(final RankList rl) {
+        final int[] idx = PrimitiveSorter.sort(scores(rl), false);
+        return new RankList(rl, idx);
+    }
+
+    /**
+     * Rank lists are scored independently, so they are spread over the thread pool.
+     */
+    @Override
+    public List<RankList> rank(final List<RankList> l) {
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1 || l.size() < 2) {
+            return super.rank(l);
+        }
+        final RankList[] ranked = new RankList[l.size()];
+        final int[] partition = p.partition(l.size());
+        for (int i = 0; i < partition.length - 1; i++) {
+            final int start = partition[i];
+            final int end = partition[i + 1];
+            p.execute(() -> {
+                for (int j = start; j < end; j++) {
+                    ranked[j] = rank(l.get(j));
+                }
+            });
+        }
+        p.await();
+        return new ArrayList<>(Arrays.asList(ranked));
+    }
+
+    @Override
+    public Ranker createNew() {
+        return new DenseRankNet();
+    }
+
+    /**
+     * @param l
+     * @param j
+     * @return Positions in @weight of the outgoing links of neuron @j of layer @l ({layers, indices}), in the order of {@link RankNet}'s
+     * synapses (for the bias, the links to all neurons of all layers).
+     */
+    protected int[][] outLinks(final int l, final int j) {
+        if (l == 0 && j == size[0]) {
+            int n = 0;
+            for (int t = 1; t < size.length; t++) {
+                n += size[t];
+            }
+            final int[][] links = new int[2][n];
+            int c = 0;
+            for (int t = 1; t < size.length; t++) {
+                for (int k = 0; k < size[t]; k++) {
+                    links[0][c] = t;
+                    links[1][c++] = k * (size[t - 1] + 1) + size[t - 1];
+                }
+            }
+            return links;
+        }
+        final int[][] links = new int[2][size[l + 1]];
+        for (int k = 0; k < size[l + 1]; k++) {
+            links[0][k] = l + 1;
+            links[1][k] = k * (size[l] + 1) + j;
+        }
+        return links;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder output = new StringBuilder();
+        for (int l = 0; l < size.length - 1; l++)//loop through all layers
+        {
+            final int n = (l == 0) ? size[0] + 1 : size[l];
+            for (int j = 0; j < n; j++)//loop through all neurons on in the current layer
+            {
+                output.append(l + " " + j + " ");
+                final int[][] links = outLinks(l, j);
+                for (int k = 0; k < links[0].length; k++) {
+                    output.append(weight[links[0][k]][links[1][k]] + ((k == links[0].length - 1) ? "" : " "));
+                }
+                output.append('\n');
+            }
+        }
+        return output.toString();
+    }
+
+    @Override
+    public String model() {
+        final StringBuilder output = new StringBuilder();
+        output.append("## " + name() + "\n");
+        output.append("## Epochs = " + RankNet.nIteration + "\n");
+        output.append("## No. of features = " + features.length + "\n");
+        output.append("## No. of hidden layers = " + (size.length - 2) + "\n");
+        for (int i = 1; i < size.length - 1; i++) {
+            output.append("## Layer " + i + ": " + size[i] + " neurons\n");
+        }
+
+        //print used features
+        for (int i = 0; i < features.length; i++) {
+            output.append(features[i] + ((i == features.length - 1) ? "" : " "));
+        }
+        output.append('\n');
+        //print network information
+        output.append(size.length - 2 + "\n");//[# hidden layers]
+        for (int i = 1; i < size.length - 1; i++) {
+            output.append(size[i] + "\n");//[#neurons]
+        }
+        //print learned weights
+        output.append(toString());
+        return output.toString();
+    }
+
+    @Override
+    public void loadFromString(final String fullText) {
+        try (final BufferedReader in = new BufferedReader(new StringReader(fullText))) {
+            String content = null;
+            final List<String> l = new ArrayList<>();
+            while ((content = in.readLine()) != null) {
+                content = content.trim();
+                if (content.length() == 0 || content.indexOf("##") == 0) {
+                    continue;
+                }
+                l.add(content);
+            }
+            //the first line contains features information
+            final String[] tmp = l.get(0).split(" ");
+            features = new int[tmp.length];
+            for (int i = 0; i < tmp.length; i++) {
+                features[i] = Integer.parseInt(tmp[i]);
+            }
+            //the 2nd line is a scalar indicating the number of hidden layers, then the number of neurons in each of them
+            final int[] hidden = new int[Integer.parseInt(l.get(1))];
+            int i = 2;
+            for (; i < 2 + hidden.length; i++) {
+                hidden[i - 2] = Integer.parseInt(l.get(i));
+            }
+            setUp(hidden);
+            //fill in weights
+            for (; i < l.size(); i++) {
+                final String[] s = l.get(i).split(" ");
+                final int[][] links = outLinks(Integer.parseInt(s[0]), Integer.parseInt(s[1]));
+                for (int k = 0; k < links[0].length; k++) {
+                    weight[links[0][k]][links[1][k]] = Double.parseDouble(s[k + 2]);
+                }
+            }
+        } catch (final Exception ex) {
+            throw RankLibError.create("Error in " + getClass().getSimpleName() + "::load(): ", ex);
+        }
+    }
+
+    @Override
+    public void printParameters() {
+        logger.info(() -> "No. of epochs: " + RankNet.nIteration);
+        logger.info(() -> "No. of hidden layers: " + RankNet.nHiddenLayer);
+        logger.info(() -> "No. of hidden nodes per layer: " + RankNet.nHiddenNodePerLayer);
+        logger.info(() -> "Learning rate: " + RankNet.learningRate);
+        printBatchParameters();
+    }
+
+    protected void printBatchParameters() {
+        if (batchSize > 0) {
+            logger.info(() -> "Mini-batch size: " + batchSize + (hogwild ? " (Hogwild!)" : ""));
+        }
+        if (factorized) {
+            logger.info(() -> "Factorized pair gradients: yes");
+        }
+    }
+
+    @Override
+    public String name() {
+        return "RankNet";
+    }
+}
@@ -12,10 +12,13 @@ package ciir.umass.edu.learning.neuralnet;
 import java.io.BufferedReader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import ciir.umass.edu.learning.Checkpointer;
 import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.learning.Ranker;
@@ -53,6 +56,9 @@ public class RankNet extends Ranker {
     protected double lastError = Double.MAX_VALUE;
     protected int straightLoss = 0;
 
+    protected int firstEpoch = 0;//epochs already done before training started (resume only)
+    protected Checkpointer checkpointer = null;
+
     public RankNet() {
 
     }
@@ -284,6 +290,57 @@ public class RankNet extends Ranker {
         }
 
         Neuron.learningRate = learningRate;
+
+        if (Checkpointer.checkpointFile != null) {
+            checkpointer = new Checkpointer(Checkpointer.checkpointFile);
+            final String checkpoint = checkpointer.load();
+            if (checkpoint != null) {
+                initResume(checkpoint);
+            }
+        }
+    }
+
+    /**
+     * Continue an interrupted training run from its last checkpoint: the network's current weights, and the best ones on the validation
+     * data so far.
+     * @param checkpoint
+     */
+    protected void initResume(final String checkpoint) {
+        loadFromString(checkpoint);
+        final Map<String, String> state = Checkpointer.state(checkpoint);
+        firstEpoch = Integer.parseInt(state.get("epoch"));
+        if (validationSamples != null) {
+            bestScoreOnValidationData = Double.parseDouble(state.get("bestScore"));
+            for (int i = 0; i < layers.size() - 1; i++) {
+                final List<Double> l = bestModelOnValidation.get(i);
+                l.clear();
+                for (final double w : Checkpointer.toDoubles(state.get("best." + i))) {
+                    l.add(w);
+                }
+            }
+        }
+        logger.info(() -> "Resuming after epoch " + firstEpoch);
+    }
+
+    /**
+     * Save the network after epoch @epoch along with the best weights on the validation data so far.
+     * @param epoch
+     */
+    protected void checkpoint(final int epoch) {
+        final Map<String, String> state = new LinkedHashMap<>();
+        state.put("epoch", Integer.toString(epoch));
+        if (validationSamples != null) {
+            state.put("bestScore", Double.toString(bestScoreOnValidationData));
+            for (int i = 0; i < layers.size() - 1; i++) {
+                final List<Double> l = bestModelOnValidation.get(i);
+                final double[] w = new double[l.size()];
+                for (int j = 0; j < w.length; j++) {
+                    w[j] = l.get(j);
+                }
+                state.put("best." + i, Checkpointer.toString(w));
+            }
+        }
+        checkpointer.save(model(), state);
     }
 
     @Override
@@ -292,7 +349,7 @@ public class RankNet extends Ranker {
         printLogLn(new int[] { 7, 14, 9, 9 }, new String[] { "#epoch", "% mis-ordered", scorer.name() + "-T", scorer.name() + "-V" });
         printLogLn(new int[] { 7, 14, 9, 9 }, new String[] { " ", "  pairs", " ", " " });
 
-        for (int i = 1; i <= nIteration; i++) {
+        for (int i = firstEpoch + 1; i <= nIteration; i++) {
             for (int j = 0; j < samples.size(); j++) {
                 final RankList rl = internalReorder(samples.get(j));
                 final int[][] pairMap = batchFeedForward(rl);
@@ -316,6 +373,13 @@ public class RankNet extends Ranker {
                 }
             }
             flushLog();
+            if (checkpointer != null && checkpointer.isDue(i)) {
+                checkpoint(i);
+            }
+        }
+        if (checkpointer != null) {
+            checkpointer.close();
+            checkpointer = null;
         }
 
         //if validation data is specified ==> best model on this data has been saved
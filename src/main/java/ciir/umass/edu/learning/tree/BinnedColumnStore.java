@@ -0,0 +1,122 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ciir.umass.edu.utilities.RankLibError;
+
+/**
+ * Bin index of every (feature, sample) pair of the training data, stored column by column in a memory-mapped file rather than on the
+ * heap. Each column takes 1, 2 or 4 bytes per sample depending on the number of bins of the feature, so the operating system can page
+ * columns in and out as needed and the data set can be larger than the available memory.
+ *
+ * Columns are added one at a time with {@link #add(int[], int)}. The backing file is deleted when the store is closed (or when the JVM
+ * exits).
+ */
+public class BinnedColumnStore {
+    private final int nSamples;
+    private final File file;
+    private RandomAccessFile raf = null;
+    private MappedByteBuffer[] columns = null;
+    private int[] width = null;//bytes per sample of each column
+    private int nColumns = 0;
+
+    /**
+     * @param dir Directory for the backing file (created if needed; null for the default temporary directory).
+     * @param nSamples Number of samples (rows).
+     * @param nColumns Number of columns that will be added.
+     */
+    public BinnedColumnStore(final File dir, final int nSamples, final int nColumns) {
+        this.nSamples = nSamples;
+        columns = new MappedByteBuffer[nColumns];
+        width = new int[nColumns];
+        try {
+            if (dir != null) {
+                dir.mkdirs();
+            }
+            file = File.createTempFile("ranklib-bins", ".bin", dir);
+            file.deleteOnExit();
+            raf = new RandomAccessFile(file, "rw");
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error creating binned data file in " + dir, ex);
+        }
+    }
+
+    /**
+     * Append a column.
+     * @param bins bins[k]: bin of sample k, in [0, nBins).
+     * @param nBins
+     */
+    public void add(final int[] bins, final int nBins) {
+        final int w = (nBins <= 256) ? 1 : ((nBins <= 65536) ? 2 : 4);
+        if ((long) nSamples * w > Integer.MAX_VALUE) {
+            throw RankLibError.create("Too many samples for a binned data column: " + nSamples);
+        }
+        try {
+            final FileChannel ch = raf.getChannel();
+            final MappedByteBuffer column = ch.map(FileChannel.MapMode.READ_WRITE, ch.size(), (long) nSamples * w);
+            for (int k = 0; k < nSamples; k++) {
+                if (w == 1) {
+                    column.put(k, (byte) bins[k]);
+                } else if (w == 2) {
+                    column.putChar(k << 1, (char) bins[k]);
+                } else {
+                    column.putInt(k << 2, bins[k]);
+                }
+            }
+            columns[nColumns] = column;
+            width[nColumns] = w;
+            nColumns++;
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error writing binned data file " + file, ex);
+        }
+    }
+
+    /**
+     * @param f Column
+     * @param k Sample
+     * @return Bin of sample @k in column @f.
+     */
+    public int get(final int f, final int k) {
+        final ByteBuffer column = columns[f];
+        switch (width[f]) {
+        case 1:
+            return column.get(k) & 0xFF;
+        case 2:
+            return column.getChar(k << 1);
+        default:
+            return column.getInt(k << 2);
+        }
+    }
+
+    public int size() {
+        return nSamples;
+    }
+
+    /**
+     * Release the backing file. The store can no longer be used afterwards.
+     */
+    public void close() {
+        columns = null;
+        try {
+            raf.close();
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error closing binned data file " + file, ex);
+        }
+        //mapped regions are only unmapped once garbage collected, which may prevent the deletion on some platforms (deleteOnExit then).
+        file.delete();
+    }
+}
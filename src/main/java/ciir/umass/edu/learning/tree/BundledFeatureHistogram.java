@@ -0,0 +1,381 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.PrimitiveSorter;
+
+/**
+ * Feature histogram with exclusive feature bundling: features that are never away from their default (most frequent) bin on the
+ * same sample are merged into one binned column, where bin 0 means "all features of the bundle are in their default bin" and feature
+ * f's bin t is stored as @offset[f] + t. Thousands of mutually exclusive, mostly constant features (e.g. one-hot indicators) then take
+ * a handful of columns instead of one @sampleToThresholdMap row each.
+ *
+ * Histograms are accumulated one bundle column at a time and then expanded into the regular per-feature @sum and @count (the default
+ * bin of each feature receives whatever is left of the node's total), so split finding and the resulting {@link Split}s only ever
+ * deal with the original features and models are unchanged.
+ */
+public class BundledFeatureHistogram extends FeatureHistogram {
+    protected int nSamples = 0;
+    protected int[] defaultBin = null;//defaultBin[f]: most frequent bin of feature f
+    protected int[] offset = null;//offset[f]: position of feature f's bins in its bundle
+    protected int[] bundleOf = null;
+    protected int[][] bundleFeatures = null;//features of each bundle
+    protected int[] bundleSize = null;//number of bins of each bundle
+    protected int[][] bundleBins = null;//bundleBins[b][k]: bin of sample k in bundle b
+
+    public BundledFeatureHistogram() {
+
+    }
+
+    /**
+     * Bundle the features and construct the histogram of the root node.
+     * @param nSamples Number of training samples.
+     * @param rows rows[f]: samples that are not in the default bin of feature f, in increasing order.
+     * @param bins bins[f][i]: bin of sample rows[f][i] for feature f.
+     * @param defaultBin
+     * @param labels
+     * @param features
+     * @param thresholds
+     * @param impacts
+     */
+    public void construct(final int nSamples, final int[][] rows, final int[][] bins, final int[] defaultBin, final double[] labels,
+            final int[] features, final float[][] thresholds, final double[] impacts) {
+        this.nSamples = nSamples;
+        this.defaultBin = defaultBin;
+        this.features = features;
+        this.thresholds = thresholds;
+        this.impacts = impacts;
+
+        //greedy bundling: features with the most non-default samples first, each into the first bundle it doesn't conflict with
+        final int[] nnz = new int[features.length];
+        for (int f = 0; f < features.length; f++) {
+            nnz[f] = rows[f].length;
+        }
+        final int[] order = PrimitiveSorter.sort(nnz, false);
+        final List<List<Integer>> bundles = new ArrayList<>();
+        final List<BitSet> used = new ArrayList<>();
+        bundleOf = new int[features.length];
+        for (final int f : order) {
+            int b = 0;
+            for (; b < bundles.size(); b++) {
+                if (!conflicts(used.get(b), rows[f])) {
+                    break;
+                }
+            }
+            if (b == bundles.size()) {
+                bundles.add(new ArrayList<>());
+                used.add(new BitSet(nSamples));
+            }
+            bundles.get(b).add(f);
+            for (final int k : rows[f]) {
+                used.get(b).set(k);
+            }
+            bundleOf[f] = b;
+        }
+
+        //bundle columns
+        bundleFeatures = new int[bundles.size()][];
+        bundleSize = new int[bundles.size()];
+        bundleBins = new int[bundles.size()][];
+        offset = new int[features.length];
+        for (int b = 0; b < bundles.size(); b++) {
+            final List<Integer> fs = bundles.get(b);
+            bundleFeatures[b] = new int[fs.size()];
+            bundleSize[b] = 1;//bin 0: all features of the bundle in their default bin
+            bundleBins[b] = new int[nSamples];
+            for (int i = 0; i < fs.size(); i++) {
+                final int f = fs.get(i);
+                bundleFeatures[b][i] = f;
+                offset[f] = bundleSize[b];
+                bundleSize[b] += thresholds[f].length;
+                for (int j = 0; j < rows[f].length; j++) {
+                    bundleBins[b][rows[f][j]] = offset[f] + bins[f][j];
+                }
+            }
+        }
+
+        sum = new double[features.length][];
+        count = new int[features.length][];
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1) {
+            construct(null, null, labels, 0, bundleFeatures.length - 1);
+        } else {
+            p.execute(new Worker(this, null, null, labels), bundleFeatures.length);
+        }
+    }
+
+    private static boolean conflicts(final BitSet used, final int[] rows) {
+        for (final int k : rows) {
+            if (used.get(k)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Number of bundle columns.
+     */
+    public int bundleCount() {
+        return bundleFeatures.length;
+    }
+
+    private void copyLayout(final BundledFeatureHistogram parent) {
+        nSamples = parent.nSamples;
+        defaultBin = parent.defaultBin;
+        offset = parent.offset;
+        bundleOf = parent.bundleOf;
+        bundleFeatures = parent.bundleFeatures;
+        bundleSize = parent.bundleSize;
+        bundleBins = parent.bundleBins;
+    }
+
+    @Override
+    public void construct(final FeatureHistogram parent, final int[] soi, final double[] labels) {
+        copyLayout((BundledFeatureHistogram) parent);
+        features = parent.features;
+        thresholds = parent.thresholds;
+        impacts = parent.impacts;
+        categorical = parent.categorical;
+        if (sampleWeights == null) {
+            sampleWeights = parent.sampleWeights;
+        }
+        sumResponse = 0;
+        sqSumResponse = 0;
+        sum = new double[features.length][];
+        count = new int[features.length][];
+        weight = (sampleWeights == null) ? null : new double[features.length][];
+
+        //one unit of work per bundle
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1) {
+            construct(parent, soi, labels, 0, bundleFeatures.length - 1);
+        } else {
+            p.execute(new Worker(this, parent, soi, labels), bundleFeatures.length);
+        }
+    }
+
+    @Override
+    public void construct(final FeatureHistogram parent, final FeatureHistogram leftSibling, final boolean reuseParent) {
+        copyLayout((BundledFeatureHistogram) parent);
+        super.construct(parent, leftSibling, reuseParent);
+    }
+
+    /**
+     * @param soi Samples of the node (null for all samples).
+     * @param start First bundle
+     * @param end Last bundle
+     */
+    @Override
+    protected void construct(final FeatureHistogram parent, final int[] soi, final double[] labels, final int start, final int end) {
+        for (int b = start; b <= end; b++) {
+            for (final int f : bundleFeatures[b]) {
+                sum[f] = new double[thresholds[f].length];
+                count[f] = new int[thresholds[f].length];
+                if (weight != null) {
+                    weight[f] = new double[thresholds[f].length];
+                }
+            }
+        }
+        accumulate(soi, labels, start, end, true);
+    }
+
+    @Override
+    protected void update(final double[] labels) {
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1) {
+            update(labels, 0, bundleFeatures.length - 1);
+        } else {
+            p.execute(new Worker(this, labels), bundleFeatures.length);
+        }
+    }
+
+    /**
+     * @param start First bundle
+     * @param end Last bundle
+     */
+    @Override
+    protected void update(final double[] labels, final int start, final int end) {
+        //count doesn't change, so no need to re-compute
+        accumulate(null, labels, start, end, false);
+    }
+
+    /**
+     * Build the (cumulative) histograms of the features of bundles [start, end] over the samples in @soi.
+     * @param soi Samples of the node (null for all samples).
+     * @param labels
+     * @param start
+     * @param end
+     * @param withCount Whether @count (and @weight, if samples are weighted) has to be computed as well.
+     */
+    protected void accumulate(final int[] soi, final double[] labels, final int start, final int end, final boolean withCount) {
+        final int n = (soi == null) ? nSamples : soi.length;
+        final boolean withWeight = withCount && weight != null;
+        double total = 0;
+        double sqTotal = 0;
+        double totalWeight = 0;
+        for (int i = 0; i < n; i++) {
+            final int k = (soi == null) ? i : soi[i];
+            total += labels[k];
+            sqTotal += labels[k] * labels[k];
+            if (withWeight) {
+                totalWeight += sampleWeights[k];
+            }
+        }
+        if (start == 0) {
+            sumResponse = total;
+            sqSumResponse = sqTotal;
+        }
+
+        for (int b = start; b <= end; b++) {
+            final int[] column = bundleBins[b];
+            final double[] s = new double[bundleSize[b]];
+            final int[] c = withCount ? new int[bundleSize[b]] : null;
+            final double[] w = withWeight ? new double[bundleSize[b]] : null;
+            for (int i = 0; i < n; i++) {
+                final int k = (soi == null) ? i : soi[i];
+                s[column[k]] += labels[k];
+                if (withCount) {
+                    c[column[k]]++;
+                }
+                if (withWeight) {
+                    w[column[k]] += sampleWeights[k];
+                }
+            }
+            expand(b, s, c, w, total, n, totalWeight);
+        }
+    }
+
+    /**
+     * Fill in the (cumulative) histograms of the features of bundle @b from the bundle's histogram.
+     * @param b
+     * @param s Sum of labels in each bin of the bundle.
+     * @param c Number of samples in each bin of the bundle (null to leave @count as it is).
+     * @param w Sum of the weights of the samples in each bin of the bundle (null to leave @weight as it is).
+     * @param total Sum of labels of the node's samples.
+     * @param n Number of samples of the node.
+     * @param totalWeight Sum of the weights of the node's samples (if @w is given).
+     */
+    private void expand(final int b, final double[] s, final int[] c, final double[] w, final double total, final int n,
+            final double totalWeight) {
+        for (final int f : bundleFeatures[b]) {
+            final double[] fs = sum[f];
+            final int[] fc = count[f];
+            final double[] fw = (w != null) ? weight[f] : null;
+            final int d = defaultBin[f];
+            double nzSum = 0;
+            int nzCount = 0;
+            double nzWeight = 0;
+            for (int t = 0; t < fs.length; t++) {
+                if (t != d) {
+                    fs[t] = s[offset[f] + t];
+                    nzSum += fs[t];
+                    if (c != null) {
+                        fc[t] = c[offset[f] + t];
+                        nzCount += fc[t];
+                    }
+                    if (w != null) {
+                        fw[t] = w[offset[f] + t];
+                        nzWeight += fw[t];
+                    }
+                }
+            }
+            fs[d] = total - nzSum;
+            if (c != null) {
+                fc[d] = n - nzCount;
+            }
+            if (w != null) {
+                fw[d] = totalWeight - nzWeight;
+            }
+            for (int t = 1; t < fs.length; t++) {
+                fs[t] += fs[t - 1];
+                if (c != null) {
+                    fc[t] += fc[t - 1];
+                }
+                if (w != null) {
+                    fw[t] += fw[t - 1];
+                }
+            }
+        }
+    }
+
+    @Override
+    protected double[][] newAccumulator() {
+        final double[][] acc = new double[bundleFeatures.length][];
+        for (int b = 0; b < acc.length; b++) {
+            acc[b] = new double[bundleSize[b]];
+        }
+        return acc;
+    }
+
+    @Override
+    protected void collect(final double[][] acc, final double[] labels, final int from, final int to) {
+        for (int b = 0; b < acc.length; b++) {
+            final double[] a = acc[b];
+            final int[] column = bundleBins[b];
+            Arrays.fill(a, 0);
+            for (int k = from; k <= to; k++) {
+                a[column[k]] += labels[k];
+            }
+        }
+    }
+
+    @Override
+    protected void update(final double[] labels, final double[][][] partials) {
+        sumResponse = 0;
+        sqSumResponse = 0;
+        for (final double label : labels) {
+            sumResponse += label;
+            sqSumResponse += label * label;
+        }
+
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1) {
+            update(partials, 0, bundleFeatures.length - 1);
+        } else {
+            p.execute(new Worker(this, partials), bundleFeatures.length);
+        }
+    }
+
+    /**
+     * @param start First bundle
+     * @param end Last bundle
+     */
+    @Override
+    protected void update(final double[][][] partials, final int start, final int end) {
+        for (int b = start; b <= end; b++) {
+            final double[] s = new double[bundleSize[b]];
+            for (final double[][] acc : partials) {
+                final double[] a = acc[b];
+                for (int t = 0; t < s.length; t++) {
+                    s[t] += a[t];
+                }
+            }
+            expand(b, s, null, null, sumResponse, nSamples, 0);
+        }
+    }
+
+    @Override
+    protected int bin(final int f, final int k) {
+        final int t = bundleBins[bundleOf[f]][k] - offset[f];
+        return (t >= 0 && t < thresholds[f].length) ? t : defaultBin[f];
+    }
+
+    @Override
+    protected FeatureHistogram newHistogram() {
+        return new BundledFeatureHistogram();
+    }
+}
@@ -0,0 +1,318 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import ciir.umass.edu.features.FeatureManager;
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.metric.MetricScorerFactory;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.RankLibError;
+
+/**
+ * Worker process for distributed (data-parallel) training of LambdaMART/MART. It holds a shard of the training queries, computes
+ * the lambdas and the histograms of its samples and keeps track of which tree node each of its samples is in. Tree construction
+ * itself is driven by the coordinator (see {@link WorkerGroup}), i.e. a regular training run with -workers.
+ *
+ * Usage: java -cp RankLib.jar ciir.umass.edu.learning.tree.DistributedWorker -port &lt;port&gt; -train &lt;shard&gt; [-sparse]
+ * [-missingZero] [-thread &lt;t&gt;]
+ */
+public class DistributedWorker {
+    private static final Logger logger = Logger.getLogger(DistributedWorker.class.getName());
+
+    //Protocol: each request starts with one of these, followed by its arguments
+    static final int FEATURES = 1;
+    static final int INIT = 2;
+    static final int THRESHOLDS = 3;
+    static final int LAMBDAS = 4;
+    static final int SPLIT = 5;
+    static final int LEAVES = 6;
+    static final int UPDATE = 7;
+    static final int SCORE = 8;
+    static final int CLOSE = 9;
+
+    protected List<RankList> samples = null;
+    protected int[] features = null;
+    protected LambdaMART ranker = null;
+    protected Map<Integer, int[]> nodes = new HashMap<>();//samples of each node of the tree being built
+
+    public DistributedWorker(final List<RankList> samples) {
+        this.samples = samples;
+    }
+
+    public static void main(final String[] args) {
+        int port = -1;
+        String trainFile = "";
+        boolean sparse = false;
+        int nThread = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equalsIgnoreCase("-train")) {
+                trainFile = args[++i];
+            } else if (args[i].equalsIgnoreCase("-sparse")) {
+                sparse = true;
+            } else if (args[i].equalsIgnoreCase("-missingZero")) {
+                DataPoint.missingZero = true;
+            } else if (args[i].equalsIgnoreCase("-thread")) {
+                nThread = Integer.parseInt(args[++i]);
+            } else {
+                throw RankLibError.create("Unknown command-line parameter: " + args[i]);
+            }
+        }
+        if (port == -1 || trainFile.isEmpty()) {
+            logger.info(() -> "Usage: java -cp RankLib.jar " + DistributedWorker.class.getName()
+                    + " -port <port> -train <shard> [-sparse] [-missingZero] [-thread <t>]");
+            return;
+        }
+
+        MyThreadPool.init(nThread);
+        final List<RankList> samples = FeatureManager.readInput(trainFile, false, sparse);
+        final int p = port;
+        try (ServerSocket server = new ServerSocket(port)) {
+            logger.info(() -> "Waiting for the coordinator on port " + p + "...");
+            try (Socket socket = server.accept()) {
+                socket.setTcpNoDelay(true);
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                new DistributedWorker(samples).serve(in, out);
+            }
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error in DistributedWorker: ", ex);
+        } finally {
+            MyThreadPool.getInstance().shutdown();
+        }
+    }
+
+    /**
+     * Answer the coordinator's requests until it closes the session.
+     * @param in
+     * @param out
+     * @throws IOException
+     */
+    public void serve(final DataInputStream in, final DataOutputStream out) throws IOException {
+        while (true) {
+            final int op = in.readInt();
+            if (op == CLOSE) {
+                return;
+            } else if (op == FEATURES) {
+                writeInts(out, FeatureManager.getFeatureFromSampleVector(samples));
+            } else if (op == INIT) {
+                init(in, out);
+            } else if (op == THRESHOLDS) {
+                final float[][] thresholds = new float[features.length][];
+                for (int f = 0; f < thresholds.length; f++) {
+                    thresholds[f] = readFloats(in);
+                }
+                ranker.initBinned(thresholds);
+                out.writeInt(ranker.martSamples.length);
+            } else if (op == LAMBDAS) {
+                ranker.queryScoresUpToDate = false;
+                ranker.computePseudoResponses();
+                MyThreadPool.getInstance().await();
+                if (!ranker.queryScoresUpToDate) {
+                    ranker.computeModelScoreOnTraining();
+                }
+                ranker.hist.update(ranker.pseudoResponses);
+                nodes.clear();
+                final int[] all = new int[ranker.martSamples.length];
+                for (int k = 0; k < all.length; k++) {
+                    all[k] = k;
+                }
+                nodes.put(0, all);
+                writeDoubles(out, ranker.queryScores);
+                writeHistogram(out, ranker.hist);
+            } else if (op == SPLIT) {
+                split(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), out);
+            } else if (op == LEAVES) {
+                for (final int id : readInts(in)) {
+                    //same accumulation as LambdaMART.updateTreeOutput()
+                    float s1 = 0F;
+                    float s2 = 0F;
+                    final int[] idx = nodes.get(id);
+                    for (final int k : idx) {
+                        s1 += ranker.pseudoResponses[k];
+                        s2 += ranker.weights[k];
+                    }
+                    out.writeFloat(s1);
+                    out.writeFloat(s2);
+                    out.writeInt(idx.length);
+                }
+            } else if (op == UPDATE) {
+                final int[] ids = readInts(in);
+                final double[] outputs = readDoubles(in);
+                for (int i = 0; i < ids.length; i++) {
+                    for (final int k : nodes.get(ids[i])) {
+                        ranker.modelScores[k] += LambdaMART.learningRate * outputs[i];
+                    }
+                }
+                nodes.clear();
+            } else if (op == SCORE) {
+                ranker.computeModelScoreOnTraining();
+                writeDoubles(out, ranker.queryScores);
+            } else {
+                throw RankLibError.create("Unknown request from the coordinator: " + op);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Create the local ranker and send a summary of the distinct values of each feature: all of them (sorted) if there are no more than
+     * the coordinator's number of thresholds, only the min and max otherwise.
+     */
+    private void init(final DataInputStream in, final DataOutputStream out) throws IOException {
+        final String rankerName = in.readUTF();
+        final MetricScorer scorer = new MetricScorerFactory().createScorer(in.readUTF());
+        LambdaMART.learningRate = in.readFloat();
+        LambdaMART.nThreshold = in.readInt();
+        features = readInts(in);
+        ranker = "MART".equals(rankerName) ? new MART(samples, features, scorer) : new LambdaMART(samples, features, scorer);
+        ranker.initSamples();
+
+        out.writeInt(samples.size());
+        final DataPoint[] dps = ranker.martSamples;
+        final float[] v = new float[dps.length];
+        for (final int fid : features) {
+            for (int k = 0; k < dps.length; k++) {
+                v[k] = dps[k].getFeatureValue(fid);
+            }
+            Arrays.sort(v);
+            int nUnique = 0;
+            for (int i = 0; i < v.length; i++) {
+                if (nUnique == 0 || v[i] > v[nUnique - 1]) {
+                    v[nUnique++] = v[i];
+                }
+            }
+            if (LambdaMART.nThreshold != -1 && nUnique > LambdaMART.nThreshold) {
+                out.writeInt(-1);
+                out.writeFloat(v[0]);
+                out.writeFloat(v[nUnique - 1]);
+            } else {
+                writeFloats(out, Arrays.copyOf(v, nUnique));
+            }
+        }
+    }
+
+    /**
+     * Partition the samples of a node and send the histogram of the left child.
+     */
+    private void split(final int id, final int f, final int t, final int leftId, final int rightId, final DataOutputStream out)
+            throws IOException {
+        final int[] idx = nodes.remove(id);
+        int nLeft = 0;
+        for (final int k : idx) {
+            if (ranker.hist.bin(f, k) <= t) {
+                nLeft++;
+            }
+        }
+        final int[] left = new int[nLeft];
+        final int[] right = new int[idx.length - nLeft];
+        int l = 0;
+        int r = 0;
+        for (final int k : idx) {
+            if (ranker.hist.bin(f, k) <= t) {
+                left[l++] = k;
+            } else {
+                right[r++] = k;
+            }
+        }
+        nodes.put(leftId, left);
+        nodes.put(rightId, right);
+
+        final FeatureHistogram lh = ranker.hist.newHistogram();
+        lh.construct(ranker.hist, left, ranker.pseudoResponses);
+        writeHistogram(out, lh);
+    }
+
+    static void writeHistogram(final DataOutputStream out, final FeatureHistogram h) throws IOException {
+        out.writeDouble(h.sumResponse);
+        out.writeDouble(h.sqSumResponse);
+        for (int f = 0; f < h.sum.length; f++) {
+            for (int t = 0; t < h.sum[f].length; t++) {
+                out.writeDouble(h.sum[f][t]);
+                out.writeInt(h.count[f][t]);
+            }
+        }
+    }
+
+    /**
+     * Read a histogram and add it to @h.
+     */
+    static void readHistogram(final DataInputStream in, final FeatureHistogram h) throws IOException {
+        h.sumResponse += in.readDouble();
+        h.sqSumResponse += in.readDouble();
+        for (int f = 0; f < h.sum.length; f++) {
+            for (int t = 0; t < h.sum[f].length; t++) {
+                h.sum[f][t] += in.readDouble();
+                h.count[f][t] += in.readInt();
+            }
+        }
+    }
+
+    static void writeInts(final DataOutputStream out, final int[] a) throws IOException {
+        out.writeInt(a.length);
+        for (final int x : a) {
+            out.writeInt(x);
+        }
+    }
+
+    static int[] readInts(final DataInputStream in) throws IOException {
+        final int[] a = new int[in.readInt()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = in.readInt();
+        }
+        return a;
+    }
+
+    static void writeFloats(final DataOutputStream out, final float[] a) throws IOException {
+        out.writeInt(a.length);
+        for (final float x : a) {
+            out.writeFloat(x);
+        }
+    }
+
+    static float[] readFloats(final DataInputStream in) throws IOException {
+        final float[] a = new float[in.readInt()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = in.readFloat();
+        }
+        return a;
+    }
+
+    static void writeDoubles(final DataOutputStream out, final double[] a) throws IOException {
+        out.writeInt(a.length);
+        for (final double x : a) {
+            out.writeDouble(x);
+        }
+    }
+
+    static double[] readDoubles(final DataInputStream in) throws IOException {
+        final double[] a = new double[in.readInt()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = in.readDouble();
+        }
+        return a;
+    }
+}
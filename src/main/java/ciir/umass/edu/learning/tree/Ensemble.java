@@ -12,6 +12,7 @@ package ciir.umass.edu.learning.tree;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.utilities.RankLibError;
 
@@ -107,6 +109,12 @@ public class Ensemble {
         return count;
     }
 
+    public void foldNormalization(final GlobalNormalizer n) {
+        for (final RegressionTree tree : trees) {
+            tree.foldNormalization(n);
+        }
+    }
+
     public float eval(final DataPoint dp) {
         float s = 0;
         for (int i = 0; i < trees.size(); i++) {
@@ -117,9 +125,17 @@ public class Ensemble {
 
     @Override
     public String toString() {
+        return toString(trees.size());
+    }
+
+    /**
+     * @param n
+     * @return The XML representation of the ensemble made of the first @n trees.
+     */
+    public String toString(final int n) {
         final StringBuilder buf = new StringBuilder(1000);
         buf.append("<ensemble>\n");
-        for (int i = 0; i < trees.size(); i++) {
+        for (int i = 0; i < n; i++) {
             buf.append("\t<tree id=\"").append(Integer.toString(i + 1)).append("\" weight=\"").append(Float.toString(weights.get(i)))
                     .append("\">\n");
             buf.append(trees.get(i).toString("\t\t"));
@@ -145,10 +161,29 @@ public class Ensemble {
             final NodeList nl = n.getChildNodes();
             final int fid = Integer.parseInt(nl.item(0).getFirstChild().getNodeValue().trim());//<feature>
             fids.put(fid, 0);
-            final float threshold = Float.parseFloat(nl.item(1).getFirstChild().getNodeValue().trim());//<threshold>
-            s = new Split(fid, threshold, 0);
-            s.setLeft(create(nl.item(2), fids));
-            s.setRight(create(nl.item(3), fids));
+            final String value = nl.item(1).getFirstChild().getNodeValue().trim();
+            if (nl.item(1).getNodeName().compareToIgnoreCase("categories") == 0)//<categories>
+            {
+                final String[] tokens = value.split("\\s+");
+                final float[] categories = new float[tokens.length];
+                for (int i = 0; i < tokens.length; i++) {
+                    categories[i] = Float.parseFloat(tokens[i]);
+                }
+                Arrays.sort(categories);
+                s = new Split(fid, categories, 0);
+            } else//<threshold>
+            {
+                s = new Split(fid, Float.parseFloat(value), 0);
+            }
+            int next = 2;
+            if (nl.item(next).getNodeName().compareToIgnoreCase("missing") == 0)//<missing> (only if a direction was learned)
+            {
+                final String side = nl.item(next).getFirstChild().getNodeValue().trim();
+                s.setMissing(side.equalsIgnoreCase("left") ? Split.MISSING_LEFT : Split.MISSING_RIGHT);
+                next++;
+            }
+            s.setLeft(create(nl.item(next), fids));
+            s.setRight(create(nl.item(next + 1), fids));
         } else//this is a stump
         {
             final float output = Float.parseFloat(n.getFirstChild().getFirstChild().getNodeValue().trim());
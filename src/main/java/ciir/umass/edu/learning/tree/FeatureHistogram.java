@@ -15,6 +15,7 @@ import java.util.List;
 import java.util.Random;
 
 import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.utilities.MergeSorter;
 import ciir.umass.edu.utilities.MyThreadPool;
 import ciir.umass.edu.utilities.WorkerThread;
 
@@ -27,6 +28,8 @@ public class FeatureHistogram {
         int thresholdIdx = -1;
         double S = -1;
         double errReduced = -1;
+        int[] leftBins = null;//categorical split: the bins that go left (null for a threshold split)
+        boolean missingLeft = false;//threshold split of a feature with a missing bin: whether the missing values go left
     }
 
     //Parameter
@@ -40,8 +43,16 @@ public class FeatureHistogram {
     public double sumResponse = 0;
     public double sqSumResponse = 0;
     public int[][] count = null;
+    //cumulative sum of the sample weights in each bin, if samples are weighted (null: they all weigh 1, see @count). Split gains and
+    //leaf support are measured in weights rather than in numbers of samples then.
+    public double[][] weight = null;
     public int[][] sampleToThresholdMap = null;
     public double[] impacts;
+    public boolean[] categorical = null;//categorical[f]: whether feature f is split by category rather than by threshold (null: none is)
+
+    //weight of each sample (null: 1 for all of them), e.g. scaled up by GOSS. Set on the histogram of the root of a tree with
+    //setSampleWeights(), the histograms of the other nodes inherit it.
+    protected double[] sampleWeights = null;
 
     //whether to re-use its parents @sum and @count instead of cleaning up the parent and re-allocate for the children.
     //@sum and @count of any intermediate tree node (except for root) can be re-used.
@@ -51,6 +62,15 @@ public class FeatureHistogram {
 
     }
 
+    /**
+     * Weigh the samples by @sampleWeights in the histograms built from now on by {@link #construct(FeatureHistogram, int[], double[])}
+     * (the labels are expected to be scaled already).
+     * @param sampleWeights
+     */
+    public void setSampleWeights(final double[] sampleWeights) {
+        this.sampleWeights = sampleWeights;
+    }
+
     public void construct(final DataPoint[] samples, final double[] labels, final int[][] sampleSortedIdx, final int[] features,
             final float[][] thresholds, final double[] impacts) {
         this.features = features;
@@ -111,6 +131,37 @@ public class FeatureHistogram {
         }
     }
 
+    /**
+     * Construct the histogram of the root node from bins computed beforehand.
+     * @param sampleToThresholdMap sampleToThresholdMap[f][k]: bin of sample k for feature f.
+     * @param labels
+     * @param features
+     * @param thresholds
+     * @param impacts
+     */
+    public void construct(final int[][] sampleToThresholdMap, final double[] labels, final int[] features, final float[][] thresholds,
+            final double[] impacts) {
+        this.features = features;
+        this.thresholds = thresholds;
+        this.impacts = impacts;
+        this.sampleToThresholdMap = sampleToThresholdMap;
+        sumResponse = 0;
+        sqSumResponse = 0;
+        sum = new double[features.length][];
+        count = new int[features.length][];
+
+        final int[] all = new int[labels.length];
+        for (int k = 0; k < all.length; k++) {
+            all[k] = k;
+        }
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1) {
+            construct(null, all, labels, 0, features.length - 1);
+        } else {
+            p.execute(new Worker(this, null, all, labels), features.length);
+        }
+    }
+
     protected void update(final double[] labels) {
         sumResponse = 0;
         sqSumResponse = 0;
@@ -145,14 +196,96 @@ public class FeatureHistogram {
         }
     }
 
+    /**
+     * @return Zeroed buffer for {@link #collect(double[][], double[], int, int)}.
+     */
+    protected double[][] newAccumulator() {
+        final double[][] acc = new double[features.length][];
+        for (int f = 0; f < features.length; f++) {
+            acc[f] = new double[thresholds[f].length];
+        }
+        return acc;
+    }
+
+    /**
+     * Fill @acc with the (non-cumulative) sum of labels of samples [from, to] in each bin. Several threads can collect disjoint sample
+     * ranges into their own accumulators, which are then merged with {@link #update(double[], double[][][])}.
+     * @param acc
+     * @param labels
+     * @param from
+     * @param to
+     */
+    protected void collect(final double[][] acc, final double[] labels, final int from, final int to) {
+        for (int f = 0; f < acc.length; f++) {
+            Arrays.fill(acc[f], 0);
+        }
+        for (int k = from; k <= to; k++) {
+            for (int f = 0; f < acc.length; f++) {
+                acc[f][sampleToThresholdMap[f][k]] += labels[k];
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #update(double[])}, but built from accumulators that together cover all samples (see
+     * {@link #collect(double[][], double[], int, int)}) instead of from the labels.
+     * @param labels
+     * @param partials
+     */
+    protected void update(final double[] labels, final double[][][] partials) {
+        sumResponse = 0;
+        sqSumResponse = 0;
+        for (final double label : labels) {
+            sumResponse += label;
+            sqSumResponse += label * label;
+        }
+
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1) {
+            update(partials, 0, features.length - 1);
+        } else {
+            p.execute(new Worker(this, partials), features.length);
+        }
+    }
+
+    protected void update(final double[][][] partials, final int start, final int end) {
+        merge(partials, start, end);
+        for (int f = start; f <= end; f++) {
+            for (int t = 1; t < thresholds[f].length; t++) {
+                sum[f][t] += sum[f][t - 1];
+            }
+        }
+    }
+
+    /**
+     * Set @sum of features [start, end] to the bin-wise total of @partials (non-cumulative).
+     */
+    protected void merge(final double[][][] partials, final int start, final int end) {
+        for (int f = start; f <= end; f++) {
+            final double[] s = sum[f];
+            Arrays.fill(s, 0);
+            for (final double[][] acc : partials) {
+                final double[] a = acc[f];
+                for (int t = 0; t < s.length; t++) {
+                    s[t] += a[t];
+                }
+            }
+        }
+    }
+
     public void construct(final FeatureHistogram parent, final int[] soi, final double[] labels) {
         this.features = parent.features;
         this.thresholds = parent.thresholds;
         this.impacts = parent.impacts;
+        this.categorical = parent.categorical;
+        if (sampleWeights == null) {
+            sampleWeights = parent.sampleWeights;
+        }
         sumResponse = 0;
         sqSumResponse = 0;
         sum = new double[features.length][];
         count = new int[features.length][];
+        weight = (sampleWeights == null) ? null : new double[features.length][];
         sampleToThresholdMap = parent.sampleToThresholdMap;
 
         final MyThreadPool p = MyThreadPool.getInstance();
@@ -171,6 +304,9 @@ public class FeatureHistogram {
             count[i] = new int[threshold.length];
             Arrays.fill(sum[i], 0);
             Arrays.fill(count[i], 0);
+            if (weight != null) {
+                weight[i] = new double[threshold.length];
+            }
         }
 
         //update
@@ -179,6 +315,9 @@ public class FeatureHistogram {
                 final int t = sampleToThresholdMap[f][k];
                 sum[f][t] += labels[k];
                 count[f][t]++;
+                if (weight != null) {
+                    weight[f][t] += sampleWeights[k];
+                }
                 if (f == 0) {
                     sumResponse += labels[k];
                     sqSumResponse += labels[k] * labels[k];
@@ -190,6 +329,9 @@ public class FeatureHistogram {
             for (int t = 1; t < thresholds[f].length; t++) {
                 sum[f][t] += sum[f][t - 1];
                 count[f][t] += count[f][t - 1];
+                if (weight != null) {
+                    weight[f][t] += weight[f][t - 1];
+                }
             }
         }
     }
@@ -199,15 +341,19 @@ public class FeatureHistogram {
         this.features = parent.features;
         this.thresholds = parent.thresholds;
         this.impacts = parent.impacts;
+        this.categorical = parent.categorical;
+        sampleWeights = parent.sampleWeights;
         sumResponse = parent.sumResponse - leftSibling.sumResponse;
         sqSumResponse = parent.sqSumResponse - leftSibling.sqSumResponse;
 
         if (reuseParent) {
             sum = parent.sum;
             count = parent.count;
+            weight = parent.weight;
         } else {
             sum = new double[features.length][];
             count = new int[features.length][];
+            weight = (parent.weight == null) ? null : new double[features.length][];
         }
         sampleToThresholdMap = parent.sampleToThresholdMap;
 
@@ -225,42 +371,168 @@ public class FeatureHistogram {
             if (!reuseParent) {
                 sum[f] = new double[threshold.length];
                 count[f] = new int[threshold.length];
+                if (weight != null) {
+                    weight[f] = new double[threshold.length];
+                }
             }
             for (int t = 0; t < threshold.length; t++) {
                 sum[f][t] = parent.sum[f][t] - leftSibling.sum[f][t];
                 count[f][t] = parent.count[f][t] - leftSibling.count[f][t];
+                if (weight != null) {
+                    weight[f][t] = parent.weight[f][t] - leftSibling.weight[f][t];
+                }
             }
         }
     }
 
+    /**
+     * @param f Feature index (in @features)
+     * @return Whether feature @f has a bin for missing values (see DataPoint#isMissing(int)): the last one, whose threshold is NaN,
+     * after the Float.MAX_VALUE one that ends the regular bins. Splits send its samples left or right as a whole.
+     */
+    protected boolean hasMissingBin(final int f) {
+        final float[] threshold = thresholds[f];
+        return Float.isNaN(threshold[threshold.length - 1]);
+    }
+
+    /**
+     * @param f Feature index (in @features)
+     * @param t Bin
+     * @return The number of samples in bins [0, t] of feature @f, or the sum of their weights if samples are weighted.
+     */
+    protected double countUpTo(final int f, final int t) {
+        return (weight == null) ? count[f][t] : weight[f][t];
+    }
+
+    /**
+     * @param nSamples Number of samples of the node.
+     * @return The support of the node, in the same unit as {@link #countUpTo(int, int)}: @nSamples, or the sum of the weights of
+     * its samples if they are weighted.
+     */
+    public double support(final int nSamples) {
+        if (weight == null || weight.length == 0) {
+            return nSamples;
+        }
+        return weight[0][weight[0].length - 1];
+    }
+
+    /**
+     * @param f Feature index (in @features)
+     * @param k Sample index
+     * @return Index of the threshold (bin) sample @k falls into with respect to feature @f.
+     */
+    protected int bin(final int f, final int k) {
+        return sampleToThresholdMap[f][k];
+    }
+
+    /**
+     * @return An empty histogram of the same kind as this one, to be constructed for a child node.
+     */
+    protected FeatureHistogram newHistogram() {
+        return new FeatureHistogram();
+    }
+
     protected Config findBestSplit(final int[] usedFeatures, final int minLeafSupport, final int start, final int end) {
         final Config cfg = new Config();
-        final int totalCount = count[start][count[start].length - 1];
+        final double totalCount = countUpTo(start, count[start].length - 1);
         for (int f = start; f <= end; f++) {
             final int i = usedFeatures[f];
+            if (categorical != null && categorical[i]) {
+                findCategoricalSplit(i, totalCount, minLeafSupport, cfg);
+                continue;
+            }
             final float[] threshold = thresholds[i];
+            //with a missing bin (the last one), the cumulative sums have the missing values on the right of every threshold: each
+            //threshold is tried with them on the left as well
+            final int last = threshold.length - 1;
+            final double countMissing = hasMissingBin(i) ? countUpTo(i, last) - countUpTo(i, last - 1) : 0;
+            final double sumMissing = hasMissingBin(i) ? sum[i][last] - sum[i][last - 1] : 0;
 
             for (int t = 0; t < threshold.length; t++) {
-                final int countLeft = count[i][t];
-                final int countRight = totalCount - countLeft;
-                if (countLeft < minLeafSupport || countRight < minLeafSupport) {
-                    continue;
+                final int nSides = (countMissing > 0 && t < last - 1) ? 2 : 1;
+                for (int side = 0; side < nSides; side++) {
+                    final double countLeft = countUpTo(i, t) + ((side == 1) ? countMissing : 0);
+                    final double countRight = totalCount - countLeft;
+                    if (countLeft < minLeafSupport || countRight < minLeafSupport) {
+                        continue;
+                    }
+
+                    final double sumLeft = sum[i][t] + ((side == 1) ? sumMissing : 0);
+                    final double sumRight = sumResponse - sumLeft;
+
+                    final double S = sumLeft * sumLeft / countLeft + sumRight * sumRight / countRight;
+                    final double errST = (sqSumResponse / totalCount) * (S / totalCount);
+                    if (cfg.S < S) {
+                        cfg.S = S;
+                        cfg.featureIdx = i;
+                        cfg.thresholdIdx = t;
+                        cfg.errReduced = errST;
+                        cfg.leftBins = null;
+                        cfg.missingLeft = side == 1;
+                    }
                 }
+            }
+        }
+        return cfg;
+    }
 
-                final double sumLeft = sum[i][t];
-                final double sumRight = sumResponse - sumLeft;
+    /**
+     * Find the best many-vs-many split of categorical feature @i, whose bins are its categories: the non-empty bins are sorted by their
+     * mean response, and for squared error the best partition of the categories into two groups is one of the prefixes of this order
+     * (Fisher, 1958). Update @cfg if that split is better than the one it holds.
+     * @param i
+     * @param totalCount
+     * @param minLeafSupport
+     * @param cfg
+     */
+    protected void findCategoricalSplit(final int i, final double totalCount, final int minLeafSupport, final Config cfg) {
+        final double[] s = sum[i];
+        final int[] c = count[i];
+        final int[] bins = new int[s.length];
+        final double[] binSum = new double[s.length];
+        final double[] binCount = new double[s.length];
+        int m = 0;
+        for (int t = 0; t < s.length; t++) {
+            final int ct = c[t] - ((t > 0) ? c[t - 1] : 0);
+            if (ct > 0) {
+                bins[m] = t;
+                binSum[m] = s[t] - ((t > 0) ? s[t - 1] : 0);
+                binCount[m++] = countUpTo(i, t) - ((t > 0) ? countUpTo(i, t - 1) : 0);
+            }
+        }
+        if (m < 2) {
+            return;
+        }
+        final double[] mean = new double[m];
+        for (int j = 0; j < m; j++) {
+            mean[j] = binSum[j] / binCount[j];
+        }
+        final int[] order = MergeSorter.sort(mean, true);
+
+        double sumLeft = 0;
+        double countLeft = 0;
+        for (int j = 0; j < m - 1; j++) {
+            sumLeft += binSum[order[j]];
+            countLeft += binCount[order[j]];
+            final double countRight = totalCount - countLeft;
+            if (countLeft < minLeafSupport || countRight < minLeafSupport) {
+                continue;
+            }
 
-                final double S = sumLeft * sumLeft / countLeft + sumRight * sumRight / countRight;
-                final double errST = (sqSumResponse / totalCount) * (S / totalCount);
-                if (cfg.S < S) {
-                    cfg.S = S;
-                    cfg.featureIdx = i;
-                    cfg.thresholdIdx = t;
-                    cfg.errReduced = errST;
+            final double sumRight = sumResponse - sumLeft;
+            final double S = sumLeft * sumLeft / countLeft + sumRight * sumRight / countRight;
+            if (cfg.S < S) {
+                cfg.S = S;
+                cfg.featureIdx = i;
+                cfg.thresholdIdx = -1;
+                cfg.missingLeft = false;
+                cfg.errReduced = (sqSumResponse / totalCount) * (S / totalCount);
+                cfg.leftBins = new int[j + 1];
+                for (int k = 0; k <= j; k++) {
+                    cfg.leftBins[k] = bins[order[k]];
                 }
             }
         }
-        return cfg;
     }
 
     public boolean findBestSplit(final Split sp, final double[] labels, final int minLeafSupport) {
@@ -268,6 +540,17 @@ public class FeatureHistogram {
             return false;//no need to split
         }
 
+        final Config best = findBestSplit(sampleFeatures(), minLeafSupport);
+        if (best.S == -1) {
+            return false;
+        }
+        return split(sp, best, labels);
+    }
+
+    /**
+     * @return Index of the features to be used for tree splitting (a random subset of them if @samplingRate &lt; 1).
+     */
+    protected int[] sampleFeatures() {
         int[] usedFeatures = null;//index of the features to be used for tree splitting
         if (samplingRate < 1)//need to do sub sampling (feature sampling)
         {
@@ -292,8 +575,16 @@ public class FeatureHistogram {
                 usedFeatures[i] = i;
             }
         }
+        return usedFeatures;
+    }
 
-        //find the best split
+    /**
+     * Find the best split among @usedFeatures, using the whole thread pool.
+     * @param usedFeatures
+     * @param minLeafSupport
+     * @return The best split (S == -1 if there is no valid split).
+     */
+    protected Config findBestSplit(final int[] usedFeatures, final int minLeafSupport) {
         Config best = new Config();
         final MyThreadPool p = MyThreadPool.getInstance();
         if (p.size() == 1) {
@@ -307,11 +598,13 @@ public class FeatureHistogram {
                 }
             }
         }
+        return best;
+    }
 
-        if (best.S == -1) {
-            return false;
-        }
-
+    /**
+     * Split @sp with its best split (see {@link #findBestSplit(Split, double[], int)}).
+     */
+    protected boolean split(final Split sp, final Config best, final double[] labels) {
         // bestFeaturesHist is the best features
         final double[] bestFeaturesHist = sum[best.featureIdx];
         final int[] sampleCount = count[best.featureIdx];
@@ -319,8 +612,27 @@ public class FeatureHistogram {
         final double s = bestFeaturesHist[bestFeaturesHist.length - 1];
         final int c = sampleCount[bestFeaturesHist.length - 1];
 
-        final double sumLeft = bestFeaturesHist[best.thresholdIdx];
-        final int countLeft = sampleCount[best.thresholdIdx];
+        //bins that go left: the ones up to the threshold, or the chosen categories
+        final boolean[] goesLeft = new boolean[bestFeaturesHist.length];
+        double sumLeft = 0;
+        int countLeft = 0;
+        if (best.leftBins == null) {
+            Arrays.fill(goesLeft, 0, best.thresholdIdx + 1, true);
+            sumLeft = bestFeaturesHist[best.thresholdIdx];
+            countLeft = sampleCount[best.thresholdIdx];
+            if (best.missingLeft) {
+                final int last = goesLeft.length - 1;
+                goesLeft[last] = true;
+                sumLeft += bestFeaturesHist[last] - bestFeaturesHist[last - 1];
+                countLeft += sampleCount[last] - sampleCount[last - 1];
+            }
+        } else {
+            for (final int t : best.leftBins) {
+                goesLeft[t] = true;
+                sumLeft += bestFeaturesHist[t] - ((t > 0) ? bestFeaturesHist[t - 1] : 0);
+                countLeft += sampleCount[t] - ((t > 0) ? sampleCount[t - 1] : 0);
+            }
+        }
 
         final double sumRight = s - sumLeft;
         final int countRight = c - countLeft;
@@ -333,23 +645,38 @@ public class FeatureHistogram {
         final int[] idx = sp.getSamples();
         for (final int element : idx) {
             k = element;
-            if (sampleToThresholdMap[best.featureIdx][k] <= best.thresholdIdx) {
+            if (goesLeft[bin(best.featureIdx, k)]) {
                 left[l++] = k;
             } else {
                 right[r++] = k;
             }
         }
 
-        final FeatureHistogram lh = new FeatureHistogram();
+        final FeatureHistogram lh = newHistogram();
         lh.construct(sp.hist, left, labels);
-        final FeatureHistogram rh = new FeatureHistogram();
+        final FeatureHistogram rh = newHistogram();
         rh.construct(sp.hist, lh, !sp.isRoot());
 
         final double var = sqSumResponse - sumResponse * sumResponse / idx.length;
         final double varLeft = lh.sqSumResponse - lh.sumResponse * lh.sumResponse / left.length;
         final double varRight = rh.sqSumResponse - rh.sumResponse * rh.sumResponse / right.length;
 
-        sp.set(features[best.featureIdx], thresholds[best.featureIdx][best.thresholdIdx], var);
+        if (best.leftBins == null) {
+            sp.set(features[best.featureIdx], thresholds[best.featureIdx][best.thresholdIdx], var);
+            if (hasMissingBin(best.featureIdx)) {
+                sp.setMissing(best.missingLeft ? Split.MISSING_LEFT : Split.MISSING_RIGHT);
+            }
+        } else {
+            //the categories of the left bins, in ascending order like the thresholds
+            final float[] categories = new float[best.leftBins.length];
+            int n = 0;
+            for (int t = 0; t < goesLeft.length; t++) {
+                if (goesLeft[t]) {
+                    categories[n++] = thresholds[best.featureIdx][t];
+                }
+            }
+            sp.set(features[best.featureIdx], categories, var);
+        }
         sp.setLeft(new Split(left, lh, varLeft, sumLeft));
         sp.setRight(new Split(right, rh, varRight, sumRight));
 
@@ -382,6 +709,9 @@ public class FeatureHistogram {
         int[][] sampleSortedIdx;
         float[][] thresholds;
 
+        //update from accumulators (type = 5)
+        double[][][] partials;
+
         public Worker() {
         }
 
@@ -423,6 +753,12 @@ public class FeatureHistogram {
             this.thresholds = thresholds;
         }
 
+        public Worker(final FeatureHistogram fh, final double[][][] partials) {
+            type = 5;
+            this.fh = fh;
+            this.partials = partials;
+        }
+
         @Override
         public void run() {
             if (type == 0) {
@@ -435,6 +771,8 @@ public class FeatureHistogram {
                 fh.construct(parent, leftSibling, start, end);
             } else if (type == 4) {
                 fh.construct(samples, labels, sampleSortedIdx, thresholds, start, end);
+            } else if (type == 5) {
+                fh.update(partials, start, end);
             }
         }
 
@@ -463,6 +801,9 @@ public class FeatureHistogram {
             wk.sampleSortedIdx = sampleSortedIdx;
             wk.thresholds = thresholds;
 
+            //update from accumulators (type = 5)
+            wk.partials = partials;
+
             return wk;
         }
     }
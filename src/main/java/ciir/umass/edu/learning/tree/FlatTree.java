@@ -0,0 +1,82 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ciir.umass.edu.learning.DataPoint;
+
+/**
+ * Array form of a regression tree, for fast evaluation: nodes are stored in parallel arrays (in breadth-first order) instead of
+ * linked {@link Split} objects. Evaluates to exactly the same outputs as the tree it was created from.
+ */
+public class FlatTree {
+    protected final int[] feature;//-1 for leaves
+    protected final float[] threshold;
+    protected final float[][] categories;//categorical splits only: the values that go left
+    protected final int[] missing;//see Split#getMissing()
+    protected final int[] left;
+    protected final int[] right;
+    protected final double[] output;
+
+    public FlatTree(final Split root) {
+        final List<Split> nodes = new ArrayList<>();
+        nodes.add(root);
+        for (int i = 0; i < nodes.size(); i++) {
+            final Split s = nodes.get(i);
+            if (s.getFeatureID() != -1) {
+                nodes.add(s.getLeft());
+                nodes.add(s.getRight());
+            }
+        }
+
+        final int n = nodes.size();
+        feature = new int[n];
+        threshold = new float[n];
+        categories = new float[n][];
+        missing = new int[n];
+        left = new int[n];
+        right = new int[n];
+        output = new double[n];
+        int next = 1;
+        for (int i = 0; i < n; i++) {
+            final Split s = nodes.get(i);
+            feature[i] = s.getFeatureID();
+            if (feature[i] != -1) {
+                threshold[i] = s.getThreshold();
+                categories[i] = s.getCategories();
+                missing[i] = s.getMissing();
+                left[i] = next++;
+                right[i] = next++;
+            } else {
+                output[i] = s.getOutput();
+            }
+        }
+    }
+
+    public double eval(final DataPoint dp) {
+        int n = 0;
+        while (feature[n] != -1) {
+            if (missing[n] != Split.MISSING_AS_ZERO && dp.isMissing(feature[n])) {
+                n = (missing[n] == Split.MISSING_LEFT) ? left[n] : right[n];
+                continue;
+            }
+            final float v = dp.getFeatureValue(feature[n]);
+            final boolean goLeft = (categories[n] == null) ? v <= threshold[n] : Split.isCategory(categories[n], v);
+            n = goLeft ? left[n] : right[n];
+        }
+        return output[n];
+    }
+
+    public int size() {
+        return feature.length;
+    }
+}
@@ -9,18 +9,38 @@
 
 package ciir.umass.edu.learning.tree;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ObjIntConsumer;
 import java.util.logging.Logger;
 
+import ciir.umass.edu.features.GlobalNormalizer;
+import ciir.umass.edu.learning.Checkpointer;
 import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.learning.RankerFactory;
+import ciir.umass.edu.learning.SparseDataPoint;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.parsing.ModelLineProducer;
+import ciir.umass.edu.utilities.FileUtils;
 import ciir.umass.edu.utilities.MergeSorter;
 import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.PrimitiveSorter;
+import ciir.umass.edu.utilities.QuantileSketch;
+import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
 
 /**
@@ -37,25 +57,85 @@ public class LambdaMART extends Ranker {
     public static int nTrees = 1000;//the number of trees
     public static float learningRate = 0.1F;//or shrinkage
     public static int nThreshold = 256;
+    //Features with more than @nThreshold distinct values get equal-frequency thresholds (from a quantile sketch) instead of
+    //equal-width ones.
+    public static boolean quantileThresholds = false;
     public static int nRoundToStopEarly = 100;//If no performance gain on the *VALIDATION* data is observed in #rounds, stop the training process right away.
     public static int nTreeLeaves = 10;
     public static int minLeafSupport = 1;
+    //Overlap the stages of consecutive boosting rounds: lambdas are collected straight into per-thread histogram accumulators, and
+    //round m is evaluated (and logged) on a thread of its own while the tree of round m+1 is being fit. Histogram sums are added up in
+    //a different order, so trees may differ from the ones of the default mode in the last bits.
+    public static boolean pipelined = false;
+    //If set, the binned training data is kept in memory-mapped files in this directory instead of on the heap (out-of-core training).
+    public static String binDir = null;
+    //Out-of-core training only: the training data is read from this file (into the memory-mapped files of @binDir) instead of being
+    //loaded. Only the labels of the samples and the query boundaries stay on the heap, see initStreamed().
+    public static String streamFile = null;
+    public static boolean streamSparse = false;//parse @streamFile into sparse data points
+    //Merge mutually exclusive features (never away from their most frequent value on the same sample) into shared histogram columns.
+    public static boolean bundle = false;
+    //If set, training continues from this saved LambdaMART/MART model: its trees are kept and @nTrees more are added.
+    public static String warmStartModel = null;
+    //If set (comma-separated host:port list), training data is held by DistributedWorker processes and this instance only coordinates.
+    public static String workers = null;
+    //Sampling of the training data for each tree. Queries: only a random @querySamplingRate of them are used. Documents (gradient-based
+    //one-side sampling): the @gossTopRate of them with the largest |lambda| are kept, and the remaining ones with probability
+    //@gossOtherRate / (1 - @gossTopRate), with their lambdas and weights scaled up accordingly. They also count that much in the
+    //histograms (split gains and leaf support use the sum of the sample weights instead of the number of samples), so that the
+    //histograms stay unbiased.
+    public static float querySamplingRate = 1;
+    public static float gossTopRate = 1;//1: no document sampling
+    public static float gossOtherRate = 0;
+    //Ids of the features split by category (a set of values goes left, see Split) rather than by threshold. Each distinct value of
+    //these features gets a bin of its own, whatever @nThreshold is.
+    public static int[] categoricalFeatures = null;
+    //Learn which side of each split missing values (see DataPoint#isMissing(int), e.g. features absent from sparse samples) go to,
+    //instead of reading them as 0. Features with missing values get an extra histogram bin for them (not categorical features).
+    public static boolean learnMissing = false;
 
     //Local variables
     protected float[][] thresholds = null;
+    protected boolean[] categorical = null;//categorical[f]: whether feature f is one of @categoricalFeatures (null: none is)
     protected Ensemble ensemble = null;
     protected double[] modelScores = null;//on training data
 
     protected double[][] modelScoresOnValidation = null;
+    //ranking of each query by the current model scores (indexes relative to the query's first sample), kept from one iteration to
+    //the next since a single tree only changes the scores slightly. Shared by the lambda computation and the metric evaluation.
+    protected int[][] orderings = null;
+    protected int[][] orderingsOnValidation = null;
+    //metric score of each query under the current model. The training scores come for free from the lambda computation, which ranks
+    //every query anyway (when @queryScoresUpToDate is set).
+    protected double[] queryScores = null;
+    protected double[] queryScoresOnValidation = null;
+    protected boolean queryScoresUpToDate = false;
     protected int bestModelOnValidation = Integer.MAX_VALUE - 2;
+    protected Ensemble warmStart = null;//trees of the model training started from (warm start or resume)
+    protected int firstRound = 0;//rounds already done before training started (resume only)
+    protected Checkpointer checkpointer = null;
+    protected boolean checkpointing = true;//false for the bags of a random forest, which checkpoints on its own
 
     //Training instances prepared for MART
-    protected DataPoint[] martSamples = null;//Need initializing only once
+    protected DataPoint[] martSamples = null;//Need initializing only once (null in streamed mode: the samples are only read to be binned)
+    protected float[] labels = null;//label of each sample, in the order of @martSamples
     protected int[][] sortedIdx = null;//sorted list of samples in @martSamples by each feature -- Need initializing only once
     protected FeatureHistogram hist = null;
+    protected BinnedColumnStore binnedData = null;//out-of-core mode only
+    protected WorkerGroup workerGroup = null;//distributed mode only
+    protected float[] roundScores = null;//distributed mode only: training score of the model after each round
     protected double[] pseudoResponses = null;//different for each iteration
     protected double[] weights = null;//different for each iteration
     protected double[] impacts = null; // accumulated impact of each feature
+    protected double[][][] partialHistograms = null;//one accumulator per lambda worker (pipelined mode)
+    protected boolean lambdasCollected = false;//whether @partialHistograms hold the current lambdas
+    protected int[] queryStart = null;//index of the first sample of each query in @martSamples, then the number of samples
+    protected String[] queryIds = null;//streamed mode only: qid of each query
+    protected double[] sampleWeights = null;//weight of each sample in the current tree (null if all samples are used, with weight 1)
+    protected Random random = new Random();
+
+    private static final int BLOCK_SIZE = 100000;//lines read at a time from @streamFile
+    private static final SparseDataPoint NO_FEATURES = new SparseDataPoint("0 qid:0");//see query(int)
 
     public LambdaMART() {
     }
@@ -67,27 +147,290 @@ public class LambdaMART extends Ranker {
     @Override
     public void init() {
         logger.info(() -> "Initializing... ");
-        //initialize samples for MART
-        int dpCount = 0;
-        for (int i = 0; i < samples.size(); i++) {
-            final RankList rl = samples.get(i);
-            dpCount += rl.size();
-        }
-        int current = 0;
-        martSamples = new DataPoint[dpCount];
+        if (workers != null) {
+            initDistributed();
+            initValidation();
+            return;
+        }
+
+        if (streamFile != null) {
+            initStreamed();
+        }
+        initSamples();
+        categorical = categoricalMask();
+        if (binDir != null) {
+            initOutOfCore();
+        } else if (bundle) {
+            initBundled();
+        } else if (isSparse()) {
+            initSparse();
+        } else {
+            initDense();
+        }
+        hist.categorical = categorical;
+        initValidation();
+
+        String checkpoint = null;
+        if (Checkpointer.checkpointFile != null && checkpointing) {
+            checkpointer = new Checkpointer(Checkpointer.checkpointFile);
+            checkpoint = checkpointer.load();
+        }
+        if (checkpoint != null) {
+            //(it has the trees of the warm start model too, if any)
+            initResume(checkpoint);
+        } else if (warmStartModel != null) {
+            initWarmStart();
+        }
+    }
+
+    protected void initSamples() {
+        //initialize samples for MART (streamed: @labels and @queryStart are read already)
+        if (streamFile == null) {
+            queryStart = new int[samples.size() + 1];
+            for (int i = 0; i < samples.size(); i++) {
+                queryStart[i + 1] = queryStart[i] + samples.get(i).size();
+            }
+            martSamples = new DataPoint[queryStart[samples.size()]];
+            labels = new float[martSamples.length];
+            for (int i = 0; i < samples.size(); i++) {
+                final RankList rl = samples.get(i);
+                for (int j = 0; j < rl.size(); j++) {
+                    martSamples[queryStart[i] + j] = rl.get(j);
+                    labels[queryStart[i] + j] = rl.get(j).getLabel();
+                }
+            }
+        }
+        final int dpCount = labels.length;
         modelScores = new double[dpCount];
         pseudoResponses = new double[dpCount];
         impacts = new double[features.length];
         weights = new double[dpCount];
-        for (int i = 0; i < samples.size(); i++) {
-            final RankList rl = samples.get(i);
-            for (int j = 0; j < rl.size(); j++) {
-                martSamples[current + j] = rl.get(j);
-                modelScores[current + j] = 0.0F;
-                pseudoResponses[current + j] = 0.0F;
-                weights[current + j] = 0;
+        orderings = new int[queryCount()][];
+        queryScores = new double[queryCount()];
+        for (int i = 0; i < queryCount(); i++) {
+            orderings[i] = identity(queryStart[i + 1] - queryStart[i]);
+        }
+    }
+
+    /**
+     * Read the labels and queries of the samples of @streamFile into @labels, @queryStart and @queryIds: no data point is kept (their
+     * feature values are only read to be binned, see {@link #initOutOfCore()}). Without a feature selection, the features are all the
+     * ones in the file.
+     */
+    protected void initStreamed() {
+        final float[][] label = { new float[BLOCK_SIZE] };
+        final int[][] start = { new int[BLOCK_SIZE] };
+        final List<String> ids = new ArrayList<>();
+        final int[] count = new int[2];//samples, features
+        stream((dp, k) -> {
+            if (k == label[0].length) {
+                label[0] = Arrays.copyOf(label[0], 2 * k);
+            }
+            label[0][k] = dp.getLabel();
+            if (ids.isEmpty() || !ids.get(ids.size() - 1).equals(dp.getID())) {
+                if (ids.size() == start[0].length) {
+                    start[0] = Arrays.copyOf(start[0], 2 * ids.size());
+                }
+                start[0][ids.size()] = k;
+                ids.add(dp.getID());
+            }
+            count[0] = k + 1;
+            count[1] = Math.max(count[1], dp.getFeatureCount());
+        });
+        labels = Arrays.copyOf(label[0], count[0]);
+        queryStart = Arrays.copyOf(start[0], ids.size() + 1);
+        queryStart[ids.size()] = count[0];
+        queryIds = ids.toArray(new String[ids.size()]);
+        if (features == null) {
+            features = new int[count[1]];
+            for (int i = 0; i < features.length; i++) {
+                features[i] = i + 1;
+            }
+        }
+        logger.info(() -> "Training data (streamed): " + queryIds.length + " ranked lists, " + features.length + " features");
+    }
+
+    protected int queryCount() {
+        return queryStart.length - 1;
+    }
+
+    /**
+     * @return Training query @i. In streamed mode, its data points are made up from @labels and @queryIds on the fly, without features:
+     * they are only there to be scored.
+     */
+    protected RankList query(final int i) {
+        if (streamFile == null) {
+            return samples.get(i);
+        }
+        final List<DataPoint> points = new ArrayList<>(queryStart[i + 1] - queryStart[i]);
+        for (int k = queryStart[i]; k < queryStart[i + 1]; k++) {
+            final DataPoint dp = new SparseDataPoint(NO_FEATURES);
+            dp.setLabel(labels[k]);
+            dp.setID(queryIds[i]);
+            points.add(dp);
+        }
+        return new RankList(points);
+    }
+
+    /**
+     * Parse @streamFile one block of lines at a time (the lines of a block are parsed by the threads) and hand its data points to
+     * @action in file order, along with their index.
+     * @param action
+     */
+    protected void stream(final ObjIntConsumer<DataPoint> action) {
+        final MyThreadPool p = MyThreadPool.getInstance();
+        try (final BufferedReader in = FileUtils.smartReader(streamFile)) {
+            int k = 0;
+            String[] block = FileUtils.readDataLines(in, BLOCK_SIZE);
+            while (block.length > 0) {
+                final String[] lines = block;
+                final DataPoint[] points = new DataPoint[lines.length];
+                final int[] partition = p.partition(lines.length);
+                for (int w = 0; w < partition.length - 1; w++) {
+                    final int start = partition[w];
+                    final int end = partition[w + 1];
+                    final Runnable task = () -> {
+                        for (int i = start; i < end; i++) {
+                            points[i] = streamSparse ? new SparseDataPoint(lines[i]) : new DenseDataPoint(lines[i]);
+                        }
+                    };
+                    if (p.size() == 1) {
+                        task.run();
+                    } else {
+                        p.execute(task);
+                    }
+                }
+                if (p.size() > 1) {
+                    p.await();
+                }
+                for (final DataPoint dp : points) {
+                    action.accept(dp, k++);
+                }
+                block = FileUtils.readDataLines(in, BLOCK_SIZE);
+            }
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error in LambdaMART::stream(): ", ex);
+        }
+    }
+
+    /**
+     * Start from the model in @warmStartModel: its outputs on the training and validation data become the initial model scores, and
+     * it is the model to beat on the validation data.
+     */
+    protected void initWarmStart() {
+        final Ranker r = new RankerFactory().loadRankerFromFile(warmStartModel);
+        if (!(r instanceof LambdaMART)) {
+            throw RankLibError.create("Warm start needs a LambdaMART or MART model: " + warmStartModel);
+        }
+        startFrom(((LambdaMART) r).getEnsemble());
+        if (validationSamples != null) {
+            //the model we start from, i.e. the one after round "-1"
+            ensemble = warmStart;
+            bestScoreOnValidationData = scorer.score(rank(validationSamples));
+            bestModelOnValidation = -1;
+        }
+        final int nWarm = warmStart.treeCount();
+        logger.info(() -> "Warm start from " + warmStartModel + " (" + nWarm + " trees)");
+    }
+
+    /**
+     * Continue an interrupted training run from its last checkpoint (see {@link #checkpoint(int, int, double[], String)}).
+     * @param checkpoint
+     */
+    protected void initResume(final String checkpoint) {
+        final LambdaMART r = new LambdaMART();
+        r.loadFromString(checkpoint);
+        startFrom(r.getEnsemble());
+        final Map<String, String> state = Checkpointer.state(checkpoint);
+        firstRound = Integer.parseInt(state.get("round"));
+        bestModelOnValidation = Integer.parseInt(state.get("best"));
+        bestScoreOnValidationData = Double.parseDouble(state.get("bestScore"));
+        impacts = Checkpointer.toDoubles(state.get("impacts"));
+        random = Checkpointer.toRandom(state.get("random"));
+        logger.info(() -> "Resuming after round " + firstRound + " (" + warmStart.treeCount() + " trees)");
+    }
+
+    /**
+     * Make the trees of @e the initial model: their outputs become the model scores on the training and validation data.
+     * @param e
+     */
+    private void startFrom(final Ensemble e) {
+        warmStart = e;
+        if (streamFile != null) {
+            stream((dp, k) -> modelScores[k] = accumulate(e, dp));
+        } else {
+            for (int k = 0; k < martSamples.length; k++) {
+                modelScores[k] = accumulate(e, martSamples[k]);
             }
-            current += rl.size();
+        }
+        if (validationSamples != null) {
+            for (int i = 0; i < validationSamples.size(); i++) {
+                final RankList rl = validationSamples.get(i);
+                for (int j = 0; j < rl.size(); j++) {
+                    modelScoresOnValidation[i][j] = accumulate(e, rl.get(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The output of @e on @dp, added up tree by tree in double precision like the model scores are during training (so that a
+     * resumed run picks up exactly the scores the interrupted one had).
+     */
+    private static double accumulate(final Ensemble e, final DataPoint dp) {
+        double s = 0;
+        for (int t = 0; t < e.treeCount(); t++) {
+            s += e.getWeight(t) * e.getTree(t).eval(dp);
+        }
+        return s;
+    }
+
+    protected void initValidation() {
+        if (validationSamples != null) {
+            modelScoresOnValidation = new double[validationSamples.size()][];
+            orderingsOnValidation = new int[validationSamples.size()][];
+            queryScoresOnValidation = new double[validationSamples.size()];
+            for (int i = 0; i < validationSamples.size(); i++) {
+                modelScoresOnValidation[i] = new double[validationSamples.get(i).size()];
+                Arrays.fill(modelScoresOnValidation[i], 0);
+                orderingsOnValidation[i] = identity(validationSamples.get(i).size());
+            }
+        }
+    }
+
+    private static int[] identity(final int n) {
+        final int[] idx = new int[n];
+        for (int i = 0; i < n; i++) {
+            idx[i] = i;
+        }
+        return idx;
+    }
+
+    /**
+     * @return true if all training samples are sparse data points.
+     */
+    protected boolean isSparse() {
+        for (final DataPoint dp : martSamples) {
+            if (!(dp instanceof SparseDataPoint)) {
+                return false;
+            }
+        }
+        return martSamples.length > 0;
+    }
+
+    protected void initDense() {
+        if (quantileThresholds || learnMissing) {
+            //no need to sort the samples by each feature: bin them directly
+            final float[][] thresholds = new float[features.length][];
+            final float[] values = new float[martSamples.length];
+            for (int f = 0; f < features.length; f++) {
+                for (int k = 0; k < martSamples.length; k++) {
+                    values[k] = value(martSamples[k], f);
+                }
+                thresholds[f] = makeThresholds(f, values);
+            }
+            initBinned(thresholds);
+            return;
         }
 
         //sort (MART) samples by each feature so that we can quickly retrieve a sorted list of samples by any feature later on.
@@ -106,21 +449,14 @@ public class LambdaMART extends Ranker {
 
         //Create a table of candidate thresholds (for each feature). Later on, we will select the best tree split from these candidates
         thresholds = new float[features.length][];
+        final float[] uniqueValues = new float[martSamples.length];
         for (int f = 0; f < features.length; f++) {
             //For this feature, keep track of the list of unique values and the max/min
-            final List<Float> values = new ArrayList<>();
-            float fmax = Float.NEGATIVE_INFINITY;
-            float fmin = Float.MAX_VALUE;
+            int nUnique = 0;
             for (int i = 0; i < martSamples.length; i++) {
                 final int k = sortedIdx[f][i];//get samples sorted with respect to this feature
                 final float fv = martSamples[k].getFeatureValue(features[f]);
-                values.add(fv);
-                if (fmax < fv) {
-                    fmax = fv;
-                }
-                if (fmin > fv) {
-                    fmin = fv;
-                }
+                uniqueValues[nUnique++] = fv;
                 //skip all samples with the same feature value
                 int j = i + 1;
                 while (j < martSamples.length) {
@@ -132,42 +468,410 @@ public class LambdaMART extends Ranker {
                 i = j - 1;//[i, j] gives the range of samples with the same feature value
             }
 
-            if (values.size() <= nThreshold || nThreshold == -1) {
-                thresholds[f] = new float[values.size() + 1];
-                for (int i = 0; i < values.size(); i++) {
-                    thresholds[f][i] = values.get(i);
+            thresholds[f] = isCategorical(f) ? exactThresholds(uniqueValues, nUnique) : makeThresholds(uniqueValues, nUnique);
+        }
+
+        //compute the feature histogram (this is used to speed up the procedure of finding the best tree split later on)
+        hist = new FeatureHistogram();
+        hist.construct(martSamples, pseudoResponses, sortedIdx, features, thresholds, impacts);
+        //we no longer need the sorted indexes of samples
+        sortedIdx = null;
+    }
+
+    /**
+     * Same as {@link #initDense()}, but only visits the features present in each (sparse) sample: absent features are worth 0 and go
+     * to the default bin of the histogram (see {@link SparseFeatureHistogram}). No per-feature sorting of the samples is needed.
+     */
+    protected void initSparse() {
+        //fid -> feature index
+        final int[] column = columnOf();
+        final int maxFid = column.length - 1;
+
+        //column-compressed copy of the training data
+        final int[] nnz = new int[features.length];
+        for (final DataPoint dp : martSamples) {
+            final SparseDataPoint sdp = (SparseDataPoint) dp;
+            for (int pos = 0; pos < sdp.size(); pos++) {
+                final int fid = sdp.getFeatureIdAt(pos);
+                if (fid <= maxFid && column[fid] != -1) {
+                    nnz[column[fid]]++;
+                }
+            }
+        }
+        final int[][] cscRows = new int[features.length][];
+        final float[][] cscValues = new float[features.length][];
+        for (int f = 0; f < features.length; f++) {
+            cscRows[f] = new int[nnz[f]];
+            cscValues[f] = new float[nnz[f]];
+        }
+        Arrays.fill(nnz, 0);
+        for (int k = 0; k < martSamples.length; k++) {
+            final SparseDataPoint sdp = (SparseDataPoint) martSamples[k];
+            for (int pos = 0; pos < sdp.size(); pos++) {
+                final int fid = sdp.getFeatureIdAt(pos);
+                if (fid <= maxFid && column[fid] != -1) {
+                    final int f = column[fid];
+                    cscRows[f][nnz[f]] = k;
+                    cscValues[f][nnz[f]] = sdp.getFeatureValueAt(pos);
+                    nnz[f]++;
+                }
+            }
+        }
+
+        //candidate thresholds: the distinct stored values, plus 0 if the feature is absent from some sample
+        thresholds = new float[features.length][];
+        for (int f = 0; f < features.length; f++) {
+            if (learnMissing && !isCategorical(f) && cscValues[f].length < martSamples.length) {
+                thresholds[f] = makeMissingAwareThresholds(cscValues[f]);
+                continue;
+            }
+            if (quantileThresholds && !isCategorical(f)) {
+                thresholds[f] = makeThresholds(cscValues[f], cscValues[f].length, martSamples.length - cscValues[f].length);
+                continue;
+            }
+            final boolean hasZero = cscValues[f].length < martSamples.length;
+            final float[] v = Arrays.copyOf(cscValues[f], cscValues[f].length + (hasZero ? 1 : 0));
+            Arrays.sort(v);//0 is already in place if it was appended
+            int nUnique = 0;
+            for (int i = 0; i < v.length; i++) {
+                if (nUnique == 0 || v[i] > v[nUnique - 1]) {
+                    v[nUnique++] = v[i];
                 }
-                thresholds[f][values.size()] = Float.MAX_VALUE;
+            }
+            thresholds[f] = isCategorical(f) ? exactThresholds(v, nUnique) : makeThresholds(v, nUnique);
+        }
+
+        final SparseFeatureHistogram sh = new SparseFeatureHistogram();
+        sh.construct(martSamples.length, cscRows, cscValues, pseudoResponses, features, thresholds, impacts);
+        hist = sh;
+    }
+
+    /**
+     * Same as {@link #initDense()}, but the bin of each sample for each feature is written to a memory-mapped file (see
+     * {@link BinnedColumnStore}). Features are processed one at a time, so apart from the mapped file only a few arrays of size
+     * #samples are needed. With @streamFile, the feature values are first copied from the file to another mapped file (see
+     * {@link ValueColumnStore}), which is deleted once they are binned.
+     */
+    protected void initOutOfCore() {
+        binnedData = new BinnedColumnStore(new File(binDir), labels.length, features.length);
+        ValueColumnStore streamed = null;
+        if (streamFile != null) {
+            final ValueColumnStore store = new ValueColumnStore(new File(binDir), labels.length, features.length);
+            stream((dp, k) -> {
+                for (int f = 0; f < features.length; f++) {
+                    store.set(f, k, value(dp, f));
+                }
+            });
+            streamed = store;
+        }
+        thresholds = new float[features.length][];
+        final float[] values = new float[labels.length];
+        final int[] bins = new int[labels.length];
+        for (int f = 0; f < features.length; f++) {
+            if (streamed != null) {
+                streamed.get(f, values);
             } else {
-                final float step = (Math.abs(fmax - fmin)) / nThreshold;
-                thresholds[f] = new float[nThreshold + 1];
-                thresholds[f][0] = fmin;
-                for (int j = 1; j < nThreshold; j++) {
-                    thresholds[f][j] = thresholds[f][j - 1] + step;
+                for (int k = 0; k < labels.length; k++) {
+                    values[k] = value(martSamples[k], f);
                 }
-                thresholds[f][nThreshold] = Float.MAX_VALUE;
             }
+            thresholds[f] = makeThresholds(f, values);
+            for (int k = 0; k < labels.length; k++) {
+                bins[k] = SparseFeatureHistogram.findBin(thresholds[f], values[k]);
+            }
+            binnedData.add(bins, thresholds[f].length);
+        }
+        if (streamed != null) {
+            streamed.close();
         }
 
-        if (validationSamples != null) {
-            modelScoresOnValidation = new double[validationSamples.size()][];
-            for (int i = 0; i < validationSamples.size(); i++) {
-                modelScoresOnValidation[i] = new double[validationSamples.get(i).size()];
-                Arrays.fill(modelScoresOnValidation[i], 0);
+        final MappedFeatureHistogram mh = new MappedFeatureHistogram();
+        mh.construct(binnedData, pseudoResponses, features, thresholds, impacts);
+        hist = mh;
+    }
+
+    /**
+     * Same as {@link #initDense()}, but with mutually exclusive features bundled into shared columns (see
+     * {@link BundledFeatureHistogram}). Only the samples that are away from the most frequent bin of each feature are kept here.
+     */
+    protected void initBundled() {
+        thresholds = new float[features.length][];
+        final int[] defaultBin = new int[features.length];
+        final int[][] rows = new int[features.length][];
+        final int[][] bins = new int[features.length][];
+        final float[] values = new float[martSamples.length];
+        final int[] binOf = new int[martSamples.length];
+        for (int f = 0; f < features.length; f++) {
+            for (int k = 0; k < martSamples.length; k++) {
+                values[k] = value(martSamples[k], f);
+            }
+            thresholds[f] = makeThresholds(f, values);
+
+            final int[] freq = new int[thresholds[f].length];
+            for (int k = 0; k < martSamples.length; k++) {
+                binOf[k] = SparseFeatureHistogram.findBin(thresholds[f], values[k]);
+                freq[binOf[k]]++;
+            }
+            for (int t = 1; t < freq.length; t++) {
+                if (freq[t] > freq[defaultBin[f]]) {
+                    defaultBin[f] = t;
+                }
+            }
+            rows[f] = new int[martSamples.length - freq[defaultBin[f]]];
+            bins[f] = new int[rows[f].length];
+            int i = 0;
+            for (int k = 0; k < martSamples.length; k++) {
+                if (binOf[k] != defaultBin[f]) {
+                    rows[f][i] = k;
+                    bins[f][i++] = binOf[k];
+                }
             }
         }
 
-        //compute the feature histogram (this is used to speed up the procedure of finding the best tree split later on)
+        final BundledFeatureHistogram bh = new BundledFeatureHistogram();
+        bh.construct(martSamples.length, rows, bins, defaultBin, pseudoResponses, features, thresholds, impacts);
+        hist = bh;
+        logger.info(() -> features.length + " features bundled into " + bh.bundleCount() + " columns.");
+    }
+
+    /**
+     * Bin the training samples with thresholds computed elsewhere (e.g. over the data of all workers in distributed mode) and build the
+     * histogram of the root node.
+     * @param thresholds
+     */
+    protected void initBinned(final float[][] thresholds) {
+        this.thresholds = thresholds;
+        final int[][] sampleToThresholdMap = new int[features.length][martSamples.length];
+        for (int f = 0; f < features.length; f++) {
+            for (int k = 0; k < martSamples.length; k++) {
+                sampleToThresholdMap[f][k] = SparseFeatureHistogram.findBin(thresholds[f], value(martSamples[k], f));
+            }
+        }
         hist = new FeatureHistogram();
-        hist.construct(martSamples, pseudoResponses, sortedIdx, features, thresholds, impacts);
-        //we no longer need the sorted indexes of samples
-        sortedIdx = null;
+        hist.construct(sampleToThresholdMap, pseudoResponses, features, thresholds, impacts);
+    }
+
+    /**
+     * Connect to the workers and agree on the features and thresholds. Training samples stay with the workers.
+     */
+    protected void initDistributed() {
+        workerGroup = new WorkerGroup(workers);
+        if (features == null) {
+            features = workerGroup.features();
+        }
+        impacts = new double[features.length];
+        thresholds = workerGroup.init(this, name(), scorer.name(), features);
+        queryScores = new double[workerGroup.queryCount()];
+        roundScores = new float[nTrees];
+        hist = new FeatureHistogram();
+        hist.features = features;
+        hist.thresholds = thresholds;
+        hist.impacts = impacts;
+    }
+
+    /**
+     * Create the candidate thresholds of a feature from its distinct values.
+     * @param uniqueValues Distinct values of the feature in ascending order.
+     * @param n Number of distinct values in @uniqueValues.
+     * @return The distinct values themselves if there are no more than @nThreshold of them, @nThreshold equal-width steps between the
+     * min and max values otherwise. The last threshold is always Float.MAX_VALUE.
+     */
+    protected float[] makeThresholds(final float[] uniqueValues, final int n) {
+        if (n <= nThreshold || nThreshold == -1) {
+            return exactThresholds(uniqueValues, n);
+        }
+        return makeThresholds(uniqueValues[0], uniqueValues[n - 1]);
+    }
+
+    /**
+     * @param uniqueValues Distinct values of the feature in ascending order.
+     * @param n Number of distinct values in @uniqueValues.
+     * @return The distinct values themselves, followed by Float.MAX_VALUE. -0.0 is written as 0.0: the two compare equal, so which one
+     * is found first depends on the order of the samples.
+     */
+    protected float[] exactThresholds(final float[] uniqueValues, final int n) {
+        final float[] threshold = new float[n + 1];
+        for (int i = 0; i < n; i++) {
+            threshold[i] = (uniqueValues[i] == 0) ? 0F : uniqueValues[i];
+        }
+        threshold[n] = Float.MAX_VALUE;
+        return threshold;
+    }
+
+    /**
+     * Create the candidate thresholds of feature @f from all its values: one per category (distinct value) if it is categorical, as
+     * with {@link #makeThresholds(float[])} otherwise (plus a missing bin if some values are NaN, with @learnMissing).
+     * @param f Index of the feature in @features.
+     * @param values Value of the feature for each sample, in any order (left unchanged). NaN for missing values.
+     */
+    protected float[] makeThresholds(final int f, final float[] values) {
+        if (learnMissing && !isCategorical(f)) {
+            int n = 0;
+            final float[] present = new float[values.length];
+            for (final float v : values) {
+                if (!Float.isNaN(v)) {
+                    present[n++] = v;
+                }
+            }
+            if (n < values.length) {
+                return makeMissingAwareThresholds(Arrays.copyOf(present, n));
+            }
+        }
+        if (!isCategorical(f)) {
+            return makeThresholds(values);
+        }
+        final float[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        int nUnique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (nUnique == 0 || sorted[i] > sorted[nUnique - 1]) {
+                sorted[nUnique++] = sorted[i];
+            }
+        }
+        return exactThresholds(sorted, nUnique);
+    }
+
+    /**
+     * Create the candidate thresholds of a feature that has missing values.
+     * @param present The values that are there, in any order (left unchanged).
+     * @return Same as {@link #makeThresholds(float[])}, followed by NaN: the threshold of the missing bin (see
+     * {@link FeatureHistogram#hasMissingBin(int)}).
+     */
+    protected float[] makeMissingAwareThresholds(final float[] present) {
+        final float[] threshold = (present.length > 0) ? makeThresholds(present) : new float[] { Float.MAX_VALUE };
+        final float[] withMissing = Arrays.copyOf(threshold, threshold.length + 1);
+        withMissing[threshold.length] = Float.NaN;
+        return withMissing;
+    }
+
+    /**
+     * @param dp
+     * @param f Index of the feature in @features.
+     * @return The value of feature @f of @dp, or NaN if it's missing and @learnMissing is on (categorical features excepted).
+     */
+    protected float value(final DataPoint dp, final int f) {
+        if (learnMissing && !isCategorical(f) && dp.isMissing(features[f])) {
+            return Float.NaN;
+        }
+        return dp.getFeatureValue(features[f]);
+    }
+
+    /**
+     * @return categorical[f]: whether feature f (index in @features) is one of @categoricalFeatures, or null if there are none.
+     */
+    protected boolean[] categoricalMask() {
+        if (categoricalFeatures == null) {
+            return null;
+        }
+        final boolean[] mask = new boolean[features.length];
+        for (int f = 0; f < features.length; f++) {
+            for (final int fid : categoricalFeatures) {
+                if (features[f] == fid) {
+                    mask[f] = true;
+                }
+            }
+        }
+        return mask;
+    }
 
+    protected boolean isCategorical(final int f) {
+        return categorical != null && categorical[f];
+    }
+
+    /**
+     * Create the candidate thresholds of a feature from all its values.
+     * @param values Value of the feature for each sample, in any order (left unchanged).
+     * @return Same as {@link #makeThresholds(float[], int)}, or {@link #makeThresholds(float[], int, long)} with @quantileThresholds.
+     */
+    protected float[] makeThresholds(final float[] values) {
+        if (quantileThresholds && nThreshold != -1) {
+            return makeThresholds(values, values.length, 0);
+        }
+        final float[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        int nUnique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (nUnique == 0 || sorted[i] > sorted[nUnique - 1]) {
+                sorted[nUnique++] = sorted[i];
+            }
+        }
+        return makeThresholds(sorted, nUnique);
+    }
+
+    /**
+     * Create the candidate thresholds of a feature in a single pass over its values, without sorting them: the distinct values if
+     * there are no more than @nThreshold of them (as with {@link #makeThresholds(float[], int)}), about @nThreshold equal-frequency
+     * values otherwise (see {@link QuantileSketch#splitPoints(int)}). The last threshold is always Float.MAX_VALUE.
+     * @param values Values of the feature, in any order.
+     * @param n Number of values in @values.
+     * @param zeros Number of additional samples whose value is 0 (e.g. absent from sparse samples).
+     */
+    protected float[] makeThresholds(final float[] values, final int n, final long zeros) {
+        if (nThreshold == -1) {
+            final float[] all = Arrays.copyOf(values, n + ((zeros > 0) ? 1 : 0));
+            Arrays.sort(all);
+            int nUnique = 0;
+            for (int i = 0; i < all.length; i++) {
+                if (nUnique == 0 || all[i] > all[nUnique - 1]) {
+                    all[nUnique++] = all[i];
+                }
+            }
+            return makeThresholds(all, nUnique);
+        }
+
+        //exact distinct values (ascending), as long as there are no more than @nThreshold of them
+        final float[] distinct = new float[nThreshold];
+        int nDistinct = 0;
+        boolean exact = true;
+        for (int i = 0; i < n + ((zeros > 0) ? 1 : 0); i++) {
+            final float v = (i < n && values[i] != 0) ? values[i] : 0F;//-0.0 too, see exactThresholds
+            int pos = Arrays.binarySearch(distinct, 0, nDistinct, v);
+            if (pos < 0) {
+                if (nDistinct == nThreshold) {
+                    exact = false;
+                    break;
+                }
+                pos = -pos - 1;
+                System.arraycopy(distinct, pos, distinct, pos + 1, nDistinct - pos);
+                distinct[pos] = v;
+                nDistinct++;
+            }
+        }
+        if (exact) {
+            return makeThresholds(distinct, nDistinct);
+        }
+
+        final QuantileSketch sketch = new QuantileSketch(Math.max(200, 4 * nThreshold));
+        for (int i = 0; i < n; i++) {
+            sketch.update(values[i]);
+        }
+        sketch.update(0F, zeros);
+        final float[] points = sketch.splitPoints(nThreshold);
+        //the max is covered by Float.MAX_VALUE
+        final int np = (points[points.length - 1] >= sketch.max()) ? points.length - 1 : points.length;
+        final float[] threshold = Arrays.copyOf(points, np + 1);
+        threshold[np] = Float.MAX_VALUE;
+        return threshold;
+    }
+
+    /**
+     * @return @nThreshold equal-width steps between @fmin and @fmax, followed by Float.MAX_VALUE.
+     */
+    protected float[] makeThresholds(final float fmin, final float fmax) {
+        final float step = (Math.abs(fmax - fmin)) / nThreshold;
+        final float[] threshold = new float[nThreshold + 1];
+        threshold[0] = fmin;
+        for (int j = 1; j < nThreshold; j++) {
+            threshold[j] = threshold[j - 1] + step;
+        }
+        threshold[nThreshold] = Float.MAX_VALUE;
+        return threshold;
     }
 
     @Override
     public void learn() {
-        ensemble = new Ensemble();
+        ensemble = (warmStart != null) ? new Ensemble(warmStart) : new Ensemble();
+        final int nWarm = (warmStart != null) ? warmStart.treeCount() - firstRound : 0;
 
         logger.info(() -> "Training starts...");
         if (validationSamples != null) {
@@ -177,86 +881,124 @@ public class LambdaMART extends Ranker {
         }
 
         //Start the gradient boosting process
-        for (int m = 0; m < nTrees; m++) {
-            printLog(new int[] { 7 }, new String[] { Integer.toString(m + 1) });
+        //The model obtained after round m is evaluated during round m+1: its validation scores are updated (with the flat form of the
+        //last tree) while the lambdas of round m+1 are being computed, and the lambda computation yields its training score as well.
+        final MyThreadPool p = MyThreadPool.getInstance();
+        //(pipelined) not a task of the pool: fitting the tree waits for all of those
+        final ExecutorService evaluator = pipelined ? Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "lambdamart-evaluator");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+        Future<Boolean> stopEarly = null;
+        FlatTree lastTree = null;
+        boolean stopped = false;
+        for (int m = firstRound; m < nTrees; m++) {
+            if (lastTree != null && validationSamples != null) {
+                updateModelScoreOnValidation(lastTree, false);
+            }
 
             //Compute lambdas (which act as the "pseudo responses")
             //Create training instances for MART:
             //  - Each document is a training sample
             //	- The lambda for this document serves as its training label
-            computePseudoResponses();
+            queryScoresUpToDate = false;
+            lambdasCollected = false;
+            if (workerGroup != null) {
+                workerGroup.computePseudoResponses(hist, queryScores);
+                queryScoresUpToDate = true;
+            } else {
+                computePseudoResponses();
+            }
+            p.await();
 
-            //update the histogram with these training labels (the feature histogram will be used to find the best tree split)
-            hist.update(pseudoResponses);
+            //Evaluate the model of the previous round. Should we stop early?
+            if (lastTree != null) {
+                final int round = m - 1;
+                if (evaluator != null) {
+                    //in the background. If training should stop, the tree fit in the meantime is rolled back below anyway (it comes after
+                    //the best model on validation).
+                    if (!queryScoresUpToDate) {
+                        //(MART) this one runs on the pool, so it can't be part of the background task
+                        computeModelScoreOnTraining();
+                        queryScoresUpToDate = true;
+                    }
+                    stopEarly = evaluator.submit(() -> evaluate(round));
+                } else if (evaluate(round)) {
+                    stopped = true;
+                    break;
+                }
+            }
+
+            //Checkpoint of the model after round m-1, taken once round m-1 is known not to be the last one. The state that fitting
+            //the next tree changes is saved first.
+            final boolean checkpointDue = checkpointer != null && lastTree != null && checkpointer.isDue(m);
+            final double[] impactsBefore = checkpointDue ? impacts.clone() : null;
+            final String randomBefore = checkpointDue ? Checkpointer.toString(random) : null;
 
-            //Fit a regression tree
-            final RegressionTree rt = new RegressionTree(nTreeLeaves, martSamples, pseudoResponses, hist, minLeafSupport);
-            rt.fit();
+            //Fit a regression tree and update the model's outputs on all training samples
+            final RegressionTree rt = (workerGroup != null) ? workerGroup.fit(this, hist) : fitTree();
 
             //Add this tree to the ensemble (our model)
             ensemble.add(rt, learningRate);
 
-            //update the outputs of the tree (with gamma computed using the Newton-Raphson method)
-            updateTreeOutput(rt);
-
-            //Update the model's outputs on all training samples
-            final List<Split> leaves = rt.leaves();
-            for (int i = 0; i < leaves.size(); i++) {
-                final Split s = leaves.get(i);
-                final int[] idx = s.getSamples();
-                for (int j = 0; j < idx.length; j++) {
-                    modelScores[idx[j]] += learningRate * s.getOutput();
+            if (stopEarly != null) {
+                //the scores, best model and log that the evaluation writes are left alone until it's done
+                final boolean stop = join(stopEarly);
+                stopEarly = null;
+                if (stop) {
+                    stopped = true;
+                    break;
                 }
             }
+            if (checkpointDue) {
+                checkpoint(m, nWarm, impactsBefore, randomBefore);
+            }
+            lastTree = rt.flatten();
+        }
 
-            //clear references to data that is no longer used
-            rt.clearSamples();
-
-            //Evaluate the current model
-            scoreOnTrainingData = computeModelScoreOnTraining();
-            //**** NOTE ****
-            //The above function to evaluate the current model on the training data is equivalent to a single call:
-            //
-            //		scoreOnTrainingData = scorer.score(rank(samples);
-            //
-            //However, this function is more efficient since it uses the cached outputs of the model (as opposed to re-evaluating the model
-            //on the entire training set).
-
-            printLog(new int[] { 9 }, new String[] { Double.toString(SimpleMath.round(scoreOnTrainingData, 4)) });
-
-            //Evaluate the current model on the validation data (if available)
+        //Evaluate the final model (there is no next round to do it)
+        if (!stopped && lastTree != null) {
             if (validationSamples != null) {
-                //Update the model's scores on all validation samples
-                for (int i = 0; i < modelScoresOnValidation.length; i++) {
-                    for (int j = 0; j < modelScoresOnValidation[i].length; j++) {
-                        modelScoresOnValidation[i][j] += learningRate * rt.eval(validationSamples.get(i).get(j));
-                    }
-                }
-
-                //again, equivalent to scoreOnValidation=scorer.score(rank(validationSamples)), but more efficient since we use the cached models' outputs
-                final double score = computeModelScoreOnValidation();
-
-                printLog(new int[] { 9 }, new String[] { Double.toString(SimpleMath.round(score, 4)) });
-                if (score > bestScoreOnValidationData) {
-                    bestScoreOnValidationData = score;
-                    bestModelOnValidation = ensemble.treeCount() - 1;
-                }
+                updateModelScoreOnValidation(lastTree, true);
             }
-            flushLog();
-
-            //Should we stop early?
-            if (m - bestModelOnValidation > nRoundToStopEarly) {
-                break;
+            if (workerGroup != null) {
+                workerGroup.computeModelScoreOnTraining(queryScores);
+                queryScoresUpToDate = true;
+            } else {
+                queryScoresUpToDate = false;
             }
+            evaluate(nTrees - 1);
+        }
+
+        if (evaluator != null) {
+            evaluator.shutdown();
+        }
+        if (checkpointer != null) {
+            checkpointer.close();
+            checkpointer = null;
         }
 
         //Rollback to the best model observed on the validation data
-        while (ensemble.treeCount() > bestModelOnValidation + 1) {
+        while (ensemble.treeCount() - nWarm > bestModelOnValidation + 1) {
             ensemble.remove(ensemble.treeCount() - 1);
         }
 
+        if (binnedData != null) {
+            hist = null;
+            binnedData.close();
+            binnedData = null;
+        }
+
         //Finishing up
-        scoreOnTrainingData = scorer.score(rank(samples));
+        if (workerGroup != null) {
+            workerGroup.close();
+            workerGroup = null;
+            //the training samples are with the workers, which don't keep rolled back trees apart: use the score logged for that round
+            scoreOnTrainingData = (ensemble.treeCount() > 0) ? roundScores[ensemble.treeCount() - 1] : 0;
+        } else {
+            scoreOnTrainingData = scorer.score((streamFile != null) ? rankStreamed() : rank(samples));
+        }
         logger.info(() -> "Finished sucessfully.");
         logger.info(() -> scorer.name() + " on training data: " + SimpleMath.round(scoreOnTrainingData, 4));
         if (validationSamples != null) {
@@ -281,6 +1023,16 @@ public class LambdaMART extends Ranker {
         return new LambdaMART();
     }
 
+    @Override
+    public boolean canFoldNormalization() {
+        return true;
+    }
+
+    @Override
+    public void foldNormalization(final GlobalNormalizer n) {
+        ensemble.foldNormalization(n);
+    }
+
     @Override
     public String toString() {
         return ensemble.toString();
@@ -288,6 +1040,14 @@ public class LambdaMART extends Ranker {
 
     @Override
     public String model() {
+        return model(ensemble.treeCount());
+    }
+
+    /**
+     * @param n
+     * @return The model made of the first @n trees of the ensemble.
+     */
+    protected String model(final int n) {
         final StringBuilder output = new StringBuilder();
         output.append("## " + name() + "\n");
         output.append("## No. of trees = " + nTrees + "\n");
@@ -296,7 +1056,7 @@ public class LambdaMART extends Ranker {
         output.append("## Learning rate = " + learningRate + "\n");
         output.append("## Stop early = " + nRoundToStopEarly + "\n");
         output .append("\n");
-        output.append(toString());
+        output.append(ensemble.toString(n));
         return output.toString();
     }
 
@@ -317,6 +1077,36 @@ public class LambdaMART extends Ranker {
         logger.info(() -> "Min leaf support: " + minLeafSupport);
         logger.info(() -> "Learning rate: " + learningRate);
         logger.info(() -> "Stop early: " + nRoundToStopEarly + " rounds without performance gain on validation data");
+        if (pipelined) {
+            logger.info(() -> "Pipelined rounds: on");
+        }
+        if (binDir != null) {
+            logger.info(() -> "Out-of-core binned data in: " + binDir);
+        }
+        if (workers != null) {
+            logger.info(() -> "Workers: " + workers);
+        }
+        if (warmStartModel != null) {
+            logger.info(() -> "Warm start from: " + warmStartModel);
+        }
+        if (quantileThresholds) {
+            logger.info(() -> "Threshold candidates: equal-frequency (quantile sketch)");
+        }
+        if (bundle && binDir == null) {
+            logger.info(() -> "Feature bundling: on");
+        }
+        if (querySamplingRate < 1) {
+            logger.info(() -> "Query sampling rate: " + querySamplingRate);
+        }
+        if (gossTopRate < 1) {
+            logger.info(() -> "GOSS: top " + gossTopRate + ", others " + gossOtherRate);
+        }
+        if (categoricalFeatures != null) {
+            logger.info(() -> "Categorical features: " + Arrays.toString(categoricalFeatures));
+        }
+        if (learnMissing) {
+            logger.info(() -> "Missing values: learned default direction");
+        }
     }
 
     @Override
@@ -328,29 +1118,315 @@ public class LambdaMART extends Ranker {
         return ensemble;
     }
 
+    /**
+     * Fit a regression tree to the current pseudo responses and update the model's outputs on the training samples.
+     * @return
+     */
+    protected RegressionTree fitTree() {
+        if (querySamplingRate < 1 || gossTopRate < 1) {
+            return fitSampledTree();
+        }
+
+        //update the histogram with these training labels (the feature histogram will be used to find the best tree split)
+        if (lambdasCollected) {
+            hist.update(pseudoResponses, partialHistograms);
+        } else {
+            hist.update(pseudoResponses);
+        }
+
+        //Fit a regression tree
+        final RegressionTree rt = new RegressionTree(nTreeLeaves, martSamples, pseudoResponses, hist, minLeafSupport);
+        rt.fit();
+
+        //update the outputs of the tree (with gamma computed using the Newton-Raphson method)
+        updateTreeOutput(rt);
+
+        //Update the model's outputs on all training samples
+        final List<Split> leaves = rt.leaves();
+        for (int i = 0; i < leaves.size(); i++) {
+            final Split s = leaves.get(i);
+            final int[] idx = s.getSamples();
+            for (int j = 0; j < idx.length; j++) {
+                modelScores[idx[j]] += learningRate * s.getOutput();
+            }
+        }
+
+        //clear references to data that is no longer used
+        rt.clearSamples();
+        return rt;
+    }
+
+    /**
+     * Same as {@link #fitTree()}, on the samples chosen by {@link #sampleForTree()}. Only these samples go into the histograms, and the
+     * outputs of the other ones are updated by evaluating the tree.
+     * @return
+     */
+    protected RegressionTree fitSampledTree() {
+        final int[] idx = sampleForTree();
+        final FeatureHistogram h = hist.newHistogram();
+        h.setSampleWeights(sampleWeights);
+        h.construct(hist, idx, pseudoResponses);
+
+        final RegressionTree rt = new RegressionTree(nTreeLeaves, martSamples, pseudoResponses, h, minLeafSupport, idx);
+        rt.fit();
+        updateTreeOutput(rt);
+
+        if (streamFile != null) {
+            //the training samples have no features: go down the tree by their bins
+            final int[] column = columnOf();
+            for (int k = 0; k < labels.length; k++) {
+                modelScores[k] += learningRate * evalBinned(rt.root, k, column);
+            }
+        } else {
+            final FlatTree ft = rt.flatten();
+            for (int k = 0; k < martSamples.length; k++) {
+                modelScores[k] += learningRate * ft.eval(martSamples[k]);
+            }
+        }
+
+        rt.clearSamples();
+        sampleWeights = null;
+        return rt;
+    }
+
+    /**
+     * @return Output of the tree rooted at @node on training sample @k, from the bins of its feature values in @binnedData. Since the
+     * split thresholds are thresholds of the histogram, all the values of a bin go the same way: that of the bin's threshold.
+     * @param node
+     * @param k
+     * @param column column[fid]: index of feature fid in @features.
+     */
+    protected double evalBinned(Split node, final int k, final int[] column) {
+        while (node.getLeft() != null) {
+            final int f = column[node.getFeatureID()];
+            final float v = thresholds[f][binnedData.get(f, k)];
+            final boolean left = Float.isNaN(v) ? node.getMissing() == Split.MISSING_LEFT : node.goesLeft(v);
+            node = left ? node.getLeft() : node.getRight();
+        }
+        return node.getOutput();
+    }
+
+    /**
+     * @return column[fid]: index of feature fid in @features (-1 if it's not one of them).
+     */
+    protected int[] columnOf() {
+        int maxFid = 0;
+        for (final int fid : features) {
+            maxFid = Math.max(maxFid, fid);
+        }
+        final int[] column = new int[maxFid + 1];
+        Arrays.fill(column, -1);
+        for (int f = 0; f < features.length; f++) {
+            column[features[f]] = f;
+        }
+        return column;
+    }
+
+    /**
+     * Same as rank(samples), with the feature values of the training samples read from @streamFile.
+     * @return
+     */
+    protected List<RankList> rankStreamed() {
+        final double[] scores = new double[labels.length];
+        stream((dp, k) -> scores[k] = eval(dp));
+        final List<RankList> ranked = new ArrayList<>(queryCount());
+        for (int i = 0; i < queryCount(); i++) {
+            final int[] idx = PrimitiveSorter.sort(Arrays.copyOfRange(scores, queryStart[i], queryStart[i + 1]), false);
+            ranked.add(new RankList(query(i), idx));
+        }
+        return ranked;
+    }
+
+    /**
+     * Choose the samples to fit the next tree on: all documents of a random @querySamplingRate of the queries, then (GOSS) the
+     * @gossTopRate of them with the largest |lambda| plus a random sample of the others, whose pseudo responses and weights are scaled up
+     * by (1 - @gossTopRate) / @gossOtherRate. Their weights are recorded in @sampleWeights, which the histograms of the tree count
+     * samples by.
+     * @return Indexes (in @martSamples) of the chosen samples, in increasing order.
+     */
+    protected int[] sampleForTree() {
+        final boolean[] chosen = new boolean[labels.length];
+        int n = 0;
+        if (querySamplingRate < 1) {
+            final int[] perm = new int[queryCount()];
+            for (int i = 0; i < perm.length; i++) {
+                perm[i] = i;
+            }
+            final int nQueries = Math.max(1, (int) (querySamplingRate * perm.length));
+            for (int i = 0; i < nQueries; i++) {
+                //partial Fisher-Yates shuffle
+                final int j = i + random.nextInt(perm.length - i);
+                final int q = perm[j];
+                perm[j] = perm[i];
+                perm[i] = q;
+                for (int k = queryStart[q]; k < queryStart[q + 1]; k++) {
+                    chosen[k] = true;
+                }
+                n += queryStart[q + 1] - queryStart[q];
+            }
+        } else {
+            Arrays.fill(chosen, true);
+            n = labels.length;
+        }
+
+        if (gossTopRate < 1) {
+            final int[] candidates = new int[n];
+            final float[] gradient = new float[n];
+            int c = 0;
+            for (int k = 0; k < chosen.length; k++) {
+                if (chosen[k]) {
+                    candidates[c] = k;
+                    gradient[c++] = (float) Math.abs(pseudoResponses[k]);
+                }
+            }
+            final int[] byGradient = PrimitiveSorter.sort(gradient, false);
+            final int nTop = (int) (gossTopRate * n);
+            final double p = gossOtherRate / (1 - gossTopRate);
+            final double amplification = (1 - gossTopRate) / gossOtherRate;
+            sampleWeights = new double[labels.length];
+            for (int i = nTop; i < c; i++) {
+                final int k = candidates[byGradient[i]];
+                if (random.nextDouble() < p) {
+                    pseudoResponses[k] *= amplification;
+                    weights[k] *= amplification;
+                    sampleWeights[k] = amplification;
+                } else {
+                    chosen[k] = false;
+                    n--;
+                }
+            }
+            for (int i = 0; i < nTop; i++) {
+                sampleWeights[candidates[byGradient[i]]] = 1;
+            }
+        }
+
+        final int[] idx = new int[n];
+        int i = 0;
+        for (int k = 0; k < chosen.length; k++) {
+            if (chosen[k]) {
+                idx[i++] = k;
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * @return Output of a leaf, from the sums of the pseudo responses and weights of its samples.
+     */
+    protected double leafOutput(final double sumResponse, final double sumWeight, final int count) {
+        return (sumWeight == 0) ? 0 : sumResponse / sumWeight;
+    }
+
+    /**
+     * Log the training (and validation) score of the model obtained after round @m and keep track of the best model on the
+     * validation data. Validation scores must be up-to-date already.
+     * @param m
+     * @return true if training should stop early.
+     */
+    protected boolean evaluate(final int m) {
+        scoreOnTrainingData = queryScoresUpToDate ? average(queryScores) : computeModelScoreOnTraining();
+        if (roundScores != null) {
+            roundScores[m] = (float) scoreOnTrainingData;
+        }
+        //**** NOTE ****
+        //This is equivalent to scoreOnTrainingData = scorer.score(rank(samples)), but more efficient since it uses the cached outputs of
+        //the model (as opposed to re-evaluating the model on the entire training set).
+
+        printLog(new int[] { 7 }, new String[] { Integer.toString(m + 1) });
+        printLog(new int[] { 9 }, new String[] { Double.toString(SimpleMath.round(scoreOnTrainingData, 4)) });
+
+        //Evaluate the current model on the validation data (if available)
+        if (validationSamples != null) {
+            //again, equivalent to scoreOnValidation=scorer.score(rank(validationSamples)), but more efficient since we use the cached models' outputs
+            final double score = average(queryScoresOnValidation);
+
+            printLog(new int[] { 9 }, new String[] { Double.toString(SimpleMath.round(score, 4)) });
+            if (score > bestScoreOnValidationData) {
+                bestScoreOnValidationData = score;
+                bestModelOnValidation = m;
+            }
+        }
+        flushLog();
+
+        return m - bestModelOnValidation > nRoundToStopEarly;
+    }
+
+    /**
+     * Save the model obtained after round @m-1 (the first @nWarm + @m trees of the ensemble) along with the state training resumes from.
+     * @param m
+     * @param nWarm
+     * @param impacts Feature impacts after round @m-1.
+     * @param random State of {@link #random} after round @m-1.
+     */
+    protected void checkpoint(final int m, final int nWarm, final double[] impacts, final String random) {
+        final Map<String, String> state = new LinkedHashMap<>();
+        state.put("round", Integer.toString(m));
+        state.put("best", Integer.toString(bestModelOnValidation));
+        state.put("bestScore", Double.toString(bestScoreOnValidationData));
+        state.put("impacts", Checkpointer.toString(impacts));
+        state.put("random", random);
+        checkpointer.save(model(nWarm + m), state);
+    }
+
+    /**
+     * @return The result of the background evaluation @f, once it's done. Its exception, if any, is thrown here.
+     */
+    private static boolean join(final Future<Boolean> f) {
+        try {
+            return f.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw RankLibError.create(ex);
+        } catch (final ExecutionException ex) {
+            final Throwable t = ex.getCause();
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw RankLibError.create((Exception) t);
+        }
+    }
+
+    private static float average(final double[] scores) {
+        float s = 0;//summed in query order, like the single-threaded evaluation
+        for (final double score : scores) {
+            s += score;
+        }
+        return s / scores.length;
+    }
+
     protected void computePseudoResponses() {
+        queryScoresUpToDate = true;
         Arrays.fill(pseudoResponses, 0F);
         Arrays.fill(weights, 0);
         final MyThreadPool p = MyThreadPool.getInstance();
+        final int nWorkers = (p.size() == 1) ? 1 : p.partition(queryCount()).length - 1;
+        if (pipelined && partialHistograms == null) {
+            partialHistograms = new double[nWorkers][][];
+            for (int i = 0; i < nWorkers; i++) {
+                partialHistograms[i] = hist.newAccumulator();
+            }
+        }
+        lambdasCollected = pipelined;
+
         if (p.size() == 1) {
-            computePseudoResponses(0, samples.size() - 1, 0);
+            computePseudoResponses(0, queryCount() - 1, 0);
+            if (pipelined) {
+                hist.collect(partialHistograms[0], pseudoResponses, 0, labels.length - 1);
+            }
         } else //multi-threading
         {
             final List<LambdaComputationWorker> workers = new ArrayList<>();
             //divide the entire dataset into chunks of equal size for each worker thread
-            final int[] partition = p.partition(samples.size());
+            final int[] partition = p.partition(queryCount());
             int current = 0;
             for (int i = 0; i < partition.length - 1; i++) {
+                final int next = queryStart[partition[i + 1]];
                 //execute the worker
-                final LambdaComputationWorker wk = new LambdaComputationWorker(this, partition[i], partition[i + 1] - 1, current);
+                final LambdaComputationWorker wk = new LambdaComputationWorker(this, partition[i], partition[i + 1] - 1, current,
+                        next - 1, pipelined ? partialHistograms[i] : null);
                 workers.add(wk);//keep it so we can get back results from it later on
                 p.execute(wk);
-
-                if (i < partition.length - 2) {
-                    for (int j = partition[i]; j <= partition[i + 1] - 1; j++) {
-                        current += samples.get(j).size();
-                    }
-                }
+                current = next;
             }
 
             //wait for all workers to complete before we move on to the next stage
@@ -362,21 +1438,23 @@ public class LambdaMART extends Ranker {
         final int cutoff = scorer.getK();
         //compute the lambda for each document (a.k.a "pseudo response")
         for (int i = start; i <= end; i++) {
-            final RankList orig = samples.get(i);
-            final int[] idx = MergeSorter.sort(modelScores, current, current + orig.size() - 1, false);
-            final RankList rl = new RankList(orig, idx, current);
+            final RankList orig = query(i);
+            final int[] idx = orderings[i];
+            PrimitiveSorter.resort(idx, modelScores, current, false);
+            final RankList rl = new RankList(orig, idx);
+            queryScores[i] = scorer.score(rl);
             final double[][] changes = scorer.swapChange(rl);
             //NOTE: j, k are indices in the sorted (by modelScore) list, not the original
-            // ==> need to map back with idx[j] and idx[k]
+            // ==> need to map back with current + idx[j] and current + idx[k]
             for (int j = 0; j < rl.size(); j++) {
                 final DataPoint p1 = rl.get(j);
-                final int mj = idx[j];
+                final int mj = current + idx[j];
                 for (int k = 0; k < rl.size(); k++) {
                     if (j > cutoff && k > cutoff) {
                         break;
                     }
                     final DataPoint p2 = rl.get(k);
-                    final int mk = idx[k];
+                    final int mk = current + idx[k];
                     if (p1.getLabel() > p2.getLabel()) {
                         final double deltaNDCG = Math.abs(changes[j][k]);
                         if (deltaNDCG > 0) {
@@ -415,11 +1493,11 @@ public class LambdaMART extends Ranker {
     }
 
     protected int[] sortSamplesByFeature(final DataPoint[] samples, final int fid) {
-        final double[] score = new double[samples.length];
+        final float[] score = new float[samples.length];
         for (int i = 0; i < samples.length; i++) {
             score[i] = samples[i].getFeatureValue(fid);
         }
-        final int[] idx = MergeSorter.sort(score, true);
+        final int[] idx = PrimitiveSorter.sort(score, true);
         return idx;
     }
 
@@ -430,91 +1508,78 @@ public class LambdaMART extends Ranker {
      * @return
      */
     protected RankList rank(final int rankListIndex, final int current) {
-        final RankList orig = samples.get(rankListIndex);
-        final double[] scores = new double[orig.size()];
-        for (int i = 0; i < scores.length; i++) {
-            scores[i] = modelScores[current + i];
-        }
-        final int[] idx = MergeSorter.sort(scores, false);
-        return new RankList(orig, idx);
+        final int[] idx = orderings[rankListIndex];
+        PrimitiveSorter.resort(idx, modelScores, current, false);
+        return new RankList(query(rankListIndex), idx);
     }
 
     protected float computeModelScoreOnTraining() {
-        /*float s = 0;
-        int current = 0;
-        MyThreadPool p = MyThreadPool.getInstance();
-        if(p.size() == 1)//single-thread
-        	s = computeModelScoreOnTraining(0, samples.size()-1, current);
-        else
-        {
-        	List<Worker> workers = new ArrayList<Worker>();
-        	//divide the entire dataset into chunks of equal size for each worker thread
-        	int[] partition = p.partition(samples.size());
-        	for(int i=0;i<partition.length-1;i++)
-        	{
-        		//execute the worker
-        		Worker wk = new Worker(this, partition[i], partition[i+1]-1, current);
-        		workers.add(wk);//keep it so we can get back results from it later on
-        		p.execute(wk);
-
-        		if(i < partition.length-2)
-        			for(int j=partition[i]; j<=partition[i+1]-1;j++)
-        				current += samples.get(j).size();
-        	}
-        	//wait for all workers to complete before we move on to the next stage
-        	p.await();
-        	for(int i=0;i<workers.size();i++)
-        		s += workers.get(i).score;
-        }*/
-        float s = computeModelScoreOnTraining(0, samples.size() - 1, 0);
-        s = s / samples.size();
-        return s;
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1 || queryCount() < 2) {//single-thread
+            computeModelScoreOnTraining(0, queryCount() - 1, 0);
+        } else {
+            //divide the entire dataset into chunks of equal size for each worker thread
+            final int[] partition = p.partition(queryCount());
+            for (int i = 0; i < partition.length - 1; i++) {
+                p.execute(new Worker(this, partition[i], partition[i + 1] - 1, queryStart[partition[i]]));
+            }
+            //wait for all workers to complete before we move on to the next stage
+            p.await();
+        }
+        return average(queryScores);
     }
 
-    protected float computeModelScoreOnTraining(final int start, final int end, final int current) {
-        float s = 0;
+    protected void computeModelScoreOnTraining(final int start, final int end, final int current) {
         int c = current;
+        for (int i = start; i <= end; i++) {
+            queryScores[i] = scorer.score(rank(i, c));
+            c += queryStart[i + 1] - queryStart[i];
+        }
+    }
+
+    /**
+     * Add the (shrunk) output of @tree to the model's scores on the validation data and re-score the validation queries.
+     * @param tree
+     * @param wait If false, the work may still be running on the thread pool when this function returns. Call await() on the pool
+     * before reading the validation scores.
+     */
+    protected void updateModelScoreOnValidation(final FlatTree tree, final boolean wait) {
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1 || validationSamples.size() < 2) {//single-thread
+            updateModelScoreOnValidation(tree, 0, validationSamples.size() - 1);
+        } else {
+            final int[] partition = p.partition(validationSamples.size());
+            for (int i = 0; i < partition.length - 1; i++) {
+                p.execute(new Worker(this, tree, partition[i], partition[i + 1] - 1));
+            }
+            if (wait) {
+                p.await();
+            }
+        }
+    }
 
+    protected void updateModelScoreOnValidation(final FlatTree tree, final int start, final int end) {
         for (int i = start; i <= end; i++) {
-            s += scorer.score(rank(i, c));
-            c += samples.get(i).size();
+            final RankList rl = validationSamples.get(i);
+            final double[] scores = modelScoresOnValidation[i];
+            for (int j = 0; j < scores.length; j++) {
+                scores[j] += learningRate * tree.eval(rl.get(j));
+            }
         }
-        return s;
+        computeModelScoreOnValidation(start, end);
     }
 
     protected float computeModelScoreOnValidation() {
-        /*float score = 0;
-        MyThreadPool p = MyThreadPool.getInstance();
-        if(p.size() == 1)//single-thread
-        	score = computeModelScoreOnValidation(0, validationSamples.size()-1);
-        else
-        {
-        	List<Worker> workers = new ArrayList<Worker>();
-        	//divide the entire dataset into chunks of equal size for each worker thread
-        	int[] partition = p.partition(validationSamples.size());
-        	for(int i=0;i<partition.length-1;i++)
-        	{
-        		//execute the worker
-        		Worker wk = new Worker(this, partition[i], partition[i+1]-1);
-        		workers.add(wk);//keep it so we can get back results from it later on
-        		p.execute(wk);
-        	}
-        	//wait for all workers to complete before we move on to the next stage
-        	p.await();
-        	for(int i=0;i<workers.size();i++)
-        		score += workers.get(i).score;
-        }*/
-        final float score = computeModelScoreOnValidation(0, validationSamples.size() - 1);
-        return score / validationSamples.size();
-    }
-
-    protected float computeModelScoreOnValidation(final int start, final int end) {
-        float score = 0;
+        computeModelScoreOnValidation(0, validationSamples.size() - 1);
+        return average(queryScoresOnValidation);
+    }
+
+    protected void computeModelScoreOnValidation(final int start, final int end) {
         for (int i = start; i <= end; i++) {
-            final int[] idx = MergeSorter.sort(modelScoresOnValidation[i], false);
-            score += scorer.score(new RankList(validationSamples.get(i), idx));
+            final int[] idx = orderingsOnValidation[i];
+            PrimitiveSorter.resort(idx, modelScoresOnValidation[i], 0, false);
+            queryScoresOnValidation[i] = scorer.score(new RankList(validationSamples.get(i), idx));
         }
-        return score;
     }
 
     protected void sortSamplesByFeature(final int fStart, final int fEnd) {
@@ -546,17 +1611,25 @@ public class LambdaMART extends Ranker {
         int rlStart = -1;
         int rlEnd = -1;
         int martStart = -1;
+        int martEnd = -1;
+        double[][] acc = null;//if not null, also collect the lambdas of [martStart, martEnd] into this histogram accumulator
 
-        LambdaComputationWorker(final LambdaMART ranker, final int rlStart, final int rlEnd, final int martStart) {
+        LambdaComputationWorker(final LambdaMART ranker, final int rlStart, final int rlEnd, final int martStart, final int martEnd,
+                final double[][] acc) {
             this.ranker = ranker;
             this.rlStart = rlStart;
             this.rlEnd = rlEnd;
             this.martStart = martStart;
+            this.martEnd = martEnd;
+            this.acc = acc;
         }
 
         @Override
         public void run() {
             ranker.computePseudoResponses(rlStart, rlEnd, martStart);
+            if (acc != null) {
+                ranker.hist.collect(acc, ranker.pseudoResponses, martStart, martEnd);
+            }
         }
     }
 
@@ -565,18 +1638,19 @@ public class LambdaMART extends Ranker {
         int rlStart = -1;
         int rlEnd = -1;
         int martStart = -1;
+        FlatTree tree = null;
         int type = -1;
 
-        //compute score on validation
-        float score = 0;
-
-        Worker(final LambdaMART ranker, final int rlStart, final int rlEnd) {
+        //update scores on validation
+        Worker(final LambdaMART ranker, final FlatTree tree, final int rlStart, final int rlEnd) {
             type = 3;
             this.ranker = ranker;
+            this.tree = tree;
             this.rlStart = rlStart;
             this.rlEnd = rlEnd;
         }
 
+        //compute scores on training
         Worker(final LambdaMART ranker, final int rlStart, final int rlEnd, final int martStart) {
             type = 4;
             this.ranker = ranker;
@@ -588,9 +1662,9 @@ public class LambdaMART extends Ranker {
         @Override
         public void run() {
             if (type == 4) {
-                score = ranker.computeModelScoreOnTraining(rlStart, rlEnd, martStart);
+                ranker.computeModelScoreOnTraining(rlStart, rlEnd, martStart);
             } else if (type == 3) {
-                score = ranker.computeModelScoreOnValidation(rlStart, rlEnd);
+                ranker.updateModelScoreOnValidation(tree, rlStart, rlEnd);
             }
         }
     }
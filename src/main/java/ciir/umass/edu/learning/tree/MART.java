@@ -45,11 +45,16 @@ public class MART extends LambdaMART {
 
     @Override
     protected void computePseudoResponses() {
-        for (int i = 0; i < martSamples.length; i++) {
-            pseudoResponses[i] = martSamples[i].getLabel() - modelScores[i];
+        for (int i = 0; i < labels.length; i++) {
+            pseudoResponses[i] = labels[i] - modelScores[i];
         }
     }
 
+    @Override
+    protected double leafOutput(final double sumResponse, final double sumWeight, final int count) {
+        return sumResponse / count;
+    }
+
     @Override
     protected void updateTreeOutput(final RegressionTree rt) {
         final List<Split> leaves = rt.leaves();
@@ -60,7 +65,16 @@ public class MART extends LambdaMART {
             for (final int k : idx) {
                 s1 += pseudoResponses[k];
             }
-            s.setOutput(s1 / idx.length);
+            if (sampleWeights == null) {
+                s.setOutput(s1 / idx.length);
+            } else {
+                //GOSS: the (scaled up) responses are averaged over the weights of the samples
+                double n = 0;
+                for (final int k : idx) {
+                    n += sampleWeights[k];
+                }
+                s.setOutput((float) (s1 / n));
+            }
         }
     }
 }
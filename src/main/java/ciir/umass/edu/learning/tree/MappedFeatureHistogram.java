@@ -0,0 +1,152 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.util.Arrays;
+
+import ciir.umass.edu.utilities.MyThreadPool;
+
+/**
+ * Feature histogram for out-of-core training: the bin of each (feature, sample) pair is read from a {@link BinnedColumnStore} instead
+ * of the in-memory @sampleToThresholdMap. Histograms are built one feature column at a time, so each pass reads the mapped columns
+ * sequentially.
+ */
+public class MappedFeatureHistogram extends FeatureHistogram {
+    protected BinnedColumnStore store = null;
+
+    public MappedFeatureHistogram() {
+
+    }
+
+    /**
+     * Construct the histogram of the root node.
+     * @param store Bins of the training samples, one column per feature.
+     * @param labels
+     * @param features
+     * @param thresholds Candidate thresholds for each feature. The last one must be Float.MAX_VALUE.
+     * @param impacts
+     */
+    public void construct(final BinnedColumnStore store, final double[] labels, final int[] features, final float[][] thresholds,
+            final double[] impacts) {
+        this.store = store;
+        this.features = features;
+        this.thresholds = thresholds;
+        this.impacts = impacts;
+
+        sum = new double[features.length][];
+        count = new int[features.length][];
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1) {
+            construct(null, null, labels, 0, features.length - 1);
+        } else {
+            p.execute(new Worker(this, null, null, labels), features.length);
+        }
+    }
+
+    @Override
+    public void construct(final FeatureHistogram parent, final int[] soi, final double[] labels) {
+        store = ((MappedFeatureHistogram) parent).store;
+        super.construct(parent, soi, labels);
+    }
+
+    @Override
+    public void construct(final FeatureHistogram parent, final FeatureHistogram leftSibling, final boolean reuseParent) {
+        store = ((MappedFeatureHistogram) parent).store;
+        super.construct(parent, leftSibling, reuseParent);
+    }
+
+    /**
+     * @param soi Samples of the node (null for all samples).
+     */
+    @Override
+    protected void construct(final FeatureHistogram parent, final int[] soi, final double[] labels, final int start, final int end) {
+        final int n = (soi == null) ? store.size() : soi.length;
+        if (start == 0) {
+            double total = 0;
+            double sqTotal = 0;
+            for (int i = 0; i < n; i++) {
+                final double label = labels[(soi == null) ? i : soi[i]];
+                total += label;
+                sqTotal += label * label;
+            }
+            sumResponse = total;
+            sqSumResponse = sqTotal;
+        }
+
+        for (int f = start; f <= end; f++) {
+            final double[] s = new double[thresholds[f].length];
+            final int[] c = new int[thresholds[f].length];
+            final double[] w = (weight == null) ? null : new double[thresholds[f].length];
+            for (int i = 0; i < n; i++) {
+                final int k = (soi == null) ? i : soi[i];
+                final int t = store.get(f, k);
+                s[t] += labels[k];
+                c[t]++;
+                if (w != null) {
+                    w[t] += sampleWeights[k];
+                }
+            }
+            for (int t = 1; t < s.length; t++) {
+                s[t] += s[t - 1];
+                c[t] += c[t - 1];
+                if (w != null) {
+                    w[t] += w[t - 1];
+                }
+            }
+            sum[f] = s;
+            count[f] = c;
+            if (w != null) {
+                weight[f] = w;
+            }
+        }
+    }
+
+    @Override
+    protected void update(final double[] labels, final int start, final int end) {
+        if (start == 0) {
+            for (final double label : labels) {
+                sumResponse += label;
+                sqSumResponse += label * label;
+            }
+        }
+        //count doesn't change, so no need to re-compute
+        for (int f = start; f <= end; f++) {
+            final double[] s = sum[f];
+            Arrays.fill(s, 0);
+            for (int k = 0; k < labels.length; k++) {
+                s[store.get(f, k)] += labels[k];
+            }
+            for (int t = 1; t < s.length; t++) {
+                s[t] += s[t - 1];
+            }
+        }
+    }
+
+    @Override
+    protected void collect(final double[][] acc, final double[] labels, final int from, final int to) {
+        for (int f = 0; f < acc.length; f++) {
+            final double[] a = acc[f];
+            Arrays.fill(a, 0);
+            for (int k = from; k <= to; k++) {
+                a[store.get(f, k)] += labels[k];
+            }
+        }
+    }
+
+    @Override
+    protected int bin(final int f, final int k) {
+        return store.get(f, k);
+    }
+
+    @Override
+    protected FeatureHistogram newHistogram() {
+        return new MappedFeatureHistogram();
+    }
+}
@@ -11,11 +11,15 @@ package ciir.umass.edu.learning.tree;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import ciir.umass.edu.features.GlobalNormalizer;
+import ciir.umass.edu.learning.Checkpointer;
 import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.learning.Ranker;
@@ -25,6 +29,7 @@ import ciir.umass.edu.learning.Sampler;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.parsing.ModelLineProducer;
 import ciir.umass.edu.utilities.MergeSorter;
+import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
 
 public class RFRanker extends Ranker {
@@ -45,6 +50,9 @@ public class RFRanker extends Ranker {
 
     //Variables
     protected Ensemble[] ensembles = null;//bag of ensembles, each can be a single tree or an ensemble of gradient boosted trees
+    protected double[] impacts = null;//accumulated over the bags
+    protected int firstBag = 0;//bags already done before training started (resume only)
+    protected Checkpointer checkpointer = null;
 
     public RFRanker() {
     }
@@ -66,6 +74,22 @@ public class RFRanker extends Ranker {
         LambdaMART.nRoundToStopEarly = -1;//no early-stopping since we're doing bagging
         //turn on feature sampling
         FeatureHistogram.samplingRate = featureSamplingRate;
+
+        if (Checkpointer.checkpointFile != null) {
+            checkpointer = new Checkpointer(Checkpointer.checkpointFile);
+            final String checkpoint = checkpointer.load();
+            if (checkpoint != null) {
+                final RFRanker r = new RFRanker();
+                r.loadFromString(checkpoint);
+                firstBag = r.ensembles.length;
+                if (firstBag > nBag) {
+                    throw RankLibError.create("The checkpoint has more bags (" + firstBag + ") than the " + nBag + " to train.");
+                }
+                System.arraycopy(r.ensembles, 0, ensembles, 0, firstBag);
+                impacts = Checkpointer.toDoubles(Checkpointer.state(checkpoint).get("impacts"));
+                logger.info(() -> "Resuming after bag " + firstBag);
+            }
+        }
     }
 
     @Override
@@ -73,13 +97,13 @@ public class RFRanker extends Ranker {
         final RankerFactory rf = new RankerFactory();
         logger.info(() -> "Training starts...");
         printLogLn(new int[] { 9, 9, 11 }, new String[] { "bag", scorer.name() + "-B", scorer.name() + "-OOB" });
-        double[] impacts = null;
         //start the bagging process
-        for (int i = 0; i < nBag; i++) {
+        for (int i = firstBag; i < nBag; i++) {
             final Sampler sp = new Sampler();
             //create a "bag" of samples by random sampling from the training set
             final List<RankList> bag = sp.doSampling(samples, subSamplingRate, true);
             final LambdaMART r = (LambdaMART) rf.createRanker(rType, bag, features, scorer);
+            r.checkpointing = false;
 
             r.init();
             r.learn();
@@ -93,6 +117,13 @@ public class RFRanker extends Ranker {
             }
             printLogLn(new int[] { 9, 9 }, new String[] { "b[" + (i + 1) + "]", SimpleMath.round(r.getScoreOnTrainingData(), 4) + "" });
             ensembles[i] = r.getEnsemble();
+            if (checkpointer != null && checkpointer.isDue(i + 1)) {
+                checkpoint(i + 1);
+            }
+        }
+        if (checkpointer != null) {
+            checkpointer.close();
+            checkpointer = null;
         }
         //Finishing up
         scoreOnTrainingData = scorer.score(rank(samples));
@@ -113,6 +144,17 @@ public class RFRanker extends Ranker {
 
     }
 
+    /**
+     * Save the forest made of the first @n bags.
+     * @param n
+     */
+    protected void checkpoint(final int n) {
+        final Map<String, String> state = new LinkedHashMap<>();
+        state.put("bags", Integer.toString(n));
+        state.put("impacts", Checkpointer.toString(impacts));
+        checkpointer.save(model(n), state);
+    }
+
     @Override
     public double eval(final DataPoint dp) {
         double s = 0;
@@ -127,19 +169,43 @@ public class RFRanker extends Ranker {
         return new RFRanker();
     }
 
+    @Override
+    public boolean canFoldNormalization() {
+        return true;
+    }
+
+    @Override
+    public void foldNormalization(final GlobalNormalizer n) {
+        for (final Ensemble ensemble : ensembles) {
+            ensemble.foldNormalization(n);
+        }
+    }
+
     @Override
     public String toString() {
-        String str = "";
-        for (int i = 0; i < nBag; i++) {
-            str += ensembles[i].toString() + "\n";
+        return toString(nBag);
+    }
+
+    private String toString(final int n) {
+        final StringBuilder str = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            str.append(ensembles[i].toString()).append('\n');
         }
-        return str;
+        return str.toString();
     }
 
     @Override
     public String model() {
+        return model(nBag);
+    }
+
+    /**
+     * @param n
+     * @return The model made of the first @n bags.
+     */
+    protected String model(final int n) {
         String output = "## " + name() + "\n";
-        output += "## No. of bags = " + nBag + "\n";
+        output += "## No. of bags = " + n + "\n";
         output += "## Sub-sampling = " + subSamplingRate + "\n";
         output += "## Feature-sampling = " + featureSamplingRate + "\n";
         output += "## No. of trees = " + nTrees + "\n";
@@ -147,7 +213,7 @@ public class RFRanker extends Ranker {
         output += "## No. of threshold candidates = " + nThreshold + "\n";
         output += "## Learning rate = " + learningRate + "\n";
         output += "\n";
-        output += toString();
+        output += toString(n);
         return output;
     }
 
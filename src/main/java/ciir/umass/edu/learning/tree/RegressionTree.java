@@ -12,6 +12,7 @@ package ciir.umass.edu.learning.tree;
 import java.util.LinkedList;
 import java.util.List;
 
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.learning.DataPoint;
 
 /**
@@ -46,12 +47,27 @@ public class RegressionTree {
         this.trainingLabels = labels;
         this.hist = hist;
         this.minLeafSupport = minLeafSupport;
-        index = new int[trainingSamples.length];
-        for (int i = 0; i < trainingSamples.length; i++) {
+        index = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
             index[i] = i;
         }
     }
 
+    /**
+     * Tree fit on a subset of the training samples.
+     * @param index Samples to fit the tree on (indexes into @trainingSamples).
+     * @param hist Histogram of these samples only.
+     */
+    public RegressionTree(final int nLeaves, final DataPoint[] trainingSamples, final double[] labels, final FeatureHistogram hist,
+            final int minLeafSupport, final int[] index) {
+        this.nodes = nLeaves;
+        this.trainingSamples = trainingSamples;
+        this.trainingLabels = labels;
+        this.hist = hist;
+        this.minLeafSupport = minLeafSupport;
+        this.index = index;
+    }
+
     /**
      * Fit the tree from the specified training data
      */
@@ -71,7 +87,7 @@ public class RegressionTree {
             final Split leaf = queue.get(0);
             queue.remove(0);
 
-            if (leaf.getSamples().length < 2 * minLeafSupport) {
+            if (leaf.hist.support(leaf.getSamples().length) < 2 * minLeafSupport) {
                 taken++;
                 continue;
             }
@@ -95,6 +111,21 @@ public class RegressionTree {
         return root.eval(dp);
     }
 
+    /**
+     * @return The array form of this tree (see {@link FlatTree}).
+     */
+    public FlatTree flatten() {
+        return new FlatTree(root);
+    }
+
+    /**
+     * Map the split thresholds back to the raw feature space (see {@link Split#foldNormalization(GlobalNormalizer)})
+     * @param n
+     */
+    public void foldNormalization(final GlobalNormalizer n) {
+        root.foldNormalization(n);
+    }
+
     /**
      * Retrieve all leave nodes in the tree
      * @return
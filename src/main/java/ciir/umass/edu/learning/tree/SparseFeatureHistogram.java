@@ -0,0 +1,281 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.util.Arrays;
+
+import ciir.umass.edu.utilities.MyThreadPool;
+
+/**
+ * Feature histogram for sparse training data. Instead of storing the bin of every (feature, sample) pair, only the entries that
+ * don't fall into the bin of value 0 (the "default" bin of a feature, which is where absent features go) are stored, row by row
+ * (compressed sparse rows, with entries of each row sorted by feature index).
+ *
+ * Histograms are accumulated over these entries only, and the default bin of each feature receives whatever is left of the node's
+ * total. The cost of building a histogram is therefore proportional to the number of non-default entries of the node's samples
+ * (plus the number of bins), rather than to #samples x #features.
+ */
+public class SparseFeatureHistogram extends FeatureHistogram {
+    protected int nSamples = 0;
+    protected int[] defaultBin = null;//defaultBin[f]: bin of value 0 (or the missing bin) for feature f
+    protected int[] rowStart = null;//entries of sample k are in [rowStart[k], rowStart[k+1])
+    protected int[] rowFeature = null;
+    protected int[] rowBin = null;
+
+    public SparseFeatureHistogram() {
+
+    }
+
+    /**
+     * Construct the histogram of the root node.
+     * @param nSamples Number of training samples.
+     * @param cscRows cscRows[f]: samples that have a value for feature f, i.e. the column-compressed layout of the data
+     * @param cscValues cscValues[f][i]: value of feature f of sample cscRows[f][i]
+     * @param labels
+     * @param features
+     * @param thresholds Candidate thresholds for each feature. The last one must be Float.MAX_VALUE.
+     * @param impacts
+     */
+    public void construct(final int nSamples, final int[][] cscRows, final float[][] cscValues, final double[] labels,
+            final int[] features, final float[][] thresholds, final double[] impacts) {
+        this.nSamples = nSamples;
+        this.features = features;
+        this.thresholds = thresholds;
+        this.impacts = impacts;
+
+        //bin each stored value, dropping those that end up in the default bin (e.g. explicit zeros)
+        defaultBin = new int[features.length];
+        final int[][] bins = new int[features.length][];
+        final int[] rowCount = new int[nSamples];
+        for (int f = 0; f < features.length; f++) {
+            //samples without a value are in the bin of 0, or in the missing bin if there is one
+            defaultBin[f] = findBin(thresholds[f], hasMissingBin(f) ? Float.NaN : 0F);
+            bins[f] = new int[cscRows[f].length];
+            for (int i = 0; i < cscRows[f].length; i++) {
+                bins[f][i] = findBin(thresholds[f], cscValues[f][i]);
+                if (bins[f][i] != defaultBin[f]) {
+                    rowCount[cscRows[f][i]]++;
+                }
+            }
+        }
+
+        //transpose into rows. Features are visited in increasing order, so each row ends up sorted by feature index.
+        rowStart = new int[nSamples + 1];
+        for (int k = 0; k < nSamples; k++) {
+            rowStart[k + 1] = rowStart[k] + rowCount[k];
+        }
+        rowFeature = new int[rowStart[nSamples]];
+        rowBin = new int[rowStart[nSamples]];
+        final int[] next = Arrays.copyOf(rowStart, nSamples);
+        for (int f = 0; f < features.length; f++) {
+            for (int i = 0; i < cscRows[f].length; i++) {
+                if (bins[f][i] != defaultBin[f]) {
+                    final int pos = next[cscRows[f][i]]++;
+                    rowFeature[pos] = f;
+                    rowBin[pos] = bins[f][i];
+                }
+            }
+        }
+
+        sum = new double[features.length][];
+        count = new int[features.length][];
+        final MyThreadPool p = MyThreadPool.getInstance();
+        if (p.size() == 1) {
+            construct(null, null, labels, 0, features.length - 1);
+        } else {
+            p.execute(new Worker(this, null, null, labels), features.length);
+        }
+    }
+
+    @Override
+    public void construct(final FeatureHistogram parent, final int[] soi, final double[] labels) {
+        copyLayout((SparseFeatureHistogram) parent);
+        super.construct(parent, soi, labels);
+    }
+
+    @Override
+    public void construct(final FeatureHistogram parent, final FeatureHistogram leftSibling, final boolean reuseParent) {
+        copyLayout((SparseFeatureHistogram) parent);
+        super.construct(parent, leftSibling, reuseParent);
+    }
+
+    private void copyLayout(final SparseFeatureHistogram parent) {
+        nSamples = parent.nSamples;
+        defaultBin = parent.defaultBin;
+        rowStart = parent.rowStart;
+        rowFeature = parent.rowFeature;
+        rowBin = parent.rowBin;
+    }
+
+    @Override
+    protected void construct(final FeatureHistogram parent, final int[] soi, final double[] labels, final int start, final int end) {
+        for (int f = start; f <= end; f++) {
+            sum[f] = new double[thresholds[f].length];
+            count[f] = new int[thresholds[f].length];
+            if (weight != null) {
+                weight[f] = new double[thresholds[f].length];
+            }
+        }
+        accumulate(soi, labels, start, end, true);
+    }
+
+    @Override
+    protected void update(final double[] labels, final int start, final int end) {
+        for (int f = start; f <= end; f++) {
+            Arrays.fill(sum[f], 0);
+        }
+        //count doesn't change, so no need to re-compute
+        accumulate(null, labels, start, end, false);
+    }
+
+    /**
+     * Build the (cumulative) histograms of features [start, end] over the samples in @soi.
+     * @param soi Samples of the node (null for all samples).
+     * @param labels
+     * @param start
+     * @param end
+     * @param withCount Whether @count (and @weight, if samples are weighted) has to be computed as well (it's all zeros on entry if so).
+     */
+    protected void accumulate(final int[] soi, final double[] labels, final int start, final int end, final boolean withCount) {
+        final int n = (soi == null) ? nSamples : soi.length;
+        final boolean withWeight = withCount && weight != null;
+        double total = 0;
+        double sqTotal = 0;
+        double totalWeight = 0;
+        for (int i = 0; i < n; i++) {
+            final int k = (soi == null) ? i : soi[i];
+            final double label = labels[k];
+            total += label;
+            sqTotal += label * label;
+            if (withWeight) {
+                totalWeight += sampleWeights[k];
+            }
+            //skip to the first entry of this row within [start, end]
+            int pos = rowStart[k];
+            final int rowEnd = rowStart[k + 1];
+            if (start > 0) {
+                pos = Arrays.binarySearch(rowFeature, pos, rowEnd, start);
+                if (pos < 0) {
+                    pos = -pos - 1;
+                }
+            }
+            for (; pos < rowEnd && rowFeature[pos] <= end; pos++) {
+                final int f = rowFeature[pos];
+                sum[f][rowBin[pos]] += label;
+                if (withCount) {
+                    count[f][rowBin[pos]]++;
+                }
+                if (withWeight) {
+                    weight[f][rowBin[pos]] += sampleWeights[k];
+                }
+            }
+        }
+        if (start == 0) {
+            sumResponse = total;
+            sqSumResponse = sqTotal;
+        }
+        complete(start, end, total, n, totalWeight, withCount);
+    }
+
+    @Override
+    protected void collect(final double[][] acc, final double[] labels, final int from, final int to) {
+        for (int f = 0; f < acc.length; f++) {
+            Arrays.fill(acc[f], 0);
+        }
+        //default bins are left out, they are filled in by update()
+        for (int k = from; k <= to; k++) {
+            final double label = labels[k];
+            for (int pos = rowStart[k]; pos < rowStart[k + 1]; pos++) {
+                acc[rowFeature[pos]][rowBin[pos]] += label;
+            }
+        }
+    }
+
+    @Override
+    protected void update(final double[][][] partials, final int start, final int end) {
+        merge(partials, start, end);
+        complete(start, end, sumResponse, nSamples, 0, false);
+    }
+
+    /**
+     * The default bin gets whatever is not accounted for by the stored entries, then make the histograms cumulative.
+     * @param start
+     * @param end
+     * @param total Sum of labels of the node's samples.
+     * @param n Number of samples of the node.
+     * @param totalWeight Sum of the weights of the node's samples (if they are weighted).
+     * @param withCount
+     */
+    private void complete(final int start, final int end, final double total, final int n, final double totalWeight,
+            final boolean withCount) {
+        final boolean withWeight = withCount && weight != null;
+        for (int f = start; f <= end; f++) {
+            final double[] s = sum[f];
+            final int[] c = count[f];
+            final double[] w = withWeight ? weight[f] : null;
+            double nzSum = 0;
+            int nzCount = 0;
+            double nzWeight = 0;
+            for (int t = 0; t < s.length; t++) {
+                nzSum += s[t];
+                nzCount += c[t];
+                if (withWeight) {
+                    nzWeight += w[t];
+                }
+            }
+            s[defaultBin[f]] += total - nzSum;
+            if (withCount) {
+                c[defaultBin[f]] += n - nzCount;
+            }
+            if (withWeight) {
+                w[defaultBin[f]] += totalWeight - nzWeight;
+            }
+            for (int t = 1; t < s.length; t++) {
+                s[t] += s[t - 1];
+                if (withCount) {
+                    c[t] += c[t - 1];
+                }
+                if (withWeight) {
+                    w[t] += w[t - 1];
+                }
+            }
+        }
+    }
+
+    @Override
+    protected int bin(final int f, final int k) {
+        final int pos = Arrays.binarySearch(rowFeature, rowStart[k], rowStart[k + 1], f);
+        return (pos >= 0) ? rowBin[pos] : defaultBin[f];
+    }
+
+    @Override
+    protected FeatureHistogram newHistogram() {
+        return new SparseFeatureHistogram();
+    }
+
+    /**
+     * @param threshold
+     * @param value
+     * @return Index of the first threshold that is no less than @value, i.e. the bin @value falls into (the last one for NaN).
+     */
+    protected static int findBin(final float[] threshold, final float value) {
+        int lo = 0;
+        int hi = threshold.length - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (value <= threshold[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+}
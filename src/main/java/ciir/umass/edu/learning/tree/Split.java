@@ -10,8 +10,10 @@
 package ciir.umass.edu.learning.tree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import ciir.umass.edu.features.GlobalNormalizer;
 import ciir.umass.edu.learning.DataPoint;
 
 /**
@@ -20,9 +22,16 @@ import ciir.umass.edu.learning.DataPoint;
  *
  */
 public class Split {
+    //Where samples with a missing value of the split's feature go (see DataPoint#isMissing(int))
+    public static final int MISSING_AS_ZERO = 0;//no learned direction: the missing value is read as 0
+    public static final int MISSING_LEFT = 1;
+    public static final int MISSING_RIGHT = 2;
+
     //Key attributes of a split (tree node)
     private int featureID = -1;
     private float threshold = 0F;
+    private float[] categories = null;//categorical split: the values that go left, in ascending order (null for a threshold split)
+    private int missing = MISSING_AS_ZERO;
     private double avgLabel = 0.0F;
 
     //Intermediate variables (ONLY used during learning)
@@ -63,12 +72,61 @@ public class Split {
         avgLabel = sumLabel / samples.length;
     }
 
+    public Split(final int featureID, final float[] categories, final double deviance) {
+        this.featureID = featureID;
+        this.categories = withoutNegativeZero(categories);
+        this.deviance = deviance;
+    }
+
     public void set(final int featureID, final float threshold, final double deviance) {
         this.featureID = featureID;
         this.threshold = threshold;
         this.deviance = deviance;
     }
 
+    /**
+     * Make this node a categorical split: samples whose value of @featureID is one of @categories go left, all others (including
+     * values never seen in training) go right.
+     * @param featureID
+     * @param categories In ascending order.
+     * @param deviance
+     */
+    public void set(final int featureID, final float[] categories, final double deviance) {
+        this.featureID = featureID;
+        this.categories = withoutNegativeZero(categories);
+        this.deviance = deviance;
+    }
+
+    /**
+     * @param categories In ascending order.
+     * @return @categories, with -0.0 replaced by 0.0 (in place; they stay in ascending order).
+     */
+    private static float[] withoutNegativeZero(final float[] categories) {
+        for (int i = 0; i < categories.length; i++) {
+            if (categories[i] == 0) {
+                categories[i] = 0F;
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * @param categories In ascending order, without -0.0 (see {@link #set(int, float[], double)}).
+     * @param value
+     * @return Whether @value is one of @categories. -0.0 and 0.0 are the same category, as they are in the histograms (whose bins
+     * compare values with <=), but Arrays.binarySearch(float[], float) tells them apart.
+     */
+    static boolean isCategory(final float[] categories, final float value) {
+        return Arrays.binarySearch(categories, (value == 0) ? 0F : value) >= 0;
+    }
+
+    /**
+     * @param missing MISSING_AS_ZERO, MISSING_LEFT or MISSING_RIGHT
+     */
+    public void setMissing(final int missing) {
+        this.missing = missing;
+    }
+
     public void setLeft(final Split s) {
         left = s;
     }
@@ -97,6 +155,36 @@ public class Split {
         return avgLabel;
     }
 
+    public int getFeatureID() {
+        return featureID;
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+
+    public int getMissing() {
+        return missing;
+    }
+
+    /**
+     * @return The values that go left if this is a categorical split, null otherwise.
+     */
+    public float[] getCategories() {
+        return categories;
+    }
+
+    /**
+     * @param value
+     * @return Whether a sample with @value for the feature of this split goes left.
+     */
+    public boolean goesLeft(final float value) {
+        if (categories != null) {
+            return isCategory(categories, value);
+        }
+        return value <= threshold;
+    }
+
     public List<Split> leaves() {
         final List<Split> list = new ArrayList<>();
         leaves(list);
@@ -115,7 +203,9 @@ public class Split {
     public double eval(final DataPoint dp) {
         Split n = this;
         while (n.featureID != -1) {
-            if (dp.getFeatureValue(n.featureID) <= n.threshold) {
+            if (n.missing != MISSING_AS_ZERO && dp.isMissing(n.featureID)) {
+                n = (n.missing == MISSING_LEFT) ? n.left : n.right;
+            } else if (n.goesLeft(dp.getFeatureValue(n.featureID))) {
                 n = n.left;
             } else {
                 n = n.right;
@@ -124,6 +214,22 @@ public class Split {
         return n.avgLabel;
     }
 
+    /**
+     * Map the thresholds of this sub-tree back to the raw feature space: x' &lt;= t with x' = (x - shift) / scale is equivalent to
+     * x &lt;= t * scale + shift, up to the rounding handled by {@link GlobalNormalizer#denormalizeThreshold(int, double)}. Categorical
+     * splits are left as they are (categorical features are not normalized).
+     * @param n
+     */
+    public void foldNormalization(final GlobalNormalizer n) {
+        if (featureID != -1) {
+            if (categories == null) {
+                threshold = n.denormalizeThreshold(featureID, threshold);
+            }
+            left.foldNormalization(n);
+            right.foldNormalization(n);
+        }
+    }
+
     @Override
     public String toString() {
         return toString("");
@@ -143,7 +249,18 @@ public class Split {
             buf.append(indent).append("<output>").append(avgLabel).append(" </output>\n");
         } else {
             buf.append(indent).append("<feature>").append(featureID).append(" </feature>\n");
-            buf.append(indent).append("<threshold> ").append(threshold).append(" </threshold>\n");
+            if (categories != null) {
+                buf.append(indent).append("<categories>");
+                for (final float c : categories) {
+                    buf.append(' ').append(c);
+                }
+                buf.append(" </categories>\n");
+            } else {
+                buf.append(indent).append("<threshold> ").append(threshold).append(" </threshold>\n");
+            }
+            if (missing != MISSING_AS_ZERO) {
+                buf.append(indent).append("<missing> ").append((missing == MISSING_LEFT) ? "left" : "right").append(" </missing>\n");
+            }
             buf.append(indent).append("<split pos=\"left\">\n");
             buf.append(left.getString(indent + "\t"));
             buf.append(indent).append("</split>" + "\n");
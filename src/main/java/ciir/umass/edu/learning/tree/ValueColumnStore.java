@@ -0,0 +1,97 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ciir.umass.edu.utilities.RankLibError;
+
+/**
+ * Feature values of the training data in a memory-mapped file, written sample by sample (as the data is read) and read back column by
+ * column (to compute the thresholds and bins of each feature, see {@link BinnedColumnStore}).
+ *
+ * The backing file is deleted when the store is closed (or when the JVM exits).
+ */
+public class ValueColumnStore {
+    private final int nSamples;
+    private final File file;
+    private RandomAccessFile raf = null;
+    private MappedByteBuffer[] columns = null;
+
+    /**
+     * @param dir Directory for the backing file (created if needed; null for the default temporary directory).
+     * @param nSamples Number of samples (rows).
+     * @param nColumns Number of columns (features).
+     */
+    public ValueColumnStore(final File dir, final int nSamples, final int nColumns) {
+        if ((long) nSamples * 4 > Integer.MAX_VALUE) {
+            throw RankLibError.create("Too many samples for a feature value column: " + nSamples);
+        }
+        this.nSamples = nSamples;
+        columns = new MappedByteBuffer[nColumns];
+        try {
+            if (dir != null) {
+                dir.mkdirs();
+            }
+            file = File.createTempFile("ranklib-values", ".bin", dir);
+            file.deleteOnExit();
+            raf = new RandomAccessFile(file, "rw");
+            final FileChannel ch = raf.getChannel();
+            for (int f = 0; f < nColumns; f++) {
+                columns[f] = ch.map(FileChannel.MapMode.READ_WRITE, (long) f * nSamples * 4, (long) nSamples * 4);
+            }
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error creating feature value file in " + dir, ex);
+        }
+    }
+
+    /**
+     * @param f Column
+     * @param k Sample
+     * @param value
+     */
+    public void set(final int f, final int k, final float value) {
+        columns[f].putFloat(k << 2, value);
+    }
+
+    /**
+     * Copy a column.
+     * @param f Column
+     * @param values values[k]: value of sample k in column @f.
+     */
+    public void get(final int f, final float[] values) {
+        final MappedByteBuffer column = columns[f];
+        for (int k = 0; k < nSamples; k++) {
+            values[k] = column.getFloat(k << 2);
+        }
+    }
+
+    public int size() {
+        return nSamples;
+    }
+
+    /**
+     * Release the backing file. The store can no longer be used afterwards.
+     */
+    public void close() {
+        columns = null;
+        try {
+            raf.close();
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error closing feature value file " + file, ex);
+        }
+        //mapped regions are only unmapped once garbage collected, which may prevent the deletion on some platforms (deleteOnExit then).
+        file.delete();
+    }
+}
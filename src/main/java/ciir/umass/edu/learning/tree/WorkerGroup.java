@@ -0,0 +1,425 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import ciir.umass.edu.utilities.RankLibError;
+
+/**
+ * Coordinator side of distributed training: the connections to the {@link DistributedWorker}s, each of which holds a shard of the
+ * training queries. Workers compute lambdas and the histograms of their own samples. These are summed up here (all-reduce) to pick
+ * each split with {@link FeatureHistogram#findBestSplit(int[], int)}, and the split is sent back (broadcast) so that each worker can
+ * partition its samples. Trees are grown exactly like {@link RegressionTree#fit()}, and the result is a regular {@link Ensemble}.
+ *
+ * The shards are considered to be consecutive ranges of queries, in the order the workers are listed.
+ */
+public class WorkerGroup {
+    private static final Logger logger = Logger.getLogger(WorkerGroup.class.getName());
+
+    private final String[] addresses;
+    private final Socket[] sockets;
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+    private int[] queryCount = null;//number of queries of each worker
+    private int nodeCount = 0;
+
+    /**
+     * Tree node, as seen by the coordinator: the samples are with the workers, only their (all-reduced) histogram is here.
+     */
+    class Node {
+        final int id;
+        final Split split = new Split();
+        FeatureHistogram hist;
+        final double deviance;
+        final int count;
+        Node left = null;
+        Node right = null;
+
+        Node(final int id, final FeatureHistogram hist, final double deviance) {
+            this.id = id;
+            this.hist = hist;
+            this.deviance = deviance;
+            count = hist.count[0][hist.count[0].length - 1];
+        }
+    }
+
+    /**
+     * @param workers Comma-separated list of host:port.
+     */
+    public WorkerGroup(final String workers) {
+        addresses = workers.split(",");
+        sockets = new Socket[addresses.length];
+        in = new DataInputStream[addresses.length];
+        out = new DataOutputStream[addresses.length];
+        for (int w = 0; w < addresses.length; w++) {
+            final String address = addresses[w].trim();
+            final int colon = address.lastIndexOf(':');
+            if (colon == -1) {
+                throw RankLibError.create("Worker address must be host:port: " + address);
+            }
+            try {
+                sockets[w] = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+                sockets[w].setTcpNoDelay(true);
+                in[w] = new DataInputStream(new BufferedInputStream(sockets[w].getInputStream()));
+                out[w] = new DataOutputStream(new BufferedOutputStream(sockets[w].getOutputStream()));
+            } catch (final IOException ex) {
+                throw RankLibError.create("Cannot connect to worker " + address, ex);
+            }
+        }
+        logger.info(() -> "Connected to " + addresses.length + " worker(s).");
+    }
+
+    /**
+     * @return The union of the features found in the workers' data.
+     */
+    public int[] features() {
+        try {
+            broadcast(DistributedWorker.FEATURES);
+            final TreeSet<Integer> union = new TreeSet<>();
+            for (int w = 0; w < in.length; w++) {
+                for (final int fid : DistributedWorker.readInts(in[w])) {
+                    union.add(fid);
+                }
+            }
+            final int[] features = new int[union.size()];
+            int i = 0;
+            for (final int fid : union) {
+                features[i++] = fid;
+            }
+            return features;
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error communicating with the workers: ", ex);
+        }
+    }
+
+    /**
+     * Set up the workers and compute the candidate thresholds of each feature from the distinct values of all workers.
+     * @param ranker The coordinating ranker.
+     * @param rankerName Ranker the workers compute the pseudo responses of ("LambdaMART" or "MART").
+     * @param metric
+     * @param features
+     * @return The thresholds (also sent to the workers).
+     */
+    public float[][] init(final LambdaMART ranker, final String rankerName, final String metric, final int[] features) {
+        try {
+            for (final DataOutputStream o : out) {
+                o.writeInt(DistributedWorker.INIT);
+                o.writeUTF(rankerName);
+                o.writeUTF(metric);
+                o.writeFloat(LambdaMART.learningRate);
+                o.writeInt(LambdaMART.nThreshold);
+                DistributedWorker.writeInts(o, features);
+                o.flush();
+            }
+
+            final boolean[] overflow = new boolean[features.length];
+            final float[] min = new float[features.length];
+            final float[] max = new float[features.length];
+            Arrays.fill(min, Float.MAX_VALUE);
+            Arrays.fill(max, -Float.MAX_VALUE);
+            final List<List<float[]>> values = new ArrayList<>();
+            for (int f = 0; f < features.length; f++) {
+                values.add(new ArrayList<>());
+            }
+            queryCount = new int[in.length];
+            for (int w = 0; w < in.length; w++) {
+                queryCount[w] = in[w].readInt();
+                for (int f = 0; f < features.length; f++) {
+                    final int n = in[w].readInt();
+                    if (n == -1) {
+                        overflow[f] = true;
+                        min[f] = Math.min(min[f], in[w].readFloat());
+                        max[f] = Math.max(max[f], in[w].readFloat());
+                    } else {
+                        final float[] v = new float[n];
+                        for (int i = 0; i < n; i++) {
+                            v[i] = in[w].readFloat();
+                        }
+                        if (n > 0) {
+                            min[f] = Math.min(min[f], v[0]);
+                            max[f] = Math.max(max[f], v[n - 1]);
+                        }
+                        values.get(f).add(v);
+                    }
+                }
+            }
+
+            final float[][] thresholds = new float[features.length][];
+            for (int f = 0; f < features.length; f++) {
+                if (overflow[f]) {
+                    thresholds[f] = ranker.makeThresholds(min[f], max[f]);
+                    continue;
+                }
+                int total = 0;
+                for (final float[] v : values.get(f)) {
+                    total += v.length;
+                }
+                final float[] all = new float[total];
+                int pos = 0;
+                for (final float[] v : values.get(f)) {
+                    System.arraycopy(v, 0, all, pos, v.length);
+                    pos += v.length;
+                }
+                Arrays.sort(all);
+                int nUnique = 0;
+                for (int i = 0; i < all.length; i++) {
+                    if (nUnique == 0 || all[i] > all[nUnique - 1]) {
+                        all[nUnique++] = all[i];
+                    }
+                }
+                thresholds[f] = ranker.makeThresholds(all, nUnique);
+            }
+
+            for (final DataOutputStream o : out) {
+                o.writeInt(DistributedWorker.THRESHOLDS);
+                for (final float[] threshold : thresholds) {
+                    DistributedWorker.writeFloats(o, threshold);
+                }
+                o.flush();
+            }
+            for (int w = 0; w < in.length; w++) {
+                final int nSamples = in[w].readInt();
+                final int q = queryCount[w];
+                final String address = addresses[w];
+                logger.info(() -> "Worker " + address + ": " + q + " queries, " + nSamples + " samples.");
+            }
+            return thresholds;
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error communicating with the workers: ", ex);
+        }
+    }
+
+    public int queryCount() {
+        int n = 0;
+        for (final int q : queryCount) {
+            n += q;
+        }
+        return n;
+    }
+
+    /**
+     * Have the workers compute the pseudo responses of their samples.
+     * @param root [Out] Histogram of all training samples with respect to the new pseudo responses.
+     * @param queryScores [Out] Score of each query under the current model.
+     */
+    public void computePseudoResponses(final FeatureHistogram root, final double[] queryScores) {
+        try {
+            broadcast(DistributedWorker.LAMBDAS);
+            clear(root);
+            int q = 0;
+            for (int w = 0; w < in.length; w++) {
+                final double[] scores = DistributedWorker.readDoubles(in[w]);
+                System.arraycopy(scores, 0, queryScores, q, scores.length);
+                q += scores.length;
+                DistributedWorker.readHistogram(in[w], root);
+            }
+            nodeCount = 1;//the root, which has id 0
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error communicating with the workers: ", ex);
+        }
+    }
+
+    /**
+     * @param queryScores [Out] Score of each query under the current model.
+     */
+    public void computeModelScoreOnTraining(final double[] queryScores) {
+        try {
+            broadcast(DistributedWorker.SCORE);
+            int q = 0;
+            for (int w = 0; w < in.length; w++) {
+                final double[] scores = DistributedWorker.readDoubles(in[w]);
+                System.arraycopy(scores, 0, queryScores, q, scores.length);
+                q += scores.length;
+            }
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error communicating with the workers: ", ex);
+        }
+    }
+
+    /**
+     * Fit a regression tree to the pseudo responses computed by the last call to
+     * {@link #computePseudoResponses(FeatureHistogram, double[])}, set its outputs and have the workers update their model scores.
+     * @param ranker
+     * @param rootHist
+     * @return
+     */
+    public RegressionTree fit(final LambdaMART ranker, final FeatureHistogram rootHist) {
+        final int minLeafSupport = LambdaMART.minLeafSupport;
+        final int nodes = LambdaMART.nTreeLeaves;
+        final List<Node> queue = new LinkedList<>();
+        final List<Node> leaves = new ArrayList<>();
+        final Node root = new Node(0, rootHist, Float.MAX_VALUE);
+
+        if (split(root, true, minLeafSupport)) {
+            insert(queue, root.left);
+            insert(queue, root.right);
+        } else {
+            leaves.add(root);
+        }
+
+        int taken = 0;
+        while ((nodes == -1 || taken + queue.size() < nodes) && queue.size() > 0) {
+            final Node leaf = queue.get(0);
+            queue.remove(0);
+
+            if (leaf.count < 2 * minLeafSupport || !split(leaf, false, minLeafSupport)) {
+                taken++;
+                leaves.add(leaf);
+            } else {
+                insert(queue, leaf.left);
+                insert(queue, leaf.right);
+            }
+        }
+        leaves.addAll(queue);
+
+        //leaf outputs
+        try {
+            final int[] ids = new int[leaves.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = leaves.get(i).id;
+            }
+            for (final DataOutputStream o : out) {
+                o.writeInt(DistributedWorker.LEAVES);
+                DistributedWorker.writeInts(o, ids);
+                o.flush();
+            }
+            final float[] s1 = new float[ids.length];
+            final float[] s2 = new float[ids.length];
+            final int[] c = new int[ids.length];
+            for (int w = 0; w < in.length; w++) {
+                for (int i = 0; i < ids.length; i++) {
+                    s1[i] += in[w].readFloat();
+                    s2[i] += in[w].readFloat();
+                    c[i] += in[w].readInt();
+                }
+            }
+            final double[] outputs = new double[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                final Split s = leaves.get(i).split;
+                s.setOutput((float) ranker.leafOutput(s1[i], s2[i], c[i]));
+                outputs[i] = s.getOutput();
+            }
+            for (final DataOutputStream o : out) {
+                o.writeInt(DistributedWorker.UPDATE);
+                DistributedWorker.writeInts(o, ids);
+                DistributedWorker.writeDoubles(o, outputs);
+                o.flush();
+            }
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error communicating with the workers: ", ex);
+        }
+        return new RegressionTree(root.split);
+    }
+
+    /**
+     * Same as {@link FeatureHistogram#findBestSplit(Split, double[], int)}, with the samples on the workers.
+     */
+    private boolean split(final Node node, final boolean isRoot, final int minLeafSupport) {
+        if (node.deviance >= 0.0 && node.deviance <= 0.0) {
+            return false;//no need to split
+        }
+        final FeatureHistogram hist = node.hist;
+        final FeatureHistogram.Config best = hist.findBestSplit(hist.sampleFeatures(), minLeafSupport);
+        if (best.S == -1) {
+            return false;
+        }
+
+        final int leftId = nodeCount++;
+        final int rightId = nodeCount++;
+        final FeatureHistogram lh = new FeatureHistogram();
+        lh.features = hist.features;
+        lh.thresholds = hist.thresholds;
+        lh.impacts = hist.impacts;
+        clear(lh);
+        try {
+            for (final DataOutputStream o : out) {
+                o.writeInt(DistributedWorker.SPLIT);
+                o.writeInt(node.id);
+                o.writeInt(best.featureIdx);
+                o.writeInt(best.thresholdIdx);
+                o.writeInt(leftId);
+                o.writeInt(rightId);
+                o.flush();
+            }
+            for (final DataInputStream i : in) {
+                DistributedWorker.readHistogram(i, lh);
+            }
+        } catch (final IOException ex) {
+            throw RankLibError.create("Error communicating with the workers: ", ex);
+        }
+        final FeatureHistogram rh = new FeatureHistogram();
+        rh.construct(hist, lh, !isRoot);
+
+        final Node left = new Node(leftId, lh, deviance(lh));
+        final Node right = new Node(rightId, rh, deviance(rh));
+        node.split.set(hist.features[best.featureIdx], hist.thresholds[best.featureIdx][best.thresholdIdx], deviance(hist));
+        node.split.setLeft(left.split);
+        node.split.setRight(right.split);
+        node.left = left;
+        node.right = right;
+        node.hist = null;
+        return true;
+    }
+
+    private static double deviance(final FeatureHistogram h) {
+        final int count = h.count[0][h.count[0].length - 1];
+        return h.sqSumResponse - h.sumResponse * h.sumResponse / count;
+    }
+
+    private static void insert(final List<Node> ls, final Node n) {
+        int i = 0;
+        while (i < ls.size() && ls.get(i).deviance > n.deviance) {
+            i++;
+        }
+        ls.add(i, n);
+    }
+
+    private static void clear(final FeatureHistogram h) {
+        h.sumResponse = 0;
+        h.sqSumResponse = 0;
+        h.sum = new double[h.features.length][];
+        h.count = new int[h.features.length][];
+        for (int f = 0; f < h.features.length; f++) {
+            h.sum[f] = new double[h.thresholds[f].length];
+            h.count[f] = new int[h.thresholds[f].length];
+        }
+    }
+
+    private void broadcast(final int op) throws IOException {
+        for (final DataOutputStream o : out) {
+            o.writeInt(op);
+            o.flush();
+        }
+    }
+
+    public void close() {
+        for (int w = 0; w < sockets.length; w++) {
+            try {
+                out[w].writeInt(DistributedWorker.CLOSE);
+                out[w].flush();
+                sockets[w].close();
+            } catch (final IOException ex) {
+                throw RankLibError.create("Error closing the connection to worker " + addresses[w], ex);
+            }
+        }
+    }
+}
@@ -36,6 +36,11 @@ public class APScorer extends MetricScorer {
         this.k = 0;//consider the whole list
     }
 
+    @Override
+    public int depth(final int size) {
+        return size;//AP has no cut-off
+    }
+
     @Override
     public MetricScorer copy() {
         return new APScorer();
@@ -94,21 +94,21 @@ public class ERRScorer extends MetricScorer {
         }
         //for(int i=0;i<rl.size()-1;i++)//ignore K, compute changes from the entire ranked list
         for (int i = 0; i < size; i++) {
-            final double v1 = 1.0 / (i + 1) * (i == 0 ? 1 : np[i - 1]);
-            double change = 0;
+            final double prev = (i == 0) ? 1 : np[i - 1];
+            final double v1 = 1.0 / (i + 1) * prev;
+            //sum over i < k < j of R[k] / (k + 1) * (1 - R[i+1]) ... (1 - R[k-1]), carried over from one j to the next so that each
+            //change takes O(1) instead of a loop over the documents between i and j
+            double between = 0;
+            double survival = 1.0;
             for (int j = i + 1; j < rl.size(); j++) {
-                if (labels[i] == labels[j]) {
-                    change = 0;
-                } else {
-                    change = v1 * (R[j] - R[i]);
-                    p = (i == 0 ? 1 : np[i - 1]) * (R[i] - R[j]);
-                    for (int k = i + 1; k < j; k++) {
-                        change += p * R[k] / (1 + k);
-                        p *= 1.0 - R[k];
-                    }
+                double change = 0;
+                if (labels[i] != labels[j]) {
+                    change = v1 * (R[j] - R[i]) + prev * (R[i] - R[j]) * between;
                     change += (np[j - 1] * (1.0 - R[j]) * R[i] / (1.0 - R[i]) - np[j - 1] * R[j]) / (j + 1);
                 }
                 changes[j][i] = changes[i][j] = change;
+                between += survival * R[j] / (j + 1);
+                survival *= 1.0 - R[j];
             }
         }
         return changes;
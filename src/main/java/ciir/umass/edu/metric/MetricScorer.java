@@ -39,6 +39,14 @@ public abstract class MetricScorer {
         return k;
     }
 
+    /**
+     * @param size Size of a ranked list.
+     * @return The number of top positions of the list its score depends on: documents below can be reordered without changing it.
+     */
+    public int depth(final int size) {
+        return (k > 0 && k < size) ? k : size;
+    }
+
     public void loadExternalRelevanceJudgment(final String qrelFile) {
 
     }
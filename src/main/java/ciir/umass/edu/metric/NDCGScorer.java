@@ -13,15 +13,16 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.utilities.FileUtils;
+import ciir.umass.edu.utilities.PrimitiveSorter;
 import ciir.umass.edu.utilities.RankLibError;
-import ciir.umass.edu.utilities.Sorter;
 
 /**
  * @author vdang
@@ -29,16 +30,16 @@ import ciir.umass.edu.utilities.Sorter;
 public class NDCGScorer extends DCGScorer {
     private static final Logger logger = Logger.getLogger(NDCGScorer.class.getName());
 
-    protected HashMap<String, Double> idealGains = null;
+    protected Map<String, Double> idealGains = null;//concurrent: score() may be called from several threads during training
 
     public NDCGScorer() {
         super();
-        idealGains = new HashMap<>();
+        idealGains = new ConcurrentHashMap<>();
     }
 
     public NDCGScorer(final int k) {
         super(k);
-        idealGains = new HashMap<>();
+        idealGains = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -165,7 +166,7 @@ public class NDCGScorer extends DCGScorer {
     }
 
     private double getIdealDCG(final int[] rel, final int topK) {
-        final int[] idx = Sorter.sort(rel, false);
+        final int[] idx = PrimitiveSorter.sort(rel, false);
         double dcg = 0;
         for (int i = 0; i < topK; i++) {
             dcg += gain(rel[idx[i]]) * discount(i);
@@ -83,6 +83,26 @@ public class FileUtils {
         return lines;
     }
 
+    /**
+     * Read the next lines of a data file, skipping empty lines and comment lines (starting with '#').
+     * @param in
+     * @param max Maximum number of lines to read.
+     * @return The trimmed lines: fewer than @max at the end of the file, none once it has been read entirely.
+     * @throws IOException
+     */
+    public static String[] readDataLines(final BufferedReader in, final int max) throws IOException {
+        final List<String> lines = new ArrayList<>(max);
+        String content = null;
+        while (lines.size() < max && (content = in.readLine()) != null) {
+            content = content.trim();
+            if (content.length() == 0 || content.indexOf('#') == 0) {
+                continue;
+            }
+            lines.add(content);
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
     /**
      * Write a text to a file.
      * @param filename The output filename.
@@ -13,6 +13,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  *
@@ -23,9 +24,16 @@ public class MyThreadPool extends ThreadPoolExecutor {
 
     private final Semaphore semaphore;
     private int size = 0;
+    //first exception thrown by a task since the last await(), which rethrows it
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
 
     private MyThreadPool(final int size) {
-        super(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        //daemon threads, so that an error on the main thread still ends the program
+        super(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+            final Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
         semaphore = new Semaphore(size, true);
         this.size = size;
     }
@@ -61,6 +69,10 @@ public class MyThreadPool extends ThreadPoolExecutor {
         return workers;
     }
 
+    /**
+     * Wait for all the tasks to finish. If any of them failed, its exception is thrown here (the first one, if several did), so that
+     * the caller doesn't go on with partial results.
+     */
     public void await() {
         for (int i = 0; i < size; i++) {
             try {
@@ -72,6 +84,12 @@ public class MyThreadPool extends ThreadPoolExecutor {
         for (int i = 0; i < size; i++) {
             semaphore.release();
         }
+        final Throwable t = failure.getAndSet(null);
+        if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw RankLibError.create((Exception) t);
+        }
     }
 
     public int[] partition(final int listSize) {
@@ -90,7 +108,13 @@ public class MyThreadPool extends ThreadPoolExecutor {
     public void execute(final Runnable task) {
         try {
             semaphore.acquire();
-            super.execute(task);
+            super.execute(() -> {
+                try {
+                    task.run();
+                } catch (final Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
         } catch (final Exception ex) {
             throw RankLibError.create("Error in MyThreadPool.execute(): ", ex);
         }
@@ -0,0 +1,233 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.utilities;
+
+/**
+ * Stable index sort (argsort) of primitive arrays. Keys are mapped to unsigned integers that preserve their order (descending order
+ * is obtained by complementing the keys, so ties still keep their original order) and then sorted with an LSD radix sort, one byte
+ * per pass. Passes over bytes that are the same for all keys are skipped. Short arrays are sorted with insertion sort instead.
+ *
+ * -0.0 and 0.0 are considered equal. NaN sorts after (ascending) or before (descending) every other value.
+ *
+ * The resulting order is the same as the one of {@link MergeSorter}.
+ */
+public class PrimitiveSorter {
+    private static final int INSERTION_SORT_THRESHOLD = 64;
+    private static final int RESORT_MOVES_PER_ITEM = 4;
+
+    public static int[] sort(final float[] list, final boolean asc) {
+        return sort(list, 0, list.length - 1, asc);
+    }
+
+    /**
+     * Sort list[begin..end].
+     * @param list
+     * @param begin
+     * @param end
+     * @param asc TRUE to sort ascendingly, FALSE to sort descendingly.
+     * @return The sorted indexes (in [begin..end]).
+     */
+    public static int[] sort(final float[] list, final int begin, final int end, final boolean asc) {
+        final int[] keys = new int[end - begin + 1];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(list[begin + i], asc);
+        }
+        return argsort(keys, begin);
+    }
+
+    public static int[] sort(final double[] list, final boolean asc) {
+        return sort(list, 0, list.length - 1, asc);
+    }
+
+    /**
+     * Sort list[begin..end].
+     * @param list
+     * @param begin
+     * @param end
+     * @param asc TRUE to sort ascendingly, FALSE to sort descendingly.
+     * @return The sorted indexes (in [begin..end]).
+     */
+    public static int[] sort(final double[] list, final int begin, final int end, final boolean asc) {
+        final long[] keys = new long[end - begin + 1];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(list[begin + i], asc);
+        }
+        return argsort(keys, begin);
+    }
+
+    /**
+     * Bring an index array sorted with respect to older values of list[begin..] back in order, e.g. after the values changed slightly.
+     * Insertion sort is used as long as the array is nearly sorted (linear time if it is still sorted). Once the number of moved
+     * items exceeds a budget linear in its length, the array is sorted from scratch instead. Either way, the result is the same as
+     * {@link #sort(double[], int, int, boolean)}.
+     * @param idx [In/Out] A permutation of [0..idx.length-1], relative to @begin.
+     * @param list
+     * @param begin
+     * @param asc TRUE to sort ascendingly, FALSE to sort descendingly.
+     */
+    public static void resort(final int[] idx, final double[] list, final int begin, final boolean asc) {
+        final int n = idx.length;
+        final int budget = RESORT_MOVES_PER_ITEM * n;
+        int moves = 0;
+        for (int i = 1; i < n; i++) {
+            final int id = idx[i];
+            final long k = key(list[begin + id], asc);
+            int j = i - 1;
+            for (; j >= 0; j--) {
+                final int c = Long.compareUnsigned(key(list[begin + idx[j]], asc), k);
+                if (c < 0 || (c == 0 && idx[j] < id)) {
+                    break;
+                }
+                idx[j + 1] = idx[j];
+                moves++;
+            }
+            idx[j + 1] = id;
+            if (moves > budget) {
+                final int[] sorted = sort(list, begin, begin + n - 1, asc);
+                for (int t = 0; t < n; t++) {
+                    idx[t] = sorted[t] - begin;
+                }
+                return;
+            }
+        }
+    }
+
+    public static int[] sort(final int[] list, final boolean asc) {
+        final int[] keys = new int[list.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = list[i] ^ Integer.MIN_VALUE;
+            if (!asc) {
+                keys[i] = ~keys[i];
+            }
+        }
+        return argsort(keys, 0);
+    }
+
+    private static int key(final float v, final boolean asc) {
+        final int bits = Float.floatToIntBits(v == 0f ? 0f : v);//also maps all NaNs to the same value
+        final int key = bits ^ ((bits >> 31) | Integer.MIN_VALUE);//flip the sign bit of positive numbers, all bits of negative ones
+        return asc ? key : ~key;
+    }
+
+    private static long key(final double v, final boolean asc) {
+        final long bits = Double.doubleToLongBits(v == 0.0 ? 0.0 : v);
+        final long key = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+        return asc ? key : ~key;
+    }
+
+    /**
+     * Sort @keys as unsigned integers (in place) and return the original position of each sorted key, plus @offset.
+     */
+    private static int[] argsort(int[] keys, final int offset) {
+        final int n = keys.length;
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) {
+            idx[i] = i + offset;
+        }
+        if (n <= INSERTION_SORT_THRESHOLD) {
+            for (int i = 1; i < n; i++) {
+                final int k = keys[i];
+                final int id = idx[i];
+                int j = i - 1;
+                for (; j >= 0 && Integer.compareUnsigned(keys[j], k) > 0; j--) {
+                    keys[j + 1] = keys[j];
+                    idx[j + 1] = idx[j];
+                }
+                keys[j + 1] = k;
+                idx[j + 1] = id;
+            }
+            return idx;
+        }
+
+        final int[][] count = new int[4][257];
+        for (final int k : keys) {
+            for (int p = 0; p < 4; p++) {
+                count[p][((k >>> (p << 3)) & 0xFF) + 1]++;
+            }
+        }
+        int[] tmpKeys = new int[n];
+        int[] tmpIdx = new int[n];
+        for (int p = 0; p < 4; p++) {
+            final int shift = p << 3;
+            final int[] c = count[p];
+            if (c[((keys[0] >>> shift) & 0xFF) + 1] == n) {
+                continue;//all keys have the same byte here
+            }
+            for (int d = 0; d < 256; d++) {
+                c[d + 1] += c[d];
+            }
+            for (int i = 0; i < n; i++) {
+                final int pos = c[(keys[i] >>> shift) & 0xFF]++;
+                tmpKeys[pos] = keys[i];
+                tmpIdx[pos] = idx[i];
+            }
+            final int[] t = keys;
+            keys = tmpKeys;
+            tmpKeys = t;
+            final int[] ti = idx;
+            idx = tmpIdx;
+            tmpIdx = ti;
+        }
+        return idx;
+    }
+
+    private static int[] argsort(long[] keys, final int offset) {
+        final int n = keys.length;
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) {
+            idx[i] = i + offset;
+        }
+        if (n <= INSERTION_SORT_THRESHOLD) {
+            for (int i = 1; i < n; i++) {
+                final long k = keys[i];
+                final int id = idx[i];
+                int j = i - 1;
+                for (; j >= 0 && Long.compareUnsigned(keys[j], k) > 0; j--) {
+                    keys[j + 1] = keys[j];
+                    idx[j + 1] = idx[j];
+                }
+                keys[j + 1] = k;
+                idx[j + 1] = id;
+            }
+            return idx;
+        }
+
+        final int[][] count = new int[8][257];
+        for (final long k : keys) {
+            for (int p = 0; p < 8; p++) {
+                count[p][(int) ((k >>> (p << 3)) & 0xFF) + 1]++;
+            }
+        }
+        long[] tmpKeys = new long[n];
+        int[] tmpIdx = new int[n];
+        for (int p = 0; p < 8; p++) {
+            final int shift = p << 3;
+            final int[] c = count[p];
+            if (c[(int) ((keys[0] >>> shift) & 0xFF) + 1] == n) {
+                continue;//all keys have the same byte here
+            }
+            for (int d = 0; d < 256; d++) {
+                c[d + 1] += c[d];
+            }
+            for (int i = 0; i < n; i++) {
+                final int pos = c[(int) ((keys[i] >>> shift) & 0xFF)]++;
+                tmpKeys[pos] = keys[i];
+                tmpIdx[pos] = idx[i];
+            }
+            final long[] t = keys;
+            keys = tmpKeys;
+            tmpKeys = t;
+            final int[] ti = idx;
+            idx = tmpIdx;
+            tmpIdx = ti;
+        }
+        return idx;
+    }
+}
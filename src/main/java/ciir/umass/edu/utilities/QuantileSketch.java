@@ -0,0 +1,253 @@
+/*===============================================================================
+ * Copyright (c) 2010-2012 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.utilities;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Streaming quantile sketch (KLL: Karnin, Lang and Liberty. Optimal quantile approximation in streams. FOCS 2016). Values are added
+ * one at a time, in any order, and the sketch keeps O(k) of them: level h holds items of weight 2^h, and when a level is full it is
+ * sorted and every other item is promoted to the next level. The rank error of {@link #quantiles(int)} is in the order of 1/k of the
+ * number of values.
+ *
+ * Compactions use a seeded random generator, so the same stream always gives the same quantiles.
+ */
+public class QuantileSketch {
+    private static final double DECAY = 2.0 / 3.0;//capacity ratio between a level and the one above it
+
+    private final int k;
+    private final Random random = new Random(17);
+    private float[][] levels = new float[1][];
+    private int[] size = new int[1];
+    private long count = 0;
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+
+    /**
+     * @param k Capacity of the top level. Larger means more accurate (and more memory).
+     */
+    public QuantileSketch(final int k) {
+        this.k = Math.max(k, 8);
+        levels[0] = new float[this.k];
+    }
+
+    public void update(final float value) {
+        insert(0, value);
+        count++;
+        track(value);
+        compress();
+    }
+
+    /**
+     * Add @value @weight times.
+     * @param value
+     * @param weight
+     */
+    public void update(final float value, final long weight) {
+        if (weight <= 0) {
+            return;
+        }
+        //one item at each level whose bit is set in @weight
+        for (int h = 0; h < 63; h++) {
+            if ((weight & (1L << h)) != 0) {
+                insert(h, value);
+            }
+        }
+        count += weight;
+        track(value);
+        compress();
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public float min() {
+        return min;
+    }
+
+    public float max() {
+        return max;
+    }
+
+    /**
+     * @param n
+     * @return The values at ranks 0, 1/n, ..., (n-1)/n of the stream (the first one is the min), in ascending order. Consecutive
+     * quantiles may be equal.
+     */
+    public float[] quantiles(final int n) {
+        final float[] q = new float[n];
+        if (count == 0) {
+            return q;
+        }
+
+        //all retained items with their weights, in ascending order
+        int m = 0;
+        for (int h = 0; h < levels.length; h++) {
+            m += size[h];
+        }
+        final float[] values = new float[m];
+        final long[] weights = new long[m];
+        int i = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int j = 0; j < size[h]; j++) {
+                values[i] = levels[h][j];
+                weights[i++] = 1L << h;
+            }
+        }
+        final int[] idx = PrimitiveSorter.sort(values, true);
+
+        q[0] = min;
+        long cumulative = 0;
+        int pos = 0;
+        for (int j = 1; j < n; j++) {
+            final double rank = (double) j * count / n;
+            while (pos < m && cumulative + weights[idx[pos]] <= rank) {
+                cumulative += weights[idx[pos]];
+                pos++;
+            }
+            q[j] = (pos < m) ? values[idx[pos]] : max;
+        }
+        return q;
+    }
+
+    /**
+     * Boundaries that split the stream into about @n groups of about the same size, for binning: values that make up at least 1/n of
+     * the stream by themselves (e.g. a default value of 0) get a group of their own, and the other values are split into groups of
+     * equal frequency. Unlike {@link #quantiles(int)}, a few very frequent values therefore don't use up most of the groups.
+     * @param n
+     * @return Distinct values in ascending order: the last value of each group (the last one is the max).
+     */
+    public float[] splitPoints(final int n) {
+        if (count == 0) {
+            return new float[0];
+        }
+
+        //distinct retained values with their total weights, in ascending order
+        int m = 0;
+        for (int h = 0; h < levels.length; h++) {
+            m += size[h];
+        }
+        final float[] values = new float[m];
+        final long[] itemWeights = new long[m];
+        int i = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int j = 0; j < size[h]; j++) {
+                values[i] = levels[h][j];
+                itemWeights[i++] = 1L << h;
+            }
+        }
+        final int[] idx = PrimitiveSorter.sort(values, true);
+        final float[] distinct = new float[m];
+        final long[] weights = new long[m];
+        int nd = 0;
+        for (final int item : idx) {
+            if (nd > 0 && values[item] <= distinct[nd - 1]) {
+                weights[nd - 1] += itemWeights[item];
+            } else {
+                distinct[nd] = values[item];
+                weights[nd++] = itemWeights[item];
+            }
+        }
+
+        final double heavy = (double) count / n;
+        long rest = count;
+        int nHeavy = 0;
+        for (int j = 0; j < nd; j++) {
+            if (weights[j] >= heavy) {
+                rest -= weights[j];
+                nHeavy++;
+            }
+        }
+        final double target = (double) rest / Math.max(1, n - nHeavy);
+
+        final float[] points = new float[nd];
+        int np = 0;
+        long acc = 0;
+        for (int j = 0; j < nd; j++) {
+            final boolean isHeavy = weights[j] >= heavy;
+            if (!isHeavy) {
+                acc += weights[j];
+            }
+            if (isHeavy || j == nd - 1 || weights[j + 1] >= heavy || acc >= target) {
+                points[np++] = distinct[j];
+                acc = 0;
+            }
+        }
+        return Arrays.copyOf(points, np);
+    }
+
+    private void track(final float value) {
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    private int capacity(final int h) {
+        return Math.max(2, (int) Math.ceil(k * Math.pow(DECAY, levels.length - 1 - h)));
+    }
+
+    private void insert(final int h, final float value) {
+        while (h >= levels.length) {
+            levels = Arrays.copyOf(levels, levels.length + 1);
+            size = Arrays.copyOf(size, size.length + 1);
+            levels[levels.length - 1] = new float[8];
+        }
+        if (size[h] == levels[h].length) {
+            levels[h] = Arrays.copyOf(levels[h], levels[h].length * 2);
+        }
+        levels[h][size[h]++] = value;
+    }
+
+    private void compress() {
+        while (true) {
+            int total = 0;
+            int totalCapacity = 0;
+            for (int h = 0; h < levels.length; h++) {
+                total += size[h];
+                totalCapacity += capacity(h);
+            }
+            if (total < totalCapacity) {
+                return;
+            }
+            for (int h = 0; h < levels.length; h++) {
+                if (size[h] >= capacity(h)) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Promote every other item of level @h (after sorting it) to level h+1. With an odd number of items, the largest one stays.
+     */
+    private void compact(final int h) {
+        final float[] level = levels[h];
+        final int n = size[h];
+        Arrays.sort(level, 0, n);
+        final int pairs = n / 2;
+        final int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = 0; i < pairs; i++) {
+            insert(h + 1, level[2 * i + offset]);
+        }
+        //insert() may have grown @levels, but not this level's array
+        if (n % 2 == 1) {
+            level[0] = level[n - 1];
+            size[h] = 1;
+        } else {
+            size[h] = 0;
+        }
+    }
+}
@@ -1,18 +1,50 @@
 package ciir.umass.edu.eval;
 
+import ciir.umass.edu.features.FeatureManager;
+import ciir.umass.edu.learning.Checkpointer;
 import ciir.umass.edu.learning.CoorAscent;
 import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.LinearRegRank;
+import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.learning.Ranker;
 import ciir.umass.edu.learning.RankerFactory;
+import ciir.umass.edu.learning.neuralnet.DenseLambdaRank;
+import ciir.umass.edu.learning.neuralnet.DenseListNet;
+import ciir.umass.edu.learning.neuralnet.DenseRankNet;
+import ciir.umass.edu.learning.neuralnet.LambdaRank;
+import ciir.umass.edu.learning.neuralnet.ListNet;
+import ciir.umass.edu.learning.neuralnet.RankNet;
+import ciir.umass.edu.learning.tree.DistributedWorker;
+import ciir.umass.edu.learning.tree.FeatureHistogram;
+import ciir.umass.edu.learning.tree.LambdaMART;
 import ciir.umass.edu.utilities.FileUtils;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.TmpFile;
+import org.junit.After;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Random;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -204,7 +236,538 @@ public class EvaluatorTest {
     }
   }
 
-  private void testRanker(TmpFile dataFile, TmpFile modelFile, TmpFile rankFile, int rnum, String measure) {
+  // The dense nets don't learn this data reliably in 10 epochs (RankNet and LambdaRank don't either, see above). Their models are
+  // saved in the format of the object-graph nets, so check that they load as those and score like the dense nets themselves.
+  @Test
+  public void testDenseRankNet() throws IOException {
+    testDenseNet(10, RankNet.class, new DenseRankNet());
+  }
+  @Test
+  public void testDenseLambdaRank() throws IOException {
+    testDenseNet(11, LambdaRank.class, new DenseLambdaRank());
+  }
+  @Test
+  public void testDenseListNet() throws IOException {
+    testDenseNet(12, ListNet.class, new DenseListNet());
+  }
+
+  private void testDenseNet(int rnum, Class<? extends Ranker> loadedAs, Ranker dense) throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile modelFile = new TmpFile()
+    ) {
+      writeRandomData(dataFile);
+      train(dataFile, modelFile, rnum, "map");
+
+      Ranker model = new RankerFactory().loadRankerFromFile(modelFile.getPath());
+      assertEquals(loadedAs, model.getClass());
+      dense.loadFromString(FileUtils.read(modelFile.getPath(), "UTF-8"));
+      for (RankList rl : FeatureManager.readInput(dataFile.getPath())) {
+        for (int i = 0; i < rl.size(); i++) {
+          double score = model.eval(rl.get(i));
+          assertTrue(Double.isFinite(score));
+          assertEquals(dense.eval(rl.get(i)), score, 1e-9);
+        }
+      }
+    }
+  }
+
+  // The training options below are static fields, set by Evaluator.main and never reset: put them back for the next tests.
+  private static final int N_TREES = LambdaMART.nTrees;
+  private static final int N_TREE_LEAVES = LambdaMART.nTreeLeaves;
+  private static final float GOSS_TOP_RATE = LambdaMART.gossTopRate;
+  private static final float GOSS_OTHER_RATE = LambdaMART.gossOtherRate;
+  private static final float LEARNING_RATE = LambdaMART.learningRate;
+  private static final int N_THRESHOLD = LambdaMART.nThreshold;
+  private static final int MIN_LEAF_SUPPORT = LambdaMART.minLeafSupport;
+  private static final int N_ROUND_TO_STOP_EARLY = LambdaMART.nRoundToStopEarly;
+  private static final float QUERY_SAMPLING_RATE = LambdaMART.querySamplingRate;
+  private static final float FEATURE_SAMPLING_RATE = FeatureHistogram.samplingRate;
+  private static final int CHECKPOINT_INTERVAL = Checkpointer.interval;
+  private static final int BATCH_SIZE = DenseRankNet.batchSize;
+
+  @After
+  public void resetOptions() {
+    Evaluator.useSparseRepresentation = false;
+    LambdaMART.nTrees = N_TREES;
+    LambdaMART.nTreeLeaves = N_TREE_LEAVES;
+    LambdaMART.gossTopRate = GOSS_TOP_RATE;
+    LambdaMART.gossOtherRate = GOSS_OTHER_RATE;
+    LambdaMART.learningRate = LEARNING_RATE;
+    LambdaMART.nThreshold = N_THRESHOLD;
+    LambdaMART.minLeafSupport = MIN_LEAF_SUPPORT;
+    LambdaMART.nRoundToStopEarly = N_ROUND_TO_STOP_EARLY;
+    LambdaMART.querySamplingRate = QUERY_SAMPLING_RATE;
+    LambdaMART.quantileThresholds = false;
+    FeatureHistogram.samplingRate = FEATURE_SAMPLING_RATE;
+    LambdaMART.pipelined = false;
+    LambdaMART.binDir = null;
+    LambdaMART.streamFile = null;
+    LambdaMART.streamSparse = false;
+    LambdaMART.bundle = false;
+    LambdaMART.warmStartModel = null;
+    LambdaMART.workers = null;
+    LambdaMART.categoricalFeatures = null;
+    LambdaMART.learnMissing = false;
+    Checkpointer.checkpointFile = null;
+    Checkpointer.interval = CHECKPOINT_INTERVAL;
+    Checkpointer.resume = false;
+    CoorAscent.parallelRestarts = false;
+    CoorAscent.exactLineSearch = false;
+    DataPoint.missingZero = false;
+    LinearRegRank.streamFile = null;
+    DenseRankNet.batchSize = BATCH_SIZE;
+    DenseRankNet.hogwild = false;
+  }
+
+  // A document lacks feature 2, so reading it fails on whichever pool thread gets it: training must fail rather than hang or go on
+  // without that thread's share of the work.
+  @Test
+  public void testCoorAscentTaskError() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile modelFile = new TmpFile()
+    ) {
+      writeIncompleteData(dataFile);
+      assertTrainingFails(dataFile, modelFile, 4, "-thread", "4", "-r", "2", "-rparallel");
+      assertTrainingFails(dataFile, modelFile, 4, "-thread", "4", "-linesearch");
+    }
+  }
+
+  @Test
+  public void testAdaRankTaskError() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile modelFile = new TmpFile()
+    ) {
+      writeIncompleteData(dataFile);
+      assertTrainingFails(dataFile, modelFile, 3, "-thread", "4");
+    }
+  }
+
+  @Test
+  public void testDenseRankNetTaskError() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile completeFile = new TmpFile();
+         TmpFile modelFile = new TmpFile()
+    ) {
+      writeIncompleteData(dataFile);
+      assertTrainingFails(dataFile, modelFile, 10, "-thread", "4", "-epoch", "1", "-batch", "4");
+      assertTrainingFails(dataFile, modelFile, 10, "-thread", "4", "-epoch", "1", "-batch", "4", "-hogwild");
+      //online training reads the documents itself, but ranks the validation data on the pool
+      writeRandomDataCount(completeFile, 10, 10);
+      assertTrainingFails(completeFile, modelFile, 10, "-thread", "4", "-epoch", "1", "-validate", dataFile.getPath());
+    }
+  }
+
+  @Test
+  public void testLinearRegTaskError() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile streamed = new TmpFile()
+    ) {
+      writeIncompleteData(dataFile);
+      assertTrainingFails(dataFile, model, 9, "-thread", "4");
+      //streamed, the features are only known at the end of the file
+      assertThrows(RankLibError.class, () -> trainRanker(dataFile, model, 9, "-thread", "4", "-stream"));
+
+      //both read the missing feature as 0 with -missingZero (still set for scoring)
+      trainRanker(dataFile, model, 9, "-thread", "4", "-missingZero");
+      trainRanker(dataFile, streamed, 9, "-thread", "4", "-missingZero", "-stream");
+      assertArrayEquals(scores(model, dataFile), scores(streamed, dataFile), 1e-9);
+    }
+  }
+
+  // Trees that don't need a given option must come out the same without it.
+  @Test
+  public void testLambdaMARTSparse() throws IOException {
+    try (TmpFile denseFile = new TmpFile();
+         TmpFile sparseFile = new TmpFile();
+         TmpFile denseModel = new TmpFile();
+         TmpFile sparseModel = new TmpFile()
+    ) {
+      writeTreeData(denseFile, false);
+      writeTreeData(sparseFile, true);
+      trainTrees(denseFile, denseModel);
+      trainTrees(sparseFile, sparseModel, "-sparse");
+      //thresholds may differ where several are equally good, but not how they split the training data
+      assertArrayEquals(scores(denseModel, denseFile), scores(sparseModel, denseFile), 1e-9);
+    }
+  }
+
+  @Test
+  public void testLambdaMARTQueryRateOne() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile allQueries = new TmpFile()
+    ) {
+      writeTreeData(dataFile, false);
+      trainTrees(dataFile, model);
+      trainTrees(dataFile, allQueries, "-qrate", "1");
+      assertEquals(read(model), read(allQueries));
+    }
+  }
+
+  @Test
+  public void testLambdaMARTValidationThreads() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model1 = new TmpFile();
+         TmpFile model4 = new TmpFile()
+    ) {
+      writeTreeData(dataFile, false);
+      trainTrees(dataFile, model1, "-validate", dataFile.getPath(), "-thread", "1");
+      trainTrees(dataFile, model4, "-validate", dataFile.getPath(), "-thread", "4");
+      assertEquals(read(model1), read(model4));
+    }
+  }
+
+  @Test
+  public void testLambdaMARTPipeline() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile pipelined1 = new TmpFile();
+         TmpFile pipelined4 = new TmpFile()
+    ) {
+      writeTreeData(dataFile, false);
+      trainTrees(dataFile, model, "-validate", dataFile.getPath(), "-thread", "1");
+      trainTrees(dataFile, pipelined1, "-validate", dataFile.getPath(), "-thread", "1", "-pipeline");
+      trainTrees(dataFile, pipelined4, "-validate", dataFile.getPath(), "-thread", "4", "-pipeline");
+      assertEquals(read(model), read(pipelined1));
+      //with several threads, histogram sums are added up in a different order
+      assertArrayEquals(scores(model, dataFile), scores(pipelined4, dataFile), 1e-4);
+    }
+  }
+
+  @Test
+  public void testLambdaMARTPipelineStopsEarly() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile validationFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile pipelined = new TmpFile()
+    ) {
+      writeTreeData(dataFile, false);
+      //the same documents with random labels: the score on them soon stops improving
+      Random rand = new Random(7);
+      try (PrintWriter out = validationFile.getWriter()) {
+        for (String line : FileUtils.readLine(dataFile.getPath(), "ASCII")) {
+          out.println(rand.nextInt(3) + line.substring(line.indexOf(' ')));
+        }
+      }
+      List<String> log = roundLog(() -> trainTrees(dataFile, model,
+          "-validate", validationFile.getPath(), "-thread", "1", "-tree", "60", "-estop", "3"));
+      List<String> pipelinedLog = roundLog(() -> trainTrees(dataFile, pipelined,
+          "-validate", validationFile.getPath(), "-thread", "1", "-tree", "60", "-estop", "3", "-pipeline"));
+      //the header line and one line per round, up to the one that stops training
+      assertTrue(log.size() < 1 + 60);
+      assertEquals(log, pipelinedLog);
+      assertEquals(read(model), read(pipelined));
+    }
+  }
+
+  @Test
+  public void testOutOfCore() throws IOException {
+    Path binDir = Files.createTempDirectory("ranklib");
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile outOfCore = new TmpFile()
+    ) {
+      writeTreeData(dataFile, false);
+      for (int rnum : new int[] { 0, 6 }) {
+        trainRanker(dataFile, model, rnum, "-tree", "10", "-leaf", "4", "-validate", dataFile.getPath(), "-thread", "4");
+        trainRanker(dataFile, outOfCore, rnum, "-tree", "10", "-leaf", "4", "-validate", dataFile.getPath(), "-thread", "4",
+            "-ooc", binDir.toString());
+        assertEquals(read(model), read(outOfCore));
+        resetOptions();
+      }
+    } finally {
+      try (Stream<Path> files = Files.walk(binDir)) {
+        files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  public void testLambdaMARTWorkers() throws Exception {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile distributed = new TmpFile();
+         ServerSocket server = new ServerSocket(0)
+    ) {
+      writeTreeData(dataFile, false);
+      trainTrees(dataFile, model, "-thread", "1");
+
+      //a single worker holding all the data, in a thread of its own
+      List<RankList> samples = FeatureManager.readInput(dataFile.getPath());
+      Thread worker = new Thread(() -> {
+        try (Socket socket = server.accept()) {
+          DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+          new DistributedWorker(samples).serve(in, out);
+        } catch (IOException ex) {
+          throw new RuntimeException(ex);
+        }
+      });
+      worker.start();
+      trainTrees(dataFile, distributed, "-thread", "1", "-workers", "localhost:" + server.getLocalPort());
+      worker.join();
+      assertEquals(read(model), read(distributed));
+    }
+  }
+
+  @Test
+  public void testLambdaMARTBundle() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile bundled = new TmpFile()
+    ) {
+      //feature 4 one-hot encoded as features 5 to 8 as well, which can all go into one column
+      try (TmpFile treeData = new TmpFile()) {
+        writeTreeData(treeData, false);
+        try (PrintWriter out = dataFile.getWriter()) {
+          for (String line : FileUtils.readLine(treeData.getPath(), "ASCII")) {
+            int category = Math.round(Math.abs(Float.parseFloat(line.substring(line.lastIndexOf(':') + 1))));
+            out.print(line);
+            for (int c = 0; c < 4; c++) {
+              out.print(" " + (5 + c) + ":" + ((c == category) ? 1 : 0));
+            }
+            out.println();
+          }
+        }
+      }
+      trainTrees(dataFile, model);
+      trainTrees(dataFile, bundled, "-bundle");
+      //the default bins are derived by subtraction, so equally good thresholds may differ as with -sparse
+      assertArrayEquals(scores(model, dataFile), scores(bundled, dataFile), 1e-9);
+    }
+  }
+
+  @Test
+  public void testLambdaMARTWarmStart() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile first = new TmpFile();
+         TmpFile warm = new TmpFile()
+    ) {
+      writeTreeData(dataFile, false);
+      trainTrees(dataFile, model);
+      trainTrees(dataFile, first, "-tree", "4");
+      trainTrees(dataFile, warm, "-tree", "6", "-warm", first.getPath());
+      //4 + 6 trees, as if they had been trained in one go
+      assertArrayEquals(scores(model, dataFile), scores(warm, dataFile), 0);
+    }
+  }
+
+  @Test
+  public void testLambdaMARTResume() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile interrupted = new TmpFile();
+         TmpFile resumed = new TmpFile();
+         TmpFile checkpoint = new TmpFile()
+    ) {
+      writeTreeData(dataFile, false);
+      trainTrees(dataFile, model, "-validate", dataFile.getPath());
+      assertTrue(checkpoint.get().delete());
+      //stops after 6 of the 10 rounds, with a checkpoint every 3 rounds
+      trainTrees(dataFile, interrupted, "-validate", dataFile.getPath(), "-tree", "6",
+          "-checkpoint", checkpoint.getPath(), "-checkpointEvery", "3");
+      assertTrue(checkpoint.get().exists());
+      trainTrees(dataFile, resumed, "-validate", dataFile.getPath(),
+          "-checkpoint", checkpoint.getPath(), "-checkpointEvery", "3", "-resume");
+      assertEquals(read(model), read(resumed));
+    }
+  }
+
+  @Test
+  public void testRFResume() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile interrupted = new TmpFile();
+         TmpFile resumed = new TmpFile();
+         TmpFile checkpoint = new TmpFile()
+    ) {
+      writeTreeData(dataFile, false);
+      assertTrue(checkpoint.get().delete());
+      //stops after 3 of the 5 bags, with a checkpoint every 2 bags
+      trainRanker(dataFile, interrupted, 8, "-bag", "3", "-leaf", "4",
+          "-checkpoint", checkpoint.getPath(), "-checkpointEvery", "2");
+      String saved = read(checkpoint);
+      assertTrue(saved.contains("## No. of bags = 2\n"));
+      trainRanker(dataFile, resumed, 8, "-bag", "5", "-leaf", "4",
+          "-checkpoint", checkpoint.getPath(), "-checkpointEvery", "2", "-resume");
+      //bags are sampled at random: only resuming keeps the first two
+      String model = read(resumed);
+      assertTrue(model.contains("## No. of bags = 5\n"));
+      assertEquals(5, model.split("<ensemble>", -1).length - 1);
+      assertTrue(model.contains(saved.substring(saved.indexOf("<ensemble>"))));
+    }
+  }
+
+  @Test
+  public void testLambdaMARTCategorical() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile categorical = new TmpFile()
+    ) {
+      writeTreeData(dataFile, false);
+      trainTrees(dataFile, model);
+      trainTrees(dataFile, categorical, "-categorical", "4");
+      assertFalse(read(model).contains("<categories>"));
+      assertTrue(read(categorical).contains("<categories>"));
+
+      //the less relevant categories (0 and 2) go left: -0 and 0 are one category there, as when the trees were trained
+      assertTrue(read(categorical).contains("<categories> 0.0 2.0 </categories>"));
+      Ranker ranker = new RankerFactory().loadRankerFromFile(categorical.getPath());
+      for (RankList rl : FeatureManager.readInput(dataFile.getPath())) {
+        for (int i = 0; i < rl.size(); i++) {
+          DataPoint dp = rl.get(i);
+          if (dp.getFeatureValue(4) == 0) {
+            double score = ranker.eval(dp);
+            dp.setFeatureValue(4, -0F);
+            assertEquals(score, ranker.eval(dp), 0);
+            dp.setFeatureValue(4, 0F);
+            assertEquals(score, ranker.eval(dp), 0);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLambdaMARTLearnMissing() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile model = new TmpFile();
+         TmpFile dense = new TmpFile();
+         TmpFile sparse = new TmpFile()
+    ) {
+      writeTreeData(dataFile, true);
+      synchronized (DataPoint.class) {
+        DataPoint.missingZero = true;
+        try {
+          trainTrees(dataFile, model);
+        } finally {
+          DataPoint.missingZero = false;
+        }
+      }
+      trainTrees(dataFile, dense, "-learnMissing");
+      trainTrees(dataFile, sparse, "-learnMissing", "-sparse");
+      assertFalse(read(model).contains("<missing>"));
+      assertTrue(read(dense).contains("<missing>"));
+      //as in testLambdaMARTSparse, equally good thresholds may differ
+      assertArrayEquals(scores(dense, dataFile), scores(sparse, dataFile), 1e-9);
+    }
+  }
+
+  // Feature 1 follows the label, 2 is noise, 3 is 0 (absent from sparse data) for most documents and 4 is a category id (documents of
+  // the odd categories are more relevant).
+  void writeTreeData(TmpFile dataFile, boolean sparse) throws IOException {
+    try (PrintWriter out = dataFile.getWriter()) {
+      Random rand = new Random(42);
+      for (int q = 0; q < 20; q++) {
+        for (int i = 0; i < 15; i++) {
+          int category = rand.nextInt(4);
+          int label = (category % 2 == 1) ? 1 + rand.nextInt(2) : rand.nextInt(2);
+          float f3 = (rand.nextInt(3) == 0) ? label + rand.nextInt(10) / 10F : 0;
+          out.print(label + " qid:" + q);
+          out.print(String.format(Locale.ROOT, " 1:%.2f 2:%.2f", label * 0.3 + rand.nextFloat(), rand.nextFloat()));
+          if (!sparse || f3 != 0) {
+            out.print(" 3:" + f3);
+          }
+          out.println(" 4:" + ((category == 0 && rand.nextBoolean()) ? "-0" : Integer.toString(category)));
+        }
+      }
+    }
+  }
+
+  void writeIncompleteData(TmpFile dataFile) throws IOException {
+    try (PrintWriter out = dataFile.getWriter()) {
+      for (int q = 0; q < 10; q++) {
+        for (int i = 0; i < 10; i++) {
+          out.println("1 qid:" + q + " 1:1.0 2:" + (i % 3) + " # P" + i);
+          out.println("0 qid:" + q + " 1:0.9 2:" + (i % 2) + " # N" + i);
+        }
+      }
+      out.println("0 qid:9 1:0.9 # N10");
+    }
+  }
+
+  // Training must fail with the error of the pool task that read the incomplete document, rather than with a later one (it would then
+  // have gone on without the work of that task).
+  private static void assertTrainingFails(TmpFile dataFile, TmpFile modelFile, int rnum, String... options) {
+    String[] args = trainArgs(dataFile, modelFile, rnum, options);
+    RankLibError error;
+    synchronized (DataPoint.class) {
+      error = assertThrows(RankLibError.class, () -> Evaluator.main(args));
+    }
+    assertTrue(Arrays.stream(error.getStackTrace()).anyMatch(e -> e.getClassName().equals(MyThreadPool.class.getName())));
+  }
+
+  private static void trainTrees(TmpFile dataFile, TmpFile modelFile, String... options) {
+    List<String> args = new ArrayList<>(Arrays.asList("-metric2t", "NDCG@10", "-tree", "10", "-leaf", "4"));
+    args.addAll(Arrays.asList(options));
+    trainRanker(dataFile, modelFile, 6, args.toArray(new String[args.size()]));
+  }
+
+  private static void trainRanker(TmpFile dataFile, TmpFile modelFile, int rnum, String... options) {
+    String[] args = trainArgs(dataFile, modelFile, rnum, options);
+    synchronized (DataPoint.class) {
+      Evaluator.main(args);
+    }
+  }
+
+  private static String[] trainArgs(TmpFile dataFile, TmpFile modelFile, int rnum, String... options) {
+    List<String> args = new ArrayList<>(Arrays.asList(
+        "-train", dataFile.getPath(),
+        "-ranker", Integer.toString(rnum),
+        "-save", modelFile.getPath()));
+    args.addAll(Arrays.asList(options));
+    return args.toArray(new String[args.size()]);
+  }
+
+  private static double[] scores(TmpFile modelFile, TmpFile dataFile) {
+    Ranker ranker = new RankerFactory().loadRankerFromFile(modelFile.getPath());
+    List<Double> scores = new ArrayList<>();
+    for (RankList rl : FeatureManager.readInput(dataFile.getPath())) {
+      for (int i = 0; i < rl.size(); i++) {
+        scores.add(ranker.eval(rl.get(i)));
+      }
+    }
+    return scores.stream().mapToDouble(Double::doubleValue).toArray();
+  }
+
+  /**
+   * @return The table lines that @training logs, one per boosting round.
+   */
+  private static List<String> roundLog(Runnable training) {
+    List<String> lines = new ArrayList<>();
+    Handler handler = new Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        String message = record.getMessage();
+        if (message != null && message.contains(" | ")) {
+          lines.add(message);
+        }
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    Logger logger = Logger.getLogger("ciir.umass.edu.learning.Ranker");
+    logger.addHandler(handler);
+    try {
+      training.run();
+    } finally {
+      logger.removeHandler(handler);
+    }
+    return lines;
+  }
+
+  private static String read(TmpFile file) {
+    return FileUtils.read(file.getPath(), "UTF-8");
+  }
+
+  private void train(TmpFile dataFile, TmpFile modelFile, int rnum, String measure) {
     System.err.println("Test Ranker: " + rnum);
 
     synchronized (DataPoint.class) {
@@ -218,6 +781,10 @@ public class EvaluatorTest {
           "-epoch", "10",
           "-save", modelFile.getPath()});
     }
+  }
+
+  private void testRanker(TmpFile dataFile, TmpFile modelFile, TmpFile rankFile, int rnum, String measure) {
+    train(dataFile, modelFile, rnum, measure);
 
     synchronized (DataPoint.class) {
       Evaluator.main(new String[]{
@@ -0,0 +1,211 @@
+package ciir.umass.edu.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.learning.RankerFactory;
+import ciir.umass.edu.learning.SparseDataPoint;
+import ciir.umass.edu.utilities.RankLibError;
+
+public class NormalizerTest {
+    private static final String[] LINES = { "2 qid:1 1:1.0 2:3.0 3:-2.0", "1 qid:1 1:2.0 2:5.0 3:-4.0", "0 qid:1 1:6.0 2:1.0 3:-6.0",
+            "0 qid:1 1:3.0 2:3.0 3:-8.0" };
+
+    private RankList dense() {
+        final List<DataPoint> dps = new ArrayList<>();
+        for (final String line : LINES) {
+            dps.add(new DenseDataPoint(line));
+        }
+        return new RankList(dps);
+    }
+
+    private RankList sparse() {
+        final List<DataPoint> dps = new ArrayList<>();
+        for (final String line : LINES) {
+            dps.add(new SparseDataPoint(line));
+        }
+        return new RankList(dps);
+    }
+
+    private RankList sparse(final String[] lines) {
+        final List<DataPoint> dps = new ArrayList<>();
+        for (final String line : lines) {
+            dps.add(new SparseDataPoint(line));
+        }
+        return new RankList(dps);
+    }
+
+    private float[][] column(final RankList rl) {
+        final float[][] x = new float[3][rl.size()];
+        for (int i = 0; i < rl.size(); i++) {
+            for (int f = 1; f <= 3; f++) {
+                x[f - 1][i] = rl.get(i).getFeatureValue(f);
+            }
+        }
+        return x;
+    }
+
+    @Test
+    public void testZScore() {
+        final RankList rl = dense();
+        new ZScoreNormalizor().normalize(rl);
+        for (final float[] x : column(rl)) {
+            double mean = 0;
+            for (final float v : x) {
+                mean += v;
+            }
+            mean /= x.length;
+            double var = 0;
+            for (final float v : x) {
+                var += (v - mean) * (v - mean);
+            }
+            assertEquals(0, mean, 1e-6);
+            assertEquals(1, var / (x.length - 1), 1e-6);
+        }
+    }
+
+    @Test
+    public void testSumAndLinear() {
+        final RankList rl = dense();
+        new SumNormalizor().normalize(rl, new int[] { 1, 3 });
+        final float[][] x = column(rl);
+        assertEquals(1.0 / 12, x[0][0], 1e-7);
+        assertEquals(-2.0 / 20, x[2][0], 1e-7);
+        assertEquals(3.0, x[1][0], 1e-7);//untouched
+
+        final RankList rl2 = dense();
+        new LinearNormalizer().normalize(rl2);
+        final float[][] y = column(rl2);
+        assertEquals(0.0, y[0][0], 1e-7);
+        assertEquals(1.0, y[0][2], 1e-7);
+        assertEquals(0.5, y[1][0], 1e-7);
+    }
+
+    @Test
+    public void testSparseMatchesDense() {
+        final List<RankList> d = new ArrayList<>();
+        final List<RankList> s = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            d.add(dense());
+            s.add(sparse());
+        }
+        final int[] fids = { 1, 2, 3 };
+        new ZScoreNormalizor().normalize(d, fids);
+        new ZScoreNormalizor().normalize(s, fids);
+        for (int i = 0; i < d.size(); i++) {
+            final float[][] x = column(d.get(i));
+            final float[][] y = column(s.get(i));
+            for (int f = 0; f < x.length; f++) {
+                for (int k = 0; k < x[f].length; k++) {
+                    assertEquals(x[f][k], y[f][k], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSparseAbsentEntries() {
+        //feature 2 is 0 in the first document and absent from the second one: both must normalize the same way or not at all
+        final String[] lines = { "1 qid:1 1:1.0 2:0 3:2.0", "0 qid:1 1:3.0 3:4.0", "0 qid:1 1:2.0 2:4.0 3:1.0", "0 qid:1 1:2.0 2:-2.0" };
+        RankList rl = sparse(lines);
+        new SumNormalizor().normalize(rl, new int[] { 2 });
+        assertEquals(0.0, rl.get(0).getFeatureValue(2), 0);
+        assertEquals(0.0, rl.get(1).getFeatureValue(2), 0);
+        assertEquals(4.0 / 6, rl.get(2).getFeatureValue(2), 1e-7);
+
+        rl = sparse(lines);
+        try {
+            new ZScoreNormalizor().normalize(rl, new int[] { 2 });
+            fail("z-score normalization of an absent sparse entry must fail");
+        } catch (final RankLibError ex) {
+            assertTrue(ex.getMessage().contains("not found"));
+        }
+        rl = sparse(lines);
+        try {
+            new LinearNormalizer().normalize(rl, new int[] { 2 });
+            fail("linear normalization of an absent sparse entry must fail");
+        } catch (final RankLibError ex) {
+            assertTrue(ex.getMessage().contains("not found"));
+        }
+    }
+
+    @Test
+    public void testFoldedThresholdsAreExact() {
+        //thresholds right at normalized training values: after folding, each raw value must still go the same way
+        final Random r = new Random(7);
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            lines.add("0 qid:1 1:" + (float) (r.nextGaussian() * 1000 + 12345.678) + " 2:" + r.nextFloat() / 3);
+        }
+        final RankList raw = new RankList(points(lines));
+        final RankerFactory rf = new RankerFactory();
+        for (final String method : new String[] { "zscore", "linear" }) {
+            final List<RankList> normalized = new ArrayList<>();
+            normalized.add(new RankList(points(lines)));
+            final GlobalNormalizer gn = new GlobalNormalizer(method);
+            gn.fit(normalized, new int[] { 1, 2 });
+            gn.normalize(normalized, new int[] { 1, 2 });
+            final RankList rl = normalized.get(0);
+            for (int i = 0; i < 100; i++) {
+                final int fid = 1 + i % 2;
+                final String tree = "<ensemble>\n<tree id=\"1\" weight=\"0.1\">\n<split>\n<feature> " + fid + " </feature>\n"
+                        + "<threshold> " + rl.get(i).getFeatureValue(fid) + " </threshold>\n<split pos=\"left\">\n<output> -1.0 </output>\n"
+                        + "</split>\n<split pos=\"right\">\n<output> 1.0 </output>\n</split>\n</split>\n</tree>\n</ensemble>\n";
+                final Ranker model = rf.loadRankerFromString("## LambdaMART\n" + tree);
+                final Ranker folded = rf.loadRankerFromString("## LambdaMART\n" + gn.toModelHeader() + tree);
+                for (int k = 0; k < rl.size(); k++) {
+                    assertEquals(method + ", split " + i + ", doc " + k, model.eval(rl.get(k)), folded.eval(raw.get(k)), 0);
+                }
+            }
+        }
+    }
+
+    private List<DataPoint> points(final List<String> lines) {
+        final List<DataPoint> dps = new ArrayList<>();
+        for (final String line : lines) {
+            dps.add(new DenseDataPoint(line));
+        }
+        return dps;
+    }
+
+    @Test
+    public void testGlobalFoldedModel() {
+        final List<RankList> raw = new ArrayList<>();
+        final List<RankList> normalized = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            raw.add(dense());
+            normalized.add(dense());
+        }
+        final int[] fids = { 1, 2, 3 };
+        final GlobalNormalizer gn = new GlobalNormalizer("zscore");
+        gn.fit(normalized, fids);
+        gn.normalize(normalized, fids);
+        assertEquals(3.0, gn.getShift(1), 1e-9);
+
+        final String linear = "0:0.5 1:0.3 2:-1.2 3:2.0";
+        final String trees = "<ensemble>\n<tree id=\"1\" weight=\"0.1\">\n<split>\n<feature> 2 </feature>\n<threshold> 0.4 </threshold>\n"
+                + "<split pos=\"left\">\n<output> -1.0 </output>\n</split>\n<split pos=\"right\">\n<output> 2.0 </output>\n</split>\n"
+                + "</split>\n</tree>\n</ensemble>\n";
+        final RankerFactory rf = new RankerFactory();
+        for (final String[] model : new String[][] { { "## Linear Regression\n", linear }, { "## LambdaMART\n", trees } }) {
+            final Ranker r = rf.loadRankerFromString(model[0] + model[1]);
+            final Ranker folded = rf.loadRankerFromString(model[0] + gn.toModelHeader() + model[1]);
+            for (int i = 0; i < raw.size(); i++) {
+                for (int k = 0; k < raw.get(i).size(); k++) {
+                    assertEquals(r.eval(normalized.get(i).get(k)), folded.eval(raw.get(i).get(k)), 1e-5);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ciir.umass.edu.learning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ciir.umass.edu.utilities.RankLibError;
+
+public class CheckpointerTest {
+
+    @Test
+    public void testRandomContinuesSequence() {
+        final Random random = new Random(31);
+        random.nextGaussian();//leaves the second gaussian of the pair for later
+        final Random restored = Checkpointer.toRandom(Checkpointer.toString(random));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(random.nextGaussian(), restored.nextGaussian(), 0);
+            assertEquals(random.nextInt(), restored.nextInt());
+        }
+    }
+
+    @Test
+    public void testOnlyRandomIsRead() throws IOException {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(); ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>());
+            out.flush();
+            final String state = Base64.getEncoder().encodeToString(bytes.toByteArray());
+            final RankLibError error = assertThrows(RankLibError.class, () -> Checkpointer.toRandom(state));
+            assertTrue(error.getCause() instanceof InvalidClassException);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ciir.umass.edu.learning;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ciir.umass.edu.metric.APScorer;
+import ciir.umass.edu.metric.ERRScorer;
+import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.metric.NDCGScorer;
+import ciir.umass.edu.metric.PrecisionScorer;
+import ciir.umass.edu.utilities.PrimitiveSorter;
+
+public class CoorAscentTest {
+    private static final int[] FEATURES = { 1, 2, 3 };
+
+    @Test
+    public void testLineSearchFindsBestStep() {
+        final Random r = new Random(19);
+        final MetricScorer[] scorers = { new NDCGScorer(3), new ERRScorer(5), new APScorer(), new PrecisionScorer(2) };
+        for (int trial = 0; trial < 20; trial++) {
+            final MetricScorer scorer = scorers[trial % scorers.length];
+            final List<RankList> samples = new ArrayList<>();
+            for (int q = 0; q < 5; q++) {
+                //the last query's labels are all the same: its score never changes
+                samples.add(rankList(r, trial + "-" + q, 3 + r.nextInt(8), (q == 4) ? 0 : 3));
+            }
+            final CoorAscent ranker = new CoorAscent(samples, FEATURES, scorer);
+            ranker.init();
+            ranker.queryStart = new int[samples.size() + 1];
+            for (int q = 0; q < samples.size(); q++) {
+                ranker.queryStart[q + 1] = ranker.queryStart[q] + samples.get(q).size();
+            }
+            final CoorAscent.Search search = ranker.new Search(0, false, false);
+            for (int j = 0; j < FEATURES.length; j++) {
+                search.weight[j] = r.nextDouble();
+            }
+            search.evaluate(-1, 0);
+
+            for (int f = 0; f < FEATURES.length; f++) {
+                final String where = "trial " + trial + ", " + scorer.name() + ", feature " + f;
+                final double current = score(samples, search.weight, f, 0, scorer);
+                final double t = search.lineSearch(f, search.weight[f]);
+
+                //brute force: evaluate between each pair of successive swaps of two documents of any query, and beyond the last ones
+                final List<Double> swaps = new ArrayList<>();
+                for (final RankList rl : samples) {
+                    for (int i = 0; i < rl.size(); i++) {
+                        for (int j = i + 1; j < rl.size(); j++) {
+                            final double xi = rl.get(i).getFeatureValue(FEATURES[f]);
+                            final double xj = rl.get(j).getFeatureValue(FEATURES[f]);
+                            if (xi != xj) {
+                                swaps.add((score(rl.get(j), search.weight) - score(rl.get(i), search.weight)) / (xi - xj));
+                            }
+                        }
+                    }
+                }
+                //documents tied on their score swap with each other at the same step, but each pair's t is rounded differently
+                swaps.sort(null);
+                final List<Double> steps = new ArrayList<>();
+                for (final double swap : swaps) {
+                    if (steps.isEmpty() || !search.sameStep(steps.get(steps.size() - 1), swap)) {
+                        steps.add(swap);
+                    }
+                }
+                final double[] ts = steps.stream().mapToDouble(Double::doubleValue).toArray();
+                double best = current;
+                if (ts.length > 0) {
+                    best = Math.max(best, score(samples, search.weight, f, ts[0] - 1, scorer));
+                    best = Math.max(best, score(samples, search.weight, f, ts[ts.length - 1] + 1, scorer));
+                }
+                for (int i = 0; i + 1 < ts.length; i++) {
+                    best = Math.max(best, score(samples, search.weight, f, (ts[i] + ts[i + 1]) / 2, scorer));
+                }
+
+                if (Double.isNaN(t)) {
+                    assertEquals(where, best, current, 1e-9);
+                } else {
+                    assertEquals(where, best, score(samples, search.weight, f, t, scorer), 1e-9);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The average metric over @samples with @w, the weight of feature @f changed by @t.
+     */
+    private static double score(final List<RankList> samples, final double[] w, final int f, final double t, final MetricScorer scorer) {
+        final double[] weight = w.clone();
+        weight[f] += t;
+        double total = 0;
+        for (final RankList rl : samples) {
+            final double[] s = new double[rl.size()];
+            for (int i = 0; i < rl.size(); i++) {
+                s[i] = score(rl.get(i), weight);
+            }
+            total += scorer.score(new RankList(rl, PrimitiveSorter.sort(s, false)));
+        }
+        return total / samples.size();
+    }
+
+    private static double score(final DataPoint p, final double[] weight) {
+        double s = 0;
+        for (int j = 0; j < FEATURES.length; j++) {
+            s += weight[j] * p.getFeatureValue(FEATURES[j]);
+        }
+        return s;
+    }
+
+    /**
+     * @return A query of @n documents with labels in [0, @nLabels] and feature values among a few, so that documents tie on a feature
+     * and several pairs swap places at the same step.
+     */
+    private static RankList rankList(final Random r, final String qid, final int n, final int nLabels) {
+        final List<DataPoint> points = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final StringBuilder line = new StringBuilder().append(r.nextInt(nLabels + 1)).append(" qid:").append(qid);
+            for (final int f : FEATURES) {
+                line.append(' ').append(f).append(':').append(r.nextInt(5) / 2.0);
+            }
+            points.add(new DenseDataPoint(line.toString()));
+        }
+        return new RankList(points);
+    }
+}
@@ -0,0 +1,99 @@
+package ciir.umass.edu.learning.boosting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.metric.APScorer;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.RankLibError;
+
+public class RankBoostTest {
+
+    @Test
+    public void testPairSumsMatchPairLoop() {
+        final Random r = new Random(3);
+        for (final int n : new int[] { 1, 2, 5, 12, 40 }) {
+            for (final int nLabels : new int[] { 1, 2, 5 }) {
+                //sorted by label like the training samples, with ties (and a single label: no crucial pairs at all)
+                final List<DataPoint> points = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    points.add(new DenseDataPoint(r.nextInt(nLabels) + " qid:1 1:0"));
+                }
+                final RankList rl = new RankList(points).getCorrectRanking();
+                final double[] f = new double[n];
+                for (int i = 0; i < n; i++) {
+                    f[i] = r.nextGaussian() * 3;
+                }
+
+                //the original loop over all pairs: <j, k> with a higher label for j weighs exp(F(k) - F(j))
+                final double[] expected = new double[n];
+                double expectedMass = 0;
+                for (int j = 0; j < n; j++) {
+                    for (int k = 0; k < n; k++) {
+                        if (rl.get(j).getLabel() > rl.get(k).getLabel()) {
+                            final double w = Math.exp(f[k] - f[j]);
+                            expected[j] += w;
+                            expected[k] -= w;
+                            expectedMass += w;
+                        }
+                    }
+                }
+
+                final double[] potential = new double[n];
+                final double mass = RankBoost.pairSums(rl, f, potential);
+                final String where = "n=" + n + " labels=" + nLabels;
+                assertEquals(where, expectedMass, mass, 1e-12 * Math.max(1, expectedMass));
+                for (int j = 0; j < n; j++) {
+                    assertEquals(where + " j=" + j, expected[j], potential[j], 1e-12 * Math.max(1, expectedMass));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testThresholdSearchErrorStopsTraining() {
+        MyThreadPool.init(4);
+        final Random r = new Random(7);
+        final List<RankList> samples = new ArrayList<>();
+        for (int q = 0; q < 4; q++) {
+            final List<DataPoint> points = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                points.add(new TestThreadOnly(r.nextInt(3) + " qid:" + q + " 1:" + r.nextFloat() + " 2:" + r.nextFloat()));
+            }
+            samples.add(new RankList(points));
+        }
+        final RankBoost ranker = new RankBoost(samples, new int[] { 1, 2 }, new APScorer());
+        ranker.init();
+        //the thresholds of both features are searched on the pool
+        final RankLibError ex = assertThrows(RankLibError.class, ranker::learn);
+        assertEquals("read on a pool thread", ex.getMessage());
+    }
+
+    /**
+     * A data point that can only be read on the thread that created it, so that any work done on the pool fails.
+     */
+    private static class TestThreadOnly extends DenseDataPoint {
+        private final Thread owner = Thread.currentThread();
+
+        TestThreadOnly(final String text) {
+            super(text);
+        }
+
+        @Override
+        public float getFeatureValue(final int fid) {
+            if (Thread.currentThread() != owner) {
+                throw RankLibError.create("read on a pool thread");
+            }
+            return super.getFeatureValue(fid);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ciir.umass.edu.learning.neuralnet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.metric.APScorer;
+import ciir.umass.edu.metric.NDCGScorer;
+import ciir.umass.edu.utilities.MyThreadPool;
+
+public class DenseRankNetTest {
+    private static final int[] FEATURES = { 1, 2, 3 };
+    private static final Random RANDOM = Synapse.random;
+    private static final int N_ITERATION = RankNet.nIteration;
+    private static final double LEARNING_RATE = RankNet.learningRate;
+    private static final int LIST_N_ITERATION = ListNet.nIteration;
+    private static final double LIST_LEARNING_RATE = ListNet.learningRate;
+
+    @After
+    public void resetOptions() {
+        DenseRankNet.batchSize = 0;
+        DenseRankNet.hogwild = false;
+        DenseRankNet.factorized = false;
+        Synapse.random = RANDOM;
+        RankNet.nIteration = N_ITERATION;
+        RankNet.learningRate = LEARNING_RATE;
+        ListNet.nIteration = LIST_N_ITERATION;
+        ListNet.learningRate = LIST_LEARNING_RATE;
+    }
+
+    @Test
+    public void testSameModelsAsObjectNets() {
+        final Random r = new Random(13);
+        final List<RankList> samples = new ArrayList<>();
+        for (int q = 0; q < 6; q++) {
+            samples.add(rankList(r, 8, 3));
+        }
+        RankNet.nIteration = 3;
+        RankNet.learningRate = 0.01;
+        ListNet.nIteration = 3;
+        ListNet.learningRate = 0.01;
+
+        assertSameModel(new RankNet(samples, FEATURES, new NDCGScorer(10)), new DenseRankNet(samples, FEATURES, new NDCGScorer(10)));
+        assertSameModel(new LambdaRank(samples, FEATURES, new NDCGScorer(10)),
+                new DenseLambdaRank(samples, FEATURES, new NDCGScorer(10)));
+        assertSameModel(new ListNet(samples, FEATURES, new NDCGScorer(10)), new DenseListNet(samples, FEATURES, new NDCGScorer(10)));
+    }
+
+    @Test
+    public void testBatchOfOneIsOnline() {
+        MyThreadPool.init(4);
+        final Random r = new Random(7);
+        final List<RankList> samples = new ArrayList<>();
+        for (int q = 0; q < 6; q++) {
+            samples.add(rankList(r, 8, 3));
+        }
+
+        for (final boolean factorized : new boolean[] { false, true }) {
+            DenseRankNet.factorized = factorized;
+            DenseRankNet.batchSize = 0;
+            DenseRankNet.hogwild = false;
+            final double[][] online = train(samples);
+            DenseRankNet.batchSize = 1;
+            DenseRankNet.hogwild = true;
+            final double[][] hogwild = train(samples);
+            DenseRankNet.hogwild = false;
+            final double[][] buffered = train(samples);
+            for (int l = 1; l < online.length; l++) {
+                assertArrayEquals("-hogwild, layer " + l, online[l], hogwild[l], 0);
+                if (factorized) {
+                    assertArrayEquals("-factorize, layer " + l, online[l], buffered[l], 0);
+                }
+            }
+            if (!factorized) {
+                //online RankNet updates the weights after each document, a batch only after the whole rank list
+                assertFalse(Arrays.deepEquals(online, buffered));
+            }
+        }
+    }
+
+    @Test
+    public void testFactorizedGradientIsPairSum() {
+        final Random r = new Random(5);
+        final RankList rl = rankList(r, 9, 3);
+        final DenseRankNet net = new DenseRankNet(Collections.singletonList(rl), FEATURES, new APScorer());
+        net.setUp(new int[] { 4, 3 });
+        net.learningRate = 1;
+        final PropParameter param = net.computePairs(rl);
+
+        final double[][] factorized = net.newBuffer();
+        net.backPropagateFactorized(net.feedForward(rl), param, factorized);
+        //into a buffer, the weights stay the same while the documents are back-propagated one at a time
+        final double[][] perDocument = net.newBuffer();
+        net.backPropagate(net.feedForward(rl), param, perDocument);
+
+        //back-propagate each pair <i, j> on its own and sum their weight changes
+        final double[][] perPair = net.newBuffer();
+        for (int i = 0; i < param.pairMap.length; i++) {
+            for (final int j : param.pairMap[i]) {
+                final int[][] pairMap = new int[rl.size()][0];
+                pairMap[i] = new int[] { j };
+                net.backPropagate(net.feedForward(rl), new PropParameter(-1, pairMap), perPair);
+            }
+        }
+
+        for (int l = 1; l < net.weight.length; l++) {
+            for (int k = 0; k < net.weight[l].length; k++) {
+                assertEquals("weight " + k + " of layer " + l, perPair[l][k], factorized[l][k], 1e-12);
+                assertEquals("weight " + k + " of layer " + l, perDocument[l][k], factorized[l][k], 1e-12);
+            }
+        }
+    }
+
+    /**
+     * Train both rankers from the same random sequence: they must save the same model.
+     */
+    private static void assertSameModel(final Ranker net, final Ranker dense) {
+        Synapse.random = new Random(17);
+        net.init();
+        net.learn();
+        Synapse.random = new Random(17);
+        dense.init();
+        dense.learn();
+        assertEquals(net.name(), net.model(), dense.model());
+    }
+
+    /**
+     * @return The weights after a few epochs from the same initial weights.
+     */
+    private static double[][] train(final List<RankList> samples) {
+        Synapse.random = new Random(11);
+        final DenseRankNet net = new DenseRankNet(samples, FEATURES, new APScorer());
+        net.init();
+        net.learningRate = 0.1;
+        for (int i = 0; i < 3; i++) {
+            net.learnEpoch();
+        }
+        return net.weight;
+    }
+
+    /**
+     * @return A list of @n documents with random values of {@link #FEATURES} and labels in [0, @nLabels), some of them tied.
+     */
+    private static RankList rankList(final Random r, final int n, final int nLabels) {
+        final List<DataPoint> points = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final StringBuilder line = new StringBuilder().append(r.nextInt(nLabels)).append(" qid:1");
+            for (final int f : FEATURES) {
+                line.append(' ').append(f).append(':').append(r.nextGaussian());
+            }
+            points.add(new DenseDataPoint(line.toString()));
+        }
+        return new RankList(points);
+    }
+}
@@ -0,0 +1,85 @@
+package ciir.umass.edu.learning.neuralnet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ciir.umass.edu.learning.Checkpointer;
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.metric.NDCGScorer;
+import ciir.umass.edu.utilities.TmpFile;
+
+public class RankNetTest {
+    private static final int[] FEATURES = { 1, 2, 3 };
+    private static final Random RANDOM = Synapse.random;
+    private static final int N_ITERATION = RankNet.nIteration;
+    private static final double LEARNING_RATE = RankNet.learningRate;
+    private static final int CHECKPOINT_INTERVAL = Checkpointer.interval;
+
+    @After
+    public void resetOptions() {
+        Synapse.random = RANDOM;
+        RankNet.nIteration = N_ITERATION;
+        RankNet.learningRate = LEARNING_RATE;
+        Checkpointer.checkpointFile = null;
+        Checkpointer.interval = CHECKPOINT_INTERVAL;
+        Checkpointer.resume = false;
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        final Random r = new Random(37);
+        final List<RankList> samples = new ArrayList<>();
+        for (int q = 0; q < 6; q++) {
+            final List<DataPoint> points = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final StringBuilder line = new StringBuilder().append(r.nextInt(3)).append(" qid:").append(q);
+                for (final int f : FEATURES) {
+                    line.append(' ').append(f).append(':').append(r.nextGaussian());
+                }
+                points.add(new DenseDataPoint(line.toString()));
+            }
+            samples.add(new RankList(points));
+        }
+        RankNet.learningRate = 0.01;
+
+        try (TmpFile checkpoint = new TmpFile()) {
+            RankNet.nIteration = 8;
+            final String model = train(samples, 41);
+
+            //stops after 4 of the 8 epochs, with a checkpoint every 3 epochs
+            assertTrue(checkpoint.get().delete());
+            Checkpointer.checkpointFile = checkpoint.getPath();
+            Checkpointer.interval = 3;
+            RankNet.nIteration = 4;
+            train(samples, 41);
+            assertTrue(checkpoint.get().exists());
+
+            //other initial weights: only those of the checkpoint lead to the same model
+            Checkpointer.resume = true;
+            RankNet.nIteration = 8;
+            assertEquals(model, train(samples, 43));
+        }
+    }
+
+    /**
+     * @return The model trained from the initial weights drawn from @seed, with the training data for validation.
+     */
+    private static String train(final List<RankList> samples, final long seed) {
+        Synapse.random = new Random(seed);
+        final RankNet net = new RankNet(samples, FEATURES, new NDCGScorer(5));
+        net.setValidationSet(samples);
+        net.init();
+        net.learn();
+        return net.model();
+    }
+}
@@ -0,0 +1,149 @@
+package ciir.umass.edu.learning.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.metric.NDCGScorer;
+
+public class LambdaMARTTest {
+    private static final float GOSS_TOP_RATE = LambdaMART.gossTopRate;
+    private static final float GOSS_OTHER_RATE = LambdaMART.gossOtherRate;
+    private static final int N_TREES = LambdaMART.nTrees;
+    private static final int N_TREE_LEAVES = LambdaMART.nTreeLeaves;
+
+    @After
+    public void resetOptions() {
+        LambdaMART.gossTopRate = GOSS_TOP_RATE;
+        LambdaMART.gossOtherRate = GOSS_OTHER_RATE;
+        LambdaMART.nTrees = N_TREES;
+        LambdaMART.nTreeLeaves = N_TREE_LEAVES;
+    }
+
+    @Test
+    public void testKeptOrderingsMatchSortingFromScratch() {
+        //few distinct feature values, so that many documents end up in the same leaves, tied on their scores
+        final Random r = new Random(53);
+        final List<RankList> samples = new ArrayList<>();
+        final List<RankList> validation = new ArrayList<>();
+        for (int q = 0; q < 20; q++) {
+            final List<DataPoint> points = new ArrayList<>();
+            for (int i = 0; i < 15; i++) {
+                final int label = r.nextInt(3);
+                points.add(new DenseDataPoint(label + " qid:" + q + " 1:" + (label + r.nextInt(3)) + " 2:" + r.nextInt(2)));
+            }
+            (q % 4 == 0 ? validation : samples).add(new RankList(points));
+        }
+        LambdaMART.nTrees = 20;
+        LambdaMART.nTreeLeaves = 4;
+
+        final LambdaMART kept = new LambdaMART(samples, new int[] { 1, 2 }, new NDCGScorer(5));
+        final LambdaMART fromScratch = new FromScratch(samples, new int[] { 1, 2 }, new NDCGScorer(5));
+        for (final LambdaMART ranker : Arrays.asList(kept, fromScratch)) {
+            ranker.setValidationSet(validation);
+            ranker.init();
+            ranker.learn();
+        }
+        assertEquals(fromScratch.model(), kept.model());
+    }
+
+    @Test
+    public void testGossScalesSampledDocuments() {
+        final Random r = new Random(43);
+        final List<RankList> samples = new ArrayList<>();
+        for (int q = 0; q < 5; q++) {
+            final List<DataPoint> points = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                points.add(new DenseDataPoint(r.nextInt(3) + " qid:" + q + " 1:" + r.nextGaussian()));
+            }
+            samples.add(new RankList(points));
+        }
+        final LambdaMART ranker = new LambdaMART(samples, new int[] { 1 }, new NDCGScorer(10));
+        ranker.initSamples();
+        final int n = ranker.martSamples.length;
+        for (int k = 0; k < n; k++) {
+            ranker.pseudoResponses[k] = r.nextGaussian();
+            ranker.weights[k] = 1 + r.nextDouble();
+        }
+        final double[] lambdas = ranker.pseudoResponses.clone();
+        final double[] weights = ranker.weights.clone();
+        ranker.random = new Random(47);
+
+        LambdaMART.gossTopRate = 0.2F;
+        LambdaMART.gossOtherRate = 0.1F;
+        final int[] idx = ranker.sampleForTree();
+        final double amplification = (1 - LambdaMART.gossTopRate) / LambdaMART.gossOtherRate;
+
+        final Integer[] byGradient = IntStream.range(0, n).boxed().toArray(Integer[]::new);
+        Arrays.sort(byGradient, Comparator.comparingDouble(k -> -Math.abs(lambdas[k])));
+        final int nTop = (int) (LambdaMART.gossTopRate * n);
+        int nOthers = 0;
+        for (int i = 0; i < n; i++) {
+            final int k = byGradient[i];
+            final boolean chosen = Arrays.binarySearch(idx, k) >= 0;
+            if (i < nTop) {
+                //the largest lambdas are all kept as they are
+                assertTrue(chosen);
+                assertEquals(1, ranker.sampleWeights[k], 0);
+                assertEquals(lambdas[k], ranker.pseudoResponses[k], 0);
+                assertEquals(weights[k], ranker.weights[k], 0);
+            } else if (chosen) {
+                nOthers++;
+                assertEquals(amplification, ranker.sampleWeights[k], 0);
+                assertEquals(lambdas[k] * amplification, ranker.pseudoResponses[k], 0);
+                assertEquals(weights[k] * amplification, ranker.weights[k], 0);
+            } else {
+                assertEquals(0, ranker.sampleWeights[k], 0);
+            }
+        }
+        assertEquals(nTop + nOthers, idx.length);
+        //kept with probability 0.1 / 0.8: 10 of the 80 others on average
+        assertTrue(nOthers > 0 && nOthers < 30);
+        for (int i = 1; i < idx.length; i++) {
+            assertTrue(idx[i - 1] < idx[i]);
+        }
+    }
+
+    /**
+     * Ranks each query from scratch whenever it is ranked, as before the orderings were kept from one round to the next.
+     */
+    private static class FromScratch extends LambdaMART {
+        FromScratch(final List<RankList> samples, final int[] features, final NDCGScorer scorer) {
+            super(samples, features, scorer);
+        }
+
+        @Override
+        protected void computePseudoResponses(final int start, final int end, final int current) {
+            for (int i = start; i <= end; i++) {
+                Arrays.setAll(orderings[i], k -> k);
+            }
+            super.computePseudoResponses(start, end, current);
+        }
+
+        @Override
+        protected RankList rank(final int rankListIndex, final int current) {
+            Arrays.setAll(orderings[rankListIndex], k -> k);
+            return super.rank(rankListIndex, current);
+        }
+
+        @Override
+        protected void computeModelScoreOnValidation(final int start, final int end) {
+            for (int i = start; i <= end; i++) {
+                Arrays.setAll(orderingsOnValidation[i], k -> k);
+            }
+            super.computeModelScoreOnValidation(start, end);
+        }
+    }
+}
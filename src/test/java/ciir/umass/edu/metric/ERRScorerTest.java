@@ -0,0 +1,94 @@
+package ciir.umass.edu.metric;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+
+public class ERRScorerTest {
+    private static final int[] SIZES = { 1, 2, 3, 10, 11, 40, 150 };
+    private static final int[] CUTOFFS = { 1, 5, 10, 200 };
+
+    @Test
+    public void testSwapChangeMatchesCubicReference() {
+        final Random r = new Random(11);
+        for (final int n : SIZES) {
+            for (final int k : CUTOFFS) {
+                final RankList rl = randomList(r, n);
+                final ERRScorer scorer = new ERRScorer(k);
+                final double[][] expected = referenceSwapChange(rl, k);
+                final double[][] actual = scorer.swapChange(rl);
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j < n; j++) {
+                        assertEquals("n=" + n + " k=" + k + " (" + i + "," + j + ")", expected[i][j], actual[i][j],
+                                1e-12 * Math.max(1, Math.abs(expected[i][j])));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSwapChangeIsSymmetric() {
+        final RankList rl = randomList(new Random(3), 30);
+        final double[][] changes = new ERRScorer(10).swapChange(rl);
+        for (int i = 0; i < changes.length; i++) {
+            for (int j = 0; j < changes.length; j++) {
+                assertEquals(changes[i][j], changes[j][i], 0);
+            }
+        }
+    }
+
+    private static RankList randomList(final Random r, final int n) {
+        final List<DataPoint> points = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            points.add(new DenseDataPoint(r.nextInt(5) + " qid:1 1:" + r.nextFloat()));
+        }
+        return new RankList(points);
+    }
+
+    /**
+     * The original implementation, with a loop over the documents between i and j for each pair.
+     */
+    private static double[][] referenceSwapChange(final RankList rl, final int k) {
+        final int size = (rl.size() > k) ? k : rl.size();
+        final int[] labels = new int[rl.size()];
+        final double[] R = new double[rl.size()];
+        final double[] np = new double[rl.size()];
+        double p = 1.0;
+        for (int i = 0; i < size; i++) {
+            labels[i] = (int) rl.get(i).getLabel();
+            R[i] = ((1 << labels[i]) - 1) / ERRScorer.MAX;
+            np[i] = p * (1.0 - R[i]);
+            p *= np[i];
+        }
+
+        final double[][] changes = new double[rl.size()][rl.size()];
+        for (int i = 0; i < size; i++) {
+            final double v1 = 1.0 / (i + 1) * (i == 0 ? 1 : np[i - 1]);
+            double change = 0;
+            for (int j = i + 1; j < rl.size(); j++) {
+                if (labels[i] == labels[j]) {
+                    change = 0;
+                } else {
+                    change = v1 * (R[j] - R[i]);
+                    p = (i == 0 ? 1 : np[i - 1]) * (R[i] - R[j]);
+                    for (int m = i + 1; m < j; m++) {
+                        change += p * R[m] / (1 + m);
+                        p *= 1.0 - R[m];
+                    }
+                    change += (np[j - 1] * (1.0 - R[j]) * R[i] / (1.0 - R[i]) - np[j - 1] * R[j]) / (j + 1);
+                }
+                changes[j][i] = changes[i][j] = change;
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,67 @@
+package ciir.umass.edu.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MyThreadPoolTest {
+
+    @Test
+    public void testAwaitRethrowsTaskError() {
+        MyThreadPool.init(4);
+        final MyThreadPool p = MyThreadPool.getInstance();
+        final RankLibError error = RankLibError.create("task 3");
+        final AtomicInteger done = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            final int task = i;
+            p.execute(() -> {
+                if (task == 3) {
+                    throw error;
+                }
+                done.incrementAndGet();
+            });
+        }
+        try {
+            p.await();
+            fail("the error of task 3 was lost");
+        } catch (final RankLibError ex) {
+            assertSame(error, ex);
+        }
+        //the other tasks ran to the end
+        assertEquals(7, done.get());
+
+        //reported once: the pool can be used again
+        p.execute(done::incrementAndGet);
+        p.await();
+        assertEquals(8, done.get());
+    }
+
+    @Test
+    public void testPartitionedTaskError() {
+        MyThreadPool.init(4);
+        try {
+            MyThreadPool.getInstance().execute(new Failing(), 10);
+            fail("the error of the workers was lost");
+        } catch (final RankLibError ex) {
+            assertEquals("range 0-2", ex.getMessage());
+        }
+    }
+
+    private static class Failing extends WorkerThread {
+        @Override
+        public void run() {
+            if (start == 0) {
+                throw RankLibError.create("range " + start + "-" + end);
+            }
+        }
+
+        @Override
+        public WorkerThread clone() {
+            return new Failing();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ciir.umass.edu.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PrimitiveSorterTest {
+    private static final int[] SIZES = { 1, 2, 7, 64, 65, 300, 5000 };
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, PrimitiveSorter.sort(new float[0], true).length);
+        assertEquals(0, PrimitiveSorter.sort(new double[0], false).length);
+        assertEquals(0, PrimitiveSorter.sort(new int[0], false).length);
+    }
+
+    @Test
+    public void testFloatMatchesMergeSorter() {
+        final Random r = new Random(42);
+        for (final int n : SIZES) {
+            final float[] x = new float[n];
+            for (int i = 0; i < n; i++) {
+                //plenty of ties, negative values and signed zeros
+                x[i] = (r.nextInt(21) - 10) / 4f;
+                if (x[i] == 0 && r.nextBoolean()) {
+                    x[i] = -0f;
+                }
+            }
+            assertArrayEquals(MergeSorter.sort(x, true), PrimitiveSorter.sort(x, true));
+            assertArrayEquals(MergeSorter.sort(x, false), PrimitiveSorter.sort(x, false));
+        }
+    }
+
+    @Test
+    public void testDoubleMatchesMergeSorter() {
+        final Random r = new Random(7);
+        for (final int n : SIZES) {
+            final double[] x = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = r.nextBoolean() ? r.nextGaussian() * 1e6 : r.nextInt(5) - 2;
+            }
+            assertArrayEquals(MergeSorter.sort(x, true), PrimitiveSorter.sort(x, true));
+            assertArrayEquals(MergeSorter.sort(x, false), PrimitiveSorter.sort(x, false));
+            if (n > 2) {
+                assertArrayEquals(MergeSorter.sort(x, 1, n - 2, false), PrimitiveSorter.sort(x, 1, n - 2, false));
+            }
+        }
+    }
+
+    @Test
+    public void testInt() {
+        final Random r = new Random(3);
+        for (final int n : SIZES) {
+            final int[] x = new int[n];
+            final double[] d = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = r.nextBoolean() ? r.nextInt() : r.nextInt(4);
+                d[i] = x[i];
+            }
+            assertArrayEquals(MergeSorter.sort(d, true), PrimitiveSorter.sort(x, true));
+            assertArrayEquals(MergeSorter.sort(d, false), PrimitiveSorter.sort(x, false));
+        }
+    }
+
+    @Test
+    public void testResort() {
+        final Random r = new Random(11);
+        for (final int n : SIZES) {
+            final double[] x = new double[n + 3];
+            for (int i = 0; i < x.length; i++) {
+                x[i] = r.nextInt(50);
+            }
+            final int[] idx = PrimitiveSorter.sort(x, 3, x.length - 1, false);
+            for (int i = 0; i < n; i++) {
+                idx[i] -= 3;
+            }
+            for (final double noise : new double[] { 0.0, 0.5, 100.0 }) {
+                //nearly sorted (small noise) and shuffled (large noise)
+                for (int i = 0; i < x.length; i++) {
+                    x[i] += (r.nextDouble() - 0.5) * noise;
+                }
+                PrimitiveSorter.resort(idx, x, 3, false);
+                final int[] expected = PrimitiveSorter.sort(x, 3, x.length - 1, false);
+                for (int i = 0; i < n; i++) {
+                    assertEquals(expected[i], idx[i] + 3);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResortNewTies() {
+        final Random r = new Random(13);
+        for (final int n : SIZES) {
+            final double[] x = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = r.nextDouble();
+            }
+            final int[] idx = PrimitiveSorter.sort(x, false);
+            //values that were apart become equal: like a fresh sort, ties go by index, not by their previous order
+            for (int i = 0; i < n; i++) {
+                x[i] = Math.floor(x[i] * 4);
+            }
+            PrimitiveSorter.resort(idx, x, 0, false);
+            final int[] expected = PrimitiveSorter.sort(x, false);
+            for (int i = 0; i < n; i++) {
+                assertEquals(expected[i], idx[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ciir.umass.edu.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void testSmallStreamIsExact() {
+        final QuantileSketch s = new QuantileSketch(200);
+        for (int i = 99; i >= 0; i--) {
+            s.update(i);
+        }
+        assertEquals(100, s.count());
+        assertArrayEquals(new float[] { 0, 25, 50, 75 }, s.quantiles(4), 0);
+    }
+
+    @Test
+    public void testRankError() {
+        //heavy-tailed values, like click counts
+        final Random r = new Random(5);
+        final int n = 200000;
+        final float[] x = new float[n];
+        final QuantileSketch s = new QuantileSketch(400);
+        for (int i = 0; i < n; i++) {
+            x[i] = (float) Math.floor(Math.exp(r.nextGaussian() * 2));
+            s.update(x[i]);
+        }
+        final float[] sorted = x.clone();
+        Arrays.sort(sorted);
+        assertEquals(sorted[0], s.min(), 0);
+        assertEquals(sorted[n - 1], s.max(), 0);
+
+        final int nq = 64;
+        final float[] q = s.quantiles(nq);
+        for (int j = 1; j < nq; j++) {
+            //the true rank range of q[j] must come close to j/nq
+            final int lo = lowerBound(sorted, q[j]);
+            final int hi = lowerBound(sorted, Math.nextUp(q[j]));
+            final double target = (double) j * n / nq;
+            final double error = (target < lo) ? lo - target : ((target > hi) ? target - hi : 0);
+            assertTrue("quantile " + j + " off by " + error, error < 0.01 * n);
+        }
+    }
+
+    @Test
+    public void testWeightedUpdate() {
+        final QuantileSketch s = new QuantileSketch(100);
+        for (int i = 1; i <= 1000; i++) {
+            s.update(i);
+        }
+        s.update(0F, 3000);
+        assertEquals(4000, s.count());
+        assertEquals(0F, s.min(), 0);
+        final float[] q = s.quantiles(4);
+        assertEquals(0F, q[1], 0);
+        assertEquals(0F, q[2], 0);
+        assertTrue(Math.abs(q[3] - 1) < 50);
+    }
+
+    @Test
+    public void testSplitPointsWithDominantValue() {
+        //90% zeros: 0 gets a group of its own, the other groups are spread over the remaining values
+        final QuantileSketch s = new QuantileSketch(200);
+        for (int i = 0; i < 9000; i++) {
+            s.update(0F);
+        }
+        for (int i = 1; i <= 1000; i++) {
+            s.update(i);
+        }
+        final float[] p = s.splitPoints(10);
+        assertEquals(0F, p[0], 0);
+        assertTrue(p.length >= 9 && p.length <= 11);
+        for (int j = 1; j < p.length; j++) {
+            assertTrue(p[j] > p[j - 1]);
+        }
+        assertTrue(Math.abs(p[1] - 111) < 30);
+    }
+
+    private static int lowerBound(final float[] a, final float v) {
+        int lo = 0;
+        int hi = a.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (a[mid] < v) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}